@@ -0,0 +1,64 @@
+package cn.lyp.client;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.protocol.StreamFormat;
+import cn.lyp.server.SseWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client cost of reading a 1,000-token answer in each {@link StreamFormat}. Every token is its
+ * own event, as with {@code --sse-flush-ms 0}, so framing overhead is at its worst. The bytes on
+ * the wire are printed once per format.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatStreamBenchmark {
+    private static final String[] WORDS = {"the", " answer", " is", " 42", ".", "\n", " 你好", " naïve", " \"quoted\"", " tool"};
+
+    @Param({"SSE", "NDJSON", "FRAMES"})
+    public StreamFormat format;
+
+    @Param({"1000"})
+    public int tokens;
+
+    private byte[] wire;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SseWriter writer = new SseWriter(out, RunContext.none(), null, 0, 0, 0, format);
+        for (int i = 0; i < tokens; i++) {
+            writer.token(WORDS[random.nextInt(WORDS.length)]);
+        }
+        writer.send("done", "[DONE]");
+        wire = out.toByteArray();
+        System.out.printf("%n%s: %d bytes on the wire for %d tokens%n", format, wire.length, tokens);
+    }
+
+    @Benchmark
+    public int parse() throws Exception {
+        StringBuilder full = new StringBuilder();
+        ChatStreamParser.parse(format, new ByteArrayInputStream(wire), null, full);
+        return full.length();
+    }
+}
@@ -0,0 +1,97 @@
+package cn.lyp.journal;
+
+import cn.lyp.agent.HistoryLog;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.metrics.MetricsRegistry;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Writes many sessions through the journal with a commit per turn, then measures how long a restart
+ * takes to index them and to lazily rebuild a sample compared with rebuilding all of them.
+ *
+ * <p>Usage: {@code SessionJournalBench [sessions] [turnsPerSession] [writers] [messageBytes] [dir]}
+ */
+public final class SessionJournalBench {
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int turns = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int writers = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int messageBytes = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        Path dir = args.length > 4 ? Path.of(args[4]) : Files.createTempDirectory("journal-bench");
+        try {
+            run(dir, sessions, turns, writers, messageBytes);
+        } finally {
+            if (args.length <= 4) {
+                delete(dir);
+            }
+        }
+    }
+
+    private static void run(Path dir, int sessions, int turns, int writers, int messageBytes) throws Exception {
+        String text = "x".repeat(messageBytes);
+        MetricsRegistry metrics = new MetricsRegistry();
+        AtomicInteger next = new AtomicInteger();
+        long started = System.nanoTime();
+        try (SessionJournal journal = SessionJournal.open(dir, 64 * 1024 * 1024, 0, metrics);
+             ExecutorService pool = Executors.newFixedThreadPool(writers)) {
+            for (int w = 0; w < writers; w++) {
+                pool.submit(() -> {
+                    for (int s = next.getAndIncrement(); s < sessions; s = next.getAndIncrement()) {
+                        HistoryLog log = journal.log("bench-" + s);
+                        for (int t = 0; t < turns; t++) {
+                            log.appended(ChatMessage.user(text));
+                            log.appended(ChatMessage.assistant(text));
+                            log.commit();
+                        }
+                    }
+                    return null;
+                });
+            }
+        }
+        long writeNanos = System.nanoTime() - started;
+        long records = (long) sessions * turns * 2;
+        long commits = (long) sessions * turns;
+        System.out.printf("append: sessions=%d records=%d writers=%d elapsed=%dms records/s=%.0f commits/s=%.0f%n",
+                sessions, records, writers, TimeUnit.NANOSECONDS.toMillis(writeNanos),
+                records / (writeNanos / 1e9), commits / (writeNanos / 1e9));
+        metrics.scrape().lines()
+                .filter(line -> line.startsWith("agent_journal_sync_seconds") || line.startsWith("agent_journal_sync_bytes"))
+                .forEach(line -> System.out.println("  " + line));
+
+        started = System.nanoTime();
+        try (SessionJournal journal = SessionJournal.open(dir, 64 * 1024 * 1024, 0, MetricsRegistry.disabled())) {
+            long openNanos = System.nanoTime() - started;
+            int sample = Math.min(1000, sessions);
+            long lazyStarted = System.nanoTime();
+            for (int s = 0; s < sample; s++) {
+                journal.load("bench-" + (s * (sessions / sample)));
+            }
+            long lazyNanos = System.nanoTime() - lazyStarted;
+            long eagerStarted = System.nanoTime();
+            for (int s = 0; s < sessions; s++) {
+                journal.load("bench-" + s);
+            }
+            long eagerNanos = System.nanoTime() - eagerStarted;
+            System.out.printf("restart: sessions=%d index=%dms firstAccess=%.1fus/session eagerRebuild=%dms%n",
+                    journal.sessions(), TimeUnit.NANOSECONDS.toMillis(openNanos),
+                    lazyNanos / 1e3 / sample, TimeUnit.NANOSECONDS.toMillis(eagerNanos));
+        }
+    }
+
+    private static void delete(Path dir) throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package cn.lyp.server;
+
+import cn.lyp.agent.Agent;
+import cn.lyp.agent.ToolRegistry;
+import cn.lyp.config.SessionStoreConfig;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.llm.ChatOptions;
+import cn.lyp.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a session store with idle sessions of one typical tool-using turn each, compacting as it
+ * goes, and compares the store's live and compacted estimates with the heap actually measured.
+ *
+ * <p>Usage: {@code SessionFootprintBench [sessions]}
+ */
+public final class SessionFootprintBench {
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system prompt ".repeat(200)),
+                null, new SessionStoreConfig(0, 1, 0), MetricsRegistry.disabled());
+        long heapBefore = usedHeap();
+        long liveBytes = 0;
+        for (int i = 0; i < count; i++) {
+            try (SessionManager.Lease lease = sessions.acquire("session-" + i)) {
+                lease.agent().restore(conversation(i));
+            }
+            if (i % 5000 == 4999) {
+                liveBytes += sessions.liveBytes();
+                sessions.sweep(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        sessions.sweep(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+        long heapPerSession = (usedHeap() - heapBefore) / count;
+        System.out.printf("%d idle sessions: live estimate %d B/session, compacted estimate %d B/session, "
+                        + "measured heap %d B/session%n",
+                count, liveBytes / count, sessions.bytesPerSession(), heapPerSession);
+    }
+
+    private static List<ChatMessage> conversation(int i) {
+        StringBuilder listing = new StringBuilder("TOOL_RESULT name=shell\nOK\n");
+        for (int line = 0; line < 30; line++) {
+            listing.append("-rw-r--r--  1 agent  staff  ").append(1000 + (i * 31 + line * 7) % 9000)
+                    .append(" Oct 18 12:").append(10 + line).append(" report-").append(i).append('-').append(line)
+                    .append(".txt\n");
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(ChatMessage.user("Which report files in my workspace changed today? Session " + i));
+        messages.add(ChatMessage.assistant("{\"type\":\"tool\",\"tool\":\"shell\",\"args\":{\"command\":\"ls -l reports\"}}"));
+        messages.add(ChatMessage.user(listing.toString()));
+        messages.add(ChatMessage.assistant("Thirty report files changed today, all between 12:10 and 12:39. "
+                + "The largest is report-" + i + "-3.txt. Let me know if you want a summary of any of them."));
+        return messages;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,118 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SseWriterBenchmark {
+    private static final String[] WORDS = {"the", " answer", " is", " 42", ".", "\n", " 你好", " naïve", " 😀", " tool"};
+
+    @Param({"1000"})
+    public int tokens;
+
+    private String[] stream;
+    private FlushCountingSink sink;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        stream = new String[tokens];
+        for (int i = 0; i < tokens; i++) {
+            stream[i] = WORDS[random.nextInt(WORDS.length)];
+        }
+        sink = new FlushCountingSink();
+    }
+
+    @Benchmark
+    public long legacyWriteSseEvent() throws IOException {
+        for (String token : stream) {
+            legacyWrite(sink, "token", token);
+        }
+        legacyWrite(sink, "done", "[DONE]");
+        return sink.drain();
+    }
+
+    @Benchmark
+    public long writerFlushPerToken() {
+        SseWriter writer = new SseWriter(sink, RunContext.none(), null, 0, 0, 0);
+        for (String token : stream) {
+            writer.token(token);
+        }
+        writer.send("done", "[DONE]");
+        return sink.drain();
+    }
+
+    @Benchmark
+    public long writerBatched4k() {
+        SseWriter writer = new SseWriter(sink, RunContext.none(), null, 0, 4096, 0);
+        for (String token : stream) {
+            writer.token(token);
+        }
+        writer.send("done", "[DONE]");
+        return sink.drain();
+    }
+
+    private static void legacyWrite(OutputStream out, String event, String data) throws IOException {
+        if (event != null && !event.isBlank()) {
+            out.write(("event: " + event + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        String[] lines = data.split("\\r?\\n", -1);
+        for (String line : lines) {
+            out.write(("data: " + line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.write("\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static final class FlushCountingSink extends OutputStream {
+        private long bytes;
+        private long writes;
+        private long flushes;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            writes++;
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+
+        long drain() {
+            long result = bytes + writes + flushes;
+            bytes = 0;
+            writes = 0;
+            flushes = 0;
+            return result;
+        }
+    }
+}
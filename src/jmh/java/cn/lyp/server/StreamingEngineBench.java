@@ -0,0 +1,159 @@
+package cn.lyp.server;
+
+import cn.lyp.config.AppConfig;
+import cn.lyp.llm.ChatClient;
+import cn.lyp.protocol.Protocol;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens many concurrent SSE streams against each HTTP engine and reports how many stayed open
+ * and the p99 delay between a token being produced and the client reading it.
+ *
+ * <p>Usage: {@code StreamingEngineBench [streams] [tokensPerStream] [tokenIntervalMs] [engines]}
+ */
+public final class StreamingEngineBench {
+
+    public static void main(String[] args) throws Exception {
+        int streams = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int tokens = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        long intervalMs = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        String[] engines = (args.length > 3 ? args[3] : "jdk,nio").split(",");
+        for (String engine : engines) {
+            run(engine.trim(), streams, tokens, intervalMs);
+        }
+    }
+
+    private static void run(String engine, int streams, int tokens, long intervalMs) throws Exception {
+        Path config = Files.createTempFile("bench", ".properties");
+        AppConfig appConfig = AppConfig.fromArgs(new String[]{
+                "--config", config.toString(),
+                "--mode", "server",
+                "--api-key", "bench",
+                "--model", "bench",
+                "--server-host", "127.0.0.1",
+                "--server-port", "0",
+                "--server-engine", engine,
+                "--max-connections", Integer.toString(streams * 2),
+                "--max-concurrent-runs", Integer.toString(streams),
+                "--max-queued-runs", Integer.toString(streams),
+                "--server-backlog", Integer.toString(streams)
+        });
+        AgentServer server = new AgentServer(appConfig, timestampingModel(tokens, intervalMs));
+        server.start();
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI uri = URI.create("http://127.0.0.1:" + server.engine().port() + "/chat?stream=true");
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger peakOpen = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        List<long[]> samples = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(streams);
+        long started = System.nanoTime();
+        try (ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < streams; i++) {
+                long[] latencies = new long[tokens];
+                samples.add(latencies);
+                String sessionId = "bench-" + i;
+                readers.submit(() -> {
+                    try {
+                        HttpRequest request = HttpRequest.newBuilder(uri)
+                                .POST(HttpRequest.BodyPublishers.ofString("go"))
+                                .header("Accept", "text/event-stream")
+                                .header(Protocol.SESSION_HEADER, sessionId)
+                                .build();
+                        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                        peakOpen.accumulateAndGet(open.incrementAndGet(), Math::max);
+                        if (read(response.body(), latencies) == tokens) {
+                            completed.incrementAndGet();
+                        }
+                    } catch (Exception ignored) {
+                        // Counted as an incomplete stream.
+                    } finally {
+                        open.decrementAndGet();
+                        done.countDown();
+                    }
+                    return null;
+                });
+            }
+            done.await(10, TimeUnit.MINUTES);
+        } finally {
+            server.stop();
+            Files.deleteIfExists(config);
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).filter(value -> value > 0).sorted().toArray();
+        System.out.printf("engine=%s streams=%d completed=%d peakOpen=%d samples=%d p50=%.2fms p99=%.2fms elapsed=%dms%n",
+                engine, streams, completed.get(), peakOpen.get(), all.length,
+                percentileMs(all, 0.50), percentileMs(all, 0.99), elapsedMs);
+    }
+
+    private static ChatClient timestampingModel(int tokens, long intervalMs) {
+        return (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"bench\"}";
+            }
+            StringBuilder full = new StringBuilder();
+            for (int i = 0; i < tokens; i++) {
+                String token = "|" + System.nanoTime();
+                full.append(token);
+                onToken.accept(token);
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return full.toString();
+        };
+    }
+
+    private static int read(InputStream body, long[] latencies) throws Exception {
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            String line;
+            boolean tokenEvent = false;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("event:")) {
+                    tokenEvent = line.substring(6).trim().equals("token");
+                } else if (tokenEvent && line.startsWith("data:")) {
+                    long now = System.nanoTime();
+                    for (String stamp : line.substring(5).trim().split("\\|")) {
+                        if (!stamp.isEmpty() && count < latencies.length) {
+                            latencies[count++] = Math.max(1, now - Long.parseLong(stamp));
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    private StreamingEngineBench() {
+    }
+}
@@ -3,10 +3,13 @@ package cn.lyp;
 import cn.lyp.client.TerminalClient;
 import cn.lyp.config.AppConfig;
 import cn.lyp.config.LogSetup;
+import cn.lyp.router.RouterServer;
 import cn.lyp.server.AgentServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+
 public class Main {
     public static void main(String[] args) throws Exception {
         LogSetup.ensureLogDir();
@@ -15,8 +18,16 @@ public class Main {
         config.validate();
         Logger logger = LoggerFactory.getLogger(Main.class);
         logger.info("Starting agent-chatbox in {} mode", config.mode());
-        if (config.isServer()) {
-            new AgentServer(config).start();
+        if (config.isRouter()) {
+            RouterServer router = new RouterServer(config);
+            router.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(router::stop, "router-stop"));
+            logger.info("Router running. Press Ctrl+C to stop.");
+        } else if (config.isServer()) {
+            AgentServer server = new AgentServer(config);
+            server.start();
+            Duration drainTimeout = Duration.ofMillis(config.server().drainTimeoutMs());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.drain(drainTimeout), "agent-drain"));
             logger.info("Server running. Press Ctrl+C to stop.");
         } else {
             new TerminalClient(config).run();
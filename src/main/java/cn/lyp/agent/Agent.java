@@ -3,11 +3,17 @@ package cn.lyp.agent;
 import cn.lyp.llm.ChatClient;
 import cn.lyp.llm.ChatMessage;
 import cn.lyp.llm.ChatOptions;
+import cn.lyp.llm.RunContext;
+import cn.lyp.llm.StepGate;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 public class Agent {
@@ -17,9 +23,20 @@ public class Agent {
     private final ToolRegistry toolRegistry;
     private final int maxSteps;
     private final String systemPrompt;
-    private final List<ChatMessage> history = new ArrayList<>();
+    private final Histogram stepsPerRequest;
+    private final StepTimeline timeline;
+    private History history = History.EMPTY;
+    private HistoryLog historyLog = HistoryLog.NONE;
 
     public Agent(ChatClient chatClient, ChatOptions baseOptions, ToolRegistry toolRegistry, int maxSteps, String systemPrompt) {
+        this(chatClient, baseOptions, toolRegistry, maxSteps, systemPrompt, MetricsRegistry.disabled());
+    }
+
+    public Agent(ChatClient chatClient, ChatOptions baseOptions, ToolRegistry toolRegistry, int maxSteps,
+                 String systemPrompt, MetricsRegistry metrics) {
+        this.stepsPerRequest = metrics.histogram("agent_steps_per_request",
+                "Model calls made by the agent loop for one user request.", 1);
+        this.timeline = new StepTimeline(metrics);
         this.chatClient = chatClient;
         this.baseOptions = baseOptions;
         this.toolRegistry = toolRegistry;
@@ -28,6 +45,26 @@ public class Agent {
         reset();
     }
 
+    private Agent(Agent source) {
+        this.chatClient = source.chatClient;
+        this.baseOptions = source.baseOptions;
+        this.toolRegistry = source.toolRegistry;
+        this.maxSteps = source.maxSteps;
+        this.systemPrompt = source.systemPrompt;
+        this.stepsPerRequest = source.stepsPerRequest;
+        this.timeline = source.timeline;
+        this.history = source.history;
+    }
+
+    /**
+     * Returns an agent that continues from this one's current history. The history is shared, not
+     * copied, so this is O(1); later turns on either agent are invisible to the other. The branch
+     * starts without a {@link HistoryLog}.
+     */
+    public Agent fork() {
+        return new Agent(this);
+    }
+
     public void setOptions(ChatOptions options) {
         this.baseOptions = options;
     }
@@ -36,9 +73,34 @@ public class Agent {
         return baseOptions;
     }
 
+    public void setHistoryLog(HistoryLog historyLog) {
+        this.historyLog = historyLog;
+    }
+
     public void reset() {
-        history.clear();
-        history.add(ChatMessage.system(systemPrompt));
+        history = History.EMPTY.append(ChatMessage.system(systemPrompt));
+        historyLog.truncated(0);
+    }
+
+    /**
+     * The current history, system prompt included. O(1); the history is immutable.
+     */
+    public History history() {
+        return history;
+    }
+
+    /**
+     * The history after the system prompt, in the form {@link #restore} accepts.
+     */
+    public List<ChatMessage> messages() {
+        return history.toList(1);
+    }
+
+    /**
+     * Replaces the history with messages saved by a {@link HistoryLog}, keeping the current system prompt.
+     */
+    public void restore(List<ChatMessage> messages) {
+        history = History.EMPTY.append(ChatMessage.system(systemPrompt)).appendAll(messages);
     }
 
     public String handle(String input, Consumer<String> onToken) throws Exception {
@@ -46,80 +108,106 @@ public class Agent {
     }
 
     public String handle(String input, Consumer<String> onToken, boolean streamResponse) throws Exception {
-        history.add(ChatMessage.user(input));
-        for (int step = 0; step < maxSteps; step++) {
-            String response = chatClient.chat(history, baseOptions.withStream(false), null);
-            logger.info("received chat response: " + response);
-            ToolCall call = ToolCallParser.tryParse(response);
-            if (call == null) {
-                return finalizeResponse(response, onToken, streamResponse);
-            }
-            if (call.isFinal()) {
-                return finalizeResponse(call.content(), onToken, streamResponse);
-            }
-
-            history.add(ChatMessage.assistant(response));
-            logger.info("Tool call requested: {} argsKeys={}", call.tool(), call.args().keySet());
-            ToolResult result = toolRegistry.execute(call);
-            logger.info("Tool result: {} success={} outputLength={}", call.tool(), result.success(),
-                    result.output() == null ? 0 : result.output().length());
-            String toolResult = formatToolResult(call, result);
-            history.add(ChatMessage.user(toolResult));
-        }
-        String message = "Tool steps exceeded. Please refine the request.";
-        logger.warn("Max tool steps exceeded.");
-        history.add(ChatMessage.assistant(message));
-        return message;
+        return handle(input, onToken, streamResponse, RunContext.none());
     }
 
-    private String finalizeResponse(String content, Consumer<String> onToken, boolean streamResponse) throws Exception {
-        if (streamResponse && onToken != null) {
-            String streamed = streamFinalResponse(onToken);
-            history.add(ChatMessage.assistant(streamed));
-            return streamed;
-        }
-        history.add(ChatMessage.assistant(content));
-        if (onToken != null) {
-            onToken.accept(content);
+    public String handle(String input, Consumer<String> onToken, boolean streamResponse, RunContext context)
+            throws Exception {
+        History mark = history;
+        try {
+            String response = run(input, onToken, streamResponse, context);
+            historyLog.commit();
+            return response;
+        } catch (CancellationException e) {
+            int rolledBack = history.size() - mark.size();
+            history = mark;
+            historyLog.truncated(mark.size() - 1);
+            logger.info("Agent run cancelled. Rolled back {} history entries.", rolledBack);
+            throw e;
         }
-        return content;
     }
 
-    private String streamFinalResponse(Consumer<String> onToken) throws Exception {
-        logger.info("Streaming final response requires an extra model call.");
-        ChatOptions streamOptions = baseOptions.withStream(true);
-        java.util.List<ChatMessage> replay = buildStreamingHistory();
-        return chatClient.chat(replay, streamOptions, onToken);
-    }
+    /**
+     * Every model call is streamed, whether or not the caller wants tokens, so that a
+     * {@linkplain Tool#readOnly() read-only} tool can be dispatched as soon as the {@code tool_call}
+     * object closes rather than when the response ends. Text after the object still makes the
+     * response a plain answer; an early run is then waited for and its result dropped.
+     */
+    private String run(String input, Consumer<String> onToken, boolean streamResponse, RunContext context)
+            throws Exception {
+        append(ChatMessage.user(input));
+        boolean stream = streamResponse && onToken != null;
+        for (int step = 0; step < maxSteps; step++) {
+            try (StepGate.Permit permit = context.enterStep()) {
+                long started = System.nanoTime();
+                AtomicReference<ToolRun> early = new AtomicReference<>();
+                ResponseScanner scanner = new ResponseScanner(stream ? onToken : null, object -> {
+                    ToolCall parsed = ToolCallParser.tryParse(object);
+                    if (parsed != null && parsed.isToolCall() && toolRegistry.readOnly(parsed.tool())) {
+                        ToolRun run = new ToolRun(parsed, object, context);
+                        early.set(run);
+                        Thread.ofVirtual().name("agent-tool-" + parsed.tool()).start(run);
+                    }
+                });
+                String response;
+                try {
+                    response = chatClient.chat(history, baseOptions.withStream(true), scanner, context);
+                } catch (Exception e) {
+                    ToolRun orphan = early.get();
+                    if (orphan != null) {
+                        orphan.done.await();
+                    }
+                    throw e;
+                }
+                long responded = System.nanoTime();
+                logger.debug("received chat response: {}", response);
+                ToolRun run = early.get();
+                if (run != null && !response.strip().equals(run.object)) {
+                    run.done.await();
+                    logger.info("Dropping early tool run: the response went on after the call. tool={}",
+                            run.call.tool());
+                    run = null;
+                }
+                ToolCall call = run != null ? run.call : ToolCallParser.tryParse(response);
+                if (call == null) {
+                    // A final answer followed by stray text was already streamed as the answer.
+                    ToolCall streamed = ToolCallParser.tryParse(scanner.object());
+                    call = streamed != null && streamed.isFinal() ? streamed : null;
+                }
+                if (call == null || call.isFinal()) {
+                    timeline.answered(started, responded);
+                    stepsPerRequest.record(step + 1);
+                    String content = call == null ? response : call.content();
+                    append(ChatMessage.assistant(content));
+                    if (stream) {
+                        scanner.finish(content);
+                    } else if (onToken != null) {
+                        onToken.accept(content);
+                    }
+                    return content;
+                }
 
-    private java.util.List<ChatMessage> buildStreamingHistory() {
-        java.util.List<ChatMessage> replay = new java.util.ArrayList<>();
-        replay.add(ChatMessage.system(
-                "You are a helpful assistant. Respond with the final answer only. " +
-                        "Do not output JSON or tool-call markers."
-        ));
-        for (ChatMessage message : history) {
-            if (message == null) {
-                continue;
-            }
-            String role = message.role();
-            if (role == null) {
-                continue;
-            }
-            if ("user".equalsIgnoreCase(role)) {
-                replay.add(message);
-                continue;
-            }
-            if ("assistant".equalsIgnoreCase(role)) {
-                ToolCall parsed = ToolCallParser.tryParse(message.content());
-                if (parsed != null) {
-                    continue;
+                append(ChatMessage.assistant(response));
+                if (run == null) {
+                    run = new ToolRun(call, response, context);
+                    run.run();
                 }
-                replay.add(message);
+                ToolResult result = run.await();
+                timeline.toolStep(started, responded, run.dispatched, run.finished);
+                String toolResult = formatToolResult(call, result);
+                append(ChatMessage.user(toolResult));
             }
         }
-        replay.add(ChatMessage.user("Provide the final answer now. Plain text only."));
-        return replay;
+        stepsPerRequest.record(maxSteps);
+        String message = "Tool steps exceeded. Please refine the request.";
+        logger.warn("Max tool steps exceeded.");
+        append(ChatMessage.assistant(message));
+        return message;
+    }
+
+    private void append(ChatMessage message) {
+        history = history.append(message);
+        historyLog.appended(message);
     }
 
     private String formatToolResult(ToolCall call, ToolResult result) {
@@ -129,4 +217,55 @@ public class Agent {
         out.append(result.output());
         return out.toString();
     }
+
+    /**
+     * One tool execution, run either on its own virtual thread while the model response is still
+     * streaming or inline once it has ended.
+     */
+    private final class ToolRun implements Runnable {
+        private final ToolCall call;
+        private final String object;
+        private final RunContext context;
+        private final long dispatched = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long finished;
+        private volatile ToolResult result;
+        private volatile Throwable failure;
+
+        private ToolRun(ToolCall call, String object, RunContext context) {
+            this.call = call;
+            this.object = object;
+            this.context = context;
+        }
+
+        @Override
+        public void run() {
+            try {
+                logger.debug("Tool call requested: {} argsKeys={}", call.tool(), call.args().keySet());
+                context.throwIfCancelled();
+                long toolStart = System.nanoTime();
+                context.listener().toolStarted(call.tool());
+                result = toolRegistry.execute(call, context);
+                context.listener().toolFinished(call.tool(), result.success(), System.nanoTime() - toolStart);
+                logger.debug("Tool result: {} success={} outputLength={}", call.tool(), result.success(),
+                        result.output() == null ? 0 : result.output().length());
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            } finally {
+                finished = System.nanoTime();
+                done.countDown();
+            }
+        }
+
+        private ToolResult await() throws InterruptedException {
+            done.await();
+            if (failure instanceof RuntimeException e) {
+                throw e;
+            }
+            if (failure instanceof Error e) {
+                throw e;
+            }
+            return result;
+        }
+    }
 }
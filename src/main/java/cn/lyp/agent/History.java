@@ -0,0 +1,99 @@
+package cn.lyp.agent;
+
+import cn.lyp.llm.ChatMessage;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An immutable conversation history kept as a backward-linked list. Appending returns a new
+ * history that points at the old one, so taking a snapshot or starting a branch is O(1) and
+ * branches share their common prefix. Reading the last message is O(1); iterating is O(n).
+ */
+public final class History extends AbstractList<ChatMessage> {
+    public static final History EMPTY = new History(null, null, 0);
+    private final ChatMessage last;
+    private final History previous;
+    private final int size;
+
+    private History(ChatMessage last, History previous, int size) {
+        this.last = last;
+        this.previous = previous;
+        this.size = size;
+    }
+
+    public History append(ChatMessage message) {
+        return new History(Objects.requireNonNull(message), this, size + 1);
+    }
+
+    public History appendAll(List<ChatMessage> messages) {
+        History result = this;
+        for (ChatMessage message : messages) {
+            result = result.append(message);
+        }
+        return result;
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        Objects.checkIndex(index, size);
+        History node = this;
+        for (int i = size - 1; i > index; i--) {
+            node = node.previous;
+        }
+        return node.last;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the messages from {@code from} to the end into an immutable list.
+     */
+    public List<ChatMessage> toList(int from) {
+        return List.of(copy(from));
+    }
+
+    /**
+     * The messages appended since {@code earlier}, oldest first, or null if this history does not
+     * continue from {@code earlier}. Costs only the messages returned.
+     */
+    public List<ChatMessage> since(History earlier) {
+        if (earlier == null || earlier.size > size) {
+            return null;
+        }
+        ChatMessage[] added = new ChatMessage[size - earlier.size];
+        History node = this;
+        for (int i = added.length - 1; i >= 0; i--) {
+            added[i] = node.last;
+            node = node.previous;
+        }
+        return node == earlier ? List.of(added) : null;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return copy(0);
+    }
+
+    @Override
+    public Iterator<ChatMessage> iterator() {
+        return Arrays.asList(copy(0)).iterator();
+    }
+
+    private ChatMessage[] copy(int from) {
+        Objects.checkIndex(from, size + 1);
+        ChatMessage[] messages = new ChatMessage[size - from];
+        History node = this;
+        for (int i = messages.length - 1; i >= 0; i--) {
+            messages[i] = node.last;
+            node = node.previous;
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,34 @@
+package cn.lyp.agent;
+
+import cn.lyp.llm.ChatMessage;
+
+import java.io.IOException;
+
+/**
+ * Receives every change to an agent's history after the system prompt. Sizes count messages
+ * after the system prompt.
+ */
+public interface HistoryLog {
+    HistoryLog NONE = new HistoryLog() {
+        @Override
+        public void appended(ChatMessage message) {
+        }
+
+        @Override
+        public void truncated(int size) {
+        }
+
+        @Override
+        public void commit() {
+        }
+    };
+
+    void appended(ChatMessage message);
+
+    void truncated(int size);
+
+    /**
+     * Blocks until every change reported so far is durable.
+     */
+    void commit() throws IOException;
+}
@@ -0,0 +1,271 @@
+package cn.lyp.agent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Consumer;
+
+/**
+ * Sits between a streaming model call and the caller's token callback. A response that is not a
+ * JSON object is a plain answer and is passed on as it arrives. For a JSON object the scanner
+ * follows its top-level keys: once {@code "type"} is {@code "final"}, the unescaped characters of
+ * {@code "content"} are passed on, and nothing else is. A {@code content} seen before the type is
+ * held back until the type is known. Tool calls are never passed on; instead, the text of the
+ * top-level object is handed to {@code onObject} as soon as its closing brace arrives, which can
+ * be well before the model call returns.
+ */
+final class ResponseScanner implements Consumer<String> {
+    private static final Logger logger = LoggerFactory.getLogger(ResponseScanner.class);
+
+    private enum State {
+        START, PLAIN, KEY, COLON, VALUE, STRING, NESTED, SCALAR, AFTER_VALUE, DONE
+    }
+
+    private final Consumer<String> onToken;
+    private final Consumer<String> onObject;
+    private final StringBuilder object = new StringBuilder();
+    private final StringBuilder emitted = new StringBuilder();
+    private final StringBuilder pending = new StringBuilder();
+    private final StringBuilder held = new StringBuilder();
+    private final StringBuilder leading = new StringBuilder();
+    private final StringBuilder key = new StringBuilder();
+    private final StringBuilder type = new StringBuilder();
+    private State state = State.START;
+    private String field;
+    private String resolvedType;
+    private boolean inKey;
+    private boolean escaped;
+    private int unicodeDigits = -1;
+    private int unicode;
+    private int depth;
+    private boolean nestedString;
+    private boolean nestedEscaped;
+
+    ResponseScanner(Consumer<String> onToken) {
+        this(onToken, null);
+    }
+
+    /**
+     * Either callback may be null. {@code onObject} runs on the thread that streams the response.
+     */
+    ResponseScanner(Consumer<String> onToken, Consumer<String> onObject) {
+        this.onToken = onToken;
+        this.onObject = onObject;
+    }
+
+    @Override
+    public void accept(String chunk) {
+        if (chunk == null || chunk.isEmpty()) {
+            return;
+        }
+        if (state == State.PLAIN) {
+            pending.append(chunk);
+        } else {
+            for (int i = 0; i < chunk.length(); i++) {
+                scan(chunk.charAt(i));
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Called with the answer parsed from the full response. Passes on whatever the stream did not
+     * already deliver, which covers clients that do not stream and responses the scanner could not
+     * follow.
+     */
+    void finish(String answer) {
+        String sent = emitted.toString();
+        if (answer.startsWith(sent)) {
+            if (answer.length() > sent.length()) {
+                forward(answer.substring(sent.length()));
+            }
+        } else {
+            logger.warn("Streamed answer does not match the parsed response. streamed={} parsed={}",
+                    sent.length(), answer.length());
+        }
+    }
+
+    /**
+     * The top-level object, once its closing brace has arrived, or null. Text after it is not part
+     * of it.
+     */
+    String object() {
+        return state == State.DONE ? object.toString() : null;
+    }
+
+    private void scan(char ch) {
+        if (state != State.START && state != State.PLAIN && state != State.DONE) {
+            object.append(ch);
+        }
+        switch (state) {
+            case START -> {
+                if (ch == '{') {
+                    object.append(ch);
+                    state = State.KEY;
+                } else if (Character.isWhitespace(ch)) {
+                    leading.append(ch);
+                } else {
+                    state = State.PLAIN;
+                    pending.append(leading).append(ch);
+                }
+            }
+            case PLAIN -> pending.append(ch);
+            case KEY -> {
+                if (ch == '"') {
+                    key.setLength(0);
+                    inKey = true;
+                    state = State.STRING;
+                } else if (ch == '}') {
+                    state = State.DONE;
+                }
+            }
+            case COLON -> {
+                if (ch == ':') {
+                    state = State.VALUE;
+                }
+            }
+            case VALUE -> value(ch);
+            case STRING -> string(ch);
+            case NESTED -> nested(ch);
+            case SCALAR -> {
+                if (ch == ',') {
+                    state = State.KEY;
+                } else if (ch == '}') {
+                    state = State.DONE;
+                }
+            }
+            case AFTER_VALUE -> {
+                if (ch == ',') {
+                    state = State.KEY;
+                } else if (ch == '}') {
+                    state = State.DONE;
+                }
+            }
+            case DONE -> {
+                return;
+            }
+        }
+        if (state == State.DONE && onObject != null) {
+            onObject.accept(object.toString());
+        }
+    }
+
+    private void value(char ch) {
+        if (Character.isWhitespace(ch)) {
+            return;
+        }
+        if (ch == '"') {
+            inKey = false;
+            if ("type".equals(field)) {
+                type.setLength(0);
+            }
+            state = State.STRING;
+        } else if (ch == '{' || ch == '[') {
+            depth = 1;
+            state = State.NESTED;
+        } else {
+            state = State.SCALAR;
+        }
+    }
+
+    private void string(char ch) {
+        if (unicodeDigits >= 0) {
+            unicode = unicode * 16 + Character.digit(ch, 16);
+            if (++unicodeDigits == 4) {
+                unicodeDigits = -1;
+                character((char) unicode);
+            }
+            return;
+        }
+        if (escaped) {
+            escaped = false;
+            switch (ch) {
+                case 'n' -> character('\n');
+                case 't' -> character('\t');
+                case 'r' -> character('\r');
+                case 'b' -> character('\b');
+                case 'f' -> character('\f');
+                case 'u' -> {
+                    unicode = 0;
+                    unicodeDigits = 0;
+                }
+                default -> character(ch);
+            }
+            return;
+        }
+        if (ch == '\\') {
+            escaped = true;
+        } else if (ch == '"') {
+            endString();
+        } else {
+            character(ch);
+        }
+    }
+
+    private void character(char ch) {
+        if (inKey) {
+            key.append(ch);
+        } else if ("type".equals(field)) {
+            type.append(ch);
+        } else if ("content".equals(field) && !"tool_call".equals(resolvedType)) {
+            ("final".equals(resolvedType) ? pending : held).append(ch);
+        }
+    }
+
+    private void endString() {
+        if (inKey) {
+            field = key.toString();
+            state = State.COLON;
+            return;
+        }
+        if ("type".equals(field)) {
+            resolvedType = type.toString();
+            if ("final".equals(resolvedType)) {
+                pending.append(held);
+            }
+            held.setLength(0);
+        }
+        state = State.AFTER_VALUE;
+    }
+
+    private void nested(char ch) {
+        if (nestedString) {
+            if (nestedEscaped) {
+                nestedEscaped = false;
+            } else if (ch == '\\') {
+                nestedEscaped = true;
+            } else if (ch == '"') {
+                nestedString = false;
+            }
+            return;
+        }
+        if (ch == '"') {
+            nestedString = true;
+        } else if (ch == '{' || ch == '[') {
+            depth++;
+        } else if ((ch == '}' || ch == ']') && --depth == 0) {
+            state = State.AFTER_VALUE;
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int end = pending.length();
+        if (Character.isHighSurrogate(pending.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0) {
+            forward(pending.substring(0, end));
+            pending.delete(0, end);
+        }
+    }
+
+    private void forward(String text) {
+        emitted.append(text);
+        if (onToken != null) {
+            onToken.accept(text);
+        }
+    }
+}
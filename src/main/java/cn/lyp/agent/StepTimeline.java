@@ -0,0 +1,50 @@
+package cn.lyp.agent;
+
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+
+/**
+ * Timing of each agent step, measured from the start of its model call: when the response ended,
+ * when the tool was dispatched and how long it ran. A tool dispatched before the response ended
+ * ran alongside the rest of the stream; that overlap is the time early dispatch saved.
+ */
+final class StepTimeline {
+    private final Histogram model;
+    private final Histogram dispatch;
+    private final Histogram tool;
+    private final Histogram saved;
+    private final Counter early;
+    private final Counter afterResponse;
+
+    StepTimeline(MetricsRegistry metrics) {
+        String help = "Time from the start of an agent step's model call to each point of the step.";
+        this.model = metrics.histogram("agent_step_phase_seconds", help, MetricsRegistry.NANOS,
+                "phase", "response_end");
+        this.dispatch = metrics.histogram("agent_step_phase_seconds", help, MetricsRegistry.NANOS,
+                "phase", "tool_dispatch");
+        this.tool = metrics.histogram("agent_step_phase_seconds", help, MetricsRegistry.NANOS,
+                "phase", "tool_end");
+        this.saved = metrics.histogram("agent_tool_overlap_seconds",
+                "Tool run time that overlapped the model response it came from.", MetricsRegistry.NANOS);
+        String dispatches = "Tool calls by whether they started before the model response ended.";
+        this.early = metrics.counter("agent_tool_dispatch_total", dispatches, "mode", "early");
+        this.afterResponse = metrics.counter("agent_tool_dispatch_total", dispatches, "mode", "after_response");
+    }
+
+    void answered(long started, long responded) {
+        model.record(responded - started);
+    }
+
+    void toolStep(long started, long responded, long dispatched, long toolFinished) {
+        model.record(responded - started);
+        dispatch.record(dispatched - started);
+        tool.record(toolFinished - started);
+        if (dispatched < responded) {
+            early.increment();
+            saved.record(Math.min(responded, toolFinished) - dispatched);
+        } else {
+            afterResponse.increment();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package cn.lyp.agent;
 
+import cn.lyp.llm.RunContext;
+
 import java.util.Map;
 
 public interface Tool {
@@ -7,4 +9,17 @@ public interface Tool {
     String description();
     Map<String, String> args();
     ToolResult execute(Map<String, Object> args) throws Exception;
+
+    default ToolResult execute(Map<String, Object> args, RunContext context) throws Exception {
+        context.throwIfCancelled();
+        return execute(args);
+    }
+
+    /**
+     * True if running the tool changes nothing, so the agent may start it before the response
+     * that asked for it has ended and drop the result if that response turns out not to be a call.
+     */
+    default boolean readOnly() {
+        return false;
+    }
 }
@@ -4,34 +4,83 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ToolRegistry {
     private static final Logger logger = LoggerFactory.getLogger(ToolRegistry.class);
     private final Map<String, Tool> tools = new HashMap<>();
+    private final Map<String, ToolMeters> meters = new ConcurrentHashMap<>();
+    private final MetricsRegistry metrics;
+    private volatile long version;
 
-    public void register(Tool tool) {
+    public ToolRegistry() {
+        this(MetricsRegistry.disabled());
+    }
+
+    public ToolRegistry(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void register(Tool tool) {
         tools.put(tool.name(), tool);
+        version++;
         logger.info("Tool registered: {}", tool.name());
     }
 
     public ToolResult execute(ToolCall call) {
+        return execute(call, RunContext.none());
+    }
+
+    public ToolResult execute(ToolCall call, RunContext context) {
         if (call == null || !call.isToolCall()) {
             return ToolResult.error("Invalid tool call.");
         }
         Tool tool = tools.get(call.tool());
         if (tool == null) {
             logger.warn("Tool not found: {}", call.tool());
+            meters("unknown").errors.increment();
             return ToolResult.error("Unknown tool: " + call.tool());
         }
+        ToolMeters toolMeters = meters(tool.name());
+        long start = System.nanoTime();
         try {
-            return tool.execute(call.args());
+            ToolResult result = tool.execute(call.args(), context);
+            (result.success() ? toolMeters.ok : toolMeters.errors).increment();
+            return result;
+        } catch (CancellationException e) {
+            toolMeters.cancelled.increment();
+            throw e;
         } catch (Exception e) {
+            toolMeters.errors.increment();
             return ToolResult.error("Tool execution failed: " + e.getMessage());
+        } finally {
+            toolMeters.duration.recordSince(start);
         }
     }
 
+    public boolean readOnly(String toolName) {
+        Tool tool = tools.get(toolName);
+        return tool != null && tool.readOnly();
+    }
+
+    private ToolMeters meters(String toolName) {
+        return meters.computeIfAbsent(toolName, name -> new ToolMeters(metrics, name));
+    }
+
+    /**
+     * Changes whenever the tool set changes, so callers can cache anything derived from it.
+     */
+    public long version() {
+        return version;
+    }
+
     public boolean isEmpty() {
         return tools.isEmpty();
     }
@@ -59,4 +108,20 @@ public class ToolRegistry {
         }
         return out.toString().trim();
     }
+
+    private static final class ToolMeters {
+        private final Histogram duration;
+        private final Counter ok;
+        private final Counter errors;
+        private final Counter cancelled;
+
+        private ToolMeters(MetricsRegistry metrics, String tool) {
+            String help = "Tool executions by outcome.";
+            this.duration = metrics.histogram("agent_tool_duration_seconds", "Tool execution latency.",
+                    MetricsRegistry.NANOS, "tool", tool);
+            this.ok = metrics.counter("agent_tool_calls_total", help, "tool", tool, "outcome", "ok");
+            this.errors = metrics.counter("agent_tool_calls_total", help, "tool", tool, "outcome", "error");
+            this.cancelled = metrics.counter("agent_tool_calls_total", help, "tool", tool, "outcome", "cancelled");
+        }
+    }
 }
@@ -23,6 +23,11 @@ public class CalcTool implements Tool {
         return Collections.singletonMap("expression", "string");
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public ToolResult execute(Map<String, Object> args) {
         Object expr = args.get("expression");
@@ -2,15 +2,21 @@ package cn.lyp.agent.tools;
 
 import cn.lyp.agent.Tool;
 import cn.lyp.agent.ToolResult;
+import cn.lyp.llm.RunContext;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +45,12 @@ public class ShellTool implements Tool {
 
     @Override
     public ToolResult execute(Map<String, Object> args) throws Exception {
+        return execute(args, RunContext.none());
+    }
+
+    @Override
+    public ToolResult execute(Map<String, Object> args, RunContext context) throws Exception {
+        context.throwIfCancelled();
         Object command = args.get("command");
         if (command == null || command.toString().isBlank()) {
             return ToolResult.error("Missing argument: command");
@@ -48,24 +60,35 @@ public class ShellTool implements Tool {
         ProcessBuilder builder = new ProcessBuilder(cmd);
         builder.redirectErrorStream(true);
         Process process = builder.start();
+        CompletableFuture<String> output = CompletableFuture.supplyAsync(() -> readOutput(process),
+                task -> Thread.ofVirtual().name("shell-output").start(task));
 
-        boolean finished = process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS);
-        if (!finished) {
+        try (RunContext.Registration ignored = context.onCancel(process::destroyForcibly)) {
+            process.onExit().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
             process.destroyForcibly();
             return ToolResult.error("Command timed out after " + timeout.toSeconds() + "s");
         }
+        if (context.isCancelled()) {
+            logger.info("Shell command killed after cancellation.");
+            throw new CancellationException("Shell command cancelled.");
+        }
 
+        String text = output.get().trim();
+        return ToolResult.ok(text.isEmpty() ? "(no output)" : text);
+    }
+
+    private String readOutput(Process process) {
         StringBuilder output = new StringBuilder();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
             String line;
             while ((line = reader.readLine()) != null) {
                 output.append(line).append('\n');
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        if (output.length() == 0) {
-            output.append("(no output)");
-        }
-        return ToolResult.ok(output.toString().trim());
+        return output.toString();
     }
 
     private List<String> buildCommand(String command) {
@@ -24,6 +24,11 @@ public class TimeTool implements Tool {
         return Collections.emptyMap();
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public ToolResult execute(Map<String, Object> args) {
         String now = ZonedDateTime.now().format(DateTimeFormatter.ISO_ZONED_DATE_TIME);
@@ -1,9 +1,13 @@
 package cn.lyp.client;
 
 import cn.lyp.config.AppConfig;
+import cn.lyp.protocol.Protocol;
+import cn.lyp.protocol.StreamFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
@@ -12,71 +16,210 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class AgentClient {
     private static final Logger logger = LoggerFactory.getLogger(AgentClient.class);
+    private static final ObjectMapper JSON = new ObjectMapper();
     private final HttpClient httpClient;
     private final String baseUrl;
+    private final String sessionId;
+    private final Map<String, CachedBody> cache = new ConcurrentHashMap<>();
+    private final boolean websocket;
+    private final StreamFormat format;
+    private SocketTransport socket;
+    private volatile HttpTurn httpTurn;
 
     public AgentClient(AppConfig config) {
+        this.sessionId = UUID.randomUUID().toString();
         this.baseUrl = "http://" + config.serverHost() + ":" + config.serverPort();
         this.httpClient = HttpClient.newBuilder()
                 .connectTimeout(Duration.ofSeconds(5))
                 .build();
+        this.websocket = AppConfig.TRANSPORT_WEBSOCKET.equals(config.clientTransport());
+        this.format = switch (config.clientTransport()) {
+            case AppConfig.TRANSPORT_NDJSON -> StreamFormat.NDJSON;
+            case AppConfig.TRANSPORT_FRAMES -> StreamFormat.FRAMES;
+            default -> StreamFormat.SSE;
+        };
+    }
+
+    private AgentClient(AgentClient source, String sessionId) {
+        this.sessionId = sessionId;
+        this.baseUrl = source.baseUrl;
+        this.httpClient = source.httpClient;
+        this.websocket = source.websocket;
+        this.format = source.format;
+    }
+
+    public String sessionId() {
+        return sessionId;
     }
 
     public String chat(String message, boolean stream, Consumer<String> onToken) throws Exception {
+        if (websocket) {
+            return socket().chat(message, stream, onToken);
+        }
         String encoded = URLEncoder.encode(Boolean.toString(stream), StandardCharsets.UTF_8);
         URI uri = URI.create(baseUrl + "/chat?stream=" + encoded);
         HttpRequest request = HttpRequest.newBuilder(uri)
                 .timeout(Duration.ofSeconds(60))
                 .POST(HttpRequest.BodyPublishers.ofString(message, StandardCharsets.UTF_8))
                 .header("Content-Type", "text/plain; charset=utf-8")
-                .header("Accept", "text/event-stream")
+                .header("Accept", format.mediaType())
+                .header(Protocol.SESSION_HEADER, sessionId)
                 .build();
-        logger.info("Sending chat request (SSE). stream={} messageLength={}", stream, message == null ? 0 : message.length());
-        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
-        if (response.statusCode() < 200 || response.statusCode() >= 300) {
-            String errorBody = new String(response.body().readAllBytes(), StandardCharsets.UTF_8);
-            ensureOk(response.statusCode(), errorBody);
-        }
-        StringBuilder full = new StringBuilder();
-        try (InputStream in = response.body()) {
-            parseSse(in, onToken, full);
+        logger.info("Sending chat request ({}). stream={} messageLength={}", format, stream,
+                message == null ? 0 : message.length());
+        HttpTurn turn = new HttpTurn(httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()));
+        httpTurn = turn;
+        try {
+            HttpResponse<InputStream> response = turn.response();
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                String errorBody = new String(response.body().readAllBytes(), StandardCharsets.UTF_8);
+                ensureOk(response.statusCode(), errorBody);
+            }
+            StringBuilder full = new StringBuilder();
+            try (InputStream in = turn.attach(response.body())) {
+                StreamFormat served = StreamFormat.negotiate(response.headers().firstValue("Content-Type").orElse(null));
+                ChatStreamParser.parse(served, in, onToken, full);
+            }
+            if (turn.cancelled) {
+                throw new CancellationException("Turn cancelled.");
+            }
+            return full.toString();
+        } catch (IOException e) {
+            if (turn.cancelled) {
+                throw new CancellationException("Turn cancelled.");
+            }
+            throw e;
+        } finally {
+            httpTurn = null;
         }
-        return full.toString();
     }
 
     public void reset() throws Exception {
+        if (websocket) {
+            socket().reset();
+            return;
+        }
         URI uri = URI.create(baseUrl + "/reset");
         HttpRequest request = HttpRequest.newBuilder(uri)
                 .timeout(Duration.ofSeconds(5))
                 .POST(HttpRequest.BodyPublishers.noBody())
+                .header(Protocol.SESSION_HEADER, sessionId)
                 .build();
         HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
         ensureOk(response.statusCode(), response.body());
     }
 
-    public String fetchTools() throws Exception {
-        URI uri = URI.create(baseUrl + "/tools");
-        HttpRequest request = HttpRequest.newBuilder(uri)
+    /**
+     * Forks this conversation on the server and returns a client for the new branch. This client
+     * keeps its own session; turns on one are not seen by the other.
+     */
+    public AgentClient fork() throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/fork"))
                 .timeout(Duration.ofSeconds(5))
-                .GET()
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header(Protocol.SESSION_HEADER, sessionId)
                 .build();
         HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
         ensureOk(response.statusCode(), response.body());
-        return response.body();
+        String branchId = JSON.readTree(response.body()).path("session").asText();
+        logger.info("Forked session {} into {}.", sessionId, branchId);
+        return new AgentClient(this, branchId);
     }
 
-    public String fetchConfig() throws Exception {
-        URI uri = URI.create(baseUrl + "/config");
+    /**
+     * Stops the running turn, whose {@link #chat} then throws {@link CancellationException}. Over
+     * WebSocket this is a cancel frame and the connection stays open; over HTTP the chat request is
+     * dropped, and the server cancels the run when it sees the disconnect.
+     */
+    public void cancel() {
+        if (websocket) {
+            SocketTransport current;
+            synchronized (this) {
+                current = socket;
+            }
+            if (current != null) {
+                current.cancel(null);
+            }
+            return;
+        }
+        HttpTurn current = httpTurn;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public synchronized void close() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+    }
+
+    private synchronized SocketTransport socket() {
+        if (socket == null || !socket.isOpen()) {
+            logger.info("Opening WebSocket chat session.");
+            socket = SocketTransport.connect(httpClient, URI.create(baseUrl.replaceFirst("^http", "ws") + "/ws"),
+                    sessionId);
+        }
+        return socket;
+    }
+
+    /**
+     * Posts NDJSON prompts to {@code /batch} and hands each result line to {@code onResult} as it
+     * arrives. The body is streamed, so {@code prompts} can be larger than memory. A
+     * {@code concurrency} of 0 leaves it to the server.
+     */
+    public void batch(InputStream prompts, int concurrency, Consumer<String> onResult) throws Exception {
+        URI uri = URI.create(baseUrl + "/batch" + (concurrency > 0 ? "?concurrency=" + concurrency : ""));
         HttpRequest request = HttpRequest.newBuilder(uri)
-                .timeout(Duration.ofSeconds(5))
-                .GET()
+                .POST(HttpRequest.BodyPublishers.ofInputStream(() -> prompts))
+                .header("Content-Type", "application/x-ndjson")
+                .header("Accept", "application/x-ndjson")
                 .build();
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        try (Stream<String> lines = response.body()) {
+            if (response.statusCode() < 200 || response.statusCode() >= 300) {
+                ensureOk(response.statusCode(), String.join("\n", lines.toList()));
+            }
+            lines.filter(line -> !line.isBlank()).forEach(onResult);
+        }
+    }
+
+    public String fetchTools() throws Exception {
+        return fetchCached("/tools");
+    }
+
+    public String fetchConfig() throws Exception {
+        return fetchCached("/config");
+    }
+
+    private String fetchCached(String path) throws Exception {
+        CachedBody cached = cache.get(path);
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofSeconds(5))
+                .GET();
+        if (cached != null) {
+            builder.header("If-None-Match", cached.etag());
+        }
+        HttpResponse<String> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() == 304 && cached != null) {
+            return cached.body();
+        }
         ensureOk(response.statusCode(), response.body());
+        response.headers().firstValue("ETag").ifPresentOrElse(
+                etag -> cache.put(path, new CachedBody(etag, response.body())),
+                () -> cache.remove(path));
         return response.body();
     }
 
@@ -88,53 +231,56 @@ public class AgentClient {
         throw new IllegalStateException("Server returned status " + status + ". " + detail);
     }
 
-    private void parseSse(InputStream in, Consumer<String> onToken, StringBuilder full) throws Exception {
-        java.io.BufferedReader reader = new java.io.BufferedReader(new java.io.InputStreamReader(in, StandardCharsets.UTF_8));
-        String event = null;
-        StringBuilder data = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (line.isEmpty()) {
-                dispatchEvent(event, data, onToken, full);
-                if ("done".equalsIgnoreCase(event)) {
-                    break;
-                }
-                event = null;
-                data.setLength(0);
-                continue;
-            }
-            if (line.startsWith("event:")) {
-                event = line.substring(6).trim();
-                continue;
-            }
-            if (line.startsWith("data:")) {
-                String value = line.substring(5);
-                if (value.startsWith(" ")) {
-                    value = value.substring(1);
-                }
-                if (data.length() > 0) {
-                    data.append("\n");
-                }
-                data.append(value);
-            }
-        }
+    private record CachedBody(String etag, String body) {
     }
 
-    private void dispatchEvent(String event, StringBuilder data, Consumer<String> onToken, StringBuilder full) {
-        String payload = data.toString();
-        if (payload.isBlank() && (event == null || event.isBlank())) {
-            return;
+    /**
+     * An HTTP chat in progress. Cancelling aborts the exchange before the headers arrive and
+     * closes the body after.
+     */
+    private static final class HttpTurn {
+        private final CompletableFuture<HttpResponse<InputStream>> response;
+        private volatile InputStream body;
+        private volatile boolean cancelled;
+
+        private HttpTurn(CompletableFuture<HttpResponse<InputStream>> response) {
+            this.response = response;
         }
-        if ("done".equalsIgnoreCase(event) || "[DONE]".equals(payload)) {
-            return;
+
+        HttpResponse<InputStream> response() throws Exception {
+            try {
+                return response.get();
+            } catch (CancellationException e) {
+                throw new CancellationException("Turn cancelled.");
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+                throw e;
+            }
         }
-        if ("error".equalsIgnoreCase(event)) {
-            throw new IllegalStateException(payload.isBlank() ? "Server error." : payload);
+
+        InputStream attach(InputStream in) throws IOException {
+            body = in;
+            if (cancelled) {
+                in.close();
+            }
+            return in;
         }
-        if (!payload.isEmpty()) {
-            full.append(payload);
-            if (onToken != null) {
-                onToken.accept(payload);
+
+        void cancel() {
+            cancelled = true;
+            response.cancel(true);
+            InputStream in = body;
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close cancelled chat response.", e);
+                }
             }
         }
     }
@@ -0,0 +1,134 @@
+package cn.lyp.client;
+
+import cn.lyp.protocol.StreamFormat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Reads a streamed {@code /chat} response in any {@link StreamFormat}, passing tokens to
+ * {@code onToken} and appending them to {@code full}. An {@code error} event is thrown.
+ */
+final class ChatStreamParser {
+    private static final Logger logger = LoggerFactory.getLogger(ChatStreamParser.class);
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private ChatStreamParser() {
+    }
+
+    static void parse(StreamFormat format, InputStream in, Consumer<String> onToken, StringBuilder full)
+            throws Exception {
+        switch (format) {
+            case SSE -> parseSse(in, onToken, full);
+            case NDJSON -> parseNdjson(in, onToken, full);
+            case FRAMES -> parseFrames(in, onToken, full);
+        }
+    }
+
+    private static void parseSse(InputStream in, Consumer<String> onToken, StringBuilder full) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String event = null;
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                dispatchEvent(event, data, onToken, full);
+                if ("done".equalsIgnoreCase(event)) {
+                    break;
+                }
+                event = null;
+                data.setLength(0);
+                continue;
+            }
+            if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+                continue;
+            }
+            if (line.startsWith("data:")) {
+                String value = line.substring(5);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                if (data.length() > 0) {
+                    data.append("\n");
+                }
+                data.append(value);
+            }
+        }
+    }
+
+    private static void dispatchEvent(String event, StringBuilder data, Consumer<String> onToken, StringBuilder full) {
+        String payload = data.toString();
+        if (payload.isBlank() && (event == null || event.isBlank())) {
+            return;
+        }
+        if ("done".equalsIgnoreCase(event) || "[DONE]".equals(payload)) {
+            return;
+        }
+        if ("error".equalsIgnoreCase(event)) {
+            throw new IllegalStateException(payload.isBlank() ? "Server error." : payload);
+        }
+        appendToken(payload, onToken, full);
+    }
+
+    private static void parseNdjson(InputStream in, Consumer<String> onToken, StringBuilder full) throws Exception {
+        try (MappingIterator<JsonNode> events = JSON.readerFor(JsonNode.class).readValues(in)) {
+            while (events.hasNextValue()) {
+                JsonNode event = events.nextValue();
+                if (event.has("token")) {
+                    appendToken(event.get("token").asText(), onToken, full);
+                } else if (event.has("tool")) {
+                    JsonNode tool = event.get("tool");
+                    logger.info("Tool {} {}.", tool.path("tool").asText(), tool.path("phase").asText());
+                } else if (event.has("error")) {
+                    String message = event.get("error").asText();
+                    throw new IllegalStateException(message.isBlank() ? "Server error." : message);
+                } else if (event.has("done")) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void parseFrames(InputStream in, Consumer<String> onToken, StringBuilder full) throws Exception {
+        DataInputStream frames = new DataInputStream(new BufferedInputStream(in));
+        int type;
+        while ((type = frames.read()) >= 0) {
+            String payload = new String(frames.readNBytes(frames.readInt()), StandardCharsets.UTF_8);
+            switch (type) {
+                case StreamFormat.FRAME_TOKEN -> appendToken(payload, onToken, full);
+                case StreamFormat.FRAME_TOOL -> {
+                    JsonNode tool = JSON.readTree(payload);
+                    logger.info("Tool {} {}.", tool.path("tool").asText(), tool.path("phase").asText());
+                }
+                case StreamFormat.FRAME_ERROR ->
+                        throw new IllegalStateException(payload.isBlank() ? "Server error." : payload);
+                case StreamFormat.FRAME_DONE -> {
+                    return;
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    private static void appendToken(String text, Consumer<String> onToken, StringBuilder full) {
+        if (!text.isEmpty()) {
+            full.append(text);
+            if (onToken != null) {
+                onToken.accept(text);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package cn.lyp.client;
+
+import cn.lyp.protocol.Protocol;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Chat transport over the server's {@code /ws} endpoint: one connection carries every turn of the
+ * session, and a cancel is a single small frame instead of a dropped HTTP connection.
+ */
+final class SocketTransport implements WebSocket.Listener, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(SocketTransport.class);
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private final Map<String, PendingTurn> turns = new ConcurrentHashMap<>();
+    private final AtomicLong nextTurn = new AtomicLong();
+    private final StringBuilder partial = new StringBuilder();
+    private final WebSocket socket;
+
+    private SocketTransport(HttpClient client, URI uri, String sessionId) {
+        this.socket = client.newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(5))
+                .header(Protocol.SESSION_HEADER, sessionId)
+                .buildAsync(uri, this)
+                .join();
+    }
+
+    static SocketTransport connect(HttpClient client, URI uri, String sessionId) {
+        return new SocketTransport(client, uri, sessionId);
+    }
+
+    boolean isOpen() {
+        return !socket.isOutputClosed() && !socket.isInputClosed();
+    }
+
+    String chat(String input, boolean stream, Consumer<String> onToken) throws Exception {
+        String id = Long.toString(nextTurn.incrementAndGet());
+        PendingTurn turn = new PendingTurn(onToken);
+        turns.put(id, turn);
+        ObjectNode message = JSON.createObjectNode().put("type", "chat").put("id", id).put("input", input)
+                .put("stream", stream);
+        try {
+            send(message);
+            return turn.result.get();
+        } catch (InterruptedException e) {
+            cancel(id);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } finally {
+            turns.remove(id);
+        }
+    }
+
+    void cancel(String id) {
+        ObjectNode message = JSON.createObjectNode().put("type", "cancel");
+        if (id != null) {
+            message.put("id", id);
+        }
+        send(message);
+    }
+
+    void reset() throws Exception {
+        String id = "reset-" + nextTurn.incrementAndGet();
+        PendingTurn turn = new PendingTurn(null);
+        turns.put(id, turn);
+        try {
+            send(JSON.createObjectNode().put("type", "reset").put("id", id));
+            turn.result.get();
+        } finally {
+            turns.remove(id);
+        }
+    }
+
+    @Override
+    public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+        partial.append(data);
+        if (last) {
+            String text = partial.toString();
+            partial.setLength(0);
+            handle(text);
+        }
+        webSocket.request(1);
+        return null;
+    }
+
+    @Override
+    public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+        failAll(new IOException("WebSocket closed by server. status=" + statusCode + " " + reason));
+        return null;
+    }
+
+    @Override
+    public void onError(WebSocket webSocket, Throwable error) {
+        failAll(error);
+    }
+
+    @Override
+    public void close() {
+        socket.sendClose(WebSocket.NORMAL_CLOSURE, "").exceptionally(e -> null);
+    }
+
+    private void handle(String text) {
+        JsonNode message;
+        try {
+            message = JSON.readTree(text);
+        } catch (IOException e) {
+            logger.warn("Ignoring malformed WebSocket message.");
+            return;
+        }
+        String type = message.path("type").asText("");
+        PendingTurn turn = turns.get(message.path("id").asText(""));
+        if (turn == null) {
+            logger.debug("WebSocket message for no pending turn: {}", type);
+            return;
+        }
+        switch (type) {
+            case "token" -> turn.token(message.path("text").asText(""));
+            case "tool" -> logger.info("Tool {} {}.", message.path("tool").asText(), message.path("phase").asText());
+            case "done" -> turn.result.complete(message.path("content").asText(""));
+            case "reset" -> turn.result.complete("");
+            case "cancelled" -> turn.result.completeExceptionally(new CancellationException("Turn cancelled."));
+            case "error" -> turn.result.completeExceptionally(
+                    new IllegalStateException(message.path("message").asText("Server error.")));
+            default -> logger.debug("Ignoring WebSocket message type {}.", type);
+        }
+    }
+
+    private void send(ObjectNode message) {
+        // The JDK WebSocket allows one outstanding send, so sends are chained.
+        synchronized (this) {
+            socket.sendText(message.toString(), true).join();
+        }
+    }
+
+    private void failAll(Throwable error) {
+        for (PendingTurn turn : turns.values()) {
+            turn.result.completeExceptionally(error);
+        }
+    }
+
+    private static final class PendingTurn {
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+        private final Consumer<String> onToken;
+
+        private PendingTurn(Consumer<String> onToken) {
+            this.onToken = onToken;
+        }
+
+        void token(String text) {
+            if (onToken != null) {
+                onToken.accept(text);
+            }
+        }
+    }
+}
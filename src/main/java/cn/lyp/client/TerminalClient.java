@@ -13,9 +13,11 @@ import org.jline.terminal.TerminalBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 
 public class TerminalClient {
@@ -23,7 +25,7 @@ public class TerminalClient {
     private static final String PROMPT = "you> ";
     private static final String AGENT_PROMPT = "agent> ";
     private final AppConfig config;
-    private final AgentClient client;
+    private AgentClient client;
 
     public TerminalClient(AppConfig config) {
         this.config = config;
@@ -82,7 +84,20 @@ public class TerminalClient {
                 } else if (config.typewriter()) {
                     logger.warn("Typewriter is enabled but stream=false. Enable streaming to get typewriter effect.");
                 }
-                String response = client.chat(input, config.stream(), onToken);
+                String response;
+                AgentClient turn = client;
+                Terminal.SignalHandler previous = terminal.handle(Terminal.Signal.INT, signal -> turn.cancel());
+                try {
+                    response = turn.chat(input, config.stream(), onToken);
+                } catch (CancellationException e) {
+                    out.println();
+                    out.println("[cancelled]");
+                    out.flush();
+                    logger.info("Turn cancelled by user.");
+                    continue;
+                } finally {
+                    terminal.handle(Terminal.Signal.INT, previous);
+                }
                 if (!config.stream()) {
                     out.println(response);
                 }
@@ -99,7 +114,7 @@ public class TerminalClient {
                 .terminal(terminal)
                 .parser(parser)
                 .history(new DefaultHistory())
-                .completer(new StringsCompleter("/help", "/tools", "/config", "/reset", "/exit", "/quit"))
+                .completer(new StringsCompleter("/help", "/tools", "/config", "/reset", "/fork", "/batch", "/exit", "/quit"))
                 .build();
         reader.setOpt(LineReader.Option.DISABLE_EVENT_EXPANSION);
         reader.setOpt(LineReader.Option.HISTORY_IGNORE_SPACE);
@@ -127,6 +142,10 @@ public class TerminalClient {
 
     private boolean handleCommand(String input, PrintWriter out) throws Exception {
         logger.info("Command received: {}", input);
+        if (input.equals("/batch") || input.startsWith("/batch ")) {
+            runBatch(input.substring(6).trim(), out);
+            return true;
+        }
         switch (input) {
             case "/exit":
             case "/quit":
@@ -140,6 +159,13 @@ public class TerminalClient {
                 out.flush();
                 logger.info("Agent state reset.");
                 return true;
+            case "/fork":
+                AgentClient branch = client.fork();
+                client.close();
+                client = branch;
+                out.println("continuing on branch " + branch.sessionId());
+                out.flush();
+                return true;
             case "/config":
                 printConfig(out);
                 return true;
@@ -156,6 +182,34 @@ public class TerminalClient {
         }
     }
 
+    /**
+     * {@code /batch <file> [concurrency]}: streams an NDJSON prompt file to the server and prints
+     * each result line as it arrives.
+     */
+    private void runBatch(String args, PrintWriter out) throws Exception {
+        String[] parts = args.split("\\s+");
+        Path file = Path.of(parts[0]);
+        int concurrency = 0;
+        if (parts.length > 1) {
+            try {
+                concurrency = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                concurrency = -1;
+            }
+        }
+        if (parts.length > 2 || concurrency < 0 || !Files.isRegularFile(file)) {
+            out.println("usage: /batch <ndjson file> [concurrency]");
+            out.flush();
+            return;
+        }
+        try (InputStream prompts = Files.newInputStream(file)) {
+            client.batch(prompts, concurrency, line -> {
+                out.println(line);
+                out.flush();
+            });
+        }
+    }
+
     private void printBanner(PrintWriter out) throws Exception {
         out.println("Agent Chatbox (terminal client)");
         out.println("type /help for commands. ctrl+d to exit.");
@@ -200,6 +254,9 @@ public class TerminalClient {
         out.println("- /tools   list tools");
         out.println("- /config  show config");
         out.println("- /reset   clear agent memory");
+        out.println("- /fork    branch the conversation and continue on the branch");
+        out.println("- /batch <file> [concurrency]  run an NDJSON prompt file on the server");
+        out.println("- ctrl+c   while the agent answers, cancel the turn");
         out.println("- /exit    quit");
         out.flush();
     }
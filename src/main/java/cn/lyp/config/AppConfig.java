@@ -21,8 +21,32 @@ public record AppConfig(
         int typewriterDelayMs,
         boolean consoleLog,
         String serverHost,
-        int serverPort
+        int serverPort,
+        ServerConfig server,
+        RouterConfig router,
+        String clientTransport
 ) {
+    public static final String TRANSPORT_HTTP = "http";
+    public static final String TRANSPORT_NDJSON = "ndjson";
+    public static final String TRANSPORT_FRAMES = "frames";
+    public static final String TRANSPORT_WEBSOCKET = "websocket";
+
+    public AppConfig(String mode, String apiKey, String baseUrl, String model, boolean stream, Double temperature,
+                     int maxSteps, boolean allowShell, boolean mcpEnabled, List<McpServerConfig> mcpServers,
+                     boolean typewriter, int typewriterDelayMs, boolean consoleLog, String serverHost, int serverPort,
+                     ServerConfig server, RouterConfig router) {
+        this(mode, apiKey, baseUrl, model, stream, temperature, maxSteps, allowShell, mcpEnabled, mcpServers,
+                typewriter, typewriterDelayMs, consoleLog, serverHost, serverPort, server, router, TRANSPORT_HTTP);
+    }
+
+    public AppConfig(String mode, String apiKey, String baseUrl, String model, boolean stream, Double temperature,
+                     int maxSteps, boolean allowShell, boolean mcpEnabled, List<McpServerConfig> mcpServers,
+                     boolean typewriter, int typewriterDelayMs, boolean consoleLog, String serverHost, int serverPort) {
+        this(mode, apiKey, baseUrl, model, stream, temperature, maxSteps, allowShell, mcpEnabled, mcpServers,
+                typewriter, typewriterDelayMs, consoleLog, serverHost, serverPort, ServerConfig.defaults(),
+                RouterConfig.defaults(), TRANSPORT_HTTP);
+    }
+
     public static AppConfig fromArgs(String[] args) {
         Map<String, String> cli = parseArgs(args);
         Map<String, String> fileConfig = ConfigLoader.load(resolveConfigPath(cli));
@@ -103,15 +127,24 @@ public record AppConfig(
                 fileConfig.get("server-host")
         );
         if (serverHost == null || serverHost.isBlank()) {
-            serverHost = isServerMode(mode) ? "0.0.0.0" : "127.0.0.1";
+            serverHost = isServerMode(mode) || isRouterMode(mode) ? "0.0.0.0" : "127.0.0.1";
         }
         int serverPort = parseInt(firstNonBlank(
                 cli.get("server-port"),
                 System.getenv("AGENT_SERVER_PORT"),
                 fileConfig.get("server-port")
         ), 8080);
+        ServerConfig server = parseServerConfig(cli, fileConfig);
+        RouterConfig router = parseRouterConfig(cli, fileConfig);
+        String clientTransport = firstNonBlank(
+                cli.get("client-transport"),
+                System.getenv("AGENT_CLIENT_TRANSPORT"),
+                fileConfig.get("client-transport"),
+                TRANSPORT_HTTP
+        ).trim().toLowerCase(Locale.ROOT);
         return new AppConfig(mode, apiKey, baseUrl, model, stream, temperature, maxSteps, allowShell,
-                mcpEnabled, mcpServerConfigs, typewriter, typewriterDelayMs, consoleLog, serverHost, serverPort);
+                mcpEnabled, mcpServerConfigs, typewriter, typewriterDelayMs, consoleLog, serverHost, serverPort,
+                server, router, clientTransport);
     }
 
     public void validate() {
@@ -119,8 +152,8 @@ public record AppConfig(
             throw new IllegalArgumentException("Missing mode. Set --mode to server or client.");
         }
         String normalized = mode.trim().toLowerCase(java.util.Locale.ROOT);
-        if (!"server".equals(normalized) && !"client".equals(normalized)) {
-            throw new IllegalArgumentException("Invalid mode. Use server or client.");
+        if (!"server".equals(normalized) && !"client".equals(normalized) && !"router".equals(normalized)) {
+            throw new IllegalArgumentException("Invalid mode. Use server, client or router.");
         }
         if (serverHost == null || serverHost.isBlank()) {
             throw new IllegalArgumentException("Missing server host. Set --server-host or AGENT_SERVER_HOST.");
@@ -128,9 +161,18 @@ public record AppConfig(
         if (serverPort <= 0) {
             throw new IllegalArgumentException("Invalid server port. Set --server-port or AGENT_SERVER_PORT.");
         }
+        if (!List.of(TRANSPORT_HTTP, TRANSPORT_NDJSON, TRANSPORT_FRAMES, TRANSPORT_WEBSOCKET).contains(clientTransport)) {
+            throw new IllegalArgumentException("Invalid client transport. Use http, ndjson, frames or websocket.");
+        }
+        if (isRouter()) {
+            server.validate();
+            router.validate();
+            return;
+        }
         if (!isServer()) {
             return;
         }
+        server.validate();
         if (model == null || model.isBlank()) {
             throw new IllegalArgumentException("Missing model. Set --model or AGENT_MODEL.");
         }
@@ -146,10 +188,18 @@ public record AppConfig(
         return isServerMode(mode);
     }
 
+    public boolean isRouter() {
+        return isRouterMode(mode);
+    }
+
     private static boolean isServerMode(String mode) {
         return mode != null && mode.trim().equalsIgnoreCase("server");
     }
 
+    private static boolean isRouterMode(String mode) {
+        return mode != null && mode.trim().equalsIgnoreCase("router");
+    }
+
     private static String firstNonBlank(String... values) {
         if (values == null) {
             return null;
@@ -222,6 +272,266 @@ public record AppConfig(
         return servers;
     }
 
+    private static ServerConfig parseServerConfig(Map<String, String> cli, Map<String, String> fileConfig) {
+        ServerConfig defaults = ServerConfig.defaults();
+        String executor = firstNonBlank(
+                cli.get("server-executor"),
+                System.getenv("AGENT_SERVER_EXECUTOR"),
+                fileConfig.get("server-executor"),
+                defaults.executor()
+        );
+        int workerThreads = parseInt(firstNonBlank(
+                cli.get("server-threads"),
+                System.getenv("AGENT_SERVER_THREADS"),
+                fileConfig.get("server-threads")
+        ), defaults.workerThreads());
+        int backlog = parseInt(firstNonBlank(
+                cli.get("server-backlog"),
+                System.getenv("AGENT_SERVER_BACKLOG"),
+                fileConfig.get("server-backlog")
+        ), defaults.backlog());
+        int maxConcurrentRuns = parseInt(firstNonBlank(
+                cli.get("max-concurrent-runs"),
+                System.getenv("AGENT_MAX_CONCURRENT_RUNS"),
+                fileConfig.get("max-concurrent-runs")
+        ), defaults.maxConcurrentRuns());
+        int maxQueuedRuns = parseInt(firstNonBlank(
+                cli.get("max-queued-runs"),
+                System.getenv("AGENT_MAX_QUEUED_RUNS"),
+                fileConfig.get("max-queued-runs")
+        ), defaults.maxQueuedRuns());
+        int queueTimeoutMs = parseInt(firstNonBlank(
+                cli.get("queue-timeout-ms"),
+                System.getenv("AGENT_QUEUE_TIMEOUT_MS"),
+                fileConfig.get("queue-timeout-ms")
+        ), defaults.queueTimeoutMs());
+        int retryAfterSeconds = parseInt(firstNonBlank(
+                cli.get("retry-after-seconds"),
+                System.getenv("AGENT_RETRY_AFTER_SECONDS"),
+                fileConfig.get("retry-after-seconds")
+        ), defaults.retryAfterSeconds());
+        int sseHeartbeatMs = parseInt(firstNonBlank(
+                cli.get("sse-heartbeat-ms"),
+                System.getenv("AGENT_SSE_HEARTBEAT_MS"),
+                fileConfig.get("sse-heartbeat-ms")
+        ), defaults.sseHeartbeatMs());
+        int sseFlushMs = parseInt(firstNonBlank(
+                cli.get("sse-flush-ms"),
+                System.getenv("AGENT_SSE_FLUSH_MS"),
+                fileConfig.get("sse-flush-ms")
+        ), defaults.sseFlushMs());
+        int sseFlushBytes = parseInt(firstNonBlank(
+                cli.get("sse-flush-bytes"),
+                System.getenv("AGENT_SSE_FLUSH_BYTES"),
+                fileConfig.get("sse-flush-bytes")
+        ), defaults.sseFlushBytes());
+        String engine = firstNonBlank(
+                cli.get("server-engine"),
+                System.getenv("AGENT_SERVER_ENGINE"),
+                fileConfig.get("server-engine"),
+                defaults.engine()
+        );
+        int maxConnections = parseInt(firstNonBlank(
+                cli.get("max-connections"),
+                System.getenv("AGENT_MAX_CONNECTIONS"),
+                fileConfig.get("max-connections")
+        ), defaults.maxConnections());
+        int keepAliveMs = parseInt(firstNonBlank(
+                cli.get("keep-alive-ms"),
+                System.getenv("AGENT_KEEP_ALIVE_MS"),
+                fileConfig.get("keep-alive-ms")
+        ), defaults.keepAliveMs());
+        int writeTimeoutMs = parseInt(firstNonBlank(
+                cli.get("write-timeout-ms"),
+                System.getenv("AGENT_WRITE_TIMEOUT_MS"),
+                fileConfig.get("write-timeout-ms")
+        ), defaults.writeTimeoutMs());
+        int drainTimeoutMs = parseInt(firstNonBlank(
+                cli.get("drain-timeout-ms"),
+                System.getenv("AGENT_DRAIN_TIMEOUT_MS"),
+                fileConfig.get("drain-timeout-ms")
+        ), defaults.drainTimeoutMs());
+        RateLimitConfig rateLimit = parseRateLimitConfig(cli, fileConfig, defaults.rateLimit());
+        JournalConfig journal = parseJournalConfig(cli, fileConfig, defaults.journal());
+        int sessionQueueDepth = parseInt(firstNonBlank(
+                cli.get("session-queue-depth"),
+                System.getenv("AGENT_SESSION_QUEUE_DEPTH"),
+                fileConfig.get("session-queue-depth")
+        ), defaults.sessionQueueDepth());
+        String sessionRejectPolicy = firstNonBlank(
+                cli.get("session-reject-policy"),
+                System.getenv("AGENT_SESSION_REJECT_POLICY"),
+                fileConfig.get("session-reject-policy"),
+                defaults.sessionRejectPolicy()
+        );
+        int maxConcurrentLlmCalls = parseInt(firstNonBlank(
+                cli.get("max-concurrent-llm-calls"),
+                System.getenv("AGENT_MAX_CONCURRENT_LLM_CALLS"),
+                fileConfig.get("max-concurrent-llm-calls")
+        ), defaults.maxConcurrentLlmCalls());
+        int priorityAgingMs = parseInt(firstNonBlank(
+                cli.get("priority-aging-ms"),
+                System.getenv("AGENT_PRIORITY_AGING_MS"),
+                fileConfig.get("priority-aging-ms")
+        ), defaults.priorityAgingMs());
+        int batchConcurrency = parseInt(firstNonBlank(
+                cli.get("batch-concurrency"),
+                System.getenv("AGENT_BATCH_CONCURRENCY"),
+                fileConfig.get("batch-concurrency")
+        ), defaults.batchConcurrency());
+        boolean coalesceSessionless = parseBoolean(firstNonBlank(
+                cli.get("coalesce-sessionless"),
+                System.getenv("AGENT_COALESCE_SESSIONLESS"),
+                fileConfig.get("coalesce-sessionless")
+        ), defaults.coalesceSessionless());
+        int streamBufferEvents = parseInt(firstNonBlank(
+                cli.get("stream-buffer-events"),
+                System.getenv("AGENT_STREAM_BUFFER_EVENTS"),
+                fileConfig.get("stream-buffer-events")
+        ), defaults.streamBufferEvents());
+        String streamBufferPolicy = firstNonBlank(
+                cli.get("stream-buffer-policy"),
+                System.getenv("AGENT_STREAM_BUFFER_POLICY"),
+                fileConfig.get("stream-buffer-policy"),
+                defaults.streamBufferPolicy()
+        );
+        int warmupIterations = parseInt(firstNonBlank(
+                cli.get("warmup-iterations"),
+                System.getenv("AGENT_WARMUP_ITERATIONS"),
+                fileConfig.get("warmup-iterations")
+        ), defaults.warmupIterations());
+        return new ServerConfig(executor, workerThreads, backlog, maxConcurrentRuns, maxQueuedRuns,
+                queueTimeoutMs, retryAfterSeconds, sseHeartbeatMs, sseFlushMs, sseFlushBytes,
+                engine, maxConnections, keepAliveMs, writeTimeoutMs, drainTimeoutMs, rateLimit,
+                journal, sessionQueueDepth, sessionRejectPolicy,
+                parseSessionStoreConfig(cli, fileConfig, defaults.sessionStore()), maxConcurrentLlmCalls, priorityAgingMs,
+                batchConcurrency, parseJobsConfig(cli, fileConfig, defaults.jobs()), coalesceSessionless,
+                streamBufferEvents, streamBufferPolicy, warmupIterations);
+    }
+
+    private static RateLimitConfig parseRateLimitConfig(Map<String, String> cli, Map<String, String> fileConfig,
+                                                        RateLimitConfig defaults) {
+        String routes = firstNonBlank(
+                cli.get("rate-limits"),
+                System.getenv("AGENT_RATE_LIMITS"),
+                fileConfig.get("rate-limits")
+        );
+        int maxInflightSteps = parseInt(firstNonBlank(
+                cli.get("max-inflight-steps"),
+                System.getenv("AGENT_MAX_INFLIGHT_STEPS"),
+                fileConfig.get("max-inflight-steps")
+        ), defaults.maxInflightSteps());
+        int stepWaitMs = parseInt(firstNonBlank(
+                cli.get("step-wait-ms"),
+                System.getenv("AGENT_STEP_WAIT_MS"),
+                fileConfig.get("step-wait-ms")
+        ), defaults.stepWaitMs());
+        boolean trustForwardedFor = parseBoolean(firstNonBlank(
+                cli.get("trust-forwarded-for"),
+                System.getenv("AGENT_TRUST_FORWARDED_FOR"),
+                fileConfig.get("trust-forwarded-for")
+        ), defaults.trustForwardedFor());
+        return new RateLimitConfig(RateLimitConfig.parseRoutes(routes), maxInflightSteps, stepWaitMs, trustForwardedFor);
+    }
+
+    private static SessionStoreConfig parseSessionStoreConfig(Map<String, String> cli, Map<String, String> fileConfig,
+                                                              SessionStoreConfig defaults) {
+        int memoryMb = parseInt(firstNonBlank(
+                cli.get("session-memory-mb"),
+                System.getenv("AGENT_SESSION_MEMORY_MB"),
+                fileConfig.get("session-memory-mb")
+        ), defaults.memoryMb());
+        int idleMs = parseInt(firstNonBlank(
+                cli.get("session-idle-ms"),
+                System.getenv("AGENT_SESSION_IDLE_MS"),
+                fileConfig.get("session-idle-ms")
+        ), defaults.idleMs());
+        int ttlMs = parseInt(firstNonBlank(
+                cli.get("session-ttl-ms"),
+                System.getenv("AGENT_SESSION_TTL_MS"),
+                fileConfig.get("session-ttl-ms")
+        ), defaults.ttlMs());
+        return new SessionStoreConfig(memoryMb, idleMs, ttlMs);
+    }
+
+    private static JournalConfig parseJournalConfig(Map<String, String> cli, Map<String, String> fileConfig,
+                                                    JournalConfig defaults) {
+        String dir = firstNonBlank(
+                cli.get("journal-dir"),
+                System.getenv("AGENT_JOURNAL_DIR"),
+                fileConfig.get("journal-dir")
+        );
+        int segmentMb = parseInt(firstNonBlank(
+                cli.get("journal-segment-mb"),
+                System.getenv("AGENT_JOURNAL_SEGMENT_MB"),
+                fileConfig.get("journal-segment-mb")
+        ), defaults.segmentMb());
+        int syncMs = parseInt(firstNonBlank(
+                cli.get("journal-sync-ms"),
+                System.getenv("AGENT_JOURNAL_SYNC_MS"),
+                fileConfig.get("journal-sync-ms")
+        ), defaults.syncMs());
+        return new JournalConfig(dir == null ? defaults.dir() : dir.trim(), segmentMb, syncMs);
+    }
+
+    private static JobsConfig parseJobsConfig(Map<String, String> cli, Map<String, String> fileConfig,
+                                              JobsConfig defaults) {
+        String dir = firstNonBlank(
+                cli.get("jobs-dir"),
+                System.getenv("AGENT_JOBS_DIR"),
+                fileConfig.get("jobs-dir")
+        );
+        int workers = parseInt(firstNonBlank(
+                cli.get("job-workers"),
+                System.getenv("AGENT_JOB_WORKERS"),
+                fileConfig.get("job-workers")
+        ), defaults.workers());
+        int maxQueued = parseInt(firstNonBlank(
+                cli.get("job-queue-max"),
+                System.getenv("AGENT_JOB_QUEUE_MAX"),
+                fileConfig.get("job-queue-max")
+        ), defaults.maxQueued());
+        int retentionMs = parseInt(firstNonBlank(
+                cli.get("job-retention-ms"),
+                System.getenv("AGENT_JOB_RETENTION_MS"),
+                fileConfig.get("job-retention-ms")
+        ), defaults.retentionMs());
+        return new JobsConfig(dir == null ? defaults.dir() : dir.trim(), workers, maxQueued, retentionMs);
+    }
+
+    private static RouterConfig parseRouterConfig(Map<String, String> cli, Map<String, String> fileConfig) {
+        RouterConfig defaults = RouterConfig.defaults();
+        String backendList = firstNonBlank(
+                cli.get("backends"),
+                System.getenv("AGENT_ROUTER_BACKENDS"),
+                fileConfig.get("backends")
+        );
+        List<String> backends = new ArrayList<>();
+        if (backendList != null) {
+            for (String backend : backendList.split(",")) {
+                if (!backend.isBlank()) {
+                    backends.add(backend.trim());
+                }
+            }
+        }
+        int healthIntervalMs = parseInt(firstNonBlank(
+                cli.get("health-interval-ms"),
+                System.getenv("AGENT_ROUTER_HEALTH_INTERVAL_MS"),
+                fileConfig.get("health-interval-ms")
+        ), defaults.healthIntervalMs());
+        int healthTimeoutMs = parseInt(firstNonBlank(
+                cli.get("health-timeout-ms"),
+                System.getenv("AGENT_ROUTER_HEALTH_TIMEOUT_MS"),
+                fileConfig.get("health-timeout-ms")
+        ), defaults.healthTimeoutMs());
+        int virtualNodes = parseInt(firstNonBlank(
+                cli.get("virtual-nodes"),
+                System.getenv("AGENT_ROUTER_VIRTUAL_NODES"),
+                fileConfig.get("virtual-nodes")
+        ), defaults.virtualNodes());
+        return new RouterConfig(List.copyOf(backends), healthIntervalMs, healthTimeoutMs, virtualNodes);
+    }
+
     private static String normalizeEnvName(String name) {
         if (name == null) {
             return "";
@@ -0,0 +1,25 @@
+package cn.lyp.config;
+
+/**
+ * Background job settings. An empty {@code dir} keeps jobs in memory only; finished jobs are
+ * forgotten after {@code retentionMs}.
+ */
+public record JobsConfig(String dir, int workers, int maxQueued, int retentionMs) {
+
+    public static JobsConfig defaults() {
+        return new JobsConfig("", 4, 10000, 86400000);
+    }
+
+    public boolean persistent() {
+        return dir != null && !dir.isBlank();
+    }
+
+    public void validate() {
+        if (workers < 0) {
+            throw new IllegalArgumentException("Invalid job workers. Set --job-workers to 0 or more.");
+        }
+        if (maxQueued < 1 || retentionMs < 1) {
+            throw new IllegalArgumentException("Invalid job limits. Queue size and retention must be above 0.");
+        }
+    }
+}
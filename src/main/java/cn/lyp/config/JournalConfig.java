@@ -0,0 +1,28 @@
+package cn.lyp.config;
+
+/**
+ * Session journal settings. An empty {@code dir} keeps sessions in memory only.
+ */
+public record JournalConfig(String dir, int segmentMb, int syncMs) {
+
+    public static JournalConfig disabled() {
+        return new JournalConfig("", 64, 0);
+    }
+
+    public boolean enabled() {
+        return dir != null && !dir.isBlank();
+    }
+
+    public int segmentBytes() {
+        return segmentMb * 1024 * 1024;
+    }
+
+    public void validate() {
+        if (segmentMb < 1 || segmentMb > 1024) {
+            throw new IllegalArgumentException("Invalid journal segment size. Set --journal-segment-mb between 1 and 1024.");
+        }
+        if (syncMs < 0) {
+            throw new IllegalArgumentException("Invalid journal sync window. Set --journal-sync-ms to 0 or more.");
+        }
+    }
+}
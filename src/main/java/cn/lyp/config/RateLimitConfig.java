@@ -0,0 +1,72 @@
+package cn.lyp.config;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-client limits. {@code routes} maps a route name ({@code chat}, {@code reset}, ... or
+ * {@code default}) to its request rate; {@code maxInflightSteps} caps how many agent steps one
+ * client may have running at once.
+ */
+public record RateLimitConfig(
+        Map<String, Rate> routes,
+        int maxInflightSteps,
+        int stepWaitMs,
+        boolean trustForwardedFor
+) {
+    public static final String DEFAULT_ROUTE = "default";
+
+    public record Rate(double perSecond, int burst) {
+    }
+
+    public static RateLimitConfig disabled() {
+        return new RateLimitConfig(Map.of(), 0, 10000, false);
+    }
+
+    /**
+     * Parses {@code route=rps[:burst]} pairs, e.g. {@code chat=2:5,default=50}. Burst defaults to
+     * one second's worth of requests.
+     */
+    public static Map<String, Rate> parseRoutes(String spec) {
+        Map<String, Rate> routes = new LinkedHashMap<>();
+        if (spec == null || spec.isBlank()) {
+            return Map.of();
+        }
+        for (String entry : spec.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] pair = entry.split("=", 2);
+            if (pair.length != 2 || pair[0].isBlank()) {
+                throw new IllegalArgumentException("Invalid rate limit '" + entry.trim() + "'. Use route=rps[:burst].");
+            }
+            String[] value = pair[1].trim().split(":", 2);
+            try {
+                double perSecond = Double.parseDouble(value[0].trim());
+                int burst = value.length == 2 ? Integer.parseInt(value[1].trim()) : (int) Math.max(1, Math.ceil(perSecond));
+                if (perSecond <= 0 || burst <= 0) {
+                    throw new IllegalArgumentException("Invalid rate limit '" + entry.trim() + "'. Rate and burst must be above 0.");
+                }
+                routes.put(pair[0].trim().toLowerCase(java.util.Locale.ROOT), new Rate(perSecond, burst));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid rate limit '" + entry.trim() + "'. Use route=rps[:burst].");
+            }
+        }
+        return Map.copyOf(routes);
+    }
+
+    public Rate rateFor(String route) {
+        Rate rate = routes.get(route);
+        return rate != null ? rate : routes.get(DEFAULT_ROUTE);
+    }
+
+    public boolean enabled() {
+        return !routes.isEmpty() || maxInflightSteps > 0;
+    }
+
+    public void validate() {
+        if (maxInflightSteps < 0 || stepWaitMs < 0) {
+            throw new IllegalArgumentException("Invalid step budget. Set --max-inflight-steps and --step-wait-ms to 0 or more.");
+        }
+    }
+}
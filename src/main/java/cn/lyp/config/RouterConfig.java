@@ -0,0 +1,37 @@
+package cn.lyp.config;
+
+import java.util.List;
+
+public record RouterConfig(
+        List<String> backends,
+        int healthIntervalMs,
+        int healthTimeoutMs,
+        int virtualNodes
+) {
+    public static RouterConfig defaults() {
+        return new RouterConfig(List.of(), 2000, 1000, 160);
+    }
+
+    public void validate() {
+        if (backends == null || backends.isEmpty()) {
+            throw new IllegalArgumentException("Missing router backends. Set --backends host:port,host:port.");
+        }
+        for (String backend : backends) {
+            int colon = backend.lastIndexOf(':');
+            if (colon <= 0 || colon == backend.length() - 1) {
+                throw new IllegalArgumentException("Invalid router backend '" + backend + "'. Use host:port.");
+            }
+            try {
+                Integer.parseInt(backend.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid router backend '" + backend + "'. Use host:port.");
+            }
+        }
+        if (healthIntervalMs <= 0 || healthTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid health check timing. Interval and timeout must be above 0.");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Invalid virtual node count. Set --virtual-nodes above 0.");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cn.lyp.config;
+
+import java.util.Locale;
+
+public record ServerConfig(
+        String executor,
+        int workerThreads,
+        int backlog,
+        int maxConcurrentRuns,
+        int maxQueuedRuns,
+        int queueTimeoutMs,
+        int retryAfterSeconds,
+        int sseHeartbeatMs,
+        int sseFlushMs,
+        int sseFlushBytes,
+        String engine,
+        int maxConnections,
+        int keepAliveMs,
+        int writeTimeoutMs,
+        int drainTimeoutMs,
+        RateLimitConfig rateLimit,
+        JournalConfig journal,
+        int sessionQueueDepth,
+        String sessionRejectPolicy,
+        SessionStoreConfig sessionStore,
+        int maxConcurrentLlmCalls,
+        int priorityAgingMs,
+        int batchConcurrency,
+        JobsConfig jobs,
+        boolean coalesceSessionless,
+        int streamBufferEvents,
+        String streamBufferPolicy,
+        int warmupIterations
+) {
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+    public static final String EXECUTOR_PLATFORM = "platform";
+    public static final String ENGINE_JDK = "jdk";
+    public static final String ENGINE_NIO = "nio";
+    public static final int WRITE_HIGH_WATER_BYTES = 256 * 1024;
+
+    public static ServerConfig defaults() {
+        return new ServerConfig(EXECUTOR_VIRTUAL, 0, 1024, 256, 512, 30000, 2, 5000, 10, 4096,
+                ENGINE_JDK, 10000, 30000, 30000, 30000, RateLimitConfig.disabled(),
+                JournalConfig.disabled(), 4, "reject-new",
+                SessionStoreConfig.defaults(), 0, 2000, 16, JobsConfig.defaults(), false,
+                1024, "coalesce", 500);
+    }
+
+    public boolean virtualThreads() {
+        return EXECUTOR_VIRTUAL.equals(normalizedExecutor());
+    }
+
+    public boolean nioEngine() {
+        return ENGINE_NIO.equals(normalizedEngine());
+    }
+
+    public int platformThreads() {
+        if (workerThreads > 0) {
+            return workerThreads;
+        }
+        return Math.max(4, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void validate() {
+        String normalized = normalizedExecutor();
+        if (!EXECUTOR_VIRTUAL.equals(normalized) && !EXECUTOR_PLATFORM.equals(normalized)) {
+            throw new IllegalArgumentException("Invalid server executor. Use virtual or platform.");
+        }
+        if (backlog < 0) {
+            throw new IllegalArgumentException("Invalid server backlog. Set --server-backlog to 0 or more.");
+        }
+        String normalizedEngine = normalizedEngine();
+        if (!ENGINE_JDK.equals(normalizedEngine) && !ENGINE_NIO.equals(normalizedEngine)) {
+            throw new IllegalArgumentException("Invalid server engine. Use jdk or nio.");
+        }
+        if (maxConnections <= 0 || keepAliveMs <= 0 || writeTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Invalid connection limits. Connections and timeouts must be above 0.");
+        }
+        if (drainTimeoutMs < 0) {
+            throw new IllegalArgumentException("Invalid drain timeout. Set --drain-timeout-ms to 0 or more.");
+        }
+        rateLimit.validate();
+        journal.validate();
+        sessionStore.validate();
+        jobs.validate();
+        if (maxConcurrentLlmCalls < 0 || priorityAgingMs < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid priority scheduling. Max LLM calls and aging must be 0 or more.");
+        }
+        if (batchConcurrency <= 0) {
+            throw new IllegalArgumentException("Invalid batch concurrency. Set --batch-concurrency above 0.");
+        }
+        if (sessionQueueDepth < 0) {
+            throw new IllegalArgumentException("Invalid session queue depth. Set --session-queue-depth to 0 or more.");
+        }
+        if (warmupIterations < 0) {
+            throw new IllegalArgumentException("Invalid warm-up. Set --warmup-iterations to 0 or more.");
+        }
+        if (streamBufferEvents < 0) {
+            throw new IllegalArgumentException("Invalid stream buffer. Set --stream-buffer-events to 0 or more.");
+        }
+        String bufferPolicy = streamBufferPolicy == null ? "" : streamBufferPolicy.trim().toLowerCase(Locale.ROOT);
+        if (!bufferPolicy.isEmpty() && !"block".equals(bufferPolicy) && !"coalesce".equals(bufferPolicy)
+                && !"drop".equals(bufferPolicy)) {
+            throw new IllegalArgumentException("Invalid stream buffer policy. Use block, coalesce or drop.");
+        }
+        String policy = sessionRejectPolicy == null ? "" : sessionRejectPolicy.trim().toLowerCase(Locale.ROOT);
+        if (!policy.isEmpty() && !"reject-new".equals(policy) && !"drop-oldest".equals(policy)) {
+            throw new IllegalArgumentException("Invalid session reject policy. Use reject-new or drop-oldest.");
+        }
+        if (maxConcurrentRuns <= 0) {
+            throw new IllegalArgumentException("Invalid max concurrent runs. Set --max-concurrent-runs above 0.");
+        }
+        if (maxQueuedRuns < 0 || queueTimeoutMs < 0 || retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Invalid queue limits. Queue depth, timeout and retry-after must be 0 or more.");
+        }
+    }
+
+    private String normalizedEngine() {
+        return engine == null ? ENGINE_JDK : engine.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private String normalizedExecutor() {
+        return executor == null ? EXECUTOR_VIRTUAL : executor.trim().toLowerCase(Locale.ROOT);
+    }
+}
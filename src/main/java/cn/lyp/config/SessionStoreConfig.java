@@ -0,0 +1,24 @@
+package cn.lyp.config;
+
+/**
+ * Limits for in-memory session histories. Sessions idle for {@code idleMs} are compacted and
+ * sessions idle for {@code ttlMs} are evicted; {@code memoryMb} caps the estimated heap held by all
+ * sessions. 0 turns each limit off.
+ */
+public record SessionStoreConfig(int memoryMb, int idleMs, int ttlMs) {
+
+    public static SessionStoreConfig defaults() {
+        return new SessionStoreConfig(256, 600000, 0);
+    }
+
+    public long memoryBytes() {
+        return memoryMb * 1024L * 1024L;
+    }
+
+    public void validate() {
+        if (memoryMb < 0 || idleMs < 0 || ttlMs < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid session store limits. Memory, idle time and TTL must be 0 or more.");
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package cn.lyp.jobs;
+
+import cn.lyp.llm.RunContext;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One background agent run. State changes happen under the job's monitor; listener callbacks run
+ * after it is released but under a separate delivery lock, so a listener sees replayed output and
+ * live tokens in order while a slow one never holds up {@link #snapshot()}.
+ */
+public final class Job {
+    private final String id;
+    private final long sequence;
+    private final String prompt;
+    private final long createdAt;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ReentrantLock delivery = new ReentrantLock();
+    private final StringBuilder output = new StringBuilder();
+    private Status status;
+    private long startedAt;
+    private long finishedAt;
+    private int attempts;
+    private String result;
+    private String error;
+    private RunContext context;
+    private boolean cancelRequested;
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean finished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        static Status parse(String value) {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /**
+     * What is persisted for a job and returned by {@code GET /jobs/{id}}. Times are epoch millis,
+     * 0 when not reached yet.
+     */
+    public record Snapshot(String id, long sequence, String status, String prompt, long createdAt,
+                           long startedAt, long finishedAt, int attempts, String result, String error) {
+    }
+
+    public interface Listener {
+        void status(Status status);
+
+        void token(String text);
+
+        void finished(Snapshot snapshot);
+    }
+
+    Job(String id, long sequence, String prompt, long createdAt) {
+        this.id = id;
+        this.sequence = sequence;
+        this.prompt = prompt;
+        this.createdAt = createdAt;
+        this.status = Status.QUEUED;
+    }
+
+    static Job restore(Snapshot snapshot) {
+        Job job = new Job(snapshot.id(), snapshot.sequence(), snapshot.prompt(), snapshot.createdAt());
+        Status status = Status.parse(snapshot.status());
+        // A run cut off by a restart starts over.
+        job.status = status == Status.RUNNING ? Status.QUEUED : status;
+        job.startedAt = snapshot.startedAt();
+        job.finishedAt = snapshot.finishedAt();
+        job.attempts = snapshot.attempts();
+        job.result = snapshot.result();
+        job.error = snapshot.error();
+        return job;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public long sequence() {
+        return sequence;
+    }
+
+    public String prompt() {
+        return prompt;
+    }
+
+    public synchronized Status status() {
+        return status;
+    }
+
+    public synchronized long finishedAt() {
+        return finishedAt;
+    }
+
+    public synchronized Snapshot snapshot() {
+        return new Snapshot(id, sequence, status.label(), prompt, createdAt, startedAt, finishedAt, attempts,
+                result, error);
+    }
+
+    /**
+     * Registers {@code listener}, first replaying the current status and the output streamed so far.
+     * A finished job only reports {@link Listener#finished}.
+     */
+    public void subscribe(Listener listener) {
+        delivery.lock();
+        try {
+            Snapshot finished = null;
+            Status current;
+            String replay;
+            synchronized (this) {
+                current = status;
+                replay = output.toString();
+                if (status.finished()) {
+                    finished = snapshot();
+                } else {
+                    listeners.add(listener);
+                }
+            }
+            if (finished != null) {
+                listener.finished(finished);
+                return;
+            }
+            listener.status(current);
+            if (!replay.isEmpty()) {
+                listener.token(replay);
+            }
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    public void unsubscribe(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean start(RunContext context, long now) {
+        delivery.lock();
+        try {
+            synchronized (this) {
+                if (status != Status.QUEUED) {
+                    return false;
+                }
+                this.status = Status.RUNNING;
+                this.context = context;
+                this.startedAt = now;
+                this.attempts++;
+                output.setLength(0);
+            }
+            listeners.forEach(listener -> listener.status(Status.RUNNING));
+            return true;
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    void token(String text) {
+        delivery.lock();
+        try {
+            synchronized (this) {
+                output.append(text);
+            }
+            listeners.forEach(listener -> listener.token(text));
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * Returns false if the job was already finished, for example by a cancel while queued.
+     */
+    boolean finish(Status outcome, String result, String error, long now) {
+        delivery.lock();
+        try {
+            Snapshot snapshot;
+            synchronized (this) {
+                if (status.finished()) {
+                    return false;
+                }
+                this.status = outcome;
+                this.result = result;
+                this.error = error;
+                this.finishedAt = now;
+                this.context = null;
+                output.setLength(0);
+                snapshot = snapshot();
+            }
+            listeners.forEach(listener -> listener.finished(snapshot));
+            listeners.clear();
+            return true;
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * Puts a running job back in the queued state after a shutdown cut it off.
+     */
+    void requeue() {
+        delivery.lock();
+        try {
+            synchronized (this) {
+                if (status != Status.RUNNING) {
+                    return;
+                }
+                status = Status.QUEUED;
+                context = null;
+                output.setLength(0);
+            }
+            listeners.forEach(listener -> listener.status(Status.QUEUED));
+        } finally {
+            delivery.unlock();
+        }
+    }
+
+    /**
+     * Marks the job cancelled by its owner and stops the run if one is in progress. Returns the
+     * context to cancel outside the monitor, or null if nothing is running.
+     */
+    synchronized RunContext requestCancel() {
+        cancelRequested = true;
+        return context;
+    }
+
+    synchronized boolean cancelRequested() {
+        return cancelRequested;
+    }
+}
@@ -0,0 +1,290 @@
+package cn.lyp.jobs;
+
+import cn.lyp.config.JobsConfig;
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs submitted prompts on a fixed number of worker threads, decoupled from the request that
+ * submitted them. With a directory a job is on disk before its submission is acknowledged and
+ * every later state change is written as it happens; on start, jobs that were queued or running
+ * are queued again in submission order.
+ */
+public class JobQueue implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(JobQueue.class);
+    private static final long POLL_MILLIS = 200;
+    private final JobStore store;
+    private final Runner runner;
+    private final int workers;
+    private final int maxQueued;
+    private final long retentionMs;
+    private final ConcurrentMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final BlockingQueue<Job> pending = new LinkedBlockingQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Counter succeeded;
+    private final Counter failed;
+    private final Counter cancelled;
+    private final Counter requeued;
+    private final Histogram queueWait;
+    private final Histogram runDuration;
+    private volatile boolean closed;
+
+    /**
+     * Executes one job. Tokens passed to {@code onToken} are streamed to job watchers.
+     */
+    @FunctionalInterface
+    public interface Runner {
+        String run(Job job, Consumer<String> onToken, RunContext context) throws Exception;
+    }
+
+    public static class QueueFullException extends RejectedExecutionException {
+        QueueFullException(String message) {
+            super(message);
+        }
+    }
+
+    public JobQueue(Path dir, JobsConfig config, Runner runner, MetricsRegistry metrics) throws IOException {
+        this.store = dir == null ? null : new JobStore(dir);
+        this.runner = runner;
+        this.workers = config.workers();
+        this.maxQueued = config.maxQueued();
+        this.retentionMs = config.retentionMs();
+        String help = "Background jobs finished, by outcome.";
+        this.succeeded = metrics.counter("agent_jobs_total", help, "outcome", "succeeded");
+        this.failed = metrics.counter("agent_jobs_total", help, "outcome", "failed");
+        this.cancelled = metrics.counter("agent_jobs_total", help, "outcome", "cancelled");
+        this.requeued = metrics.counter("agent_jobs_total", help, "outcome", "requeued");
+        this.queueWait = metrics.histogram("agent_job_queue_seconds",
+                "Time from submitting a job to a worker starting it.", MetricsRegistry.NANOS);
+        this.runDuration = metrics.histogram("agent_job_run_seconds", "Run time of one job attempt.",
+                MetricsRegistry.NANOS);
+        metrics.gauge("agent_jobs", "Background jobs by state.", queued::get, "state", "queued");
+        metrics.gauge("agent_jobs", "Background jobs by state.", running::get, "state", "running");
+        if (store != null) {
+            restore();
+        }
+    }
+
+    private void restore() throws IOException {
+        long last = 0;
+        for (Job.Snapshot snapshot : store.load()) {
+            Job job;
+            try {
+                job = Job.restore(snapshot);
+            } catch (RuntimeException e) {
+                logger.warn("Skipping job {} with unknown state {}.", snapshot.id(), snapshot.status());
+                continue;
+            }
+            jobs.put(job.id(), job);
+            last = Math.max(last, job.sequence());
+            if (job.status() == Job.Status.QUEUED) {
+                queued.incrementAndGet();
+                pending.add(job);
+            }
+        }
+        sequence.set(last);
+        if (!jobs.isEmpty()) {
+            logger.info("Restored jobs. total={} queued={}", jobs.size(), queued.get());
+        }
+    }
+
+    public void start() {
+        for (int i = 0; i < workers; i++) {
+            Thread.ofVirtual().name("agent-job-" + i).start(this::work);
+        }
+    }
+
+    /**
+     * Queues a prompt and returns once the job is durable.
+     */
+    public Job submit(String prompt) throws IOException {
+        return submit(null, prompt);
+    }
+
+    /**
+     * Like {@link #submit(String)}, under {@code id} if it is not null. A router picks the id so that
+     * it can route later requests for the job to this server.
+     */
+    public Job submit(String id, String prompt) throws IOException {
+        if (closed) {
+            throw new RejectedExecutionException("Job queue is closed.");
+        }
+        if (id != null && jobs.containsKey(id)) {
+            throw new IllegalArgumentException("Job " + id + " already exists.");
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw new QueueFullException("Job queue is full.");
+        }
+        Job job = new Job(id == null ? UUID.randomUUID().toString() : id, sequence.incrementAndGet(), prompt,
+                System.currentTimeMillis());
+        try {
+            persist(job);
+        } catch (IOException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+        jobs.put(job.id(), job);
+        pending.add(job);
+        return job;
+    }
+
+    public Job get(String id) {
+        return id == null ? null : jobs.get(id);
+    }
+
+    /**
+     * Cancels a queued or running job. Returns false if it had already finished.
+     */
+    public boolean cancel(Job job) throws IOException {
+        RunContext context = job.requestCancel();
+        if (context != null) {
+            context.cancel();
+            return true;
+        }
+        if (job.finish(Job.Status.CANCELLED, null, "Cancelled.", System.currentTimeMillis())) {
+            queued.decrementAndGet();
+            cancelled.increment();
+            pending.remove(job);
+            persist(job);
+            return true;
+        }
+        return false;
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public int running() {
+        return running.get();
+    }
+
+    public int size() {
+        return jobs.size();
+    }
+
+    /**
+     * Forgets finished jobs older than the retention period.
+     */
+    public void sweep() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        for (Job job : jobs.values()) {
+            if (job.status().finished() && job.finishedAt() < cutoff && jobs.remove(job.id(), job)) {
+                try {
+                    if (store != null) {
+                        store.delete(job.id());
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to delete expired job {}.", job.id(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops starting new jobs. Runs already in progress continue; if a shutdown cancels them they
+     * are stored as queued and resume on the next start.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void work() {
+        while (!closed) {
+            Job job;
+            try {
+                job = pending.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) {
+                continue;
+            }
+            if (closed) {
+                pending.add(job);
+                return;
+            }
+            run(job);
+        }
+    }
+
+    private void run(Job job) {
+        RunContext context = RunContext.create();
+        context.setPriority(Priority.BATCH);
+        long startedAt = System.currentTimeMillis();
+        if (!job.start(context, startedAt)) {
+            return;
+        }
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        queueWait.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0, startedAt - job.snapshot().createdAt())));
+        long start = System.nanoTime();
+        try {
+            persist(job);
+            logger.info("Job started. id={} attempt={}", job.id(), job.snapshot().attempts());
+            String result = runner.run(job, token -> {
+                job.token(token);
+                context.throwIfCancelled();
+            }, context);
+            if (job.finish(Job.Status.SUCCEEDED, result, null, System.currentTimeMillis())) {
+                succeeded.increment();
+            }
+        } catch (CancellationException e) {
+            if (job.cancelRequested()) {
+                job.finish(Job.Status.CANCELLED, null, "Cancelled.", System.currentTimeMillis());
+                cancelled.increment();
+            } else {
+                job.requeue();
+                requeued.increment();
+                queued.incrementAndGet();
+                if (!closed) {
+                    pending.add(job);
+                }
+                logger.info("Job interrupted and queued again. id={}", job.id());
+            }
+        } catch (Exception e) {
+            logger.warn("Job failed. id={}", job.id(), e);
+            job.finish(Job.Status.FAILED, null, e.getMessage() == null ? e.toString() : e.getMessage(),
+                    System.currentTimeMillis());
+            failed.increment();
+        } finally {
+            runDuration.recordSince(start);
+            try {
+                persist(job);
+            } catch (IOException e) {
+                logger.error("Failed to store job {}.", job.id(), e);
+            }
+            running.decrementAndGet();
+        }
+    }
+
+    private void persist(Job job) throws IOException {
+        if (store != null) {
+            store.save(job.snapshot());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package cn.lyp.jobs;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one JSON file per job. Each save writes a temporary file, forces it and renames it over
+ * the old one, so a crash leaves either the previous or the new state.
+ */
+final class JobStore {
+    private static final Logger logger = LoggerFactory.getLogger(JobStore.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String SUFFIX = ".json";
+    private final Path dir;
+
+    JobStore(Path dir) throws IOException {
+        this.dir = Files.createDirectories(dir);
+    }
+
+    void save(Job.Snapshot snapshot) throws IOException {
+        Path target = dir.resolve(snapshot.id() + SUFFIX);
+        Path temp = dir.resolve(snapshot.id() + SUFFIX + ".tmp");
+        ByteBuffer bytes = ByteBuffer.wrap(MAPPER.writeValueAsBytes(snapshot));
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void delete(String id) throws IOException {
+        Files.deleteIfExists(dir.resolve(id + SUFFIX));
+    }
+
+    /**
+     * Reads every stored job in submission order. Unreadable files are skipped with a warning.
+     */
+    List<Job.Snapshot> load() throws IOException {
+        List<Job.Snapshot> jobs = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX + ".tmp")) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(SUFFIX)) {
+                    try {
+                        jobs.add(MAPPER.readValue(file.toFile(), Job.Snapshot.class));
+                    } catch (IOException | IllegalArgumentException e) {
+                        logger.warn("Skipping unreadable job file {}.", file, e);
+                    }
+                }
+            }
+        }
+        jobs.sort(Comparator.comparingLong(Job.Snapshot::sequence));
+        return jobs;
+    }
+}
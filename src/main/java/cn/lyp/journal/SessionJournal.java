@@ -0,0 +1,734 @@
+package cn.lyp.journal;
+
+import cn.lyp.agent.HistoryLog;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of session history changes, split into memory-mapped segment files.
+ *
+ * <p>Writers copy records into the mapped segment under a short lock. One sync thread forces
+ * everything written so far whenever a committer is waiting, so committers that arrive during an
+ * fsync share the next one. Opening a journal only scans records into a per-session index of
+ * positions; messages are decoded when a session is first loaded.
+ *
+ * <p>Record layout: {@code length:int crc32c:int type:byte idLength:short id payload}, where the CRC
+ * covers everything after the header. A zero length marks the unused tail of a segment. A fork
+ * record's payload is the source session id; the new session starts with the source's positions,
+ * so forking writes no messages.
+ *
+ * <p>The index holds one entry per session ever journaled and not dropped, whether or not the
+ * session is in memory, so it grows with the journal and is not bounded by the session store's
+ * memory budget. {@link #indexBytes} estimates its size.
+ *
+ * <p>Sealed segments are deleted oldest first once no session's history points into them; the
+ * check walks the index under the write lock at each segment roll and on open. Only that prefix is
+ * deleted, since a later segment may hold the truncate or drop records that keep older messages
+ * dead. One long-lived session therefore pins every segment after its first message; segments
+ * without any records are deleted on open. {@code agent_journal_bytes} shows the space in use.
+ * Segments are unmapped as soon as they are closed rather than when collected.
+ */
+public class SessionJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SessionJournal.class);
+    private static final String SUFFIX = ".journal";
+    private static final byte APPEND = 1;
+    private static final byte TRUNCATE = 2;
+    private static final byte DROP = 3;
+    private static final byte FORK = 4;
+    private static final int HEADER_BYTES = 8;
+    private static final long IDLE_SYNC_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long INDEX_ENTRY_BYTES = 128;
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long syncWindowNanos;
+    private final ConcurrentMap<String, SessionIndex> index = new ConcurrentHashMap<>();
+    private final AtomicLong indexSlots = new AtomicLong();
+    private final ConcurrentMap<Integer, FileChannel> readers = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Integer, Long> segmentFiles = new ConcurrentSkipListMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final List<Segment> sealed = new ArrayList<>();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncRequested = syncLock.newCondition();
+    private final Condition synced = syncLock.newCondition();
+    private final Counter records;
+    private final Histogram syncDuration;
+    private final Histogram syncBytes;
+    private final Thread syncThread;
+    private Segment current;
+    private long written;
+    private long requested;
+    private volatile long durable;
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    private SessionJournal(Path dir, int segmentBytes, int syncWindowMs, MetricsRegistry metrics) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.syncWindowNanos = TimeUnit.MILLISECONDS.toNanos(syncWindowMs);
+        this.records = metrics.counter("agent_journal_records_total", "Records appended to the session journal.");
+        this.syncDuration = metrics.histogram("agent_journal_sync_seconds",
+                "Time spent forcing journal segments to disk.", MetricsRegistry.NANOS);
+        this.syncBytes = metrics.histogram("agent_journal_sync_bytes",
+                "Journal bytes made durable by one sync.", 1);
+        metrics.gauge("agent_journal_sessions", "Sessions with a history in the journal.", index::size);
+        metrics.gauge("agent_journal_index_bytes", "Estimated heap held by the journal's position index.",
+                this::indexBytes);
+        metrics.gauge("agent_journal_segments", "Journal segment files on disk.", segmentFiles::size);
+        metrics.gauge("agent_journal_bytes", "Bytes held by journal segment files on disk.", diskBytes::get);
+        this.syncThread = new Thread(this::syncLoop, "agent-journal-sync");
+        this.syncThread.setDaemon(true);
+    }
+
+    public static SessionJournal open(Path dir, int segmentBytes, int syncWindowMs, MetricsRegistry metrics)
+            throws IOException {
+        SessionJournal journal = new SessionJournal(dir, segmentBytes, syncWindowMs, metrics);
+        journal.recover();
+        journal.syncThread.start();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(dir);
+        long started = System.nanoTime();
+        int last = 0;
+        long count = 0;
+        for (int number : segmentNumbers()) {
+            long records = scan(number);
+            if (records == 0) {
+                Files.delete(segmentPath(number));
+            } else {
+                track(number, Files.size(segmentPath(number)));
+            }
+            count += records;
+            last = number;
+        }
+        current = Segment.create(segmentPath(last + 1), last + 1, segmentBytes);
+        track(current.number, current.size());
+        logger.info("Session journal opened. dir={} segments={} records={} sessions={} scanMs={}",
+                dir, segmentFiles.size() - 1, count, index.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        retire();
+    }
+
+    private List<Integer> segmentNumbers() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .map(name -> name.substring(0, name.length() - SUFFIX.length()))
+                    .filter(name -> !name.isEmpty() && name.chars().allMatch(Character::isDigit))
+                    .map(Integer::parseInt)
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private long scan(int number) throws IOException {
+        try (Arena arena = Arena.ofConfined();
+             FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena).asByteBuffer();
+            CRC32C crc = new CRC32C();
+            int limit = buffer.capacity();
+            int offset = 0;
+            long count = 0;
+            while (offset + HEADER_BYTES <= limit) {
+                int length = buffer.getInt(offset);
+                if (length == 0) {
+                    break;
+                }
+                if (length < 3 || length > limit - offset - HEADER_BYTES) {
+                    logger.warn("Journal segment {} has a torn record at offset {}. Ignoring the rest.", number, offset);
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.slice(offset + HEADER_BYTES, length));
+                if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                    logger.warn("Journal segment {} has a corrupt record at offset {}. Ignoring the rest.", number, offset);
+                    break;
+                }
+                apply(buffer.slice(offset + HEADER_BYTES, length), position(number, offset));
+                offset += HEADER_BYTES + length;
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private void apply(ByteBuffer body, long position) {
+        byte type = body.get();
+        String sessionId = readString(body, Short.toUnsignedInt(body.getShort()));
+        switch (type) {
+            case APPEND -> indexAppend(sessionId, position);
+            case TRUNCATE -> {
+                SessionIndex session = index.get(sessionId);
+                if (session != null) {
+                    session.truncate(body.getInt());
+                }
+            }
+            case DROP -> indexRemove(sessionId);
+            case FORK -> copyIndex(readString(body, Short.toUnsignedInt(body.getShort())), sessionId);
+            default -> logger.warn("Unknown journal record type {} for session {}.", type, sessionId);
+        }
+    }
+
+    public HistoryLog log(String sessionId) {
+        return new SessionLog(sessionId);
+    }
+
+    public boolean contains(String sessionId) {
+        return index.containsKey(sessionId);
+    }
+
+    public int sessions() {
+        return index.size();
+    }
+
+    public long indexBytes() {
+        return index.size() * INDEX_ENTRY_BYTES + indexSlots.get() * Long.BYTES;
+    }
+
+    public long diskBytes() {
+        return diskBytes.get();
+    }
+
+    /**
+     * Reads a session's messages back from disk. Returns an empty list for unknown sessions.
+     */
+    public List<ChatMessage> load(String sessionId) throws IOException {
+        SessionIndex session = index.get(sessionId);
+        if (session == null) {
+            return List.of();
+        }
+        long[] positions = session.snapshot();
+        List<ChatMessage> messages = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            ByteBuffer body = read(position);
+            body.get();
+            int idLength = Short.toUnsignedInt(body.getShort());
+            body.position(body.position() + idLength);
+            String role = readString(body, Short.toUnsignedInt(body.getShort()));
+            String content = readString(body, body.getInt());
+            messages.add(new ChatMessage(role, content));
+        }
+        return messages;
+    }
+
+    public long append(String sessionId, ChatMessage message) {
+        byte[] role = bytes(message.role());
+        byte[] content = bytes(message.content());
+        ByteBuffer body = body(APPEND, sessionId, 2 + role.length + 4 + content.length);
+        body.putShort((short) role.length).put(role).putInt(content.length).put(content);
+        return write(sessionId, body, APPEND, 0, null);
+    }
+
+    public long truncate(String sessionId, int size) {
+        ByteBuffer body = body(TRUNCATE, sessionId, 4);
+        body.putInt(size);
+        return write(sessionId, body, TRUNCATE, size, null);
+    }
+
+    /**
+     * Starts {@code targetId} with {@code sourceId}'s current history, replacing any it had.
+     */
+    public long fork(String sourceId, String targetId) {
+        byte[] source = bytes(sourceId);
+        ByteBuffer body = body(FORK, targetId, 2 + source.length);
+        body.putShort((short) source.length).put(source);
+        return write(targetId, body, FORK, 0, sourceId);
+    }
+
+    public boolean drop(String sessionId) {
+        writeLock.lock();
+        try {
+            if (!index.containsKey(sessionId)) {
+                return false;
+            }
+            write(sessionId, body(DROP, sessionId, 0), DROP, 0, null);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to {@code offset} (as returned by a write) has been forced to disk.
+     */
+    public void awaitDurable(long offset) throws IOException {
+        if (offset <= durable) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (requested < offset) {
+                requested = offset;
+                syncRequested.signal();
+            }
+            while (durable < offset) {
+                if (failure != null) {
+                    throw new IOException("Session journal sync failed.", failure);
+                }
+                if (closed && !syncThread.isAlive()) {
+                    throw new IOException("Session journal is closed.");
+                }
+                synced.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the session journal.");
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private long write(String sessionId, ByteBuffer body, byte type, int size, String sourceId) {
+        body.flip();
+        int length = body.remaining();
+        CRC32C crc = new CRC32C();
+        crc.update(body.duplicate());
+        writeLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Session journal is closed.");
+            }
+            if (!current.fits(HEADER_BYTES + length)) {
+                roll(HEADER_BYTES + length);
+            }
+            int offset = current.put(body, (int) crc.getValue());
+            written += HEADER_BYTES + length;
+            switch (type) {
+                case APPEND -> indexAppend(sessionId, position(current.number, offset));
+                case TRUNCATE -> {
+                    SessionIndex session = index.get(sessionId);
+                    if (session != null) {
+                        session.truncate(size);
+                    }
+                }
+                case FORK -> copyIndex(sourceId, sessionId);
+                default -> indexRemove(sessionId);
+            }
+            records.increment();
+            return written;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Index changes run while opening or under the write lock, so they never race each other.
+     */
+    private void indexAppend(String sessionId, long position) {
+        SessionIndex session = index.get(sessionId);
+        if (session == null) {
+            session = new SessionIndex();
+            index.put(sessionId, session);
+            indexSlots.addAndGet(session.capacity());
+        }
+        indexSlots.addAndGet(session.add(position));
+    }
+
+    private void indexRemove(String sessionId) {
+        SessionIndex removed = index.remove(sessionId);
+        if (removed != null) {
+            indexSlots.addAndGet(-removed.capacity());
+        }
+    }
+
+    private void copyIndex(String sourceId, String targetId) {
+        indexRemove(targetId);
+        SessionIndex source = index.get(sourceId);
+        if (source != null) {
+            SessionIndex copy = source.copy();
+            index.put(targetId, copy);
+            indexSlots.addAndGet(copy.capacity());
+        }
+    }
+
+    private void roll(int needed) {
+        sealed.add(current);
+        int number = current.number + 1;
+        try {
+            current = Segment.create(segmentPath(number), number, Math.max(segmentBytes, needed));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create journal segment " + number + ".", e);
+        }
+        track(number, current.size());
+    }
+
+    private void track(int number, long bytes) {
+        segmentFiles.put(number, bytes);
+        diskBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Deletes the segments before the oldest one that a session's history or an unsynced write
+     * still needs.
+     */
+    private void retire() {
+        List<Integer> retired;
+        writeLock.lock();
+        try {
+            int bound = sealed.isEmpty() ? current.number : sealed.getFirst().number;
+            for (SessionIndex session : index.values()) {
+                bound = Math.min(bound, session.firstSegment());
+            }
+            retired = new ArrayList<>(segmentFiles.headMap(bound).keySet());
+        } finally {
+            writeLock.unlock();
+        }
+        int deleted = 0;
+        for (int number : retired) {
+            try {
+                FileChannel reader = readers.remove(number);
+                if (reader != null) {
+                    reader.close();
+                }
+                Files.deleteIfExists(segmentPath(number));
+            } catch (IOException e) {
+                logger.warn("Failed to delete journal segment {}. Retrying at the next roll.", number, e);
+                continue;
+            }
+            diskBytes.addAndGet(-segmentFiles.remove(number));
+            deleted++;
+        }
+        if (deleted > 0) {
+            logger.info("Retired journal segments. deleted={} segments={} bytes={}",
+                    deleted, segmentFiles.size(), diskBytes.get());
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            boolean stopping;
+            boolean waited;
+            syncLock.lock();
+            try {
+                long deadline = System.nanoTime() + IDLE_SYNC_NANOS;
+                long left = IDLE_SYNC_NANOS;
+                while (!closed && requested <= durable && left > 0) {
+                    left = syncRequested.awaitNanos(left);
+                    left = Math.min(left, deadline - System.nanoTime());
+                }
+                stopping = closed;
+                waited = requested > durable;
+            } catch (InterruptedException e) {
+                stopping = true;
+                waited = true;
+            } finally {
+                syncLock.unlock();
+            }
+            if (waited && !stopping && syncWindowNanos > 0) {
+                LockSupport.parkNanos(syncWindowNanos);
+            }
+            try {
+                syncOnce();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Session journal sync failed.", e);
+                failure = e instanceof IOException io ? io : new IOException(e);
+                signalSynced();
+                return;
+            }
+            if (stopping) {
+                return;
+            }
+        }
+    }
+
+    private void syncOnce() throws IOException {
+        long target;
+        List<Segment> batch;
+        int[] ends;
+        writeLock.lock();
+        try {
+            target = written;
+            if (target <= durable) {
+                return;
+            }
+            batch = new ArrayList<>(sealed);
+            batch.add(current);
+            sealed.clear();
+            ends = new int[batch.size()];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = batch.get(i).position;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        long started = System.nanoTime();
+        for (int i = 0; i < ends.length; i++) {
+            Segment segment = batch.get(i);
+            segment.force(ends[i]);
+            if (segment != batch.getLast()) {
+                segment.close();
+            }
+        }
+        syncDuration.recordSince(started);
+        syncBytes.record(target - durable);
+        syncLock.lock();
+        try {
+            durable = target;
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        if (batch.size() > 1) {
+            retire();
+        }
+    }
+
+    private void signalSynced() {
+        syncLock.lock();
+        try {
+            synced.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        syncLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            syncRequested.signal();
+        } finally {
+            syncLock.unlock();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            current.close();
+            for (Segment segment : sealed) {
+                segment.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        for (FileChannel reader : readers.values()) {
+            reader.close();
+        }
+        readers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private ByteBuffer read(long position) throws IOException {
+        int number = (int) (position >>> 32);
+        int offset = (int) position;
+        FileChannel channel = readers.computeIfAbsent(number, key -> {
+            try {
+                return FileChannel.open(segmentPath(key), StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, offset);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(channel, body, offset + HEADER_BYTES);
+        return body.flip();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new IOException("Journal record at offset " + offset + " is truncated.");
+            }
+        }
+    }
+
+    private static ByteBuffer body(byte type, String sessionId, int payloadBytes) {
+        byte[] id = bytes(sessionId);
+        return ByteBuffer.allocate(1 + 2 + id.length + payloadBytes).put(type).putShort((short) id.length).put(id);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer, int length) {
+        String value = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private Path segmentPath(int number) {
+        return dir.resolve(String.format("%08d%s", number, SUFFIX));
+    }
+
+    private final class SessionLog implements HistoryLog {
+        private final String sessionId;
+        private volatile long last;
+
+        private SessionLog(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public void appended(ChatMessage message) {
+            last = append(sessionId, message);
+        }
+
+        @Override
+        public void truncated(int size) {
+            last = truncate(sessionId, size);
+        }
+
+        @Override
+        public void commit() throws IOException {
+            awaitDurable(last);
+        }
+    }
+
+    private static final class SessionIndex {
+        private long[] positions = new long[4];
+        private int size;
+
+        /**
+         * Returns how many slots the array grew by.
+         */
+        synchronized int add(long position) {
+            int grown = 0;
+            if (size == positions.length) {
+                grown = size;
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+            return grown;
+        }
+
+        synchronized int capacity() {
+            return positions.length;
+        }
+
+        synchronized void truncate(int newSize) {
+            size = Math.max(0, Math.min(size, newSize));
+        }
+
+        synchronized SessionIndex copy() {
+            SessionIndex copy = new SessionIndex();
+            copy.positions = Arrays.copyOf(positions, Math.max(4, size));
+            copy.size = size;
+            return copy;
+        }
+
+        synchronized long[] snapshot() {
+            return Arrays.copyOf(positions, size);
+        }
+
+        /**
+         * The segment of the oldest message, since positions only grow.
+         */
+        synchronized int firstSegment() {
+            return size == 0 ? Integer.MAX_VALUE : (int) (positions[0] >>> 32);
+        }
+    }
+
+    /**
+     * A segment mapped in its own arena, so closing it unmaps the file straight away.
+     */
+    private static final class Segment {
+        private final int number;
+        private final FileChannel channel;
+        private final Arena arena;
+        private final MemorySegment mapped;
+        private final ByteBuffer buffer;
+        private int position;
+        private int synced;
+
+        private Segment(int number, FileChannel channel, Arena arena, MemorySegment mapped) {
+            this.number = number;
+            this.channel = channel;
+            this.arena = arena;
+            this.mapped = mapped;
+            this.buffer = mapped.asByteBuffer();
+        }
+
+        static Segment create(Path path, int number, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Arena arena = Arena.ofShared();
+            try {
+                return new Segment(number, channel, arena, channel.map(FileChannel.MapMode.READ_WRITE, 0, size, arena));
+            } catch (IOException | RuntimeException e) {
+                arena.close();
+                channel.close();
+                throw e;
+            }
+        }
+
+        long size() {
+            return mapped.byteSize();
+        }
+
+        boolean fits(int bytes) {
+            return buffer.capacity() - position >= bytes;
+        }
+
+        int put(ByteBuffer body, int crc) {
+            int offset = position;
+            int length = body.remaining();
+            buffer.put(offset + HEADER_BYTES, body, body.position(), length);
+            buffer.putInt(offset + 4, crc);
+            buffer.putInt(offset, length);
+            position = offset + HEADER_BYTES + length;
+            return offset;
+        }
+
+        void force(int end) {
+            if (end > synced) {
+                mapped.asSlice(synced, end - synced).force();
+                synced = end;
+            }
+        }
+
+        void close() throws IOException {
+            arena.close();
+            channel.close();
+        }
+    }
+}
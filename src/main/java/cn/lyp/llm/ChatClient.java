@@ -5,4 +5,16 @@ import java.util.function.Consumer;
 
 public interface ChatClient {
     String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken) throws Exception;
+
+    default String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken, RunContext context)
+            throws Exception {
+        context.throwIfCancelled();
+        return chat(messages, options, onToken);
+    }
+
+    /**
+     * Does the one-off work the first call would otherwise pay for, such as opening a connection.
+     */
+    default void warmUp() throws Exception {
+    }
 }
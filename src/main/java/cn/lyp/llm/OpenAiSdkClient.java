@@ -8,6 +8,7 @@ import com.openai.models.chat.completions.ChatCompletionChunk;
 import com.openai.models.chat.completions.ChatCompletionCreateParams;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
@@ -28,6 +29,12 @@ public class OpenAiSdkClient implements ChatClient {
 
     @Override
     public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken) {
+        return chat(messages, options, onToken, RunContext.none());
+    }
+
+    @Override
+    public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken, RunContext context) {
+        context.throwIfCancelled();
         logger.info("LLM request: model={}, stream={}, message={}",
                 options.model(), options.stream(), messages);
         ChatCompletionCreateParams.Builder params = ChatCompletionCreateParams.builder()
@@ -41,10 +48,11 @@ public class OpenAiSdkClient implements ChatClient {
         }
 
         if (options.stream()) {
-            return stream(params.build(), onToken);
+            return stream(params.build(), onToken, context);
         }
 
         ChatCompletion completion = client.chat().completions().create(params.build());
+        context.throwIfCancelled();
         String output = completion.choices().stream()
                 .flatMap(choice -> choice.message().content().stream())
                 .collect(Collectors.joining());
@@ -52,19 +60,44 @@ public class OpenAiSdkClient implements ChatClient {
         return output;
     }
 
-    private String stream(ChatCompletionCreateParams params, Consumer<String> onToken) {
+    /**
+     * Builds a request without sending it, which loads the SDK's request classes, then lists the
+     * models so the connection pool keeps an open TLS connection to the endpoint.
+     */
+    @Override
+    public void warmUp() {
+        ChatCompletionCreateParams.Builder params = ChatCompletionCreateParams.builder().model("warmup");
+        addMessage(params, ChatMessage.system("warm-up"));
+        addMessage(params, ChatMessage.user("warm-up"));
+        addMessage(params, ChatMessage.assistant("warm-up"));
+        params.build();
+        long started = System.nanoTime();
+        client.models().list();
+        logger.info("LLM endpoint connected. elapsedMs={}", (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private String stream(ChatCompletionCreateParams params, Consumer<String> onToken, RunContext context) {
         StringBuilder full = new StringBuilder();
-        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(params)) {
+        try (StreamResponse<ChatCompletionChunk> stream = client.chat().completions().createStreaming(params);
+             RunContext.Registration ignored = context.onCancel(stream::close)) {
             stream.stream()
                     .flatMap(chunk -> chunk.choices().stream())
                     .flatMap(choice -> choice.delta().content().stream())
                     .forEach(token -> {
+                        context.throwIfCancelled();
                         full.append(token);
                         if (onToken != null) {
                             onToken.accept(token);
                         }
                     });
+        } catch (RuntimeException e) {
+            if (context.isCancelled()) {
+                logger.info("LLM stream cancelled. outputLength={}", full.length());
+                throw new CancellationException("LLM stream cancelled.");
+            }
+            throw e;
         }
+        context.throwIfCancelled();
         logger.info("LLM stream completed. outputLength={}", full.length());
         return full.toString();
     }
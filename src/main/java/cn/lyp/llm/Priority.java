@@ -0,0 +1,33 @@
+package cn.lyp.llm;
+
+import java.util.Locale;
+
+/**
+ * Scheduling class of a run. Lower ranks are dispatched first; waiting work ages towards the front.
+ */
+public enum Priority {
+    INTERACTIVE,
+    BATCH;
+
+    public int rank() {
+        return ordinal();
+    }
+
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns null for a blank value so callers can fall back to their default.
+     */
+    public static Priority parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        return switch (value.trim().toLowerCase(Locale.ROOT)) {
+            case "interactive" -> INTERACTIVE;
+            case "batch" -> BATCH;
+            default -> throw new IllegalArgumentException("Invalid priority. Use interactive or batch.");
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package cn.lyp.llm;
+
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public final class RunContext {
+    private static final Logger logger = LoggerFactory.getLogger(RunContext.class);
+    private static final RunContext NONE = new RunContext(false);
+    private final boolean cancellable;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final Set<Runnable> callbacks = ConcurrentHashMap.newKeySet();
+    private volatile StepGate stepGate = StepGate.OPEN;
+    private volatile Priority priority = Priority.INTERACTIVE;
+    private volatile RunListener listener = RunListener.NONE;
+
+    private RunContext(boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    public static RunContext create() {
+        return new RunContext(true);
+    }
+
+    public static RunContext none() {
+        return NONE;
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public void cancel() {
+        if (!cancellable || !cancelled.compareAndSet(false, true)) {
+            return;
+        }
+        for (Runnable callback : callbacks) {
+            runQuietly(callback);
+        }
+        callbacks.clear();
+    }
+
+    public void throwIfCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException("Run cancelled.");
+        }
+    }
+
+    public Priority priority() {
+        return priority;
+    }
+
+    public void setPriority(Priority priority) {
+        if (cancellable && priority != null) {
+            this.priority = priority;
+        }
+    }
+
+    public RunListener listener() {
+        return listener;
+    }
+
+    public void setListener(RunListener listener) {
+        if (cancellable) {
+            this.listener = listener == null ? RunListener.NONE : listener;
+        }
+    }
+
+    public void setStepGate(StepGate stepGate) {
+        if (cancellable) {
+            this.stepGate = stepGate == null ? StepGate.OPEN : stepGate;
+        }
+    }
+
+    public StepGate.Permit enterStep() throws InterruptedException {
+        throwIfCancelled();
+        return stepGate.enter(this);
+    }
+
+    public Registration onCancel(Runnable callback) {
+        if (!cancellable) {
+            return () -> {
+            };
+        }
+        Runnable entry = callback::run;
+        callbacks.add(entry);
+        if (isCancelled() && callbacks.remove(entry)) {
+            runQuietly(entry);
+        }
+        return () -> callbacks.remove(entry);
+    }
+
+    private static void runQuietly(Runnable callback) {
+        try {
+            callback.run();
+        } catch (RuntimeException e) {
+            logger.debug("Cancel callback failed.", e);
+        }
+    }
+
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
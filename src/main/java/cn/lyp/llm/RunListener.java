@@ -0,0 +1,15 @@
+package cn.lyp.llm;
+
+/**
+ * Receives progress events from an agent run, on the thread doing the work.
+ */
+public interface RunListener {
+    RunListener NONE = new RunListener() {
+    };
+
+    default void toolStarted(String tool) {
+    }
+
+    default void toolFinished(String tool, boolean success, long elapsedNanos) {
+    }
+}
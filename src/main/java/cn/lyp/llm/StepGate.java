@@ -0,0 +1,18 @@
+package cn.lyp.llm;
+
+/**
+ * Admission check run before each agent step (a model call plus the tool it asks for).
+ * Implementations may block, and throw to fail the run.
+ */
+@FunctionalInterface
+public interface StepGate {
+    StepGate OPEN = context -> () -> {
+    };
+
+    Permit enter(RunContext context) throws InterruptedException;
+
+    interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -1,6 +1,7 @@
 package cn.lyp.mcp;
 
 import cn.lyp.config.McpServerConfig;
+import cn.lyp.llm.RunContext;
 import io.modelcontextprotocol.client.McpClient;
 import io.modelcontextprotocol.client.McpSyncClient;
 import io.modelcontextprotocol.client.transport.HttpClientSseClientTransport;
@@ -14,6 +15,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 
 public final class McpClientManager implements AutoCloseable {
     private static final Logger logger = LoggerFactory.getLogger(McpClientManager.class);
@@ -73,6 +79,23 @@ public final class McpClientManager implements AutoCloseable {
         return Collections.unmodifiableMap(toolCatalog);
     }
 
+    /**
+     * Pings every connected server. Returns "ok" or the failure for each, by server name.
+     */
+    public Map<String, String> ping() {
+        Map<String, String> results = new TreeMap<>();
+        for (Map.Entry<String, McpSyncClient> entry : clients.entrySet()) {
+            try {
+                entry.getValue().ping();
+                results.put(entry.getKey(), "ok");
+            } catch (Exception e) {
+                logger.warn("MCP server {} did not answer a ping.", entry.getKey(), e);
+                results.put(entry.getKey(), "failed: " + e.getMessage());
+            }
+        }
+        return results;
+    }
+
     public McpSchema.CallToolResult callTool(String serverName, String toolName, Map<String, Object> args)
             throws Exception {
         McpSyncClient client = clients.get(serverName);
@@ -83,6 +106,29 @@ public final class McpClientManager implements AutoCloseable {
         return client.callTool(request);
     }
 
+    public McpSchema.CallToolResult callTool(String serverName, String toolName, Map<String, Object> args,
+                                             RunContext context) throws Exception {
+        context.throwIfCancelled();
+        CompletableFuture<McpSchema.CallToolResult> call = CompletableFuture.supplyAsync(() -> {
+            try {
+                return callTool(serverName, toolName, args);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, task -> Thread.ofVirtual().name("mcp-call-" + serverName).start(task));
+        try (RunContext.Registration ignored = context.onCancel(() -> call.cancel(true))) {
+            return call.get();
+        } catch (CancellationException e) {
+            logger.info("MCP call abandoned after cancellation: {}.{}", serverName, toolName);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception exception) {
+                throw exception;
+            }
+            throw e;
+        }
+    }
+
     @Override
     public void close() {
         for (Map.Entry<String, McpSyncClient> entry : clients.entrySet()) {
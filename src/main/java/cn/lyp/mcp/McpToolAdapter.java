@@ -2,6 +2,7 @@ package cn.lyp.mcp;
 
 import cn.lyp.agent.Tool;
 import cn.lyp.agent.ToolResult;
+import cn.lyp.llm.RunContext;
 import io.modelcontextprotocol.spec.McpSchema;
 
 import java.util.LinkedHashMap;
@@ -42,7 +43,12 @@ public class McpToolAdapter implements Tool {
 
     @Override
     public ToolResult execute(Map<String, Object> args) throws Exception {
-        McpSchema.CallToolResult result = clientManager.callTool(serverName, toolName, args);
+        return execute(args, RunContext.none());
+    }
+
+    @Override
+    public ToolResult execute(Map<String, Object> args, RunContext context) throws Exception {
+        McpSchema.CallToolResult result = clientManager.callTool(serverName, toolName, args, context);
         String output = McpToolResultFormatter.toText(result);
         boolean isError = result != null && Boolean.TRUE.equals(result.isError());
         return isError ? ToolResult.error(output) : ToolResult.ok(output);
@@ -0,0 +1,86 @@
+package cn.lyp.metrics;
+
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.llm.ChatOptions;
+import cn.lyp.llm.RunContext;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+
+public class MeteredChatClient implements ChatClient {
+    private final ChatClient delegate;
+    private final Histogram streamTimeToFirstToken;
+    private final Histogram streamDuration;
+    private final Histogram blockingDuration;
+    private final Counter ok;
+    private final Counter errors;
+    private final Counter cancelled;
+
+    public MeteredChatClient(ChatClient delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.streamTimeToFirstToken = metrics.histogram("agent_llm_time_to_first_token_seconds",
+                "Time from sending a streaming model request to its first token.", MetricsRegistry.NANOS);
+        String durationHelp = "Model call latency until the full response is received.";
+        this.streamDuration = metrics.histogram("agent_llm_request_duration_seconds", durationHelp,
+                MetricsRegistry.NANOS, "stream", "true");
+        this.blockingDuration = metrics.histogram("agent_llm_request_duration_seconds", durationHelp,
+                MetricsRegistry.NANOS, "stream", "false");
+        String countHelp = "Model calls by outcome.";
+        this.ok = metrics.counter("agent_llm_requests_total", countHelp, "outcome", "ok");
+        this.errors = metrics.counter("agent_llm_requests_total", countHelp, "outcome", "error");
+        this.cancelled = metrics.counter("agent_llm_requests_total", countHelp, "outcome", "cancelled");
+    }
+
+    @Override
+    public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken) throws Exception {
+        return chat(messages, options, onToken, RunContext.none());
+    }
+
+    @Override
+    public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken, RunContext context)
+            throws Exception {
+        long start = System.nanoTime();
+        boolean stream = options.stream() && onToken != null;
+        Consumer<String> tokens = stream ? new FirstTokenTimer(onToken, start) : onToken;
+        try {
+            String response = delegate.chat(messages, options, tokens, context);
+            ok.increment();
+            return response;
+        } catch (CancellationException e) {
+            cancelled.increment();
+            throw e;
+        } catch (Exception e) {
+            errors.increment();
+            throw e;
+        } finally {
+            (stream ? streamDuration : blockingDuration).recordSince(start);
+        }
+    }
+
+    private final class FirstTokenTimer implements Consumer<String> {
+        private final Consumer<String> delegate;
+        private final long start;
+        private boolean seen;
+
+        private FirstTokenTimer(Consumer<String> delegate, long start) {
+            this.delegate = delegate;
+            this.start = start;
+        }
+
+        @Override
+        public void accept(String token) {
+            if (!seen) {
+                seen = true;
+                streamTimeToFirstToken.recordSince(start);
+            }
+            delegate.accept(token);
+        }
+    }
+
+    @Override
+    public void warmUp() throws Exception {
+        delegate.warmUp();
+    }
+}
@@ -0,0 +1,158 @@
+package cn.lyp.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process metrics exposed in the Prometheus text format. Look up metrics once and keep the
+ * returned instance; the lookup itself builds a key string and is not meant for hot paths.
+ */
+public class MetricsRegistry {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final double NANOS = 1e-9;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final MetricsRegistry DISABLED = new Detached();
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * A registry for components built without metrics wiring. It registers nothing: every lookup
+     * returns a fresh, unshared instance (histograms without buckets), and gauge suppliers are
+     * dropped so their owners are not kept alive.
+     */
+    public static MetricsRegistry disabled() {
+        return DISABLED;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter", 1).children
+                .computeIfAbsent(formatLabels(labels), key -> new Counter());
+    }
+
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter", 1).children.put(formatLabels(labels), value);
+    }
+
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "gauge", 1).children.put(formatLabels(labels), value);
+    }
+
+    /**
+     * Registers a histogram exported as a summary with p50/p90/p99/p99.9. {@code scale} converts
+     * recorded values to the exported unit, e.g. {@link #NANOS} for durations named *_seconds.
+     */
+    public Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) family(name, help, "summary", scale).children
+                .computeIfAbsent(formatLabels(labels), key -> new Histogram());
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : new ConcurrentSkipListMap<>(family.children).entrySet()) {
+                writeChild(out, family, child.getKey(), child.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private void writeChild(StringBuilder out, Family family, String labels, Object metric) {
+        if (metric instanceof Counter counter) {
+            sample(out, family.name, labels, counter.value());
+        } else if (metric instanceof LongSupplier supplier) {
+            sample(out, family.name, labels, supplier.getAsLong());
+        } else if (metric instanceof Histogram histogram) {
+            for (double quantile : QUANTILES) {
+                String quantileLabel = "quantile=\"" + quantile + "\"";
+                String merged = labels.isEmpty() ? "{" + quantileLabel + "}"
+                        : labels.substring(0, labels.length() - 1) + "," + quantileLabel + "}";
+                sample(out, family.name, merged, histogram.quantile(quantile) * family.scale);
+            }
+            sample(out, family.name + "_sum", labels, histogram.sum() * family.scale);
+            sample(out, family.name + "_count", labels, histogram.count());
+        }
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, long value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ').append(value).append('\n');
+    }
+
+    private Family family(String name, String help, String type, double scale) {
+        Family family = families.computeIfAbsent(name, key -> new Family(name, help, type, scale));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " already registered as " + family.type + ".");
+        }
+        return family;
+    }
+
+    static String formatLabels(String... labels) {
+        if (labels == null || labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs.");
+        }
+        StringBuilder out = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                out.append(',');
+            }
+            out.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char ch = value.charAt(j);
+                switch (ch) {
+                    case '\\' -> out.append("\\\\");
+                    case '"' -> out.append("\\\"");
+                    case '\n' -> out.append("\\n");
+                    default -> out.append(ch);
+                }
+            }
+            out.append('"');
+        }
+        return out.append('}').toString();
+    }
+
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final double scale;
+        private final ConcurrentMap<String, Object> children = new ConcurrentHashMap<>();
+
+        private Family(String name, String help, String type, double scale) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.scale = scale;
+        }
+    }
+
+    private static final class Detached extends MetricsRegistry {
+        @Override
+        public Counter counter(String name, String help, String... labels) {
+            return new Counter();
+        }
+
+        @Override
+        public void counter(String name, String help, LongSupplier value, String... labels) {
+        }
+
+        @Override
+        public void gauge(String name, String help, LongSupplier value, String... labels) {
+        }
+
+        @Override
+        public Histogram histogram(String name, String help, double scale, String... labels) {
+            return Histogram.discarding();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package cn.lyp.protocol;
+
+/**
+ * Header and cookie names shared by the server, the router and the clients.
+ */
+public final class Protocol {
+    public static final String SESSION_HEADER = "X-Session-Id";
+    public static final String SESSION_COOKIE = "agent_session";
+    /**
+     * Request header carrying the id {@code POST /jobs} should use. The router sets it.
+     */
+    public static final String JOB_ID_HEADER = "X-Job-Id";
+
+    private Protocol() {
+    }
+}
@@ -0,0 +1,70 @@
+package cn.lyp.protocol;
+
+import java.util.Locale;
+
+/**
+ * Wire formats for a streamed chat response, chosen by the request's {@code Accept} header.
+ * <ul>
+ *     <li>{@link #SSE}: {@code event:}/{@code data:} lines, for browsers and curl.</li>
+ *     <li>{@link #NDJSON}: one JSON object per line with the event name as its only key,
+ *     e.g. {@code {"token":"Hel"}}.</li>
+ *     <li>{@link #FRAMES}: a type byte, a 4-byte big-endian payload length and the UTF-8 payload.</li>
+ * </ul>
+ */
+public enum StreamFormat {
+    SSE("text/event-stream", "text/event-stream; charset=utf-8"),
+    NDJSON("application/x-ndjson", "application/x-ndjson; charset=utf-8"),
+    FRAMES("application/vnd.agent.frames", "application/vnd.agent.frames");
+
+    public static final int FRAME_HEADER_BYTES = 5;
+    public static final int FRAME_KEEPALIVE = 0;
+    public static final int FRAME_TOKEN = 1;
+    public static final int FRAME_TOOL = 2;
+    public static final int FRAME_DONE = 3;
+    public static final int FRAME_ERROR = 4;
+
+    private final String mediaType;
+    private final String contentType;
+
+    StreamFormat(String mediaType, String contentType) {
+        this.mediaType = mediaType;
+        this.contentType = contentType;
+    }
+
+    public String mediaType() {
+        return mediaType;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * Returns the first supported format listed in {@code accept}, or SSE if none is.
+     */
+    public static StreamFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return SSE;
+        }
+        for (String range : accept.split(",")) {
+            int params = range.indexOf(';');
+            String type = (params < 0 ? range : range.substring(0, params)).trim().toLowerCase(Locale.ROOT);
+            for (StreamFormat format : values()) {
+                if (format.mediaType.equals(type)) {
+                    return format;
+                }
+            }
+        }
+        return SSE;
+    }
+
+    public static int frameType(String event) {
+        return switch (event) {
+            case "token" -> FRAME_TOKEN;
+            case "tool" -> FRAME_TOOL;
+            case "done" -> FRAME_DONE;
+            case "error" -> FRAME_ERROR;
+            default -> throw new IllegalArgumentException("No frame type for event " + event + ".");
+        };
+    }
+}
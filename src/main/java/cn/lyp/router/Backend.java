@@ -0,0 +1,25 @@
+package cn.lyp.router;
+
+import java.net.URI;
+
+record Backend(String host, int port) {
+
+    static Backend parse(String value) {
+        String trimmed = value.trim();
+        int colon = trimmed.lastIndexOf(':');
+        return new Backend(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+    }
+
+    String id() {
+        return host + ":" + port;
+    }
+
+    URI uri(String pathAndQuery) {
+        return URI.create("http://" + id() + pathAndQuery);
+    }
+
+    @Override
+    public String toString() {
+        return id();
+    }
+}
@@ -0,0 +1,85 @@
+package cn.lyp.router;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Configured backends with their health, plus the hash ring built from the healthy ones.
+ * The ring is rebuilt whenever a backend joins or leaves.
+ */
+final class BackendPool {
+    private static final Logger logger = LoggerFactory.getLogger(BackendPool.class);
+    private final Map<Backend, State> states = new LinkedHashMap<>();
+    private final int virtualNodes;
+    private volatile HashRing ring;
+
+    BackendPool(List<Backend> backends, int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        for (Backend backend : backends) {
+            states.put(backend, new State());
+        }
+        this.ring = HashRing.of(backends, virtualNodes);
+    }
+
+    List<Backend> backends() {
+        return List.copyOf(states.keySet());
+    }
+
+    List<Backend> candidates(String key, int limit) {
+        return ring.candidates(key, limit);
+    }
+
+    int healthyCount() {
+        return ring.size();
+    }
+
+    boolean isHealthy(Backend backend) {
+        State state = states.get(backend);
+        return state != null && state.healthy;
+    }
+
+    long proxied(Backend backend) {
+        State state = states.get(backend);
+        return state == null ? 0 : state.proxied.sum();
+    }
+
+    void recordProxied(Backend backend) {
+        State state = states.get(backend);
+        if (state != null) {
+            state.proxied.increment();
+        }
+    }
+
+    void markHealthy(Backend backend, boolean healthy, String reason) {
+        State state = states.get(backend);
+        if (state == null || state.healthy == healthy) {
+            return;
+        }
+        synchronized (this) {
+            if (state.healthy == healthy) {
+                return;
+            }
+            state.healthy = healthy;
+            List<Backend> members = new ArrayList<>();
+            for (Map.Entry<Backend, State> entry : states.entrySet()) {
+                if (entry.getValue().healthy) {
+                    members.add(entry.getKey());
+                }
+            }
+            ring = HashRing.of(members, virtualNodes);
+            logger.info("Backend {} {} the ring. reason={} healthy={}/{}", backend,
+                    healthy ? "joined" : "left", reason, members.size(), states.size());
+        }
+    }
+
+    private static final class State {
+        private volatile boolean healthy = true;
+        private final LongAdder proxied = new LongAdder();
+    }
+}
@@ -0,0 +1,97 @@
+package cn.lyp.router;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable consistent-hash ring. Each backend owns {@code virtualNodes} points, so adding or
+ * removing one backend only moves the keys that hashed to its points.
+ */
+final class HashRing {
+    private static final HashRing EMPTY = new HashRing(new long[0], new Backend[0], 0);
+    private final long[] points;
+    private final Backend[] owners;
+    private final int backends;
+
+    private HashRing(long[] points, Backend[] owners, int backends) {
+        this.points = points;
+        this.owners = owners;
+        this.backends = backends;
+    }
+
+    static HashRing of(Collection<Backend> members, int virtualNodes) {
+        if (members.isEmpty()) {
+            return EMPTY;
+        }
+        long[][] entries = new long[members.size() * virtualNodes][];
+        List<Backend> indexed = new ArrayList<>(members);
+        int count = 0;
+        for (int b = 0; b < indexed.size(); b++) {
+            String id = indexed.get(b).id();
+            for (int v = 0; v < virtualNodes; v++) {
+                entries[count++] = new long[]{hash(id + "#" + v), b};
+            }
+        }
+        Arrays.sort(entries, (left, right) -> Long.compare(left[0], right[0]));
+        long[] points = new long[count];
+        Backend[] owners = new Backend[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = entries[i][0];
+            owners[i] = indexed.get((int) entries[i][1]);
+        }
+        return new HashRing(points, owners, indexed.size());
+    }
+
+    int size() {
+        return backends;
+    }
+
+    Backend lookup(String key) {
+        if (points.length == 0) {
+            return null;
+        }
+        return owners[slot(hash(key))];
+    }
+
+    /**
+     * The owner of {@code key} followed by the next distinct backends clockwise, for failover.
+     */
+    List<Backend> candidates(String key, int limit) {
+        Set<Backend> out = new LinkedHashSet<>();
+        if (points.length == 0) {
+            return List.of();
+        }
+        int start = slot(hash(key));
+        for (int i = 0; i < points.length && out.size() < Math.min(limit, backends); i++) {
+            out.add(owners[(start + i) % points.length]);
+        }
+        return List.copyOf(out);
+    }
+
+    private int slot(long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index == points.length ? 0 : index;
+    }
+
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
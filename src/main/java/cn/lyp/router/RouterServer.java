@@ -0,0 +1,313 @@
+package cn.lyp.router;
+
+import cn.lyp.config.AppConfig;
+import cn.lyp.config.RouterConfig;
+import cn.lyp.protocol.Protocol;
+import cn.lyp.server.SessionManager;
+import cn.lyp.server.http.HttpCall;
+import cn.lyp.server.http.HttpEngine;
+import cn.lyp.server.http.HttpEngines;
+import cn.lyp.server.http.HttpRoute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Front door for several agent servers. Requests are routed by session id over a consistent-hash
+ * ring of healthy backends, and response bodies (including SSE streams) are relayed as raw bytes.
+ */
+public class RouterServer {
+    private static final Logger logger = LoggerFactory.getLogger(RouterServer.class);
+    private static final Set<String> HOP_BY_HOP = Set.of("connection", "content-length", "expect", "host",
+            "keep-alive", "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade");
+    private static final Set<String> SESSION_PATHS = Set.of("/chat", "/reset");
+    private static final int ATTEMPTS = 2;
+    private static final int RETRY_BODY_LIMIT = 1 << 20;
+    private final AppConfig config;
+    private final RouterConfig routerConfig;
+    private final BackendPool pool;
+    private final HttpClient client;
+    private final ScheduledExecutorService healthTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "router-health");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private HttpEngine engine;
+    private ExecutorService executor;
+
+    public RouterServer(AppConfig config) {
+        this.config = config;
+        this.routerConfig = config.router();
+        List<Backend> backends = new ArrayList<>();
+        for (String backend : routerConfig.backends()) {
+            backends.add(Backend.parse(backend));
+        }
+        this.pool = new BackendPool(backends, routerConfig.virtualNodes());
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(routerConfig.healthTimeoutMs()))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public void start() throws IOException {
+        InetSocketAddress address = new InetSocketAddress(config.serverHost(), config.serverPort());
+        this.engine = HttpEngines.create(config.server());
+        this.executor = HttpEngines.executor(config.server());
+        engine.route("/", new ProxyHandler());
+        engine.route("/health", new HealthHandler());
+        engine.route("/stats", new StatsHandler());
+        engine.start(address, config.server().backlog(), executor);
+        checkHealth();
+        healthTimer.scheduleWithFixedDelay(this::checkHealth, routerConfig.healthIntervalMs(),
+                routerConfig.healthIntervalMs(), TimeUnit.MILLISECONDS);
+        logger.info("Router started on {}:{} backends={}", config.serverHost(), config.serverPort(), pool.backends());
+    }
+
+    public HttpEngine engine() {
+        return engine;
+    }
+
+    public void stop() {
+        healthTimer.shutdownNow();
+        if (engine != null) {
+            engine.stop();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    void checkHealth() {
+        for (Backend backend : pool.backends()) {
+            HttpRequest request = HttpRequest.newBuilder(backend.uri("/ready"))
+                    .timeout(Duration.ofMillis(routerConfig.healthTimeoutMs()))
+                    .GET()
+                    .build();
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (error != null) {
+                    pool.markHealthy(backend, false, error.getClass().getSimpleName());
+                } else {
+                    pool.markHealthy(backend, response.statusCode() == 200, "ready status " + response.statusCode());
+                }
+            });
+        }
+    }
+
+    /**
+     * Request bodies up to {@code RETRY_BODY_LIMIT} are buffered so a second backend can be tried.
+     * Larger ones, such as big {@code /batch} uploads, are streamed to a single backend.
+     */
+    private class ProxyHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            String path = call.uri().getPath();
+            if ("/ws".equals(path)) {
+                // HttpClient cannot relay an upgrade, and the upgrade headers are hop-by-hop.
+                sendStatus(call, 501, "The router does not proxy WebSockets. Connect to a backend directly.");
+                return;
+            }
+            String sessionId = resolveSessionId(call);
+            boolean generated = false;
+            if (sessionId == null && SESSION_PATHS.contains(path)) {
+                sessionId = SessionManager.newSessionId();
+                generated = true;
+            }
+            String jobId = null;
+            if (("/jobs".equals(path) || "/jobs/".equals(path)) && "POST".equalsIgnoreCase(call.method())) {
+                jobId = UUID.randomUUID().toString();
+            }
+            InputStream requestBody = call.requestBody();
+            byte[] body = requestBody.readNBytes(RETRY_BODY_LIMIT + 1);
+            boolean streamed = body.length > RETRY_BODY_LIMIT;
+            String key = routingKey(path, sessionId, jobId);
+            List<Backend> candidates = pool.candidates(key, streamed ? 1 : ATTEMPTS);
+            if (candidates.isEmpty()) {
+                sendStatus(call, 503, "No healthy backends.");
+                return;
+            }
+            for (Backend backend : candidates) {
+                HttpRequest.BodyPublisher publisher;
+                if (streamed) {
+                    publisher = HttpRequest.BodyPublishers.ofInputStream(
+                            () -> new SequenceInputStream(new ByteArrayInputStream(body), requestBody));
+                } else if (body.length == 0) {
+                    publisher = HttpRequest.BodyPublishers.noBody();
+                } else {
+                    publisher = HttpRequest.BodyPublishers.ofByteArray(body);
+                }
+                HttpResponse<InputStream> response;
+                try {
+                    response = client.send(buildRequest(call, backend, publisher, sessionId, jobId),
+                            HttpResponse.BodyHandlers.ofInputStream());
+                } catch (ConnectException | HttpConnectTimeoutException e) {
+                    pool.markHealthy(backend, false, "connect failed");
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    sendStatus(call, 503, "Router shutting down.");
+                    return;
+                }
+                pool.recordProxied(backend);
+                if (generated) {
+                    call.addResponseHeader("Set-Cookie",
+                            Protocol.SESSION_COOKIE + "=" + sessionId + "; Path=/; HttpOnly; SameSite=Lax");
+                }
+                relay(call, backend, response);
+                return;
+            }
+            sendStatus(call, 502, "No backend accepted the request.");
+        }
+
+        /**
+         * A job lives only on the server that accepted it, so its requests hash on the job id the
+         * router picked for the {@code POST}. Other requests hash on the session, else the path.
+         */
+        private String routingKey(String path, String sessionId, String jobId) {
+            if (jobId != null) {
+                return jobId;
+            }
+            if (path.startsWith("/jobs/")) {
+                int end = path.indexOf('/', "/jobs/".length());
+                String id = path.substring("/jobs/".length(), end < 0 ? path.length() : end);
+                if (!id.isEmpty()) {
+                    return id;
+                }
+            }
+            return sessionId == null ? path : SessionManager.routingKey(sessionId);
+        }
+
+        private HttpRequest buildRequest(HttpCall call, Backend backend, HttpRequest.BodyPublisher body,
+                                         String sessionId, String jobId) {
+            URI uri = call.uri();
+            String target = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+            HttpRequest.Builder builder = HttpRequest.newBuilder(backend.uri(target))
+                    .method(call.method(), body);
+            for (Map.Entry<String, List<String>> header : call.requestHeaders().entrySet()) {
+                String name = header.getKey().toLowerCase(Locale.ROOT);
+                if (HOP_BY_HOP.contains(name) || name.equals(Protocol.SESSION_HEADER.toLowerCase(Locale.ROOT))
+                        || name.equals(Protocol.JOB_ID_HEADER.toLowerCase(Locale.ROOT))) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    builder.header(header.getKey(), value);
+                }
+            }
+            if (sessionId != null) {
+                builder.header(Protocol.SESSION_HEADER, sessionId);
+            }
+            if (jobId != null) {
+                builder.header(Protocol.JOB_ID_HEADER, jobId);
+            }
+            builder.header("X-Forwarded-For", call.remoteAddress());
+            return builder.build();
+        }
+
+        private void relay(HttpCall call, Backend backend, HttpResponse<InputStream> response) throws IOException {
+            for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+                String name = header.getKey().toLowerCase(Locale.ROOT);
+                if (HOP_BY_HOP.contains(name) || name.startsWith(":")) {
+                    continue;
+                }
+                for (String value : header.getValue()) {
+                    call.addResponseHeader(header.getKey(), value);
+                }
+            }
+            call.setResponseHeader("X-Agent-Backend", backend.id());
+            int status = response.statusCode();
+            long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (status == 204 || status == 304 || length == 0) {
+                call.sendResponseHeaders(status, -1);
+            } else {
+                call.sendResponseHeaders(status, Math.max(length, 0));
+            }
+            InputStream in = response.body();
+            call.onDisconnect(() -> closeQuietly(in));
+            try (in; OutputStream out = call.responseBody()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                    if (in.available() == 0) {
+                        out.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private class HealthHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (pool.healthyCount() == 0) {
+                sendStatus(call, 503, "no healthy backends");
+                return;
+            }
+            sendStatus(call, 200, "ok");
+        }
+    }
+
+    private class StatsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            StringBuilder out = new StringBuilder();
+            out.append("- healthyBackends: ").append(pool.healthyCount()).append("/")
+                    .append(pool.backends().size()).append("\n");
+            for (Backend backend : pool.backends()) {
+                out.append("- ").append(backend.id()).append(": ")
+                        .append(pool.isHealthy(backend) ? "up" : "down")
+                        .append(" proxied=").append(pool.proxied(backend)).append("\n");
+            }
+            sendStatus(call, 200, out.toString());
+        }
+    }
+
+    private static String resolveSessionId(HttpCall call) {
+        String sessionId = call.requestHeader(Protocol.SESSION_HEADER);
+        if (sessionId != null && SessionManager.isValidId(sessionId.trim())) {
+            return sessionId.trim();
+        }
+        return SessionManager.fromCookieHeader(call.requestHeader("Cookie"));
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close upstream stream.", e);
+        }
+    }
+
+    private static void sendStatus(HttpCall call, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        call.setResponseHeader("Content-Type", "text/plain; charset=utf-8");
+        call.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = call.responseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class AdmissionController {
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueueWaitNanos;
+    private final PriorityScheduler permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+
+    public AdmissionController(int maxConcurrent, int maxQueued, Duration maxQueueWait) {
+        this(maxConcurrent, maxQueued, maxQueueWait, Duration.ZERO);
+    }
+
+    /**
+     * Queued chats are admitted by priority; {@code aging} is how long a batch chat must wait before
+     * it goes ahead of newly arrived interactive ones.
+     */
+    public AdmissionController(int maxConcurrent, int maxQueued, Duration maxQueueWait, Duration aging) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.permits = new PriorityScheduler(maxConcurrent, aging.toNanos());
+    }
+
+    public Ticket tryAdmit() throws InterruptedException {
+        return tryAdmit(Priority.INTERACTIVE, RunContext.none());
+    }
+
+    public Ticket tryAdmit(Priority priority, RunContext context) throws InterruptedException {
+        long start = System.nanoTime();
+        if (permits.tryAcquire()) {
+            return admit(0);
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return null;
+        }
+        try {
+            if (!permits.acquire(priority, maxQueueWaitNanos, context)) {
+                rejected.increment();
+                return null;
+            }
+        } finally {
+            queued.decrementAndGet();
+        }
+        return admit(System.nanoTime() - start);
+    }
+
+    private Ticket admit(long waitedNanos) {
+        admitted.increment();
+        queueWaitNanos.add(waitedNanos);
+        return new Ticket(waitedNanos);
+    }
+
+    public int maxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int running() {
+        return permits.inUse();
+    }
+
+    public int queued() {
+        return queued.get();
+    }
+
+    public int queued(Priority priority) {
+        return permits.waiting(priority);
+    }
+
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long totalQueueWaitNanos() {
+        return queueWaitNanos.sum();
+    }
+
+    public long totalRunNanos() {
+        return runNanos.sum();
+    }
+
+    public final class Ticket implements AutoCloseable {
+        private final long queueWaitNanos;
+        private final long runStart = System.nanoTime();
+        private boolean closed;
+
+        private Ticket(long queueWaitNanos) {
+            this.queueWaitNanos = queueWaitNanos;
+        }
+
+        public long queueWaitNanos() {
+            return queueWaitNanos;
+        }
+
+        public long runNanos() {
+            return System.nanoTime() - runStart;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            runNanos.add(runNanos());
+            permits.release();
+        }
+    }
+}
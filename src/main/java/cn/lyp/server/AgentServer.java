@@ -6,223 +6,1308 @@ import cn.lyp.agent.tools.CalcTool;
 import cn.lyp.agent.tools.ShellTool;
 import cn.lyp.agent.tools.TimeTool;
 import cn.lyp.config.AppConfig;
+import cn.lyp.config.JobsConfig;
+import cn.lyp.config.JournalConfig;
 import cn.lyp.config.McpServerConfig;
+import cn.lyp.config.RateLimitConfig;
+import cn.lyp.config.SessionStoreConfig;
+import cn.lyp.jobs.Job;
+import cn.lyp.jobs.JobQueue;
+import cn.lyp.journal.SessionJournal;
 import cn.lyp.llm.ChatClient;
 import cn.lyp.llm.ChatOptions;
 import cn.lyp.llm.OpenAiSdkClient;
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+import cn.lyp.llm.RunListener;
 import cn.lyp.mcp.McpClientManager;
 import cn.lyp.mcp.McpToolAdapter;
-import com.sun.net.httpserver.HttpExchange;
-import com.sun.net.httpserver.HttpHandler;
-import com.sun.net.httpserver.HttpServer;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MeteredChatClient;
+import cn.lyp.metrics.MetricsRegistry;
+import cn.lyp.protocol.Protocol;
+import cn.lyp.protocol.StreamFormat;
+import cn.lyp.server.http.HttpCall;
+import cn.lyp.server.http.HttpEngine;
+import cn.lyp.server.http.HttpEngines;
+import cn.lyp.server.http.HttpRoute;
+import cn.lyp.server.http.WebSocket;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Consumer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 
 public class AgentServer {
+    public static final String PRIORITY_HEADER = "X-Agent-Priority";
     private static final Logger logger = LoggerFactory.getLogger(AgentServer.class);
+    private static final ObjectMapper JSON = new ObjectMapper();
     private final AppConfig config;
-    private final Agent agent;
+    private final SessionManager sessions;
+    private final AdmissionController admission;
+    private final RunTracker runs = new RunTracker();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final LongAdder cancelledRuns = new LongAdder();
+    private final ScheduledExecutorService sseTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "sse-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
     private final ToolRegistry toolRegistry;
     private final McpClientManager mcpClientManager;
-    private HttpServer server;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Map<Priority, Histogram> queueWait = new EnumMap<>(Priority.class);
+    private final Histogram runDuration;
+    private final Histogram sseStreamDuration;
+    private final Counter sseFlushes;
+    private final StreamBuffer.Meters streamBufferMeters;
+    private final ServerWarmup warmup;
+    private final StepBudget stepBudget;
+    private final SessionJournal journal;
+    private final SessionLanes lanes;
+    private final BatchHandler batch;
+    private final SingleFlight flights;
+    private final JobQueue jobs;
+    private final AtomicInteger openSockets = new AtomicInteger();
+    private final Counter socketCancelRequests;
+    private final Histogram socketCancelLatency;
+    private final ExecutorService laneExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("agent-lane-", 0).factory());
+    private final CachedResponse configResponse;
+    private volatile CachedResponse toolsResponse;
+    private HttpEngine engine;
     private ExecutorService executor;
 
     public AgentServer(AppConfig config) {
+        this(config, new OpenAiSdkClient(config.apiKey(), config.baseUrl()));
+    }
+
+    public AgentServer(AppConfig config, ChatClient client) {
         this.config = config;
         this.toolRegistry = buildTools(config);
         this.mcpClientManager = registerMcpTools(config, toolRegistry);
-        ChatClient client = new OpenAiSdkClient(config.apiKey(), config.baseUrl());
         ChatOptions options = new ChatOptions(config.model(), config.stream(), config.temperature());
         String systemPrompt = buildSystemPrompt(toolRegistry);
-        this.agent = new Agent(client, options, toolRegistry, config.maxSteps(), systemPrompt);
+        Duration aging = Duration.ofMillis(config.server().priorityAgingMs());
+        ChatClient meteredClient = new MeteredChatClient(client, metrics);
+        if (config.server().maxConcurrentLlmCalls() > 0) {
+            meteredClient = new ScheduledChatClient(meteredClient, config.server().maxConcurrentLlmCalls(),
+                    aging.toNanos(), metrics);
+        }
+        ChatClient modelClient = meteredClient;
+        this.admission = new AdmissionController(config.server().maxConcurrentRuns(),
+                config.server().maxQueuedRuns(), Duration.ofMillis(config.server().queueTimeoutMs()), aging);
+        this.journal = openJournal(config.server().journal());
+        Supplier<Agent> agents =
+                () -> new Agent(modelClient, options, toolRegistry, config.maxSteps(), systemPrompt, metrics);
+        this.sessions = new SessionManager(agents, journal, config.server().sessionStore(), metrics);
+        this.flights = new SingleFlight(metrics);
+        this.streamBufferMeters = new StreamBuffer.Meters(metrics);
+        this.warmup = new ServerWarmup(modelClient, mcpClientManager, systemPrompt,
+                config.server().warmupIterations());
+        this.batch = new BatchHandler(agents, runs, laneExecutor, config.server().batchConcurrency(), metrics);
+        this.jobs = openJobs(config.server().jobs(), (job, onToken, context) -> {
+            if (!runs.begin(context)) {
+                throw new CancellationException("Server is shutting down.");
+            }
+            try {
+                return agents.get().handle(job.prompt(), onToken, config.stream(), context);
+            } finally {
+                runs.end(context);
+            }
+        });
+        for (Priority priority : Priority.values()) {
+            queueWait.put(priority, metrics.histogram("agent_queue_wait_seconds",
+                    "Time a chat waited for an admission slot.", MetricsRegistry.NANOS, "priority", priority.label()));
+        }
+        this.runDuration = metrics.histogram("agent_run_duration_seconds",
+                "Time from admission to the end of a chat run.", MetricsRegistry.NANOS);
+        this.sseStreamDuration = metrics.histogram("agent_sse_stream_duration_seconds",
+                "Lifetime of an SSE chat response.", MetricsRegistry.NANOS);
+        this.sseFlushes = metrics.counter("agent_sse_flushes_total", "Socket flushes made by SSE responses.");
+        this.socketCancelRequests = metrics.counter("agent_websocket_cancels_total",
+                "Cancel messages received over WebSocket sessions.");
+        this.socketCancelLatency = metrics.histogram("agent_websocket_cancel_seconds",
+                "Time from a WebSocket cancel message to the run stopping.", MetricsRegistry.NANOS);
+        this.lanes = new SessionLanes(laneExecutor, config.server().sessionQueueDepth(),
+                SessionLanes.RejectPolicy.parse(config.server().sessionRejectPolicy()));
+        registerServerMetrics();
+        RateLimitConfig limits = config.server().rateLimit();
+        this.stepBudget = limits.maxInflightSteps() > 0
+                ? new StepBudget(limits.maxInflightSteps(), limits.stepWaitMs(), metrics)
+                : null;
+        this.configResponse = CachedResponse.of(renderConfig(), 0);
+    }
+
+    private SessionJournal openJournal(JournalConfig journalConfig) {
+        if (!journalConfig.enabled()) {
+            return null;
+        }
+        try {
+            return SessionJournal.open(Path.of(journalConfig.dir()), journalConfig.segmentBytes(),
+                    journalConfig.syncMs(), metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open session journal in " + journalConfig.dir() + ".", e);
+        }
+    }
+
+    private JobQueue openJobs(JobsConfig jobsConfig, JobQueue.Runner runner) {
+        try {
+            return new JobQueue(jobsConfig.persistent() ? Path.of(jobsConfig.dir()) : null, jobsConfig, runner, metrics);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open job queue in " + jobsConfig.dir() + ".", e);
+        }
+    }
+
+    private void registerServerMetrics() {
+        metrics.gauge("agent_active_streams", "Chat runs currently streaming a response.", runs::active);
+        metrics.gauge("agent_running_runs", "Chat runs holding an admission slot.", admission::running);
+        metrics.gauge("agent_queued_runs", "Chats waiting for an admission slot.", admission::queued);
+        metrics.gauge("agent_sessions", "Sessions with an agent history.", sessions::size);
+        metrics.gauge("agent_websocket_sessions", "Open WebSocket chat sessions.", openSockets::get);
+        metrics.gauge("agent_session_lanes", "Sessions with queued or running requests.", lanes::activeLanes);
+        metrics.counter("agent_session_queue_refusals_total", "Session requests refused by a full session queue.",
+                lanes::rejected, "outcome", "rejected");
+        metrics.counter("agent_session_queue_refusals_total", "Session requests refused by a full session queue.",
+                lanes::dropped, "outcome", "dropped");
+        metrics.counter("agent_rejected_runs_total", "Chats rejected by admission control.", admission::rejected);
+        metrics.counter("agent_cancelled_runs_total", "Chat runs cancelled by disconnect or shutdown.",
+                cancelledRuns::sum);
+    }
+
+    public MetricsRegistry metrics() {
+        return metrics;
     }
 
     public void start() throws IOException {
         InetSocketAddress address = new InetSocketAddress(config.serverHost(), config.serverPort());
-        this.server = HttpServer.create(address, 0);
-        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
-        server.setExecutor(executor);
+        this.engine = HttpEngines.create(config.server());
+        this.executor = HttpEngines.executor(config.server());
+
+        engine.route("/health", new HealthHandler());
+        engine.route("/ready", new ReadyHandler());
+        engine.route("/chat", limited("chat", new ChatHandler()));
+        engine.route("/batch", limited("batch", call -> {
+            if (runs.isDraining()) {
+                rejectDraining(call);
+                return;
+            }
+            batch.handle(call);
+        }));
+        if (config.server().jobs().workers() > 0) {
+            engine.route("/jobs", limited("jobs", new JobsHandler()));
+        }
+        engine.route("/ws", limited("ws", new SocketHandler()));
+        engine.route("/reset", limited("reset", new ResetHandler()));
+        engine.route("/fork", limited("fork", new ForkHandler()));
+        engine.route("/tools", limited("tools", new ToolsHandler()));
+        engine.route("/config", limited("config", new ConfigHandler()));
+        engine.route("/stats", limited("stats", new StatsHandler()));
+        engine.route("/metrics", limited("metrics", new MetricsHandler()));
+
+        engine.start(address, config.server().backlog(), executor);
+        warmup.start();
+        long sweepMs = sessionSweepMillis(config.server().sessionStore());
+        sseTimer.scheduleWithFixedDelay(() -> laneExecutor.execute(sessions::sweep), sweepMs, sweepMs,
+                TimeUnit.MILLISECONDS);
+        jobs.start();
+        long jobSweepMs = Math.clamp(config.server().jobs().retentionMs() / 4, 1000, 60000);
+        sseTimer.scheduleWithFixedDelay(() -> laneExecutor.execute(jobs::sweep), jobSweepMs, jobSweepMs,
+                TimeUnit.MILLISECONDS);
+        logger.info("Agent server started on {}:{} engine={}", config.serverHost(), config.serverPort(), engine.name());
+    }
 
-        server.createContext("/health", new HealthHandler());
-        server.createContext("/chat", new ChatHandler());
-        server.createContext("/reset", new ResetHandler());
-        server.createContext("/tools", new ToolsHandler());
-        server.createContext("/config", new ConfigHandler());
+    private static long sessionSweepMillis(SessionStoreConfig store) {
+        long shortest = Math.min(store.idleMs() > 0 ? store.idleMs() : Long.MAX_VALUE,
+                store.ttlMs() > 0 ? store.ttlMs() : Long.MAX_VALUE);
+        return Math.clamp(shortest / 4, 1000, 30000);
+    }
 
-        server.start();
-        logger.info("Agent server started on {}:{}", config.serverHost(), config.serverPort());
+    private HttpRoute limited(String route, HttpRoute handler) {
+        RateLimitConfig limits = config.server().rateLimit();
+        RateLimitConfig.Rate rate = limits.rateFor(route);
+        if (rate == null) {
+            return handler;
+        }
+        logger.info("Rate limiting /{} at {}/s burst {} per client.", route, rate.perSecond(), rate.burst());
+        return new RateLimitedRoute(route, handler, rate, limits.trustForwardedFor(), metrics);
+    }
+
+    public HttpEngine engine() {
+        return engine;
     }
 
     public void stop() {
-        if (server != null) {
-            server.stop(0);
+        drain(Duration.ZERO);
+    }
+
+    public RunTracker.DrainReport drain(Duration timeout) {
+        if (!stopped.compareAndSet(false, true)) {
+            return new RunTracker.DrainReport(0, 0, 0, 0);
+        }
+        logger.info("Draining server. inFlightRuns={} timeoutMs={}", runs.active(), timeout.toMillis());
+        jobs.close();
+        RunTracker.DrainReport report;
+        try {
+            report = runs.drain(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            report = new RunTracker.DrainReport(runs.active(), 0, runs.active(), 0);
+        }
+        logger.info("Drain finished. inFlightRuns={} finished={} cutOff={} elapsedMs={}",
+                report.inFlight(), report.finished(), report.cutOff(), report.elapsedMs());
+        if (engine != null) {
+            engine.stop();
         }
         if (executor != null) {
             executor.shutdown();
         }
+        laneExecutor.shutdown();
+        sseTimer.shutdownNow();
         if (mcpClientManager != null) {
             mcpClientManager.close();
         }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close session journal.", e);
+            }
+        }
+        return report;
+    }
+
+    private class HealthHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            if (runs.isDraining()) {
+                sendStatus(call, 503, "draining");
+                return;
+            }
+            sendStatus(call, 200, "ok");
+        }
     }
 
-    private class HealthHandler implements HttpHandler {
+    /**
+     * Like {@code /health}, but 503 until the warm-up has finished. Load balancers should route on this.
+     */
+    private class ReadyHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
-                sendStatus(exchange, 405, "Method Not Allowed");
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            if (runs.isDraining()) {
+                sendStatus(call, 503, "draining");
                 return;
             }
-            sendStatus(exchange, 200, "ok");
+            boolean ready = warmup.ready();
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("ready", ready);
+            if (ready) {
+                body.put("warmupMs", warmup.elapsedMs());
+            }
+            body.put("checks", warmup.checks());
+            sendJson(call, ready ? 200 : 503, body);
         }
     }
 
-    private class ChatHandler implements HttpHandler {
+    private class ChatHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                sendStatus(exchange, 405, "Method Not Allowed");
+        public void handle(HttpCall call) throws IOException {
+            if (!"POST".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
                 return;
             }
-            boolean stream = parseStream(exchange.getRequestURI());
-            String input = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (runs.isDraining()) {
+                rejectDraining(call);
+                return;
+            }
+            boolean stream = parseStream(call.uri());
+            String input = new String(call.requestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
             if (input.isEmpty()) {
-                sendStatus(exchange, 400, "Empty request body.");
-                return;
-            }
-            logger.info("Chat request received. stream={} inputLength={}", stream, input.length());
-            prepareSse(exchange);
-            exchange.sendResponseHeaders(200, 0);
-            try (OutputStream out = exchange.getResponseBody()) {
-                if (stream) {
-                    Consumer<String> onToken = token -> writeSseEvent(out, "token", token);
-                    try {
-                        agent.handle(input, onToken, true);
-                        writeSseEvent(out, "done", "[DONE]");
-                    } catch (Exception e) {
-                        logger.error("Agent stream failed.", e);
-                        writeSseEvent(out, "error", e.getMessage());
-                        writeSseEvent(out, "done", "[DONE]");
+                sendStatus(call, 400, "Empty request body.");
+                return;
+            }
+            Priority priority;
+            try {
+                priority = resolvePriority(call);
+            } catch (IllegalArgumentException e) {
+                sendStatus(call, 400, e.getMessage());
+                return;
+            }
+            String existingSession = resolveSessionId(call, false);
+            String key = coalesceKey(call, existingSession, input, stream);
+            SingleFlight.Flight flight = null;
+            if (key != null) {
+                SingleFlight.Seat seat = flights.join(key);
+                if (!seat.leader()) {
+                    follow(call, seat.flight());
+                    return;
+                }
+                flight = seat.flight();
+            }
+            String sessionId = existingSession == null ? resolveSessionId(call, true) : existingSession;
+            SingleFlight.Flight shared = flight;
+            try {
+                AtomicBoolean claimed = new AtomicBoolean();
+                CompletableFuture<Void> turn = lanes.submit(sessionId, () -> {
+                    if (claimed.compareAndSet(false, true)) {
+                        admitAndRun(call, sessionId, input, stream, priority, shared);
+                    }
+                    return null;
+                });
+                call.onDisconnect(() -> {
+                    if (claimed.compareAndSet(false, true)) {
+                        turn.cancel(false);
                     }
+                });
+                awaitTurn(call, turn);
+            } finally {
+                if (flight != null) {
+                    flight.finish();
+                }
+            }
+        }
+
+        /**
+         * Returns the single-flight key for a request, or null if it must run on its own. A request
+         * with an {@code Idempotency-Key} joins others with the same key, session and body. A
+         * request without a session joins others with the same body.
+         */
+        private String coalesceKey(HttpCall call, String sessionId, String input, boolean stream) {
+            String idempotencyKey = call.requestHeader("Idempotency-Key");
+            String scope;
+            if (idempotencyKey != null && !idempotencyKey.isBlank()) {
+                scope = "key:" + (sessionId == null ? "" : sessionId) + ":" + idempotencyKey.trim();
+            } else if (sessionId == null && config.server().coalesceSessionless()) {
+                scope = "anonymous";
+            } else {
+                return null;
+            }
+            return scope + ":" + stream + ":" + CachedResponse.digest(input.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Streams another request's run to this one. The follower needs no run slot of its own, and
+         * leaving does not cancel the run while others still watch it. A follower without a session
+         * gets a new one, forked from the leader's once the shared turn is in it.
+         */
+        private void follow(HttpCall call, SingleFlight.Flight flight) throws IOException {
+            boolean started;
+            try {
+                started = flight.awaitStart();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendStatus(call, 503, "Server shutting down.");
+                return;
+            }
+            if (!started) {
+                call.setResponseHeader("Retry-After", Integer.toString(config.server().retryAfterSeconds()));
+                sendStatus(call, 503, "The shared run ended before it started. Retry the request.");
+                return;
+            }
+            if (resolveSessionId(call, false) == null) {
+                forkAfterTurn(flight, resolveSessionId(call, true));
+            }
+            StreamFormat format = StreamFormat.negotiate(call.requestHeader("Accept"));
+            prepareStream(call, format);
+            call.setResponseHeader("Vary", "Accept");
+            call.sendResponseHeaders(200, 0);
+            long streamStart = System.nanoTime();
+            RunContext connection = RunContext.create();
+            call.onDisconnect(connection::cancel);
+            try (OutputStream out = call.responseBody()) {
+                SseWriter sse = new SseWriter(out, connection, sseTimer, config.server().sseFlushMs(),
+                        config.server().sseFlushBytes(), config.server().sseHeartbeatMs(), format);
+                EventSink client = buffered(sse, connection);
+                CompletableFuture<Void> gone = new CompletableFuture<>();
+                connection.onCancel(() -> {
+                    flight.leave(client);
+                    gone.complete(null);
+                });
+                ScheduledFuture<?> heartbeat = scheduleHeartbeat(sse);
+                try {
+                    flight.subscribe(client);
+                    CompletableFuture.anyOf(flight.finished(), gone).join();
+                    drain(client);
+                    sse.flush();
+                } finally {
+                    if (heartbeat != null) {
+                        heartbeat.cancel(false);
+                    }
+                    sseFlushes.add(sse.flushes());
+                    sseStreamDuration.recordSince(streamStart);
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to close SSE response.", e);
+            }
+        }
+
+        /**
+         * Forks the leader's session into {@code targetId} once the flight has finished, which is
+         * after the leader's turn has released the session. The fork runs in the target's lane, so
+         * a request that already uses the new session waits for it, and the leader's queue is left
+         * alone.
+         */
+        private void forkAfterTurn(SingleFlight.Flight flight, String targetId) {
+            String sourceId = flight.sessionId();
+            lanes.submit(targetId, () -> {
+                flight.finished().join();
+                return sessions.fork(sourceId, targetId);
+            }).whenComplete((messages, e) -> {
+                if (e != null) {
+                    logger.warn("Failed to fork session {} for a coalesced request.", sourceId, e);
+                }
+            });
+        }
+
+        private void admitAndRun(HttpCall call, String sessionId, String input, boolean stream, Priority priority,
+                                 SingleFlight.Flight flight) throws IOException {
+            RunContext context = RunContext.create();
+            context.setPriority(priority);
+            AdmissionController.Ticket ticket;
+            try {
+                ticket = admission.tryAdmit(priority, context);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendStatus(call, 503, "Server shutting down.");
+                return;
+            }
+            if (ticket == null) {
+                logger.warn("Chat request rejected. priority={} running={} queued={}", priority.label(),
+                        admission.running(), admission.queued());
+                call.setResponseHeader("Retry-After", Integer.toString(config.server().retryAfterSeconds()));
+                sendStatus(call, 429, "Too many concurrent chats. Retry later.");
+                return;
+            }
+            if (stepBudget != null) {
+                context.setStepGate(stepBudget.gateFor(
+                        RateLimiter.clientKey(call, config.server().rateLimit().trustForwardedFor())));
+            }
+            try (ticket) {
+                if (!runs.begin(context)) {
+                    rejectDraining(call);
                     return;
                 }
+                queueWait.get(priority).record(ticket.queueWaitNanos());
+                long queueWaitMs = TimeUnit.NANOSECONDS.toMillis(ticket.queueWaitNanos());
+                logger.info("Chat request admitted. session={} priority={} stream={} inputLength={} queueWaitMs={}",
+                        sessionId, priority.label(), stream, input.length(), queueWaitMs);
+                call.setResponseHeader("X-Queue-Wait-Ms", Long.toString(queueWaitMs));
+                try (SessionManager.Lease session = sessions.acquire(sessionId)) {
+                    runChat(call, session.agent(), sessionId, input, stream, context, flight);
+                }
+                long runNanos = ticket.runNanos();
+                runDuration.record(runNanos);
+                logger.info("Chat run finished. session={} queueWaitMs={} runMs={}",
+                        sessionId, queueWaitMs, TimeUnit.NANOSECONDS.toMillis(runNanos));
+            } finally {
+                runs.end(context);
+            }
+        }
+
+        private void runChat(HttpCall call, Agent agent, String sessionId, String input, boolean stream,
+                             RunContext context, SingleFlight.Flight flight) throws IOException {
+            StreamFormat format = StreamFormat.negotiate(call.requestHeader("Accept"));
+            prepareStream(call, format);
+            call.setResponseHeader("Vary", "Accept");
+            call.sendResponseHeaders(200, 0);
+            long streamStart = System.nanoTime();
+            RunContext connection = RunContext.create();
+            call.onDisconnect(connection::cancel);
+            try (OutputStream out = call.responseBody()) {
+                SseWriter sse = new SseWriter(out, connection, sseTimer, config.server().sseFlushMs(),
+                        config.server().sseFlushBytes(), config.server().sseHeartbeatMs(), format);
+                EventSink client = buffered(sse, connection);
+                EventSink events = client;
+                if (flight == null) {
+                    connection.onCancel(context::cancel);
+                } else {
+                    flight.subscribe(client);
+                    connection.onCancel(() -> flight.leave(client));
+                    flight.start(context, sessionId);
+                    events = flight;
+                }
+                ScheduledFuture<?> heartbeat = scheduleHeartbeat(sse);
+                EventSink sink = events;
+                context.setListener(new RunListener() {
+                    @Override
+                    public void toolStarted(String tool) {
+                        sink.tool(toolStartEvent(JSON.createObjectNode(), tool).toString());
+                    }
+
+                    @Override
+                    public void toolFinished(String tool, boolean success, long elapsedNanos) {
+                        sink.tool(toolEndEvent(JSON.createObjectNode(), tool, success, elapsedNanos).toString());
+                    }
+                });
                 try {
-                    String response = agent.handle(input, null, false);
-                    writeSseEvent(out, "token", response);
-                    writeSseEvent(out, "done", "[DONE]");
+                    if (stream) {
+                        agent.handle(input, token -> {
+                            sink.token(token);
+                            context.throwIfCancelled();
+                        }, true, context);
+                    } else {
+                        String response = agent.handle(input, null, false, context);
+                        events.send("token", response);
+                    }
+                    events.send("done", "[DONE]");
+                } catch (CancellationException e) {
+                    cancelledRuns.increment();
+                    if (flight == null ? connection.isCancelled() : flight.abandoned()) {
+                        logger.info("Chat run cancelled. cancelledRuns={}", cancelledRuns.sum());
+                        if (flight != null) {
+                            events.send("error", "Run cancelled. Retry the request.");
+                            events.send("done", "[DONE]");
+                        }
+                    } else {
+                        logger.warn("Chat run cut off by shutdown. cancelledRuns={}", cancelledRuns.sum());
+                        events.send("error", "Server is shutting down. Retry the request.");
+                        events.send("done", "[DONE]");
+                    }
                 } catch (Exception e) {
-                    logger.error("Agent request failed.", e);
-                    writeSseEvent(out, "error", "Agent error: " + e.getMessage());
-                    writeSseEvent(out, "done", "[DONE]");
+                    logger.error(stream ? "Agent stream failed." : "Agent request failed.", e);
+                    events.send("error", stream ? e.getMessage() : "Agent error: " + e.getMessage());
+                    events.send("done", "[DONE]");
+                } finally {
+                    drain(client);
+                    if (heartbeat != null) {
+                        heartbeat.cancel(false);
+                    }
+                    sseFlushes.add(sse.flushes());
+                    sseStreamDuration.recordSince(streamStart);
                 }
+            } catch (IOException e) {
+                logger.debug("Failed to close SSE response.", e);
+            }
+        }
+    }
+
+    private class ResetHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"POST".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            String sessionId = resolveSessionId(call, false);
+            if (sessionId == null) {
+                sendStatus(call, 200, "ok");
+                return;
             }
+            awaitTurn(call, lanes.submit(sessionId, () -> {
+                sessions.reset(sessionId);
+                sendStatus(call, 200, "ok");
+                return null;
+            }));
         }
     }
 
-    private class ResetHandler implements HttpHandler {
+    private class ForkHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
-                sendStatus(exchange, 405, "Method Not Allowed");
+        public void handle(HttpCall call) throws IOException {
+            if (!"POST".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            String sessionId = resolveSessionId(call, false);
+            if (sessionId == null) {
+                sendStatus(call, 400, "Missing session. Send the X-Session-Id header to fork.");
+                return;
+            }
+            String branchId;
+            try {
+                branchId = SessionManager.forkId(sessionId);
+            } catch (IllegalArgumentException e) {
+                sendStatus(call, 400, e.getMessage());
                 return;
             }
-            agent.reset();
-            sendStatus(exchange, 200, "ok");
+            awaitTurn(call, lanes.submit(sessionId, () -> {
+                int messages = sessions.fork(sessionId, branchId);
+                sendJson(call, 201, Map.of("session", branchId, "parent", sessionId, "messages", messages));
+                return null;
+            }));
         }
     }
 
-    private class ToolsHandler implements HttpHandler {
+    private class JobsHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
-                sendStatus(exchange, 405, "Method Not Allowed");
+        public void handle(HttpCall call) throws IOException {
+            String rest = call.uri().getPath().substring("/jobs".length());
+            if (rest.isEmpty() || "/".equals(rest)) {
+                if ("POST".equalsIgnoreCase(call.method())) {
+                    submit(call);
+                } else if ("GET".equalsIgnoreCase(call.method())) {
+                    sendJson(call, 200, Map.of("queued", jobs.queued(), "running", jobs.running(),
+                            "jobs", jobs.size()));
+                } else {
+                    sendStatus(call, 405, "Method Not Allowed");
+                }
+                return;
+            }
+            boolean events = rest.endsWith("/events");
+            int end = events ? rest.length() - "/events".length() : rest.length();
+            Job job = end > 1 ? jobs.get(rest.substring(1, end)) : null;
+            if (job == null) {
+                sendStatus(call, 404, "Unknown job.");
+                return;
+            }
+            if ("DELETE".equalsIgnoreCase(call.method()) && !events) {
+                if (!jobs.cancel(job)) {
+                    sendStatus(call, 409, "Job already finished.");
+                    return;
+                }
+                sendJson(call, 202, job.snapshot());
+            } else if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+            } else if (events) {
+                streamJob(call, job);
+            } else {
+                sendJson(call, 200, job.snapshot());
+            }
+        }
+
+        private void submit(HttpCall call) throws IOException {
+            if (runs.isDraining()) {
+                rejectDraining(call);
+                return;
+            }
+            String input = new String(call.requestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (input.isEmpty()) {
+                sendStatus(call, 400, "Empty request body.");
+                return;
+            }
+            String id = call.requestHeader(Protocol.JOB_ID_HEADER);
+            if (id != null && !SessionManager.isValidId(id)) {
+                sendStatus(call, 400, "Invalid " + Protocol.JOB_ID_HEADER + ".");
+                return;
+            }
+            Job job;
+            try {
+                job = jobs.submit(id, input);
+            } catch (IllegalArgumentException e) {
+                sendStatus(call, 409, e.getMessage());
+                return;
+            } catch (JobQueue.QueueFullException e) {
+                call.setResponseHeader("Retry-After", Integer.toString(config.server().retryAfterSeconds()));
+                sendStatus(call, 429, "Too many queued jobs. Retry later.");
                 return;
             }
-            String body = toolRegistry.isEmpty() ? "" : toolRegistry.describe();
-            sendStatus(exchange, 200, body);
+            logger.info("Job submitted. id={} inputLength={} queued={}", job.id(), input.length(), jobs.queued());
+            call.setResponseHeader("Location", "/jobs/" + job.id());
+            sendJson(call, 202, job.snapshot());
+        }
+
+        private void streamJob(HttpCall call, Job job) throws IOException {
+            prepareSse(call);
+            call.sendResponseHeaders(200, 0);
+            RunContext connection = RunContext.create();
+            CompletableFuture<Void> finished = new CompletableFuture<>();
+            connection.onCancel(() -> finished.complete(null));
+            call.onDisconnect(connection::cancel);
+            try (OutputStream out = call.responseBody()) {
+                SseWriter sse = new SseWriter(out, connection, sseTimer, config.server().sseFlushMs(),
+                        config.server().sseFlushBytes(), config.server().sseHeartbeatMs());
+                EventSink client = buffered(sse, connection);
+                ScheduledFuture<?> heartbeat = scheduleHeartbeat(sse);
+                Job.Listener listener = new Job.Listener() {
+                    private boolean streamed;
+
+                    @Override
+                    public void status(Job.Status status) {
+                        streamed = false;
+                        client.send("status", status.label());
+                    }
+
+                    @Override
+                    public void token(String text) {
+                        streamed = true;
+                        client.token(text);
+                    }
+
+                    @Override
+                    public void finished(Job.Snapshot snapshot) {
+                        if (snapshot.result() != null && !streamed) {
+                            client.send("token", snapshot.result());
+                        }
+                        if (snapshot.error() != null) {
+                            client.send("error", snapshot.error());
+                        }
+                        client.send("status", snapshot.status());
+                        client.send("done", "[DONE]");
+                        finished.complete(null);
+                    }
+                };
+                job.subscribe(listener);
+                try {
+                    finished.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    logger.debug("Job stream failed.", e);
+                } finally {
+                    job.unsubscribe(listener);
+                    drain(client);
+                    if (heartbeat != null) {
+                        heartbeat.cancel(false);
+                    }
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to close job stream.", e);
+            }
         }
     }
 
-    private class ConfigHandler implements HttpHandler {
+    private class SocketHandler implements HttpRoute {
         @Override
-        public void handle(HttpExchange exchange) throws IOException {
-            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
-                sendStatus(exchange, 405, "Method Not Allowed");
+        public void handle(HttpCall call) throws IOException {
+            if (runs.isDraining()) {
+                rejectDraining(call);
+                return;
+            }
+            String error = WebSocket.handshakeError(call);
+            if (error != null) {
+                sendStatus(call, call.requestHeader("Upgrade") == null ? 426 : 400, error);
                 return;
             }
+            String sessionId = resolveSessionId(call, true);
+            String clientKey = RateLimiter.clientKey(call, config.server().rateLimit().trustForwardedFor());
+            WebSocket socket = call.upgradeToWebSocket();
+            if (socket == null) {
+                sendStatus(call, 501, "WebSocket needs --server-engine nio.");
+                return;
+            }
+            openSockets.incrementAndGet();
+            try {
+                new SocketSession(socket, sessionId, clientKey).run();
+            } finally {
+                openSockets.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * One WebSocket connection bound to a session. The connection thread only reads messages; each
+     * chat turn runs on the session's lane, so a cancel is seen as soon as it arrives.
+     */
+    private final class SocketSession {
+        private final WebSocket socket;
+        private final String sessionId;
+        private final String clientKey;
+        private final Map<String, SocketTurn> turns = new ConcurrentHashMap<>();
+        private int nextTurn;
+
+        private SocketSession(WebSocket socket, String sessionId, String clientKey) {
+            this.socket = socket;
+            this.sessionId = sessionId;
+            this.clientKey = clientKey;
+        }
+
+        void run() {
+            logger.info("WebSocket session opened. session={}", sessionId);
+            send(event("session", null).put("session", sessionId));
+            try {
+                String text;
+                while ((text = socket.receive()) != null) {
+                    dispatch(text);
+                }
+            } catch (IOException e) {
+                logger.debug("WebSocket session ended. session={}", sessionId, e);
+            } finally {
+                turns.values().forEach(SocketTurn::cancel);
+                socket.close();
+                logger.info("WebSocket session closed. session={}", sessionId);
+            }
+        }
+
+        private void dispatch(String text) {
+            JsonNode message;
+            try {
+                message = JSON.readTree(text);
+            } catch (IOException e) {
+                send(event("error", null).put("message", "Invalid JSON message."));
+                return;
+            }
+            String type = message.path("type").asText("");
+            String id = message.hasNonNull("id") ? message.get("id").asText() : null;
+            switch (type) {
+                case "chat" -> chat(id == null ? Integer.toString(++nextTurn) : id, message);
+                case "cancel" -> {
+                    socketCancelRequests.increment();
+                    for (SocketTurn turn : turns.values()) {
+                        if (id == null || turn.id.equals(id)) {
+                            turn.cancel();
+                        }
+                    }
+                }
+                case "reset" -> lanes.submit(sessionId, () -> {
+                    sessions.reset(sessionId);
+                    send(event("reset", id));
+                    return null;
+                }).whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        send(event("error", id).put("message", refusal(e)));
+                    }
+                });
+                default -> send(event("error", id).put("message", "Unknown message type: " + type + "."));
+            }
+        }
+
+        private void chat(String id, JsonNode message) {
+            String input = message.path("input").asText("").trim();
+            if (input.isEmpty()) {
+                send(event("error", id).put("message", "Empty input."));
+                return;
+            }
+            Priority priority;
+            try {
+                priority = Priority.parse(message.path("priority").asText(null));
+            } catch (IllegalArgumentException e) {
+                send(event("error", id).put("message", e.getMessage()));
+                return;
+            }
+            boolean stream = message.path("stream").asBoolean(config.stream());
+            SocketTurn turn = new SocketTurn(id, priority == null ? Priority.INTERACTIVE : priority);
+            if (turns.putIfAbsent(id, turn) != null) {
+                send(event("error", id).put("message", "A turn with this id is still running."));
+                return;
+            }
+            turn.future = lanes.submit(sessionId, () -> {
+                if (turn.claimed.compareAndSet(false, true)) {
+                    runTurn(turn, input, stream);
+                }
+                return null;
+            });
+            turn.future.whenComplete((ignored, e) -> {
+                turns.remove(id, turn);
+                if (e instanceof CancellationException) {
+                    send(event("cancelled", id));
+                } else if (e != null) {
+                    send(event("error", id).put("message", refusal(e)));
+                }
+            });
+        }
+
+        private void runTurn(SocketTurn turn, String input, boolean stream) {
+            RunContext context = turn.context;
+            AdmissionController.Ticket ticket;
+            try {
+                ticket = admission.tryAdmit(turn.priority, context);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                send(event("error", turn.id).put("message", "Server shutting down."));
+                return;
+            } catch (CancellationException e) {
+                send(event("cancelled", turn.id));
+                return;
+            }
+            if (ticket == null) {
+                send(event("error", turn.id).put("message", "Too many concurrent chats. Retry later.")
+                        .put("retryAfter", config.server().retryAfterSeconds()));
+                return;
+            }
+            if (stepBudget != null) {
+                context.setStepGate(stepBudget.gateFor(clientKey));
+            }
+            context.setListener(new RunListener() {
+                @Override
+                public void toolStarted(String tool) {
+                    send(toolStartEvent(event("tool", turn.id), tool));
+                }
+
+                @Override
+                public void toolFinished(String tool, boolean success, long elapsedNanos) {
+                    send(toolEndEvent(event("tool", turn.id), tool, success, elapsedNanos));
+                }
+            });
+            try (ticket) {
+                if (!runs.begin(context)) {
+                    send(event("error", turn.id).put("message", "Server is shutting down. Retry the request."));
+                    return;
+                }
+                queueWait.get(turn.priority).record(ticket.queueWaitNanos());
+                try (SessionManager.Lease session = sessions.acquire(sessionId)) {
+                    String content = session.agent().handle(input, stream ? token -> {
+                        send(event("token", turn.id).put("text", token));
+                        context.throwIfCancelled();
+                    } : null, stream, context);
+                    send(event("done", turn.id).put("content", content));
+                } catch (CancellationException e) {
+                    cancelledRuns.increment();
+                    if (turn.cancelledAt > 0) {
+                        socketCancelLatency.recordSince(turn.cancelledAt);
+                    }
+                    send(event("cancelled", turn.id));
+                } catch (Exception e) {
+                    logger.error("WebSocket turn failed. session={}", sessionId, e);
+                    send(event("error", turn.id).put("message", "Agent error: " + e.getMessage()));
+                }
+                runDuration.record(ticket.runNanos());
+            } finally {
+                runs.end(context);
+            }
+        }
+
+        private ObjectNode event(String type, String id) {
+            ObjectNode node = JSON.createObjectNode().put("type", type);
+            if (id != null) {
+                node.put("id", id);
+            }
+            return node;
+        }
+
+        private void send(ObjectNode message) {
+            try {
+                socket.sendText(message.toString());
+            } catch (IOException e) {
+                logger.debug("WebSocket send failed. session={}", sessionId);
+                turns.values().forEach(SocketTurn::cancel);
+            }
+        }
+
+        private String refusal(Throwable e) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof SessionLanes.LaneFullException full) {
+                return full.dropped() ? "Superseded by a newer request for this session."
+                        : "Too many requests queued for this session. Retry later.";
+            }
+            return cause.getMessage() == null ? cause.toString() : cause.getMessage();
+        }
+    }
+
+    private static final class SocketTurn {
+        private final String id;
+        private final Priority priority;
+        private final RunContext context = RunContext.create();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private volatile CompletableFuture<Void> future;
+        private volatile long cancelledAt;
+
+        private SocketTurn(String id, Priority priority) {
+            this.id = id;
+            this.priority = priority;
+            context.setPriority(priority);
+        }
+
+        void cancel() {
+            if (cancelledAt == 0) {
+                cancelledAt = System.nanoTime();
+            }
+            context.cancel();
+            CompletableFuture<Void> queued = future;
+            if (queued != null && claimed.compareAndSet(false, true)) {
+                queued.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Waits for a task queued on the caller's session lane and answers the call if the task never ran.
+     */
+    private void awaitTurn(HttpCall call, CompletableFuture<Void> turn) throws IOException {
+        try {
+            turn.get();
+        } catch (CancellationException e) {
+            logger.debug("Queued session request abandoned by the client.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            turn.cancel(false);
+            sendStatus(call, 503, "Server shutting down.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SessionLanes.LaneFullException full) {
+                logger.warn("Session request refused. dropped={} reason={}", full.dropped(), full.getMessage());
+                call.setResponseHeader("Retry-After", Integer.toString(config.server().retryAfterSeconds()));
+                sendStatus(call, full.dropped() ? 409 : 429, full.dropped()
+                        ? "Superseded by a newer request for this session."
+                        : "Too many requests queued for this session. Retry later.");
+                return;
+            }
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private class ToolsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            sendCached(call, toolsResponse());
+        }
+    }
+
+    private class ConfigHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            sendCached(call, configResponse);
+        }
+    }
+
+    private CachedResponse toolsResponse() {
+        CachedResponse cached = toolsResponse;
+        long version = toolRegistry.version();
+        if (cached == null || cached.version() != version) {
+            cached = CachedResponse.of(toolRegistry.isEmpty() ? "" : toolRegistry.describe(), version);
+            toolsResponse = cached;
+        }
+        return cached;
+    }
+
+    private String renderConfig() {
+        StringBuilder out = new StringBuilder();
+        out.append("- model: ").append(config.model()).append("\n");
+        out.append("- baseUrl: ").append(config.baseUrl()).append("\n");
+        out.append("- streamDefault: ").append(config.stream()).append("\n");
+        out.append("- temperature: ").append(config.temperature() == null ? "default" : config.temperature()).append("\n");
+        out.append("- maxSteps: ").append(config.maxSteps()).append("\n");
+        out.append("- allowShell: ").append(config.allowShell()).append("\n");
+        out.append("- mcpEnabled: ").append(config.mcpEnabled()).append("\n");
+        out.append("- mcpServers: ").append(formatMcpServers(config.mcpServers())).append("\n");
+        return out.toString();
+    }
+
+    private class StatsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            long admitted = admission.admitted();
             StringBuilder out = new StringBuilder();
-            out.append("- model: ").append(config.model()).append("\n");
-            out.append("- baseUrl: ").append(config.baseUrl()).append("\n");
-            out.append("- streamDefault: ").append(config.stream()).append("\n");
-            out.append("- temperature: ").append(config.temperature() == null ? "default" : config.temperature()).append("\n");
-            out.append("- maxSteps: ").append(config.maxSteps()).append("\n");
-            out.append("- allowShell: ").append(config.allowShell()).append("\n");
-            out.append("- mcpEnabled: ").append(config.mcpEnabled()).append("\n");
-            out.append("- mcpServers: ").append(formatMcpServers(config.mcpServers())).append("\n");
-            sendStatus(exchange, 200, out.toString());
+            out.append("- sessions: ").append(sessions.size()).append("\n");
+            out.append("- compactedSessions: ").append(sessions.compactedSessions()).append("\n");
+            out.append("- sessionHeapBytes: ").append(sessions.liveBytes() + sessions.compactedBytes()).append("\n");
+            if (journal != null) {
+                out.append("- journaledSessions: ").append(journal.sessions()).append("\n");
+            }
+            out.append("- runningRuns: ").append(admission.running()).append("/").append(admission.maxConcurrent()).append("\n");
+            out.append("- queuedRuns: ").append(admission.queued()).append("\n");
+            for (Priority priority : Priority.values()) {
+                out.append("- queuedRuns.").append(priority.label()).append(": ")
+                        .append(admission.queued(priority)).append("\n");
+            }
+            out.append("- admittedRuns: ").append(admitted).append("\n");
+            out.append("- rejectedRuns: ").append(admission.rejected()).append("\n");
+            out.append("- avgQueueWaitMs: ").append(averageMillis(admission.totalQueueWaitNanos(), admitted)).append("\n");
+            out.append("- avgRunMs: ").append(averageMillis(admission.totalRunNanos(), admitted)).append("\n");
+            out.append("- sessionLanes: ").append(lanes.activeLanes()).append("\n");
+            out.append("- queuedJobs: ").append(jobs.queued()).append("\n");
+            out.append("- runningJobs: ").append(jobs.running()).append("\n");
+            out.append("- sessionQueueRefusals: ").append(lanes.rejected() + lanes.dropped()).append("\n");
+            out.append("- cancelledRuns: ").append(cancelledRuns.sum()).append("\n");
+            out.append("- sharedRuns: ").append(flights.inFlight()).append("\n");
+            out.append("- coalescingRatio: ").append(String.format(Locale.ROOT, "%.3f", flights.coalescingRatio()))
+                    .append("\n");
+            out.append("- draining: ").append(runs.isDraining()).append("\n");
+            sendStatus(call, 200, out.toString());
         }
     }
 
-    private boolean parseStream(URI uri) {
+    private class MetricsHandler implements HttpRoute {
+        @Override
+        public void handle(HttpCall call) throws IOException {
+            if (!"GET".equalsIgnoreCase(call.method())) {
+                sendStatus(call, 405, "Method Not Allowed");
+                return;
+            }
+            byte[] bytes = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            call.setResponseHeader("Content-Type", MetricsRegistry.CONTENT_TYPE);
+            call.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = call.responseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static long averageMillis(long totalNanos, long count) {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+
+    private void rejectDraining(HttpCall call) throws IOException {
+        call.setResponseHeader("Retry-After", Integer.toString(config.server().retryAfterSeconds()));
+        call.setResponseHeader("Connection", "close");
+        sendStatus(call, 503, "Server is shutting down. Retry the request.");
+    }
+
+    /**
+     * Reads the priority class from the {@code priority} query parameter or the priority header,
+     * defaulting to interactive.
+     */
+    private Priority resolvePriority(HttpCall call) {
+        Priority priority = Priority.parse(queryParameter(call.uri(), "priority"));
+        if (priority == null) {
+            priority = Priority.parse(call.requestHeader(PRIORITY_HEADER));
+        }
+        return priority == null ? Priority.INTERACTIVE : priority;
+    }
+
+    private static String queryParameter(URI uri, String name) {
         String query = uri.getQuery();
         if (query == null) {
-            return config.stream();
+            return null;
         }
         for (String pair : query.split("&")) {
             String[] parts = pair.split("=", 2);
-            if (parts.length == 2 && "stream".equalsIgnoreCase(parts[0])) {
-                return Boolean.parseBoolean(parts[1]);
+            if (parts.length == 2 && name.equalsIgnoreCase(parts[0])) {
+                return parts[1];
             }
         }
-        return config.stream();
+        return null;
     }
 
-    private void prepareSse(HttpExchange exchange) {
-        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=utf-8");
-        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
-        exchange.getResponseHeaders().set("Connection", "keep-alive");
-        exchange.getResponseHeaders().set("X-Accel-Buffering", "no");
+    private boolean parseStream(URI uri) {
+        String value = queryParameter(uri, "stream");
+        return value == null ? config.stream() : Boolean.parseBoolean(value);
     }
 
-    private void writeSseEvent(OutputStream out, String event, String data) {
-        if (data == null) {
-            data = "";
+    private String resolveSessionId(HttpCall call, boolean create) {
+        String sessionId = call.requestHeader(Protocol.SESSION_HEADER);
+        if (sessionId != null) {
+            sessionId = sessionId.trim();
         }
-        try {
-            if (event != null && !event.isBlank()) {
-                out.write(("event: " + event + "\n").getBytes(StandardCharsets.UTF_8));
-            }
-            String[] lines = data.split("\\r?\\n", -1);
-            for (String line : lines) {
-                out.write(("data: " + line + "\n").getBytes(StandardCharsets.UTF_8));
-            }
-            out.write("\n".getBytes(StandardCharsets.UTF_8));
-            out.flush();
-        } catch (IOException e) {
-            logger.warn("Failed to write SSE event.", e);
+        if (!SessionManager.isValidId(sessionId)) {
+            sessionId = SessionManager.fromCookieHeader(call.requestHeader("Cookie"));
+        }
+        if (sessionId == null && create) {
+            sessionId = SessionManager.newSessionId();
+            call.addResponseHeader("Set-Cookie",
+                    Protocol.SESSION_COOKIE + "=" + sessionId + "; Path=/; HttpOnly; SameSite=Lax");
+        }
+        if (sessionId != null) {
+            call.setResponseHeader(Protocol.SESSION_HEADER, sessionId);
+        }
+        return sessionId;
+    }
+
+    private static ObjectNode toolStartEvent(ObjectNode event, String tool) {
+        return event.put("tool", tool).put("phase", "start");
+    }
+
+    private static ObjectNode toolEndEvent(ObjectNode event, String tool, boolean success, long elapsedNanos) {
+        return event.put("tool", tool).put("phase", "end").put("ok", success)
+                .put("ms", TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    private void prepareSse(HttpCall call) {
+        prepareStream(call, StreamFormat.SSE);
+    }
+
+    /**
+     * Puts a {@link StreamBuffer} between the run and {@code sse} unless buffering is turned off.
+     */
+    private EventSink buffered(SseWriter sse, RunContext connection) {
+        int capacity = config.server().streamBufferEvents();
+        if (capacity == 0) {
+            return sse;
+        }
+        return new StreamBuffer(sse, connection, capacity,
+                StreamBuffer.Policy.parse(config.server().streamBufferPolicy()), streamBufferMeters);
+    }
+
+    private static void drain(EventSink client) {
+        if (client instanceof StreamBuffer buffer) {
+            buffer.close();
+        }
+    }
+
+    private void prepareStream(HttpCall call, StreamFormat format) {
+        call.setResponseHeader("Content-Type", format.contentType());
+        call.setResponseHeader("Cache-Control", "no-cache");
+        call.setResponseHeader("Connection", "keep-alive");
+        call.setResponseHeader("X-Accel-Buffering", "no");
+    }
+
+    private ScheduledFuture<?> scheduleHeartbeat(SseWriter sse) {
+        long intervalMs = config.server().sseHeartbeatMs();
+        if (intervalMs <= 0) {
+            return null;
+        }
+        return sseTimer.scheduleWithFixedDelay(() -> Thread.ofVirtual().name("sse-heartbeat").start(sse::heartbeat),
+                intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void sendCached(HttpCall call, CachedResponse response) throws IOException {
+        call.setResponseHeader("ETag", response.etag());
+        call.setResponseHeader("Cache-Control", "no-cache");
+        if (response.matches(call.requestHeader("If-None-Match"))) {
+            call.sendResponseHeaders(304, -1);
+            call.responseBody().close();
+            return;
+        }
+        byte[] body = response.body();
+        call.setResponseHeader("Content-Type", "text/plain; charset=utf-8");
+        call.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = call.responseBody()) {
+            out.write(body);
+        }
+    }
+
+    private void sendJson(HttpCall call, int status, Object body) throws IOException {
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        call.setResponseHeader("Content-Type", "application/json; charset=utf-8");
+        call.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = call.responseBody()) {
+            out.write(bytes);
         }
     }
 
-    private void sendStatus(HttpExchange exchange, int status, String body) throws IOException {
+    private void sendStatus(HttpCall call, int status, String body) throws IOException {
         byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
-        exchange.sendResponseHeaders(status, bytes.length);
-        try (OutputStream out = exchange.getResponseBody()) {
+        call.setResponseHeader("Content-Type", "text/plain; charset=utf-8");
+        call.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = call.responseBody()) {
             out.write(bytes);
         }
     }
 
     private ToolRegistry buildTools(AppConfig config) {
-        ToolRegistry registry = new ToolRegistry();
+        ToolRegistry registry = new ToolRegistry(metrics);
         registry.register(new TimeTool());
         registry.register(new CalcTool());
         if (config.allowShell()) {
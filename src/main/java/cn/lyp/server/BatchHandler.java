@@ -0,0 +1,324 @@
+package cn.lyp.server;
+
+import cn.lyp.agent.Agent;
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+import cn.lyp.server.http.HttpCall;
+import cn.lyp.server.http.HttpRoute;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * {@code POST /batch}: reads NDJSON prompts ({@code {"id": "...", "prompt": "..."}} or a bare JSON
+ * string per line), runs each in a fresh session at batch priority and streams one NDJSON result per
+ * prompt in completion order, followed by a summary line.
+ *
+ * <p>The request body is read only as fast as items finish: at most {@code concurrency} prompts are
+ * held at once and each line is capped at {@link #MAX_LINE_BYTES}, so memory stays bounded for any
+ * input size.
+ */
+public class BatchHandler implements HttpRoute {
+    public static final String CONTENT_TYPE = "application/x-ndjson; charset=utf-8";
+    static final int MAX_LINE_BYTES = 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(BatchHandler.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    /** Marks a timestamp not taken yet. {@code System.nanoTime()} can be zero or negative. */
+    private static final long UNSET = Long.MIN_VALUE;
+    private final Supplier<Agent> agentFactory;
+    private final RunTracker runs;
+    private final ExecutorService executor;
+    private final int maxConcurrency;
+    private final Semaphore slots;
+    private final AtomicInteger running = new AtomicInteger();
+    private final Counter ok;
+    private final Counter failed;
+    private final Counter cancelled;
+    private final Histogram queueWait;
+    private final Histogram runDuration;
+
+    public BatchHandler(Supplier<Agent> agentFactory, RunTracker runs, ExecutorService executor, int maxConcurrency,
+                        MetricsRegistry metrics) {
+        this.agentFactory = agentFactory;
+        this.runs = runs;
+        this.executor = executor;
+        this.maxConcurrency = maxConcurrency;
+        this.slots = new Semaphore(maxConcurrency, true);
+        String help = "Batch items by outcome.";
+        this.ok = metrics.counter("agent_batch_items_total", help, "outcome", "ok");
+        this.failed = metrics.counter("agent_batch_items_total", help, "outcome", "error");
+        this.cancelled = metrics.counter("agent_batch_items_total", help, "outcome", "cancelled");
+        this.queueWait = metrics.histogram("agent_batch_item_queue_seconds",
+                "Time from reading a batch item to starting it.", MetricsRegistry.NANOS);
+        this.runDuration = metrics.histogram("agent_batch_item_run_seconds",
+                "Agent run time of one batch item.", MetricsRegistry.NANOS);
+        metrics.gauge("agent_batch_items_running", "Batch items currently running.", running::get);
+    }
+
+    @Override
+    public void handle(HttpCall call) throws IOException {
+        if (!"POST".equalsIgnoreCase(call.method())) {
+            send(call, 405, "Method Not Allowed");
+            return;
+        }
+        int concurrency;
+        try {
+            concurrency = parseConcurrency(call);
+        } catch (IllegalArgumentException e) {
+            send(call, 400, e.getMessage());
+            return;
+        }
+        call.setResponseHeader("Content-Type", CONTENT_TYPE);
+        call.setResponseHeader("Cache-Control", "no-cache");
+        call.sendResponseHeaders(200, 0);
+        RunContext batch = RunContext.create();
+        call.onDisconnect(batch::cancel);
+        long started = System.nanoTime();
+        Semaphore inFlight = new Semaphore(concurrency);
+        Results results = new Results(call.responseBody(), batch);
+        int index = 0;
+        try (OutputStream ignored = results.out;
+             InputStream in = new BufferedInputStream(call.requestBody())) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (!batch.isCancelled()) {
+                int length = readLine(in, line);
+                if (length < 0) {
+                    break;
+                }
+                String text = line.toString(StandardCharsets.UTF_8).trim();
+                if (length <= MAX_LINE_BYTES && text.isEmpty()) {
+                    continue;
+                }
+                int itemIndex = index++;
+                if (length > MAX_LINE_BYTES) {
+                    failed.increment();
+                    results.error(Integer.toString(itemIndex), itemIndex, "Line exceeds " + MAX_LINE_BYTES + " bytes.",
+                            UNSET, UNSET, started);
+                    continue;
+                }
+                inFlight.acquire();
+                long readAt = System.nanoTime();
+                try {
+                    executor.execute(() -> {
+                        try {
+                            runItem(text, itemIndex, readAt, started, batch, results);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlight.release();
+                    failed.increment();
+                    results.error(Integer.toString(itemIndex), itemIndex, "Server is shutting down.", readAt, UNSET,
+                            started);
+                    batch.cancel();
+                }
+            }
+            inFlight.acquire(concurrency);
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("done", true);
+            summary.put("items", index);
+            summary.put("failed", results.failures.get());
+            summary.put("cancelled", batch.isCancelled());
+            summary.put("elapsedMs", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            results.write(summary);
+            logger.info("Batch finished. items={} failed={} concurrency={} elapsedMs={}",
+                    index, results.failures.get(), concurrency, summary.get("elapsedMs"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.cancel();
+        } catch (IOException e) {
+            batch.cancel();
+            logger.debug("Batch stream ended early.", e);
+        }
+    }
+
+    private void runItem(String line, int index, long readAt, long batchStart, RunContext batch, Results results) {
+        String id = Integer.toString(index);
+        long startedAt = UNSET;
+        RunContext context = RunContext.create();
+        context.setPriority(Priority.BATCH);
+        RunContext.Registration registration = batch.onCancel(context::cancel);
+        boolean tracked = false;
+        boolean acquired = false;
+        try {
+            JsonNode item = MAPPER.readTree(line);
+            String prompt;
+            if (item.isTextual()) {
+                prompt = item.asText();
+            } else {
+                if (item.hasNonNull("id")) {
+                    id = item.get("id").asText();
+                }
+                prompt = item.path("prompt").asText("");
+            }
+            if (prompt.isBlank()) {
+                throw new IllegalArgumentException("Missing prompt.");
+            }
+            slots.acquire();
+            acquired = true;
+            startedAt = System.nanoTime();
+            queueWait.record(startedAt - readAt);
+            tracked = runs.begin(context);
+            if (!tracked) {
+                throw new IllegalStateException("Server is shutting down.");
+            }
+            running.incrementAndGet();
+            try {
+                String content = agentFactory.get().handle(prompt, null, false, context);
+                long runNanos = runDuration.recordSince(startedAt);
+                ok.increment();
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("id", id);
+                result.put("index", index);
+                result.put("ok", true);
+                result.put("content", content);
+                result.put("queueMs", TimeUnit.NANOSECONDS.toMillis(startedAt - readAt));
+                result.put("runMs", TimeUnit.NANOSECONDS.toMillis(runNanos));
+                result.put("startMs", TimeUnit.NANOSECONDS.toMillis(startedAt - batchStart));
+                results.write(result);
+            } finally {
+                running.decrementAndGet();
+            }
+        } catch (CancellationException e) {
+            cancelled.increment();
+            results.error(id, index, "Cancelled.", readAt, startedAt, batchStart);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelled.increment();
+            results.error(id, index, "Interrupted.", readAt, startedAt, batchStart);
+        } catch (JsonProcessingException e) {
+            failed.increment();
+            results.error(id, index, "Invalid JSON: " + e.getOriginalMessage(), readAt, startedAt, batchStart);
+        } catch (Exception e) {
+            failed.increment();
+            logger.warn("Batch item {} failed.", id, e);
+            results.error(id, index, e.getMessage(), readAt, startedAt, batchStart);
+        } finally {
+            if (tracked) {
+                runs.end(context);
+            }
+            if (acquired) {
+                slots.release();
+            }
+            registration.close();
+        }
+    }
+
+    private int parseConcurrency(HttpCall call) {
+        String query = call.uri().getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                String[] parts = pair.split("=", 2);
+                if (parts.length == 2 && "concurrency".equalsIgnoreCase(parts[0])) {
+                    try {
+                        int requested = Integer.parseInt(parts[1]);
+                        if (requested > 0) {
+                            return Math.min(requested, maxConcurrency);
+                        }
+                    } catch (NumberFormatException ignored) {
+                        // Reported below.
+                    }
+                    throw new IllegalArgumentException("Invalid concurrency. Use a positive integer.");
+                }
+            }
+        }
+        return maxConcurrency;
+    }
+
+    /**
+     * Reads one line into {@code line}, keeping at most {@link #MAX_LINE_BYTES}. Returns the full line
+     * length, or -1 at the end of input.
+     */
+    static int readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        line.reset();
+        int length = 0;
+        int next;
+        while ((next = in.read()) != -1) {
+            if (next == '\n') {
+                return length;
+            }
+            if (length++ < MAX_LINE_BYTES) {
+                line.write(next);
+            }
+        }
+        return length == 0 ? -1 : length;
+    }
+
+    private static void send(HttpCall call, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        call.setResponseHeader("Content-Type", "text/plain; charset=utf-8");
+        call.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = call.responseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static final class Results {
+        private final OutputStream out;
+        private final RunContext batch;
+        private final AtomicInteger failures = new AtomicInteger();
+        // Not a monitor: a virtual thread blocked on a slow client must park, not pin its carrier.
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Results(OutputStream out, RunContext batch) {
+            this.out = out;
+            this.batch = batch;
+        }
+
+        void error(String id, int index, String message, long readAt, long startedAt, long batchStart) {
+            failures.incrementAndGet();
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("id", id);
+            result.put("index", index);
+            result.put("ok", false);
+            result.put("error", message == null ? "Unknown error." : message);
+            if (readAt != UNSET) {
+                long now = System.nanoTime();
+                boolean started = startedAt != UNSET;
+                result.put("queueMs", TimeUnit.NANOSECONDS.toMillis((started ? startedAt : now) - readAt));
+                result.put("runMs", started ? TimeUnit.NANOSECONDS.toMillis(now - startedAt) : 0);
+                result.put("startMs", started ? TimeUnit.NANOSECONDS.toMillis(startedAt - batchStart) : -1);
+            }
+            write(result);
+        }
+
+        void write(Map<String, Object> result) {
+            try {
+                byte[] bytes = (MAPPER.writeValueAsString(result) + "\n").getBytes(StandardCharsets.UTF_8);
+                lock.lock();
+                try {
+                    out.write(bytes);
+                    out.flush();
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to write batch result.", e);
+                batch.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cn.lyp.server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * A response body rendered once, with a strong ETag derived from its bytes. The body array is
+ * shared between requests and must not be modified.
+ */
+final class CachedResponse {
+    private final byte[] body;
+    private final String etag;
+    private final long version;
+
+    private CachedResponse(byte[] body, String etag, long version) {
+        this.body = body;
+        this.etag = etag;
+        this.version = version;
+    }
+
+    static CachedResponse of(String body, long version) {
+        byte[] bytes = body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        return new CachedResponse(bytes, "\"" + digest(bytes) + "\"", version);
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    String etag() {
+        return etag;
+    }
+
+    long version() {
+        return version;
+    }
+
+    /**
+     * Applies If-None-Match semantics: a list of entity tags or {@code *}, compared weakly.
+     */
+    boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static String digest(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available.", e);
+        }
+    }
+}
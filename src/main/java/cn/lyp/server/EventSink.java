@@ -0,0 +1,12 @@
+package cn.lyp.server;
+
+/**
+ * Receives the events of one chat run. Methods return false once the receiver has gone away.
+ */
+interface EventSink {
+    boolean token(String text);
+
+    boolean send(String event, String data);
+
+    boolean tool(String json);
+}
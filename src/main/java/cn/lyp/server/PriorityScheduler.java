@@ -0,0 +1,153 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counting semaphore that hands free permits to waiters by priority instead of arrival order.
+ *
+ * <p>Each waiter is ordered by {@code arrival + rank * aging}: an interactive request is served
+ * before a batch request that arrived less than one aging period earlier, and a batch request that
+ * has waited longer than that goes first. Low-priority work is delayed by at most the aging period
+ * relative to any later arrival, so it is never starved.
+ */
+public class PriorityScheduler {
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private final int permits;
+    private final long agingNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>();
+    private final Map<Priority, Integer> waiting = new EnumMap<>(Priority.class);
+    private int available;
+    private long sequence;
+
+    public PriorityScheduler(int permits, long agingNanos) {
+        this.permits = permits;
+        this.agingNanos = agingNanos;
+        this.available = permits;
+    }
+
+    /**
+     * Takes a permit only if one is free and nobody is waiting.
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutNanos} for a permit. Returns false on timeout and throws
+     * {@link CancellationException} if {@code context} is cancelled while waiting.
+     */
+    public boolean acquire(Priority priority, long timeoutNanos, RunContext context) throws InterruptedException {
+        long arrival = System.nanoTime();
+        long deadline = arrival + timeoutNanos;
+        lock.lock();
+        try {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return true;
+            }
+            Waiter waiter = new Waiter(arrival + priority.rank() * agingNanos, sequence++, lock.newCondition());
+            waiters.add(waiter);
+            waiting.merge(priority, 1, Integer::sum);
+            try {
+                while (!waiter.granted) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        return false;
+                    }
+                    if (context.isCancelled()) {
+                        throw new CancellationException("Run cancelled.");
+                    }
+                    waiter.signal.awaitNanos(Math.min(left, WAIT_SLICE_NANOS));
+                }
+                return true;
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    release();
+                }
+                throw e;
+            } finally {
+                if (!waiter.granted) {
+                    waiters.remove(waiter);
+                }
+                waiting.merge(priority, -1, Integer::sum);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release() {
+        lock.lock();
+        try {
+            Waiter next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+            next.granted = true;
+            next.signal.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int permits() {
+        return permits;
+    }
+
+    public int inUse() {
+        lock.lock();
+        try {
+            return permits - available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int waiting(Priority priority) {
+        lock.lock();
+        try {
+            return waiting.getOrDefault(priority, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final long key;
+        private final long sequence;
+        private final Condition signal;
+        private boolean granted;
+
+        private Waiter(long key, long sequence, Condition signal) {
+            this.key = key;
+            this.sequence = sequence;
+            this.signal = signal;
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byKey = Long.compare(key - other.key, 0);
+            return byKey != 0 ? byKey : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cn.lyp.server;
+
+import cn.lyp.config.RateLimitConfig;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.MetricsRegistry;
+import cn.lyp.server.http.HttpCall;
+import cn.lyp.server.http.HttpRoute;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class RateLimitedRoute implements HttpRoute {
+    private static final byte[] LIMITED_BODY = "Rate limit exceeded. Retry later.".getBytes(StandardCharsets.UTF_8);
+    private final HttpRoute delegate;
+    private final RateLimiter limiter;
+    private final boolean trustForwardedFor;
+    private final Counter allowed;
+    private final Counter limited;
+
+    public RateLimitedRoute(String route, HttpRoute delegate, RateLimitConfig.Rate rate, boolean trustForwardedFor,
+                            MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.limiter = new RateLimiter(rate);
+        this.trustForwardedFor = trustForwardedFor;
+        String help = "Rate limit decisions by budget and outcome.";
+        this.allowed = metrics.counter("agent_rate_limit_decisions_total", help,
+                "route", route, "budget", "requests", "outcome", "allowed");
+        this.limited = metrics.counter("agent_rate_limit_decisions_total", help,
+                "route", route, "budget", "requests", "outcome", "limited");
+        metrics.gauge("agent_rate_limit_tracked_clients", "Clients with a live token bucket.",
+                limiter::trackedClients, "route", route);
+    }
+
+    @Override
+    public void handle(HttpCall call) throws IOException {
+        long waitNanos = limiter.tryAcquire(RateLimiter.clientKey(call, trustForwardedFor));
+        if (waitNanos == 0) {
+            allowed.increment();
+            delegate.handle(call);
+            return;
+        }
+        limited.increment();
+        long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        call.setResponseHeader("Retry-After", Long.toString(retryAfter));
+        call.setResponseHeader("Content-Type", "text/plain; charset=utf-8");
+        call.sendResponseHeaders(429, LIMITED_BODY.length);
+        try (OutputStream out = call.responseBody()) {
+            out.write(LIMITED_BODY);
+        }
+    }
+}
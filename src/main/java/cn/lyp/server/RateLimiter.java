@@ -0,0 +1,112 @@
+package cn.lyp.server;
+
+import cn.lyp.config.RateLimitConfig;
+import cn.lyp.server.http.HttpCall;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client token bucket for one route, implemented as GCRA: each client is a single
+ * "theoretical arrival time" updated with CAS, so a decision is one map lookup and one CAS.
+ * The map is a ConcurrentHashMap, whose bins act as lock stripes for first-time inserts only.
+ */
+public class RateLimiter {
+    private static final int SWEEP_THRESHOLD = 4096;
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long RETIRED = Long.MAX_VALUE;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(RateLimitConfig.Rate rate) {
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate.perSecond()));
+        this.burstNanos = intervalNanos * rate.burst();
+    }
+
+    /**
+     * Takes one token for {@code client}. Returns 0 when allowed, otherwise how many nanoseconds
+     * until a token is available.
+     */
+    public long tryAcquire(String client) {
+        long now = System.nanoTime();
+        while (true) {
+            AtomicLong tat = buckets.get(client);
+            if (tat == null) {
+                tat = buckets.computeIfAbsent(client, key -> new AtomicLong(Long.MIN_VALUE));
+                maybeSweep(now);
+            }
+            long wait = take(tat, now);
+            if (wait != RETIRED) {
+                return wait;
+            }
+            buckets.remove(client, tat);
+        }
+    }
+
+    /**
+     * Returns {@code RETIRED} if the sweeper dropped the bucket first, so the caller starts over
+     * with a fresh one instead of updating a bucket nobody will read again.
+     */
+    private long take(AtomicLong tat, long now) {
+        while (true) {
+            long current = tat.get();
+            if (current == RETIRED) {
+                return RETIRED;
+            }
+            long next = Math.max(current, now) + intervalNanos;
+            long excess = next - now - burstNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int trackedClients() {
+        return buckets.size();
+    }
+
+    /**
+     * Drops buckets that have refilled completely; an absent bucket behaves the same. Runs at
+     * most once a second and only once many clients are tracked. A bucket is marked retired with
+     * the same CAS a request would use, so a request racing the sweep either lands before it and
+     * keeps the bucket, or sees the mark and moves to a new one.
+     */
+    private void maybeSweep(long now) {
+        long last = lastSweep.get();
+        if (buckets.size() < SWEEP_THRESHOLD || now - last < SWEEP_INTERVAL_NANOS
+                || ThreadLocalRandom.current().nextInt(16) != 0 || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            AtomicLong tat = entry.getValue();
+            long current = tat.get();
+            if (current != Long.MIN_VALUE && current <= now && tat.compareAndSet(current, RETIRED)) {
+                buckets.remove(entry.getKey(), tat);
+            }
+        }
+    }
+
+    /**
+     * Identifies the caller by its address. The first X-Forwarded-For entry is only used when the
+     * server sits behind a trusted proxy. Bearer tokens are not validated here, so they are not
+     * used either: a new token per request would otherwise get a fresh bucket every time.
+     */
+    public static String clientKey(HttpCall call, boolean trustForwardedFor) {
+        if (trustForwardedFor) {
+            String forwarded = call.requestHeader("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isBlank()) {
+                int comma = forwarded.indexOf(',');
+                return "ip:" + (comma < 0 ? forwarded : forwarded.substring(0, comma)).trim();
+            }
+        }
+        return "ip:" + call.remoteAddress();
+    }
+}
@@ -0,0 +1,94 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class RunTracker {
+    private static final long CANCEL_GRACE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition idle = lock.newCondition();
+    private final Set<RunContext> active = new HashSet<>();
+    private volatile boolean draining;
+
+    public boolean begin(RunContext context) {
+        lock.lock();
+        try {
+            if (draining) {
+                return false;
+            }
+            active.add(context);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void end(RunContext context) {
+        lock.lock();
+        try {
+            if (active.remove(context) && active.isEmpty()) {
+                idle.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    public int active() {
+        lock.lock();
+        try {
+            return active.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public DrainReport drain(Duration timeout) throws InterruptedException {
+        long start = System.nanoTime();
+        List<RunContext> cutOff;
+        int inFlight;
+        lock.lock();
+        try {
+            draining = true;
+            inFlight = active.size();
+            awaitIdle(timeout.toNanos());
+            cutOff = new ArrayList<>(active);
+        } finally {
+            lock.unlock();
+        }
+        for (RunContext context : cutOff) {
+            context.cancel();
+        }
+        if (!cutOff.isEmpty()) {
+            lock.lock();
+            try {
+                awaitIdle(CANCEL_GRACE_NANOS);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return new DrainReport(inFlight, inFlight - cutOff.size(), cutOff.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void awaitIdle(long nanos) throws InterruptedException {
+        while (!active.isEmpty() && nanos > 0) {
+            nanos = idle.awaitNanos(nanos);
+        }
+    }
+
+    public record DrainReport(int inFlight, int finished, int cutOff, long elapsedMs) {
+    }
+}
@@ -0,0 +1,60 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.llm.ChatOptions;
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Caps concurrent upstream model calls and hands free slots to the highest-priority run waiting.
+ */
+public class ScheduledChatClient implements ChatClient {
+    private final ChatClient delegate;
+    private final PriorityScheduler scheduler;
+    private final Map<Priority, Histogram> queueWait = new EnumMap<>(Priority.class);
+
+    public ScheduledChatClient(ChatClient delegate, int maxConcurrentCalls, long agingNanos, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.scheduler = new PriorityScheduler(maxConcurrentCalls, agingNanos);
+        for (Priority priority : Priority.values()) {
+            queueWait.put(priority, metrics.histogram("agent_llm_queue_wait_seconds",
+                    "Time a model call waited for an upstream slot.", MetricsRegistry.NANOS,
+                    "priority", priority.label()));
+            metrics.gauge("agent_llm_queued_calls", "Model calls waiting for an upstream slot.",
+                    () -> scheduler.waiting(priority), "priority", priority.label());
+        }
+        metrics.gauge("agent_llm_inflight_calls", "Model calls holding an upstream slot.", scheduler::inUse);
+    }
+
+    @Override
+    public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken) throws Exception {
+        return chat(messages, options, onToken, RunContext.none());
+    }
+
+    @Override
+    public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken, RunContext context)
+            throws Exception {
+        Priority priority = context.priority();
+        long start = System.nanoTime();
+        scheduler.acquire(priority, Long.MAX_VALUE / 2, context);
+        queueWait.get(priority).recordSince(start);
+        try {
+            return delegate.chat(messages, options, onToken, context);
+        } finally {
+            scheduler.release();
+        }
+    }
+
+    @Override
+    public void warmUp() throws Exception {
+        delegate.warmUp();
+    }
+}
@@ -0,0 +1,124 @@
+package cn.lyp.server;
+
+import cn.lyp.agent.Agent;
+import cn.lyp.agent.ToolRegistry;
+import cn.lyp.agent.tools.CalcTool;
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatOptions;
+import cn.lyp.llm.RunContext;
+import cn.lyp.mcp.McpClientManager;
+import cn.lyp.protocol.StreamFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Work done once at startup so the first real chats do not pay for it. It opens a connection to
+ * the model endpoint, checks the MCP servers, and runs synthetic agent turns through the tool-call
+ * parser and every stream format until the JIT has compiled them. {@code /ready} stays 503 until
+ * it has finished. A failed check is reported but does not hold readiness back.
+ */
+public class ServerWarmup {
+    private static final Logger logger = LoggerFactory.getLogger(ServerWarmup.class);
+    private static final String TOOL_CALL = "{\"type\":\"tool_call\",\"tool\":\"calc\",\"args\":{\"expression\":\"6*7\"}}";
+    private static final String FINAL = "{\"type\":\"final\",\"content\":\"The answer is \\\"42\\\".\\n 你好\"}";
+    private final ChatClient model;
+    private final McpClientManager mcp;
+    private final String systemPrompt;
+    private final int iterations;
+    private final Map<String, String> checks = new LinkedHashMap<>();
+    private volatile boolean ready;
+    private volatile long elapsedMs;
+
+    public ServerWarmup(ChatClient model, McpClientManager mcp, String systemPrompt, int iterations) {
+        this.model = model;
+        this.mcp = mcp;
+        this.systemPrompt = systemPrompt;
+        this.iterations = iterations;
+    }
+
+    public void start() {
+        Thread.ofVirtual().name("agent-warmup").start(this::run);
+    }
+
+    public boolean ready() {
+        return ready;
+    }
+
+    public long elapsedMs() {
+        return elapsedMs;
+    }
+
+    public synchronized Map<String, String> checks() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(checks));
+    }
+
+    void run() {
+        long started = System.nanoTime();
+        check("model", () -> {
+            model.warmUp();
+            return "ok";
+        });
+        if (mcp != null) {
+            for (Map.Entry<String, String> server : mcp.ping().entrySet()) {
+                record("mcp:" + server.getKey(), server.getValue());
+            }
+        }
+        check("agent", () -> {
+            runSyntheticTurns();
+            return "ok";
+        });
+        elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        ready = true;
+        logger.info("Warm-up finished. elapsedMs={} iterations={} checks={}", elapsedMs, iterations, checks());
+    }
+
+    private void runSyntheticTurns() throws Exception {
+        ToolRegistry tools = new ToolRegistry();
+        tools.register(new CalcTool());
+        StreamFormat[] formats = StreamFormat.values();
+        for (int i = 0; i < iterations; i++) {
+            AtomicInteger calls = new AtomicInteger();
+            ChatClient scripted = (messages, options, onToken) -> {
+                String response = calls.getAndIncrement() == 0 ? TOOL_CALL : FINAL;
+                if (onToken != null) {
+                    for (int start = 0; start < response.length(); start += 6) {
+                        onToken.accept(response.substring(start, Math.min(response.length(), start + 6)));
+                    }
+                }
+                return response;
+            };
+            Agent agent = new Agent(scripted, new ChatOptions("warmup", false, null), tools, 3, systemPrompt);
+            SseWriter writer = new SseWriter(OutputStream.nullOutputStream(), RunContext.none(), null, 0, 0, 0,
+                    formats[i % formats.length]);
+            agent.handle("What is 6*7?", writer::token, true, RunContext.create());
+            writer.tool("{\"tool\":\"calc\",\"phase\":\"end\",\"ok\":true}");
+            writer.send("done", "[DONE]");
+        }
+    }
+
+    private void check(String name, Step step) {
+        String result;
+        try {
+            result = step.run();
+        } catch (Exception e) {
+            logger.warn("Warm-up check {} failed: {}", name, e.toString());
+            result = "failed: " + e.getMessage();
+        }
+        record(name, result);
+    }
+
+    private synchronized void record(String name, String result) {
+        checks.put(name, result);
+    }
+
+    private interface Step {
+        String run() throws Exception;
+    }
+}
@@ -0,0 +1,181 @@
+package cn.lyp.server;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs work for one session at a time, in arrival order. Each session has a mailbox; the task that
+ * finds it idle schedules a drain on the executor, which runs queued tasks until the mailbox is
+ * empty and then retires the lane. Different sessions never share a lock.
+ */
+public class SessionLanes {
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final int maxQueued;
+    private final RejectPolicy policy;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public enum RejectPolicy {
+        /** A request arriving at a full mailbox is refused. */
+        REJECT_NEW,
+        /** The oldest waiting request is refused to make room for the new one. */
+        DROP_OLDEST;
+
+        public static RejectPolicy parse(String value) {
+            String normalized = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+            return switch (normalized) {
+                case "", "reject-new" -> REJECT_NEW;
+                case "drop-oldest" -> DROP_OLDEST;
+                default -> throw new IllegalArgumentException(
+                        "Invalid session reject policy. Use reject-new or drop-oldest.");
+            };
+        }
+    }
+
+    /**
+     * Thrown through the returned future when a task is refused or pushed out of its mailbox.
+     */
+    public static class LaneFullException extends RejectedExecutionException {
+        private final boolean dropped;
+
+        LaneFullException(String message, boolean dropped) {
+            super(message);
+            this.dropped = dropped;
+        }
+
+        public boolean dropped() {
+            return dropped;
+        }
+    }
+
+    public SessionLanes(Executor executor, int maxQueued, RejectPolicy policy) {
+        this.executor = executor;
+        this.maxQueued = maxQueued;
+        this.policy = policy;
+    }
+
+    /**
+     * Queues {@code task} behind earlier work for the same session. Cancelling the returned future
+     * before the task starts skips it.
+     */
+    public <T> CompletableFuture<T> submit(String sessionId, Callable<T> task) {
+        Task<T> entry = new Task<>(task);
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(sessionId, Lane::new);
+            int count = lane.count.get();
+            if (count < 0) {
+                lanes.remove(sessionId, lane);
+                continue;
+            }
+            if (count > maxQueued) {
+                Task<?> oldest = policy == RejectPolicy.DROP_OLDEST ? lane.mailbox.pollFirst() : null;
+                if (oldest == null) {
+                    rejected.increment();
+                    entry.future.completeExceptionally(
+                            new LaneFullException("Session queue is full.", false));
+                    return entry.future;
+                }
+                dropped.increment();
+                oldest.future.completeExceptionally(
+                        new LaneFullException("Superseded by a newer request for this session.", true));
+                lane.mailbox.addLast(entry);
+                lane.schedule();
+                return entry.future;
+            }
+            if (lane.count.compareAndSet(count, count + 1)) {
+                lane.mailbox.addLast(entry);
+                lane.schedule();
+                return entry.future;
+            }
+        }
+    }
+
+    public int activeLanes() {
+        return lanes.size();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    private final class Lane implements Runnable {
+        private final String sessionId;
+        private final ConcurrentLinkedDeque<Task<?>> mailbox = new ConcurrentLinkedDeque<>();
+        // Tasks queued or running; -1 once the lane is retired.
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Lane(String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                    Task<?> task;
+                    while ((task = mailbox.pollFirst()) != null) {
+                        task.future.completeExceptionally(e);
+                        count.decrementAndGet();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task<?> task = mailbox.pollFirst();
+                if (task == null) {
+                    scheduled.set(false);
+                    if (mailbox.isEmpty() || !scheduled.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                task.run();
+                if (count.decrementAndGet() == 0 && count.compareAndSet(0, -1)) {
+                    lanes.remove(sessionId, this);
+                    scheduled.set(false);
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private final Callable<T> callable;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Task(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(callable.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
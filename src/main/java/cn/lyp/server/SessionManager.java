@@ -0,0 +1,568 @@
+package cn.lyp.server;
+
+import cn.lyp.agent.Agent;
+import cn.lyp.agent.History;
+import cn.lyp.config.SessionStoreConfig;
+import cn.lyp.journal.SessionJournal;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.MetricsRegistry;
+import cn.lyp.protocol.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Holds one agent per session. Sessions idle longer than the store's idle time are compacted into
+ * a deflated byte form and inflated on next access; sessions past the TTL, or the least recently
+ * used ones while the estimated heap is over budget, are evicted. With a journal an evicted session
+ * is rebuilt from disk on next access, without one its history is gone.
+ */
+public class SessionManager {
+    private static final Logger logger = LoggerFactory.getLogger(SessionManager.class);
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,128}");
+    private static final long ENTRY_BYTES = 160;
+    private static final long AGENT_BYTES = 160;
+    private static final long MESSAGE_BYTES = 96;
+    private static final long BUDGET_SWEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private final ConcurrentMap<String, Entry> sessions = new ConcurrentHashMap<>();
+    private final Supplier<Agent> agentFactory;
+    private final SessionJournal journal;
+    private final long idleNanos;
+    private final long ttlNanos;
+    private final long memoryBudget;
+    private final AtomicLong liveBytes = new AtomicLong();
+    private final AtomicLong compactedBytes = new AtomicLong();
+    private final AtomicLong compactedSessions = new AtomicLong();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicLong nextBudgetSweep = new AtomicLong(System.nanoTime());
+    private final Counter compactions;
+    private final Counter inflations;
+    private final Counter ttlEvictions;
+    private final Counter budgetEvictions;
+
+    public SessionManager(Supplier<Agent> agentFactory) {
+        this(agentFactory, null);
+    }
+
+    /**
+     * With a journal, every history change is appended to it and sessions missing from memory are
+     * rebuilt from it on first access.
+     */
+    public SessionManager(Supplier<Agent> agentFactory, SessionJournal journal) {
+        this(agentFactory, journal, SessionStoreConfig.defaults(), MetricsRegistry.disabled());
+    }
+
+    public SessionManager(Supplier<Agent> agentFactory, SessionJournal journal, SessionStoreConfig store,
+                          MetricsRegistry metrics) {
+        this.agentFactory = agentFactory;
+        this.journal = journal;
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(store.idleMs());
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(store.ttlMs());
+        this.memoryBudget = store.memoryBytes();
+        String help = "Session histories moved between live and compacted form.";
+        this.compactions = metrics.counter("agent_session_transitions_total", help, "to", "compacted");
+        this.inflations = metrics.counter("agent_session_transitions_total", help, "to", "live");
+        this.ttlEvictions = metrics.counter("agent_session_evictions_total", "Sessions evicted from memory.",
+                "reason", "ttl");
+        this.budgetEvictions = metrics.counter("agent_session_evictions_total", "Sessions evicted from memory.",
+                "reason", "budget");
+        metrics.gauge("agent_session_heap_bytes", "Estimated heap held by session histories.",
+                liveBytes::get, "state", "live");
+        metrics.gauge("agent_session_heap_bytes", "Estimated heap held by session histories.",
+                compactedBytes::get, "state", "compacted");
+        metrics.gauge("agent_session_heap_bytes_per_session", "Estimated heap per session in memory.",
+                this::bytesPerSession);
+        if (journal != null) {
+            metrics.gauge("agent_session_heap_bytes", "Estimated heap held by session histories.",
+                    journal::indexBytes, "state", "journal_index");
+        }
+        metrics.gauge("agent_compacted_sessions", "Sessions held in compacted form.", compactedSessions::get);
+    }
+
+    /**
+     * Returns the session's agent, creating or inflating it. Callers that run the agent for a while
+     * should use {@link #acquire} so the session is not compacted underneath them.
+     */
+    public Agent get(String sessionId) {
+        try (Lease lease = acquire(sessionId)) {
+            return lease.agent();
+        }
+    }
+
+    /**
+     * A new entry starts as an empty placeholder; the journal is read under that entry's own lock,
+     * so a slow disk stalls only callers of this session. The lock is a {@link ReentrantLock} rather
+     * than a monitor so a virtual thread waiting on the disk parks instead of pinning its carrier;
+     * the sweeper only tries it and skips a session that is being loaded.
+     */
+    public Lease acquire(String sessionId) {
+        while (true) {
+            Entry entry = sessions.computeIfAbsent(sessionId, id -> new Entry(id, null));
+            entry.lock.lock();
+            try {
+                if (entry.removed) {
+                    continue;
+                }
+                if (entry.agent == null) {
+                    if (entry.compacted == null) {
+                        load(entry);
+                    } else {
+                        inflate(entry);
+                    }
+                }
+                entry.leases++;
+                entry.lastAccess = System.nanoTime();
+                return new Lease(entry);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+    }
+
+    private void load(Entry entry) {
+        String sessionId = entry.sessionId;
+        Agent agent = agentFactory.get();
+        if (journal == null) {
+            logger.info("Session created: {}", sessionId);
+        } else {
+            List<ChatMessage> saved;
+            try {
+                saved = journal.load(sessionId);
+            } catch (UncheckedIOException e) {
+                throw loadFailed(entry, e.getCause());
+            } catch (IOException e) {
+                throw loadFailed(entry, e);
+            }
+            if (saved.isEmpty()) {
+                logger.info("Session created: {}", sessionId);
+            } else {
+                agent.restore(saved);
+                logger.info("Session restored from journal: {} messages={}", sessionId, saved.size());
+            }
+            agent.setHistoryLog(journal.log(sessionId));
+        }
+        entry.agent = agent;
+        liveBytes.addAndGet(count(entry));
+    }
+
+    /**
+     * Drops the placeholder so the next access tries the journal again.
+     */
+    private UncheckedIOException loadFailed(Entry entry, IOException cause) {
+        entry.removed = true;
+        sessions.remove(entry.sessionId, entry);
+        return new UncheckedIOException("Failed to restore session " + entry.sessionId + ".", cause);
+    }
+
+    /**
+     * Starts session {@code targetId} from {@code sourceId}'s current history and returns the number
+     * of messages it starts with. The two share that history in memory and, with a journal, on disk.
+     */
+    public int fork(String sourceId, String targetId) throws IOException {
+        Agent branch;
+        try (Lease source = acquire(sourceId)) {
+            branch = source.agent().fork();
+        }
+        Entry entry = new Entry(targetId, branch);
+        count(entry);
+        if (sessions.putIfAbsent(targetId, entry) != null) {
+            throw new IllegalStateException("Session " + targetId + " already exists.");
+        }
+        liveBytes.addAndGet(entry.bytes);
+        if (journal != null) {
+            try {
+                journal.awaitDurable(journal.fork(sourceId, targetId));
+            } catch (IOException | RuntimeException e) {
+                reset(targetId);
+                throw e;
+            }
+            branch.setHistoryLog(journal.log(targetId));
+        }
+        int messages = branch.messages().size();
+        logger.info("Session forked: {} -> {} messages={}", sourceId, targetId, messages);
+        return messages;
+    }
+
+    public boolean reset(String sessionId) {
+        if (sessionId == null) {
+            return false;
+        }
+        Entry entry = sessions.remove(sessionId);
+        boolean removed = entry != null;
+        if (entry != null) {
+            entry.lock.lock();
+            try {
+                discard(entry);
+            } finally {
+                entry.lock.unlock();
+            }
+        }
+        if (journal != null) {
+            removed |= journal.drop(sessionId);
+        }
+        if (removed) {
+            logger.info("Session reset: {}", sessionId);
+        }
+        return removed;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long compactedSessions() {
+        return compactedSessions.get();
+    }
+
+    public long liveBytes() {
+        return liveBytes.get();
+    }
+
+    public long compactedBytes() {
+        return compactedBytes.get();
+    }
+
+    public long bytesPerSession() {
+        int size = sessions.size();
+        return size == 0 ? 0 : (liveBytes.get() + compactedBytes.get()) / size;
+    }
+
+    /**
+     * Compacts idle sessions, evicts expired ones and, while over the memory budget, compacts and
+     * then evicts the least recently used sessions.
+     */
+    public void sweep() {
+        sweep(System.nanoTime());
+    }
+
+    void sweep(long now) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int compacted = 0;
+            int expired = 0;
+            for (Entry entry : sessions.values()) {
+                long idle = now - entry.lastAccess;
+                if (ttlNanos > 0 && idle >= ttlNanos) {
+                    if (evict(entry)) {
+                        ttlEvictions.increment();
+                        expired++;
+                    }
+                } else if (idleNanos > 0 && idle >= idleNanos && compact(entry)) {
+                    compacted++;
+                }
+            }
+            if (overBudget()) {
+                List<Entry> lru = new ArrayList<>(sessions.values());
+                lru.sort(Comparator.comparingLong(entry -> entry.lastAccess));
+                for (int i = 0; i < lru.size() && overBudget(); i++) {
+                    if (compact(lru.get(i))) {
+                        compacted++;
+                    }
+                }
+                for (int i = 0; i < lru.size() && overBudget(); i++) {
+                    if (evict(lru.get(i))) {
+                        budgetEvictions.increment();
+                        expired++;
+                    }
+                }
+            }
+            if (compacted > 0 || expired > 0) {
+                logger.info("Session sweep. compacted={} evicted={} sessions={} liveBytes={} compactedBytes={}",
+                        compacted, expired, sessions.size(), liveBytes.get(), compactedBytes.get());
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private boolean overBudget() {
+        return memoryBudget > 0 && liveBytes.get() + compactedBytes.get() > memoryBudget;
+    }
+
+    private boolean compact(Entry entry) {
+        if (!entry.lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (entry.removed || entry.leases > 0 || entry.agent == null) {
+                return false;
+            }
+            byte[] packed = pack(entry.agent.messages());
+            entry.agent = null;
+            entry.counted = null;
+            entry.compacted = packed;
+            liveBytes.addAndGet(-entry.bytes);
+            entry.bytes = ENTRY_BYTES + 16 + packed.length;
+            compactedBytes.addAndGet(entry.bytes);
+            compactedSessions.incrementAndGet();
+            compactions.increment();
+            return true;
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    private void inflate(Entry entry) {
+        Agent agent = agentFactory.get();
+        agent.restore(unpack(entry.compacted));
+        if (journal != null) {
+            agent.setHistoryLog(journal.log(entry.sessionId));
+        }
+        compactedBytes.addAndGet(-entry.bytes);
+        compactedSessions.decrementAndGet();
+        entry.agent = agent;
+        entry.compacted = null;
+        liveBytes.addAndGet(count(entry));
+        inflations.increment();
+    }
+
+    private boolean evict(Entry entry) {
+        if (!entry.lock.tryLock()) {
+            return false;
+        }
+        try {
+            if (entry.removed || entry.leases > 0) {
+                return false;
+            }
+            sessions.remove(entry.sessionId, entry);
+            discard(entry);
+            return true;
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    private void discard(Entry entry) {
+        if (entry.removed) {
+            return;
+        }
+        entry.removed = true;
+        if (entry.agent != null) {
+            liveBytes.addAndGet(-entry.bytes);
+        } else if (entry.compacted != null) {
+            compactedBytes.addAndGet(-entry.bytes);
+            compactedSessions.decrementAndGet();
+        }
+    }
+
+    private void release(Entry entry) {
+        entry.lock.lock();
+        try {
+            entry.leases--;
+            entry.lastAccess = System.nanoTime();
+            if (!entry.removed && entry.agent != null) {
+                long before = entry.bytes;
+                List<ChatMessage> added = entry.agent.history().since(entry.counted);
+                if (added == null) {
+                    count(entry);
+                } else {
+                    entry.counted = entry.agent.history();
+                    entry.bytes += messageBytes(added);
+                }
+                liveBytes.addAndGet(entry.bytes - before);
+            }
+        } finally {
+            entry.lock.unlock();
+        }
+        if (overBudget()) {
+            requestSweep();
+        }
+    }
+
+    /**
+     * Hands a sweep to a virtual thread, at most once per {@code BUDGET_SWEEP_NANOS}. While every
+     * evictable session is leased the store stays over budget, and requests must not keep sorting
+     * it.
+     */
+    private void requestSweep() {
+        long now = System.nanoTime();
+        long next = nextBudgetSweep.get();
+        if (now - next >= 0 && nextBudgetSweep.compareAndSet(next, now + BUDGET_SWEEP_NANOS)) {
+            Thread.ofVirtual().name("session-sweep").start(this::sweep);
+        }
+    }
+
+    /**
+     * Re-estimates a live entry from its whole history and returns the estimate.
+     */
+    private static long count(Entry entry) {
+        entry.counted = entry.agent.history();
+        entry.bytes = ENTRY_BYTES + AGENT_BYTES + messageBytes(entry.counted.toList(1));
+        return entry.bytes;
+    }
+
+    static long estimate(List<ChatMessage> messages) {
+        return ENTRY_BYTES + AGENT_BYTES + messageBytes(messages);
+    }
+
+    private static long messageBytes(List<ChatMessage> messages) {
+        long bytes = 0;
+        for (ChatMessage message : messages) {
+            bytes += MESSAGE_BYTES + stringBytes(message.role()) + stringBytes(message.content());
+        }
+        return bytes;
+    }
+
+    private static long stringBytes(String value) {
+        if (value == null) {
+            return 0;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0xFF) {
+                return 2L * value.length();
+            }
+        }
+        return value.length();
+    }
+
+    static byte[] pack(List<ChatMessage> messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED), 4096))) {
+            out.writeInt(messages.size());
+            for (ChatMessage message : messages) {
+                writeString(out, message.role());
+                writeString(out, message.content());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static List<ChatMessage> unpack(byte[] packed) {
+        try (DataInputStream in = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(packed)))) {
+            int count = in.readInt();
+            List<ChatMessage> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                messages.add(new ChatMessage(readString(in), readString(in)));
+            }
+            return messages;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static String newSessionId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * A new id for a fork of {@code sessionId}: its {@link #routingKey} plus a random suffix, so every
+     * branch of a conversation routes to the same backend.
+     */
+    public static String forkId(String sessionId) {
+        String id = routingKey(sessionId) + "." + UUID.randomUUID().toString().substring(0, 8);
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Session id is too long to fork: " + sessionId);
+        }
+        return id;
+    }
+
+    /**
+     * The part of a session id before its first {@code .}, shared by a session and all its forks.
+     */
+    public static String routingKey(String sessionId) {
+        int dot = sessionId.indexOf('.');
+        return dot > 0 ? sessionId.substring(0, dot) : sessionId;
+    }
+
+    public static boolean isValidId(String sessionId) {
+        return sessionId != null && VALID_ID.matcher(sessionId).matches();
+    }
+
+    public static String fromCookieHeader(String cookieHeader) {
+        if (cookieHeader == null || cookieHeader.isBlank()) {
+            return null;
+        }
+        for (String part : cookieHeader.split(";")) {
+            String[] pair = part.trim().split("=", 2);
+            if (pair.length == 2 && Protocol.SESSION_COOKIE.equals(pair[0].trim())) {
+                String value = pair[1].trim();
+                return isValidId(value) ? value : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Keeps a session live until closed.
+     */
+    public final class Lease implements AutoCloseable {
+        private final Entry entry;
+        private final Agent agent;
+        private boolean closed;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+            this.agent = entry.agent;
+        }
+
+        public Agent agent() {
+            return agent;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final String sessionId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private Agent agent;
+        private byte[] compacted;
+        private long bytes;
+        private History counted;
+        private int leases;
+        private boolean removed;
+        private volatile long lastAccess = System.nanoTime();
+
+        private Entry(String sessionId, Agent agent) {
+            this.sessionId = sessionId;
+            this.agent = agent;
+        }
+    }
+}
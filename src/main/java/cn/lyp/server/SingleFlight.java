@@ -0,0 +1,206 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lets concurrent identical chat requests share one agent run. The first request for a key leads
+ * and runs the agent; requests that arrive while it is in flight follow it. A follower first gets
+ * the events sent so far, then the rest as they happen. The key is forgotten once the run ends, so
+ * this never serves a finished answer.
+ */
+public class SingleFlight {
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final Counter leaders;
+    private final Counter followers;
+
+    public SingleFlight(MetricsRegistry metrics) {
+        String help = "Coalescable chat requests, by whether they ran the agent or joined a run in flight.";
+        this.leaders = metrics.counter("agent_chat_flights_total", help, "role", "leader");
+        this.followers = metrics.counter("agent_chat_flights_total", help, "role", "follower");
+    }
+
+    public record Seat(Flight flight, boolean leader) {
+    }
+
+    public Seat join(String key) {
+        boolean[] led = new boolean[1];
+        Flight flight = flights.compute(key, (k, current) -> {
+            if (current != null) {
+                return current;
+            }
+            led[0] = true;
+            return new Flight(k);
+        });
+        (led[0] ? leaders : followers).increment();
+        return new Seat(flight, led[0]);
+    }
+
+    /**
+     * Share of coalescable requests that joined a run instead of starting one.
+     */
+    public double coalescingRatio() {
+        long joined = followers.value();
+        long total = joined + leaders.value();
+        return total == 0 ? 0 : (double) joined / total;
+    }
+
+    public int inFlight() {
+        return flights.size();
+    }
+
+    public final class Flight implements EventSink {
+        private final String key;
+        private final List<EventSink> subscribers = new CopyOnWriteArrayList<>();
+        private final List<Event> history = new ArrayList<>();
+        private final CompletableFuture<Boolean> started = new CompletableFuture<>();
+        private final CompletableFuture<Void> finished = new CompletableFuture<>();
+        private volatile RunContext run;
+        private volatile String sessionId;
+        private volatile boolean done;
+
+        private Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Called by the leader once its run is admitted in {@code sessionId}. Cancelling
+         * {@code run} is left to the flight: it happens when the last subscriber has gone.
+         */
+        public void start(RunContext run, String sessionId) {
+            this.run = run;
+            this.sessionId = sessionId;
+            started.complete(true);
+        }
+
+        /**
+         * The leader's session, once {@link #start} has been called.
+         */
+        public String sessionId() {
+            return sessionId;
+        }
+
+        /**
+         * Blocks until the leader's run has started. Returns false if the leader was refused or
+         * gave up first; followers then ask the client to retry.
+         */
+        public boolean awaitStart() throws InterruptedException {
+            try {
+                return started.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        public CompletableFuture<Void> finished() {
+            return finished;
+        }
+
+        /**
+         * Replays the events so far to {@code writer} and adds it to the live subscribers.
+         */
+        public synchronized void subscribe(EventSink writer) {
+            for (Event event : history) {
+                event.replay(writer);
+            }
+            if (!done) {
+                subscribers.add(writer);
+            }
+        }
+
+        public boolean abandoned() {
+            return subscribers.isEmpty();
+        }
+
+        /**
+         * Drops a subscriber, cancelling the run when none are left. Takes no lock, since writers
+         * report a failed write while holding their own.
+         */
+        public void leave(EventSink writer) {
+            RunContext current = run;
+            if (subscribers.remove(writer) && subscribers.isEmpty() && !done && current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public synchronized boolean token(String text) {
+            Event last = history.isEmpty() ? null : history.get(history.size() - 1);
+            if (last != null && last.token) {
+                last.data.append(text);
+            } else {
+                history.add(new Event("token", text, false));
+            }
+            for (EventSink writer : subscribers) {
+                if (!writer.token(text)) {
+                    leave(writer);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized boolean send(String event, String data) {
+            publish(new Event(event, data, false));
+            return true;
+        }
+
+        @Override
+        public synchronized boolean tool(String json) {
+            publish(new Event(null, json, true));
+            return true;
+        }
+
+        /**
+         * Ends the flight. Called by the leader whether or not its run started.
+         */
+        public void finish() {
+            synchronized (this) {
+                done = true;
+                subscribers.clear();
+            }
+            flights.remove(key, this);
+            started.complete(false);
+            finished.complete(null);
+        }
+
+        private void publish(Event event) {
+            history.add(event);
+            for (EventSink writer : subscribers) {
+                if (!event.replay(writer)) {
+                    leave(writer);
+                }
+            }
+        }
+    }
+
+    private static final class Event {
+        private final String name;
+        private final StringBuilder data;
+        private final boolean token;
+        private final boolean tool;
+
+        private Event(String name, String data, boolean tool) {
+            this.name = name;
+            this.data = new StringBuilder(data == null ? "" : data);
+            this.token = "token".equals(name);
+            this.tool = tool;
+        }
+
+        private boolean replay(EventSink writer) {
+            if (token) {
+                return writer.token(data.toString());
+            }
+            return tool ? writer.tool(data.toString()) : writer.send(name, data.toString());
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.protocol.StreamFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffers chat events and writes them in batches. Consecutive tokens are merged into one event.
+ * SSE is the default encoding; {@link StreamFormat} lists the compact alternatives.
+ */
+public class SseWriter implements EventSink {
+    private static final Logger logger = LoggerFactory.getLogger(SseWriter.class);
+    private static final byte[] TOKEN_EVENT = "event: token\ndata: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_PREFIX = "event: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DATA_PREFIX = "\ndata: ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EVENT_END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NDJSON_TOKEN = "{\"token\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NDJSON_TOOL = "{\"tool\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NDJSON_STRING_END = "\"}\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private final OutputStream out;
+    private final StreamFormat format;
+    private final RunContext context;
+    private final ScheduledExecutorService timer;
+    private final long flushWindowMs;
+    private final int flushBytes;
+    private final long heartbeatNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private byte[] buffer = new byte[4096];
+    private int length;
+    private boolean tokenOpen;
+    private int frameStart;
+    private boolean pendingCr;
+    private boolean flushScheduled;
+    private volatile long flushes;
+    private volatile long lastWriteNanos = System.nanoTime();
+
+    public SseWriter(OutputStream out, RunContext context, ScheduledExecutorService timer,
+                     long flushWindowMs, int flushBytes, long heartbeatMs) {
+        this(out, context, timer, flushWindowMs, flushBytes, heartbeatMs, StreamFormat.SSE);
+    }
+
+    public SseWriter(OutputStream out, RunContext context, ScheduledExecutorService timer,
+                     long flushWindowMs, int flushBytes, long heartbeatMs, StreamFormat format) {
+        this.out = out;
+        this.format = format;
+        this.context = context;
+        this.timer = timer;
+        this.flushWindowMs = Math.max(0, flushWindowMs);
+        this.flushBytes = Math.max(0, flushBytes);
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+    }
+
+    @Override
+    public boolean token(String text) {
+        if (context.isCancelled()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (!tokenOpen) {
+                switch (format) {
+                    case SSE -> append(TOKEN_EVENT);
+                    case NDJSON -> append(NDJSON_TOKEN);
+                    case FRAMES -> openFrame(StreamFormat.FRAME_TOKEN);
+                }
+                tokenOpen = true;
+                pendingCr = false;
+            }
+            appendData(text);
+            if (length >= flushBytes || flushWindowMs == 0 || timer == null) {
+                return flushLocked();
+            }
+            scheduleFlushLocked();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean send(String event, String data) {
+        if (context.isCancelled()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            closeTokenLocked();
+            switch (format) {
+                case SSE -> {
+                    append(EVENT_PREFIX);
+                    appendData(event);
+                    pendingCr = false;
+                    append(DATA_PREFIX);
+                    appendData(data);
+                    append(EVENT_END);
+                }
+                case NDJSON -> {
+                    appendByte('{');
+                    appendByte('"');
+                    appendData(event);
+                    appendByte('"');
+                    appendByte(':');
+                    appendByte('"');
+                    appendData(data);
+                    append(NDJSON_STRING_END);
+                }
+                case FRAMES -> {
+                    openFrame(StreamFormat.frameType(event));
+                    appendData(data);
+                    closeFrame();
+                }
+            }
+            return flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a tool event whose data is a JSON object. NDJSON embeds it as the value and frames
+     * carry it as the payload. SSE leaves tool events out, so existing SSE clients see no change.
+     */
+    @Override
+    public boolean tool(String json) {
+        if (format == StreamFormat.SSE) {
+            return !context.isCancelled();
+        }
+        if (format == StreamFormat.FRAMES) {
+            return send("tool", json);
+        }
+        if (context.isCancelled()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            closeTokenLocked();
+            append(NDJSON_TOOL);
+            append(json.getBytes(StandardCharsets.UTF_8));
+            appendByte('}');
+            appendByte('\n');
+            return flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean flush() {
+        if (context.isCancelled()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void heartbeat() {
+        if (context.isCancelled() || System.nanoTime() - lastWriteNanos < heartbeatNanos || !lock.tryLock()) {
+            return;
+        }
+        try {
+            if (length == 0) {
+                switch (format) {
+                    case SSE -> append(KEEPALIVE);
+                    case NDJSON -> appendByte('\n');
+                    case FRAMES -> {
+                        openFrame(StreamFormat.FRAME_KEEPALIVE);
+                        closeFrame();
+                    }
+                }
+            }
+            flushLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long flushes() {
+        return flushes;
+    }
+
+    private void scheduleFlushLocked() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        timer.schedule(() -> Thread.ofVirtual().name("sse-flush").start(this::flush),
+                flushWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean flushLocked() {
+        flushScheduled = false;
+        closeTokenLocked();
+        if (length == 0) {
+            return true;
+        }
+        try {
+            out.write(buffer, 0, length);
+            out.flush();
+            flushes++;
+            lastWriteNanos = System.nanoTime();
+            return true;
+        } catch (IOException e) {
+            if (!context.isCancelled()) {
+                logger.info("SSE client disconnected. Cancelling run. reason={}", e.getMessage());
+            }
+            context.cancel();
+            return false;
+        } finally {
+            length = 0;
+        }
+    }
+
+    private void closeTokenLocked() {
+        if (tokenOpen) {
+            switch (format) {
+                case SSE -> append(EVENT_END);
+                case NDJSON -> append(NDJSON_STRING_END);
+                case FRAMES -> closeFrame();
+            }
+            tokenOpen = false;
+        }
+    }
+
+    private void openFrame(int type) {
+        ensureCapacity(StreamFormat.FRAME_HEADER_BYTES);
+        frameStart = length;
+        buffer[length++] = (byte) type;
+        length += 4;
+    }
+
+    private void closeFrame() {
+        int payload = length - frameStart - StreamFormat.FRAME_HEADER_BYTES;
+        buffer[frameStart + 1] = (byte) (payload >>> 24);
+        buffer[frameStart + 2] = (byte) (payload >>> 16);
+        buffer[frameStart + 3] = (byte) (payload >>> 8);
+        buffer[frameStart + 4] = (byte) payload;
+    }
+
+    private void appendData(String text) {
+        if (text == null) {
+            return;
+        }
+        int count = text.length();
+        boolean json = format == StreamFormat.NDJSON;
+        ensureCapacity(count * (json ? 6 : 3));
+        for (int i = 0; i < count; i++) {
+            char ch = text.charAt(i);
+            if (json && (ch < 0x20 || ch == '"' || ch == '\\')) {
+                appendEscaped(ch);
+                continue;
+            }
+            if (format == StreamFormat.SSE && (ch == '\n' || ch == '\r')) {
+                boolean crlf = ch == '\n' && pendingCr;
+                pendingCr = ch == '\r';
+                if (!crlf) {
+                    append(DATA_PREFIX);
+                    ensureCapacity((count - i) * 3);
+                }
+                continue;
+            }
+            pendingCr = false;
+            if (ch < 0x80) {
+                buffer[length++] = (byte) ch;
+            } else if (ch < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (ch >> 6));
+                buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < count && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(ch, text.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | (ch >> 12));
+                buffer[length++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+    }
+
+    private void appendEscaped(char ch) {
+        buffer[length++] = '\\';
+        switch (ch) {
+            case '"', '\\' -> buffer[length++] = (byte) ch;
+            case '\n' -> buffer[length++] = 'n';
+            case '\r' -> buffer[length++] = 'r';
+            case '\t' -> buffer[length++] = 't';
+            default -> {
+                buffer[length++] = 'u';
+                buffer[length++] = '0';
+                buffer[length++] = '0';
+                buffer[length++] = HEX[ch >> 4];
+                buffer[length++] = HEX[ch & 0xF];
+            }
+        }
+    }
+
+    private void appendByte(char ch) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) ch;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        int needed = length + extra;
+        if (needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+        }
+    }
+}
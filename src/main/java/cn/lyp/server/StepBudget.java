@@ -0,0 +1,90 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.llm.StepGate;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.MetricsRegistry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps how many agent steps one client may have in flight across all of its runs. A step waits
+ * up to {@code maxWaitMs} for a slot and then fails the run.
+ */
+public class StepBudget {
+    private static final int SWEEP_THRESHOLD = 4096;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private final ConcurrentHashMap<String, Semaphore> budgets = new ConcurrentHashMap<>();
+    private final int maxInflight;
+    private final long maxWaitNanos;
+    private final Counter allowed;
+    private final Counter delayed;
+    private final Counter limited;
+
+    public StepBudget(int maxInflight, long maxWaitMs, MetricsRegistry metrics) {
+        this.maxInflight = maxInflight;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+        String help = "Rate limit decisions by budget and outcome.";
+        this.allowed = metrics.counter("agent_rate_limit_decisions_total", help,
+                "route", "chat", "budget", "steps", "outcome", "allowed");
+        this.delayed = metrics.counter("agent_rate_limit_decisions_total", help,
+                "route", "chat", "budget", "steps", "outcome", "delayed");
+        this.limited = metrics.counter("agent_rate_limit_decisions_total", help,
+                "route", "chat", "budget", "steps", "outcome", "limited");
+    }
+
+    public StepGate gateFor(String client) {
+        return context -> enter(client, context);
+    }
+
+    public int trackedClients() {
+        return budgets.size();
+    }
+
+    private StepGate.Permit enter(String client, RunContext context) throws InterruptedException {
+        Semaphore budget = budgets.get(client);
+        if (budget == null) {
+            sweep();
+            budget = budgets.computeIfAbsent(client, key -> new Semaphore(maxInflight));
+        }
+        if (budget.tryAcquire()) {
+            allowed.increment();
+            return release(budget);
+        }
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (true) {
+            context.throwIfCancelled();
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                limited.increment();
+                throw new IllegalStateException("Too many agent steps in flight for this client. Retry later.");
+            }
+            if (budget.tryAcquire(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS)) {
+                delayed.increment();
+                return release(budget);
+            }
+        }
+    }
+
+    private static StepGate.Permit release(Semaphore budget) {
+        return new StepGate.Permit() {
+            private boolean closed;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    budget.release();
+                }
+            }
+        };
+    }
+
+    private void sweep() {
+        if (budgets.size() >= SWEEP_THRESHOLD) {
+            budgets.values().removeIf(budget -> budget.availablePermits() == maxInflight && !budget.hasQueuedThreads());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.Counter;
+import cn.lyp.metrics.Histogram;
+import cn.lyp.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded ring of chat events between the agent's model stream and a client socket. The
+ * producer only queues events; a virtual thread writes them out, merging tokens that queued up
+ * while the socket was busy into one write. A slow client therefore does not slow the model
+ * stream until the ring is full, and then the {@link Policy} decides.
+ */
+public class StreamBuffer implements EventSink, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(StreamBuffer.class);
+    private static final int TOKEN = 0;
+    private static final int EVENT = 1;
+    private static final int TOOL = 2;
+
+    public enum Policy {
+        /** The producer waits for the client to catch up. */
+        BLOCK,
+        /** New tokens are appended to the newest queued token, so the producer never waits for tokens. */
+        COALESCE,
+        /** The client is disconnected. */
+        DROP;
+
+        public static Policy parse(String value) {
+            String normalized = value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+            return switch (normalized) {
+                case "", "coalesce" -> COALESCE;
+                case "block" -> BLOCK;
+                case "drop" -> DROP;
+                default -> throw new IllegalArgumentException(
+                        "Invalid stream buffer policy. Use block, coalesce or drop.");
+            };
+        }
+    }
+
+    /**
+     * Metrics shared by every buffer of a server.
+     */
+    public static final class Meters {
+        private final Histogram highWater;
+        private final Counter blocked;
+        private final Counter coalesced;
+        private final Counter dropped;
+
+        public Meters(MetricsRegistry metrics) {
+            this.highWater = metrics.histogram("agent_stream_buffer_high_water",
+                    "Most events waiting in one chat stream's buffer.", 1);
+            String help = "Events that found a chat stream's buffer full, by what happened to them.";
+            this.blocked = metrics.counter("agent_stream_buffer_full_total", help, "outcome", "blocked");
+            this.coalesced = metrics.counter("agent_stream_buffer_full_total", help, "outcome", "coalesced");
+            this.dropped = metrics.counter("agent_stream_buffer_full_total", help, "outcome", "dropped");
+        }
+    }
+
+    private final EventSink downstream;
+    private final RunContext connection;
+    private final Policy policy;
+    private final Meters meters;
+    private final Slot[] ring;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread writer;
+    private int head;
+    private int count;
+    private int highWater;
+    private boolean closed;
+
+    /**
+     * Starts the writer thread. {@code connection} is the client's context: cancelling it stops
+     * the writer and makes every later event fail.
+     */
+    public StreamBuffer(EventSink downstream, RunContext connection, int capacity, Policy policy, Meters meters) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Stream buffer capacity must be above 0.");
+        }
+        this.downstream = downstream;
+        this.connection = connection;
+        this.policy = policy;
+        this.meters = meters;
+        this.ring = new Slot[capacity];
+        connection.onCancel(this::wakeAll);
+        this.writer = Thread.ofVirtual().name("stream-buffer").start(this::drain);
+    }
+
+    @Override
+    public boolean token(String text) {
+        return offer(TOKEN, null, text);
+    }
+
+    @Override
+    public boolean send(String event, String data) {
+        return offer(EVENT, event, data);
+    }
+
+    @Override
+    public boolean tool(String json) {
+        return offer(TOOL, null, json);
+    }
+
+    public int highWater() {
+        lock.lock();
+        try {
+            return highWater;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every queued event is written or the client is gone, then stops the writer.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            connection.cancel();
+        }
+        meters.highWater.record(highWater());
+    }
+
+    private boolean offer(int kind, String name, String data) {
+        boolean drop = false;
+        lock.lock();
+        try {
+            if (connection.isCancelled() || closed) {
+                return false;
+            }
+            if (count == ring.length) {
+                Slot newest = ring[(head + count - 1) % ring.length];
+                if (policy == Policy.COALESCE && kind == TOKEN && newest.kind == TOKEN) {
+                    meters.coalesced.increment();
+                    newest.append(data);
+                    return true;
+                }
+                if (policy == Policy.DROP) {
+                    meters.dropped.increment();
+                    drop = true;
+                } else {
+                    meters.blocked.increment();
+                    while (count == ring.length && !connection.isCancelled()) {
+                        notFull.await();
+                    }
+                    if (connection.isCancelled()) {
+                        return false;
+                    }
+                }
+            }
+            if (!drop) {
+                ring[(head + count) % ring.length] = new Slot(kind, name, data);
+                count++;
+                highWater = Math.max(highWater, count);
+                notEmpty.signal();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Chat client is {} events behind. Dropping it.", ring.length);
+        connection.cancel();
+        return false;
+    }
+
+    private void drain() {
+        List<Slot> batch = new ArrayList<>();
+        while (true) {
+            lock.lock();
+            try {
+                while (count == 0 && !closed && !connection.isCancelled()) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (count == 0 || connection.isCancelled()) {
+                    return;
+                }
+                while (count > 0) {
+                    batch.add(ring[head]);
+                    ring[head] = null;
+                    head = (head + 1) % ring.length;
+                    count--;
+                }
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (!write(batch)) {
+                connection.cancel();
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean write(List<Slot> batch) {
+        StringBuilder tokens = new StringBuilder();
+        for (Slot slot : batch) {
+            if (slot.kind == TOKEN) {
+                tokens.append(slot.text());
+                continue;
+            }
+            if (!tokens.isEmpty() && !downstream.token(tokens.toString())) {
+                return false;
+            }
+            tokens.setLength(0);
+            boolean written = slot.kind == TOOL ? downstream.tool(slot.text()) : downstream.send(slot.name, slot.text());
+            if (!written) {
+                return false;
+            }
+        }
+        return tokens.isEmpty() || downstream.token(tokens.toString());
+    }
+
+    private void wakeAll() {
+        lock.lock();
+        try {
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Slot {
+        private final int kind;
+        private final String name;
+        private final String data;
+        private StringBuilder merged;
+
+        private Slot(int kind, String name, String data) {
+            this.kind = kind;
+            this.name = name;
+            this.data = data == null ? "" : data;
+        }
+
+        void append(String more) {
+            if (merged == null) {
+                merged = new StringBuilder(data);
+            }
+            merged.append(more == null ? "" : more);
+        }
+
+        String text() {
+            return merged == null ? data : merged.toString();
+        }
+    }
+}
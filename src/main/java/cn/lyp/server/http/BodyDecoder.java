@@ -0,0 +1,92 @@
+package cn.lyp.server.http;
+
+import java.nio.ByteBuffer;
+
+final class BodyDecoder {
+    private enum State { DATA, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, TRAILER, DONE }
+
+    private final boolean chunked;
+    private final StringBuilder line = new StringBuilder();
+    private State state;
+    private long remaining;
+
+    BodyDecoder(boolean chunked, long contentLength) {
+        this.chunked = chunked;
+        this.remaining = chunked ? 0 : contentLength;
+        this.state = chunked ? State.CHUNK_SIZE : (contentLength > 0 ? State.DATA : State.DONE);
+    }
+
+    boolean done() {
+        return state == State.DONE;
+    }
+
+    /**
+     * Consumes framing and body bytes from {@code in}, returning the next slice of body data
+     * (possibly empty) or {@code null} when more input is needed.
+     */
+    byte[] next(ByteBuffer in) {
+        while (in.hasRemaining() && state != State.DONE) {
+            switch (state) {
+                case DATA, CHUNK_DATA -> {
+                    int count = (int) Math.min(remaining, in.remaining());
+                    byte[] slice = new byte[count];
+                    in.get(slice);
+                    remaining -= count;
+                    if (remaining == 0) {
+                        state = state == State.DATA ? State.DONE : State.CHUNK_DATA_END;
+                    }
+                    return slice;
+                }
+                case CHUNK_SIZE -> {
+                    if (readLine(in)) {
+                        String size = line.toString();
+                        int extension = size.indexOf(';');
+                        if (extension >= 0) {
+                            size = size.substring(0, extension);
+                        }
+                        remaining = Long.parseLong(size.trim(), 16);
+                        line.setLength(0);
+                        state = remaining == 0 ? State.TRAILER : State.CHUNK_DATA;
+                    }
+                }
+                case CHUNK_DATA_END -> {
+                    if (readLine(in)) {
+                        line.setLength(0);
+                        state = State.CHUNK_SIZE;
+                    }
+                }
+                case TRAILER -> {
+                    if (readLine(in)) {
+                        boolean end = line.isEmpty();
+                        line.setLength(0);
+                        if (end) {
+                            state = State.DONE;
+                        }
+                    }
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean readLine(ByteBuffer in) {
+        while (in.hasRemaining()) {
+            char ch = (char) (in.get() & 0xFF);
+            if (ch == '\n') {
+                int last = line.length() - 1;
+                if (last >= 0 && line.charAt(last) == '\r') {
+                    line.setLength(last);
+                }
+                return true;
+            }
+            if (line.length() > 4096) {
+                throw new IllegalArgumentException("Chunk framing line too long.");
+            }
+            line.append(ch);
+        }
+        return false;
+    }
+}
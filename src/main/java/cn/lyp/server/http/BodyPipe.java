@@ -0,0 +1,107 @@
+package cn.lyp.server.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class BodyPipe extends InputStream {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+    private final int lowWater;
+    private final Runnable onDrained;
+    private byte[] current;
+    private int offset;
+    private int buffered;
+    private boolean finished;
+    private boolean failed;
+
+    BodyPipe(int lowWater, Runnable onDrained) {
+        this.lowWater = lowWater;
+        this.onDrained = onDrained;
+    }
+
+    int offer(byte[] data) {
+        lock.lock();
+        try {
+            if (data.length > 0) {
+                chunks.add(data);
+                buffered += data.length;
+            }
+            readable.signalAll();
+            return buffered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void fail() {
+        lock.lock();
+        try {
+            failed = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int count = read(one, 0, 1);
+        return count < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] target, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        boolean drained;
+        int count;
+        lock.lock();
+        try {
+            while (current == null) {
+                current = chunks.poll();
+                offset = 0;
+                if (current != null) {
+                    break;
+                }
+                if (failed) {
+                    throw new IOException("Connection closed while reading request body.");
+                }
+                if (finished) {
+                    return -1;
+                }
+                readable.awaitUninterruptibly();
+            }
+            count = Math.min(len, current.length - offset);
+            System.arraycopy(current, offset, target, off, count);
+            offset += count;
+            if (offset == current.length) {
+                current = null;
+            }
+            int before = buffered;
+            buffered -= count;
+            drained = before > lowWater && buffered <= lowWater;
+        } finally {
+            lock.unlock();
+        }
+        if (drained) {
+            onDrained.run();
+        }
+        return count;
+    }
+}
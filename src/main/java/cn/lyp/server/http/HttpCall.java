@@ -0,0 +1,53 @@
+package cn.lyp.server.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+public interface HttpCall {
+    String method();
+
+    URI uri();
+
+    String requestHeader(String name);
+
+    /**
+     * All request headers. Name case is engine-specific, so compare names case-insensitively.
+     */
+    Map<String, List<String>> requestHeaders();
+
+    InputStream requestBody();
+
+    String remoteAddress();
+
+    void setResponseHeader(String name, String value);
+
+    void addResponseHeader(String name, String value);
+
+    /**
+     * Same contract as {@code HttpExchange.sendResponseHeaders}: a positive length is a fixed body,
+     * 0 streams a chunked body and -1 sends no body.
+     */
+    void sendResponseHeaders(int status, long length) throws IOException;
+
+    OutputStream responseBody();
+
+    /**
+     * Runs the callback if the engine notices the peer went away before the response finished.
+     * Engines that cannot observe this leave disconnects to be found by failed writes.
+     */
+    default void onDisconnect(Runnable callback) {
+    }
+
+    /**
+     * Answers a handshake that {@link WebSocket#handshakeError} accepted with {@code 101} and hands
+     * the connection over to the returned socket. Engines that cannot take over a connection
+     * return null without responding.
+     */
+    default WebSocket upgradeToWebSocket() throws IOException {
+        return null;
+    }
+}
@@ -0,0 +1,23 @@
+package cn.lyp.server.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
+
+public interface HttpEngine {
+    String name();
+
+    /**
+     * Registers a handler for a path prefix. The longest matching prefix wins, as with
+     * {@code HttpServer.createContext}.
+     */
+    void route(String path, HttpRoute route);
+
+    void start(InetSocketAddress address, int backlog, Executor executor) throws IOException;
+
+    void stop();
+
+    int port();
+
+    int activeRequests();
+}
@@ -0,0 +1,32 @@
+package cn.lyp.server.http;
+
+import cn.lyp.config.ServerConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public final class HttpEngines {
+    private static final Logger logger = LoggerFactory.getLogger(HttpEngines.class);
+
+    private HttpEngines() {
+    }
+
+    public static HttpEngine create(ServerConfig serverConfig) {
+        if (serverConfig.nioEngine()) {
+            return new NioHttpEngine(serverConfig.maxConnections(), serverConfig.keepAliveMs(),
+                    serverConfig.writeTimeoutMs(), ServerConfig.WRITE_HIGH_WATER_BYTES);
+        }
+        return new JdkHttpEngine();
+    }
+
+    public static ExecutorService executor(ServerConfig serverConfig) {
+        if (serverConfig.virtualThreads()) {
+            logger.info("Using virtual-thread executor.");
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("agent-vt-", 0).factory());
+        }
+        logger.info("Using platform-thread executor. threads={}", serverConfig.platformThreads());
+        return Executors.newFixedThreadPool(serverConfig.platformThreads());
+    }
+}
@@ -0,0 +1,8 @@
+package cn.lyp.server.http;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface HttpRoute {
+    void handle(HttpCall call) throws IOException;
+}
@@ -0,0 +1,124 @@
+package cn.lyp.server.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class JdkHttpEngine implements HttpEngine {
+    private static final Logger logger = LoggerFactory.getLogger(JdkHttpEngine.class);
+    private final Map<String, HttpRoute> routes = new LinkedHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private HttpServer server;
+
+    @Override
+    public String name() {
+        return "jdk";
+    }
+
+    @Override
+    public void route(String path, HttpRoute route) {
+        routes.put(path, route);
+    }
+
+    @Override
+    public void start(InetSocketAddress address, int backlog, Executor executor) throws IOException {
+        this.server = HttpServer.create(address, backlog);
+        server.setExecutor(executor);
+        for (Map.Entry<String, HttpRoute> entry : routes.entrySet()) {
+            HttpRoute route = entry.getValue();
+            server.createContext(entry.getKey(), exchange -> {
+                inFlight.incrementAndGet();
+                try {
+                    route.handle(new JdkCall(exchange));
+                } finally {
+                    inFlight.decrementAndGet();
+                    exchange.close();
+                }
+            });
+        }
+        server.start();
+        logger.info("JDK HTTP engine listening on {}", address);
+    }
+
+    @Override
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Override
+    public int port() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    @Override
+    public int activeRequests() {
+        return inFlight.get();
+    }
+
+    private record JdkCall(HttpExchange exchange) implements HttpCall {
+        @Override
+        public String method() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public URI uri() {
+            return exchange.getRequestURI();
+        }
+
+        @Override
+        public String requestHeader(String name) {
+            return exchange.getRequestHeaders().getFirst(name);
+        }
+
+        @Override
+        public Map<String, List<String>> requestHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        @Override
+        public InputStream requestBody() {
+            return exchange.getRequestBody();
+        }
+
+        @Override
+        public String remoteAddress() {
+            InetSocketAddress remote = exchange.getRemoteAddress();
+            return remote == null || remote.getAddress() == null ? "" : remote.getAddress().getHostAddress();
+        }
+
+        @Override
+        public void setResponseHeader(String name, String value) {
+            exchange.getResponseHeaders().set(name, value);
+        }
+
+        @Override
+        public void addResponseHeader(String name, String value) {
+            exchange.getResponseHeaders().add(name, value);
+        }
+
+        @Override
+        public void sendResponseHeaders(int status, long length) throws IOException {
+            exchange.sendResponseHeaders(status, length);
+        }
+
+        @Override
+        public OutputStream responseBody() {
+            return exchange.getResponseBody();
+        }
+    }
+}
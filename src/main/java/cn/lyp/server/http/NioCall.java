@@ -0,0 +1,296 @@
+package cn.lyp.server.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+final class NioCall implements HttpCall {
+    private static final Logger logger = LoggerFactory.getLogger(NioCall.class);
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final NioConnection connection;
+    private final RequestHead head;
+    private final URI uri;
+    private final BodyPipe body;
+    private final Map<String, List<String>> responseHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Runnable> disconnectCallbacks = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private final ResponseStream responseBody = new ResponseStream();
+    private volatile boolean headersSent;
+    private boolean chunked;
+    private boolean keepAlive;
+    private long fixedLength = -1;
+
+    NioCall(NioConnection connection, RequestHead head, URI uri, BodyPipe body) {
+        this.connection = connection;
+        this.head = head;
+        this.uri = uri;
+        this.body = body;
+    }
+
+    @Override
+    public String method() {
+        return head.method();
+    }
+
+    @Override
+    public URI uri() {
+        return uri;
+    }
+
+    @Override
+    public String requestHeader(String name) {
+        return head.header(name);
+    }
+
+    @Override
+    public Map<String, List<String>> requestHeaders() {
+        return head.headers();
+    }
+
+    @Override
+    public InputStream requestBody() {
+        return body;
+    }
+
+    @Override
+    public String remoteAddress() {
+        return connection.remoteAddress();
+    }
+
+    @Override
+    public void setResponseHeader(String name, String value) {
+        List<String> values = new ArrayList<>(1);
+        values.add(value);
+        responseHeaders.put(name, values);
+    }
+
+    @Override
+    public void addResponseHeader(String name, String value) {
+        responseHeaders.computeIfAbsent(name, key -> new ArrayList<>(1)).add(value);
+    }
+
+    @Override
+    public void sendResponseHeaders(int status, long length) throws IOException {
+        if (headersSent) {
+            throw new IOException("Response headers already sent.");
+        }
+        headersSent = true;
+        List<String> connectionHeader = responseHeaders.get("Connection");
+        keepAlive = head.keepAlive() && (connectionHeader == null || !connectionHeader.contains("close"));
+        responseHeaders.remove("Connection");
+        responseHeaders.remove("Content-Length");
+        responseHeaders.remove("Transfer-Encoding");
+        StringBuilder out = new StringBuilder(256);
+        out.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            for (String value : entry.getValue()) {
+                out.append(entry.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (status == 204 || status == 304) {
+            fixedLength = 0;
+        } else if (length == 0) {
+            chunked = true;
+            out.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            fixedLength = Math.max(length, 0);
+            out.append("Content-Length: ").append(fixedLength).append("\r\n");
+        }
+        out.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        connection.send(ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Override
+    public WebSocket upgradeToWebSocket() throws IOException {
+        if (headersSent) {
+            throw new IOException("Response headers already sent.");
+        }
+        headersSent = true;
+        keepAlive = false;
+        fixedLength = 0;
+        responseHeaders.remove("Connection");
+        responseHeaders.remove("Content-Length");
+        responseHeaders.remove("Transfer-Encoding");
+        StringBuilder out = new StringBuilder(256);
+        out.append("HTTP/1.1 101 Switching Protocols\r\n");
+        for (Map.Entry<String, List<String>> entry : responseHeaders.entrySet()) {
+            for (String value : entry.getValue()) {
+                out.append(entry.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        out.append("Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: ")
+                .append(WebSocket.acceptKey(head.header("sec-websocket-key"))).append("\r\n\r\n");
+        connection.send(ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        InputStream frames = connection.upgrade();
+        return new WebSocket(frames, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] data, int off, int len) throws IOException {
+                connection.send(ByteBuffer.wrap(Arrays.copyOfRange(data, off, off + len)));
+            }
+        });
+    }
+
+    @Override
+    public OutputStream responseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void onDisconnect(Runnable callback) {
+        disconnectCallbacks.add(callback);
+        if (completed.get()) {
+            disconnectCallbacks.remove(callback);
+        }
+    }
+
+    void disconnected() {
+        if (completed.get() || disconnectCallbacks.isEmpty()) {
+            return;
+        }
+        Thread.ofVirtual().name("nio-disconnect").start(() -> {
+            for (Runnable callback : disconnectCallbacks) {
+                try {
+                    callback.run();
+                } catch (RuntimeException e) {
+                    logger.debug("Disconnect callback failed.", e);
+                }
+            }
+        });
+    }
+
+    void failIfPossible() {
+        if (headersSent) {
+            return;
+        }
+        try {
+            sendResponseHeaders(500, -1);
+        } catch (IOException e) {
+            logger.debug("Failed to send error response.", e);
+        }
+    }
+
+    void complete() {
+        if (!headersSent) {
+            failIfPossible();
+        }
+        boolean reusable;
+        try {
+            responseBody.close();
+            reusable = keepAlive && (chunked || responseBody.written == fixedLength);
+        } catch (IOException e) {
+            reusable = false;
+        }
+        completed.set(true);
+        disconnectCallbacks.clear();
+        connection.responseFinished(reusable);
+    }
+
+    private static String reason(int status) {
+        return switch (status) {
+            case 101 -> "Switching Protocols";
+            case 200 -> "OK";
+            case 202 -> "Accepted";
+            case 204 -> "No Content";
+            case 304 -> "Not Modified";
+            case 400 -> "Bad Request";
+            case 404 -> "Not Found";
+            case 405 -> "Method Not Allowed";
+            case 409 -> "Conflict";
+            case 413 -> "Payload Too Large";
+            case 426 -> "Upgrade Required";
+            case 429 -> "Too Many Requests";
+            case 500 -> "Internal Server Error";
+            case 502 -> "Bad Gateway";
+            case 503 -> "Service Unavailable";
+            default -> "Status";
+        };
+    }
+
+    private final class ResponseStream extends OutputStream {
+        private final byte[] buffer = new byte[8192];
+        private int length;
+        private long written;
+        private boolean closed;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Response body closed.");
+            }
+            if (!headersSent) {
+                throw new IOException("Response headers not sent.");
+            }
+            if (!chunked && written + len > fixedLength) {
+                throw new IOException("Response body exceeds Content-Length.");
+            }
+            written += len;
+            while (len > 0) {
+                int count = Math.min(len, buffer.length - length);
+                System.arraycopy(data, off, buffer, length, count);
+                length += count;
+                off += count;
+                len -= count;
+                if (length == buffer.length) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (length == 0) {
+                return;
+            }
+            ByteBuffer out;
+            if (chunked) {
+                byte[] size = Integer.toHexString(length).getBytes(StandardCharsets.US_ASCII);
+                out = ByteBuffer.allocate(size.length + length + 4);
+                out.put(size).put(CRLF).put(buffer, 0, length).put(CRLF);
+            } else {
+                out = ByteBuffer.allocate(length);
+                out.put(buffer, 0, length);
+            }
+            length = 0;
+            connection.send(out.flip());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!headersSent) {
+                return;
+            }
+            flush();
+            if (chunked) {
+                connection.send(ByteBuffer.wrap(LAST_CHUNK));
+            }
+        }
+    }
+}
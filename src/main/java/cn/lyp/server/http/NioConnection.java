@@ -0,0 +1,359 @@
+package cn.lyp.server.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+final class NioConnection {
+    private static final Logger logger = LoggerFactory.getLogger(NioConnection.class);
+    private static final int INITIAL_READ_BYTES = 8 * 1024;
+    private static final int MAX_HEAD_BYTES = 32 * 1024;
+    private static final int BODY_HIGH_WATER = 256 * 1024;
+    private static final int BODY_LOW_WATER = 64 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private final NioHttpEngine engine;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String remoteAddress;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition drained = writeLock.newCondition();
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BYTES);
+    private BodyDecoder decoder;
+    private volatile NioCall call;
+    private volatile BodyPipe pipe;
+    private volatile BodyPipe tunnel;
+    private volatile long pendingBytes;
+    private volatile long lastActivity = System.nanoTime();
+    private boolean closeWhenFlushed;
+
+    NioConnection(NioHttpEngine engine, SocketChannel channel, SelectionKey key) throws IOException {
+        this.engine = engine;
+        this.channel = channel;
+        this.key = key;
+        InetSocketAddress remote = (InetSocketAddress) channel.getRemoteAddress();
+        this.remoteAddress = remote == null || remote.getAddress() == null ? "" : remote.getAddress().getHostAddress();
+    }
+
+    long pendingWriteBytes() {
+        return pendingBytes;
+    }
+
+    long idleSince(long now) {
+        return call == null ? now - lastActivity : 0;
+    }
+
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        lastActivity = System.nanoTime();
+        process();
+    }
+
+    void onWritable() {
+        writeLock.lock();
+        try {
+            while (!outbound.isEmpty()) {
+                ByteBuffer head = outbound.peek();
+                pendingBytes -= channel.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                outbound.poll();
+            }
+            if (outbound.isEmpty()) {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                if (closeWhenFlushed) {
+                    close();
+                }
+            }
+            drained.signalAll();
+        } catch (IOException e) {
+            close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void send(ByteBuffer data) throws IOException {
+        send(data, true);
+    }
+
+    private void send(ByteBuffer data, boolean waitForDrain) throws IOException {
+        writeLock.lock();
+        try {
+            if (closed.get()) {
+                throw new IOException("Connection closed.");
+            }
+            if (outbound.isEmpty()) {
+                channel.write(data);
+            }
+            if (data.hasRemaining()) {
+                if (outbound.isEmpty()) {
+                    engine.onSelector(this::enableWrite);
+                }
+                outbound.add(data);
+                pendingBytes += data.remaining();
+            }
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(engine.writeTimeoutMs());
+            while (waitForDrain && pendingBytes > engine.writeHighWater() && !closed.get()) {
+                if (waitNanos <= 0) {
+                    logger.info("Client {} stopped reading. Closing connection.", remoteAddress);
+                    close();
+                    throw new IOException("Write timed out.");
+                }
+                waitNanos = drained.awaitNanos(waitNanos);
+            }
+            if (closed.get()) {
+                throw new IOException("Connection closed.");
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the client to read.", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void responseFinished(boolean reusable) {
+        engine.onSelector(() -> {
+            if (closed.get()) {
+                return;
+            }
+            if (!reusable || decoder == null || !decoder.done()) {
+                closeAfterFlush();
+                return;
+            }
+            call = null;
+            pipe = null;
+            decoder = null;
+            lastActivity = System.nanoTime();
+            resumeRead();
+            process();
+        });
+    }
+
+    String remoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Stops parsing HTTP on this connection: from now on every byte read is passed through the
+     * returned stream, with the same backpressure as a request body.
+     */
+    BodyPipe upgrade() {
+        BodyPipe raw = new BodyPipe(BODY_LOW_WATER, () -> engine.onSelector(() -> {
+            resumeRead();
+            process();
+        }));
+        engine.onSelector(() -> {
+            tunnel = raw;
+            if (closed.get()) {
+                raw.fail();
+                return;
+            }
+            resumeRead();
+            process();
+        });
+        return raw;
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            outbound.clear();
+            pendingBytes = 0;
+            drained.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+        if (engine.onSelectorThread()) {
+            release();
+        } else {
+            engine.onSelector(this::release);
+        }
+        BodyPipe currentPipe = pipe;
+        if (currentPipe != null) {
+            currentPipe.fail();
+        }
+        BodyPipe currentTunnel = tunnel;
+        if (currentTunnel != null) {
+            currentTunnel.fail();
+        }
+        NioCall current = call;
+        if (current != null) {
+            current.disconnected();
+        }
+        engine.closed(this);
+    }
+
+    /**
+     * Cancels the key and closes the channel. Runs on the selector thread, which may be in the
+     * middle of reading this key's ready set.
+     */
+    private void release() {
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close channel.", e);
+        }
+    }
+
+    private void process() {
+        if (tunnel != null) {
+            forward();
+            return;
+        }
+        readBuffer.flip();
+        try {
+            while (!closed.get()) {
+                if (call == null) {
+                    if (!readBuffer.hasRemaining() || !startCall()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (decoder.done()) {
+                    break;
+                }
+                byte[] slice = decoder.next(readBuffer);
+                int buffered = slice == null ? 0 : pipe.offer(slice);
+                if (decoder.done()) {
+                    pipe.finish();
+                }
+                if (slice == null) {
+                    break;
+                }
+                if (buffered > BODY_HIGH_WATER) {
+                    pauseRead();
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            reject(400, "Bad Request");
+        } finally {
+            readBuffer.compact();
+        }
+        if (!readBuffer.hasRemaining()) {
+            if (call == null && readBuffer.capacity() < MAX_HEAD_BYTES) {
+                ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            } else if (call == null) {
+                reject(431, "Request Header Fields Too Large");
+            } else {
+                pauseRead();
+            }
+        }
+    }
+
+    private void forward() {
+        readBuffer.flip();
+        if (readBuffer.hasRemaining()) {
+            byte[] data = new byte[readBuffer.remaining()];
+            readBuffer.get(data);
+            if (tunnel.offer(data) > BODY_HIGH_WATER) {
+                pauseRead();
+            }
+        }
+        readBuffer.clear();
+    }
+
+    private boolean startCall() {
+        RequestHead head = RequestHead.parse(readBuffer);
+        if (head == null) {
+            return false;
+        }
+        URI uri = URI.create(head.target());
+        decoder = new BodyDecoder(head.chunked(), head.chunked() ? 0 : head.contentLength());
+        pipe = new BodyPipe(BODY_LOW_WATER, () -> engine.onSelector(() -> {
+            resumeRead();
+            process();
+        }));
+        call = new NioCall(this, head, uri, pipe);
+        if (decoder.done()) {
+            pipe.finish();
+        } else if (head.expectsContinue()) {
+            sendQuietly(CONTINUE);
+        }
+        engine.dispatch(this, call);
+        return true;
+    }
+
+    private void reject(int status, String reason) {
+        sendQuietly(("HTTP/1.1 " + status + " " + reason + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        closeAfterFlush();
+    }
+
+    private void sendQuietly(byte[] bytes) {
+        try {
+            send(ByteBuffer.wrap(bytes), false);
+        } catch (IOException e) {
+            logger.debug("Failed to write to {}.", remoteAddress, e);
+        }
+    }
+
+    private void closeAfterFlush() {
+        writeLock.lock();
+        try {
+            if (outbound.isEmpty()) {
+                close();
+            } else {
+                closeWhenFlushed = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void enableWrite() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void pauseRead() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void resumeRead() {
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+}
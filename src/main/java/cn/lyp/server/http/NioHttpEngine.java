@@ -0,0 +1,286 @@
+package cn.lyp.server.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioHttpEngine implements HttpEngine {
+    private static final Logger logger = LoggerFactory.getLogger(NioHttpEngine.class);
+    private static final byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\nContent-Length: 0\r\n"
+            + "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private final Map<String, HttpRoute> routes = new ConcurrentHashMap<>();
+    private final Set<NioConnection> connections = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final int maxConnections;
+    private final long keepAliveNanos;
+    private final long writeTimeoutMs;
+    private final int writeHighWater;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Executor executor;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    public NioHttpEngine(int maxConnections, long keepAliveMs, long writeTimeoutMs, int writeHighWater) {
+        this.maxConnections = maxConnections;
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMs);
+        this.writeTimeoutMs = writeTimeoutMs;
+        this.writeHighWater = writeHighWater;
+    }
+
+    @Override
+    public String name() {
+        return "nio";
+    }
+
+    @Override
+    public void route(String path, HttpRoute route) {
+        routes.put(path, route);
+    }
+
+    @Override
+    public void start(InetSocketAddress address, int backlog, Executor executor) throws IOException {
+        this.executor = executor;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, backlog);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "nio-http-selector");
+        selectorThread.start();
+        logger.info("NIO HTTP engine listening on {} maxConnections={}", address, maxConnections);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (selectorThread != null) {
+            try {
+                selectorThread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public int port() {
+        try {
+            return serverChannel == null ? -1 : ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public int activeRequests() {
+        return activeRequests.get();
+    }
+
+    public int openConnections() {
+        return connections.size();
+    }
+
+    public long pendingWriteBytes() {
+        long total = 0;
+        for (NioConnection connection : connections) {
+            total += connection.pendingWriteBytes();
+        }
+        return total;
+    }
+
+    int writeHighWater() {
+        return writeHighWater;
+    }
+
+    long writeTimeoutMs() {
+        return writeTimeoutMs;
+    }
+
+    boolean onSelectorThread() {
+        return Thread.currentThread() == selectorThread;
+    }
+
+    void onSelector(Runnable task) {
+        selectorTasks.add(task);
+        Selector current = selector;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    void dispatch(NioConnection connection, NioCall call) {
+        HttpRoute route = resolve(call.uri().getPath());
+        activeRequests.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                if (route == null) {
+                    call.sendResponseHeaders(404, -1);
+                } else {
+                    route.handle(call);
+                }
+            } catch (Exception e) {
+                logger.warn("HTTP handler failed. path={}", call.uri().getPath(), e);
+                call.failIfPossible();
+            } finally {
+                activeRequests.decrementAndGet();
+                call.complete();
+            }
+        });
+    }
+
+    void closed(NioConnection connection) {
+        connections.remove(connection);
+    }
+
+    private HttpRoute resolve(String path) {
+        String best = null;
+        for (String prefix : routes.keySet()) {
+            if (path.startsWith(prefix) && (best == null || prefix.length() > best.length())) {
+                best = prefix;
+            }
+        }
+        return best == null ? null : routes.get(best);
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select(1000);
+                runSelectorTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    } catch (CancelledKeyException e) {
+                        connection.close();
+                    }
+                }
+                closeIdle();
+            }
+        } catch (IOException e) {
+            logger.error("NIO selector loop failed.", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (CancelledKeyException e) {
+                logger.debug("Selector task found its connection closed.", e);
+            }
+        }
+    }
+
+    /**
+     * A failure on one accepted channel closes only that channel; a failing {@code accept} itself
+     * (out of file descriptors, say) is retried on the next select.
+     */
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                logger.warn("Failed to accept a connection: {}", e.toString());
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                if (connections.size() >= maxConnections) {
+                    logger.warn("Connection limit reached. Rejecting {}", channel.getRemoteAddress());
+                    channel.write(ByteBuffer.wrap(BUSY));
+                    channel.close();
+                    continue;
+                }
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(this, channel, key);
+                key.attach(connection);
+                connections.add(connection);
+            } catch (IOException e) {
+                logger.debug("Dropping a connection that failed right after accept.", e);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // already failed
+                }
+            }
+        }
+    }
+
+    private void closeIdle() {
+        long now = System.nanoTime();
+        List<NioConnection> idle = new ArrayList<>();
+        for (NioConnection connection : connections) {
+            if (connection.idleSince(now) > keepAliveNanos) {
+                idle.add(connection);
+            }
+        }
+        for (NioConnection connection : idle) {
+            connection.close();
+        }
+    }
+
+    private void shutdown() {
+        for (NioConnection connection : List.copyOf(connections)) {
+            connection.close();
+        }
+        runSelectorTasks();
+        try {
+            serverChannel.close();
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close NIO engine channels.", e);
+        }
+        logger.info("NIO HTTP engine stopped.");
+    }
+}
@@ -0,0 +1,83 @@
+package cn.lyp.server.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+record RequestHead(String method, String target, String version, Map<String, List<String>> headers) {
+
+    static RequestHead parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = findHeadEnd(buffer, start, buffer.limit());
+        if (end < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        buffer.get(bytes);
+        buffer.position(end + 4);
+        String[] lines = new String(bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new IllegalArgumentException("Malformed request line.");
+        }
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Malformed header line.");
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            headers.computeIfAbsent(name, key -> new ArrayList<>(1)).add(lines[i].substring(colon + 1).trim());
+        }
+        return new RequestHead(requestLine[0], requestLine[1], requestLine[2], headers);
+    }
+
+    String header(String name) {
+        List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    long contentLength() {
+        String value = header("content-length");
+        if (value == null) {
+            return 0;
+        }
+        long length = Long.parseLong(value.trim());
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative content length.");
+        }
+        return length;
+    }
+
+    boolean chunked() {
+        String value = header("transfer-encoding");
+        return value != null && value.toLowerCase(Locale.ROOT).contains("chunked");
+    }
+
+    boolean keepAlive() {
+        String connection = header("connection");
+        String normalized = connection == null ? "" : connection.toLowerCase(Locale.ROOT);
+        if ("HTTP/1.0".equals(version)) {
+            return normalized.contains("keep-alive");
+        }
+        return !normalized.contains("close");
+    }
+
+    boolean expectsContinue() {
+        String expect = header("expect");
+        return expect != null && expect.equalsIgnoreCase("100-continue");
+    }
+
+    private static int findHeadEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,234 @@
+package cn.lyp.server.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Server side of an RFC 6455 connection carrying text messages. One thread reads with
+ * {@link #receive}; any thread may send. Pings are answered while reading.
+ */
+public final class WebSocket implements Closeable {
+    public static final int NORMAL_CLOSURE = 1000;
+    public static final int PROTOCOL_ERROR = 1002;
+    public static final int MESSAGE_TOO_BIG = 1009;
+    static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int CONTINUATION = 0x0;
+    private static final int TEXT = 0x1;
+    private static final int BINARY = 0x2;
+    private static final int CLOSE = 0x8;
+    private static final int PING = 0x9;
+    private static final int PONG = 0xA;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final byte[] header = new byte[14];
+    private volatile boolean closeSent;
+
+    WebSocket(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Returns why {@code call} is not a valid WebSocket handshake, or null if it is.
+     */
+    public static String handshakeError(HttpCall call) {
+        if (!"GET".equalsIgnoreCase(call.method())) {
+            return "WebSocket handshake must use GET.";
+        }
+        String upgrade = call.requestHeader("Upgrade");
+        String connection = call.requestHeader("Connection");
+        if (upgrade == null || !"websocket".equalsIgnoreCase(upgrade.trim())
+                || connection == null || !connection.toLowerCase(Locale.ROOT).contains("upgrade")) {
+            return "Expected a WebSocket upgrade request.";
+        }
+        if (!"13".equals(trim(call.requestHeader("Sec-WebSocket-Version")))) {
+            return "Unsupported WebSocket version. Use 13.";
+        }
+        String key = trim(call.requestHeader("Sec-WebSocket-Key"));
+        if (key == null || key.isEmpty()) {
+            return "Missing Sec-WebSocket-Key.";
+        }
+        return null;
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key.trim() + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the next text message. Returns null once the peer has closed the connection.
+     */
+    public String receive() throws IOException {
+        ByteArrayOutputStream message = null;
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            int second = readByte();
+            boolean fin = (first & 0x80) != 0;
+            int opcode = first & 0x0F;
+            if ((first & 0x70) != 0 || (second & 0x80) == 0) {
+                fail(PROTOCOL_ERROR, "Frames from the client must be masked and use no extensions.");
+            }
+            long length = second & 0x7F;
+            if (length == 126) {
+                length = (readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte();
+                }
+            }
+            boolean control = (opcode & 0x8) != 0;
+            if (control && (length > 125 || !fin)) {
+                fail(PROTOCOL_ERROR, "Invalid control frame.");
+            }
+            int buffered = message == null ? 0 : message.size();
+            if (length < 0 || length + buffered > MAX_MESSAGE_BYTES) {
+                fail(MESSAGE_TOO_BIG, "Message too large.");
+            }
+            byte[] mask = readFully(4);
+            byte[] payload = readFully((int) length);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+            switch (opcode) {
+                case PING -> sendFrame(PONG, payload);
+                case PONG -> {
+                }
+                case CLOSE -> {
+                    int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : NORMAL_CLOSURE;
+                    close(code, "");
+                    return null;
+                }
+                case TEXT, BINARY -> {
+                    if (message != null) {
+                        fail(PROTOCOL_ERROR, "Expected a continuation frame.");
+                    }
+                    if (fin) {
+                        return new String(payload, StandardCharsets.UTF_8);
+                    }
+                    message = new ByteArrayOutputStream();
+                    message.write(payload);
+                }
+                case CONTINUATION -> {
+                    if (message == null) {
+                        fail(PROTOCOL_ERROR, "Unexpected continuation frame.");
+                    }
+                    message.write(payload);
+                    if (fin) {
+                        return message.toString(StandardCharsets.UTF_8);
+                    }
+                }
+                default -> fail(PROTOCOL_ERROR, "Unknown opcode " + opcode + ".");
+            }
+        }
+    }
+
+    public void sendText(String text) throws IOException {
+        sendFrame(TEXT, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends a close frame once. The connection itself is closed when the handler returns.
+     */
+    public void close(int code, String reason) {
+        if (closeSent) {
+            return;
+        }
+        byte[] text = reason == null ? new byte[0] : reason.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + Math.min(text.length, 123)];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, payload.length - 2);
+        try {
+            sendFrame(CLOSE, payload);
+        } catch (IOException ignored) {
+            // The peer is already gone.
+        }
+    }
+
+    @Override
+    public void close() {
+        close(NORMAL_CLOSURE, "");
+    }
+
+    private void sendFrame(int opcode, byte[] payload) throws IOException {
+        writeLock.lock();
+        try {
+            if (closeSent) {
+                throw new IOException("WebSocket closed.");
+            }
+            if (opcode == CLOSE) {
+                closeSent = true;
+            }
+            int headerLength = 2;
+            header[0] = (byte) (0x80 | opcode);
+            if (payload.length < 126) {
+                header[1] = (byte) payload.length;
+            } else if (payload.length <= 0xFFFF) {
+                header[1] = 126;
+                header[2] = (byte) (payload.length >> 8);
+                header[3] = (byte) payload.length;
+                headerLength = 4;
+            } else {
+                header[1] = 127;
+                for (int i = 0; i < 8; i++) {
+                    header[2 + i] = (byte) ((long) payload.length >> (56 - 8 * i));
+                }
+                headerLength = 10;
+            }
+            byte[] frame = new byte[headerLength + payload.length];
+            System.arraycopy(header, 0, frame, 0, headerLength);
+            System.arraycopy(payload, 0, frame, headerLength, payload.length);
+            out.write(frame);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void fail(int code, String message) throws IOException {
+        close(code, message);
+        throw new IOException(message);
+    }
+
+    private int readByte() throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException("WebSocket closed mid-frame.");
+        }
+        return value;
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("WebSocket closed mid-frame.");
+        }
+        return bytes;
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
+}
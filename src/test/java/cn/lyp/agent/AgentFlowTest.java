@@ -4,9 +4,16 @@ import cn.lyp.agent.tools.CalcTool;
 import cn.lyp.llm.ChatClient;
 import cn.lyp.llm.ChatMessage;
 import cn.lyp.llm.ChatOptions;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.MetricsRegistry;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
@@ -49,4 +56,215 @@ class AgentFlowTest {
         String response = agent.handle("hi", null);
         assertEquals("hello", response);
     }
+
+    @Test
+    void cancellationStopsLoopBeforeNextToolAndRollsBackHistory() throws Exception {
+        RunContext context = RunContext.create();
+        AtomicInteger toolRuns = new AtomicInteger();
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(new Tool() {
+            @Override
+            public String name() {
+                return "slow";
+            }
+
+            @Override
+            public String description() {
+                return "cancels the run";
+            }
+
+            @Override
+            public Map<String, String> args() {
+                return Map.of();
+            }
+
+            @Override
+            public ToolResult execute(Map<String, Object> args) {
+                toolRuns.incrementAndGet();
+                context.cancel();
+                return ToolResult.ok("late");
+            }
+        });
+        AtomicInteger calls = new AtomicInteger();
+        List<Integer> historySizes = new java.util.ArrayList<>();
+        ChatClient client = (messages, options, onToken) -> {
+            calls.incrementAndGet();
+            historySizes.add(messages.size());
+            return "{\"type\":\"tool_call\",\"tool\":\"slow\",\"args\":{}}";
+        };
+        Agent agent = new Agent(client, new ChatOptions("model", false, null), registry, 5, "system");
+
+        assertThrows(CancellationException.class, () -> agent.handle("go", null, false, context));
+        assertEquals(1, calls.get());
+        assertEquals(1, toolRuns.get());
+
+        agent.handle("next", null, false, RunContext.create());
+        assertEquals(2, (int) historySizes.get(1));
+    }
+
+    @Test
+    void forkedAgentsShareHistoryUntilTheyDiverge() throws Exception {
+        ChatClient client = (messages, options, onToken) -> "echo " + messages.get(messages.size() - 1).content();
+        Agent trunk = new Agent(client, new ChatOptions("model", false, null), new ToolRegistry(), 2, "system");
+        trunk.handle("shared", null);
+
+        Agent branch = trunk.fork();
+        trunk.handle("left", null);
+        branch.handle("right", null);
+
+        assertEquals(List.of("shared", "echo shared", "left", "echo left"),
+                trunk.messages().stream().map(ChatMessage::content).toList());
+        assertEquals(List.of("shared", "echo shared", "right", "echo right"),
+                branch.messages().stream().map(ChatMessage::content).toList());
+    }
+
+    @Test
+    void streamsTheFinalAnswerFromTheSameModelCall() throws Exception {
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(new CalcTool());
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient client = (messages, options, onToken) -> {
+            assertTrue(options.stream());
+            String response = calls.getAndIncrement() == 0
+                    ? "{\"type\":\"tool_call\",\"tool\":\"calc\",\"args\":{\"expression\":\"2+3\"}}"
+                    : "{\"type\":\"final\",\"content\":\"It is\\n5\"}";
+            for (int i = 0; i < response.length(); i += 4) {
+                onToken.accept(response.substring(i, Math.min(response.length(), i + 4)));
+            }
+            return response;
+        };
+        Agent agent = new Agent(client, new ChatOptions("model", true, null), registry, 3, "system");
+        List<String> tokens = new java.util.ArrayList<>();
+
+        String response = agent.handle("calc it", tokens::add, true, RunContext.create());
+
+        assertEquals("It is\n5", response);
+        assertEquals("It is\n5", String.join("", tokens));
+        assertTrue(tokens.size() > 1, tokens.toString());
+        assertEquals(2, calls.get());
+        assertEquals("It is\n5", agent.messages().getLast().content());
+    }
+
+    @Test
+    void finalAnswerFollowedByTextIsStoredAsItWasStreamed() throws Exception {
+        String response = "{\"type\":\"final\",\"content\":\"Hi \\\"there\\\"\"}\nHope that helps.";
+        ChatClient client = (messages, options, onToken) -> {
+            onToken.accept(response.substring(0, 30));
+            onToken.accept(response.substring(30));
+            return response;
+        };
+        Agent agent = new Agent(client, new ChatOptions("model", true, null), new ToolRegistry(), 2, "system");
+        List<String> tokens = new ArrayList<>();
+
+        assertEquals("Hi \"there\"", agent.handle("hi", tokens::add));
+
+        assertEquals("Hi \"there\"", String.join("", tokens));
+        assertEquals("Hi \"there\"", agent.messages().getLast().content());
+        assertEquals("Hi \"there\"", agent.fork().handle("again", null, false));
+    }
+
+    @Test
+    void dispatchesTheToolOnceItsCallClosesWithoutWaitingForTheResponseToEnd() throws Exception {
+        CountDownLatch toolRan = new CountDownLatch(1);
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(probe(true, toolRan));
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient client = (messages, options, onToken) -> {
+            if (calls.getAndIncrement() > 0) {
+                return "{\"type\":\"final\",\"content\":\"done\"}";
+            }
+            String call = "{\"type\":\"tool_call\",\"tool\":\"probe\",\"args\":{\"note\":\"}\"}}";
+            onToken.accept(call.substring(0, 20));
+            onToken.accept(call.substring(20));
+            assertTrue(toolRan.await(5, TimeUnit.SECONDS), "tool did not start before the response ended");
+            return call + "\n";
+        };
+        MetricsRegistry metrics = new MetricsRegistry();
+        Agent agent = new Agent(client, new ChatOptions("model", false, null), registry, 3, "system", metrics);
+
+        assertEquals("done", agent.handle("probe it", null, false, RunContext.create()));
+
+        assertEquals("TOOL_RESULT name=probe\nOK\nran", agent.messages().get(2).content());
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("agent_tool_dispatch_total{mode=\"early\"} 1\n"), scrape);
+        assertTrue(scrape.contains("agent_tool_overlap_seconds_count 1\n"), scrape);
+        assertTrue(scrape.contains("agent_step_phase_seconds_count{phase=\"response_end\"} 2\n"), scrape);
+    }
+
+    @Test
+    void textAfterAToolCallMakesThePlainAnswerAndDropsTheEarlyRun() throws Exception {
+        CountDownLatch toolRan = new CountDownLatch(1);
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(probe(true, toolRan));
+        String response = "{\"type\":\"tool_call\",\"tool\":\"probe\",\"args\":{}}\nI'll run that.";
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient client = (messages, options, onToken) -> {
+            calls.incrementAndGet();
+            onToken.accept(response);
+            return response;
+        };
+        Agent agent = new Agent(client, new ChatOptions("model", false, null), registry, 3, "system");
+
+        assertEquals(response, agent.handle("probe it", null, false, RunContext.create()));
+
+        assertEquals(1, calls.get());
+        assertEquals(0, toolRan.getCount());
+        assertEquals(List.of("probe it", response),
+                agent.messages().stream().map(ChatMessage::content).toList());
+    }
+
+    @Test
+    void toolsWithEffectsWaitForTheResponseToEnd() throws Exception {
+        CountDownLatch toolRan = new CountDownLatch(1);
+        ToolRegistry registry = new ToolRegistry();
+        registry.register(probe(false, toolRan));
+        AtomicInteger calls = new AtomicInteger();
+        ChatClient client = (messages, options, onToken) -> {
+            if (calls.getAndIncrement() > 0) {
+                return "{\"type\":\"final\",\"content\":\"done\"}";
+            }
+            String call = "{\"type\":\"tool_call\",\"tool\":\"probe\",\"args\":{}}";
+            onToken.accept(call);
+            assertFalse(toolRan.await(50, TimeUnit.MILLISECONDS), "tool with effects started mid-response");
+            return call + "\n";
+        };
+        MetricsRegistry metrics = new MetricsRegistry();
+        Agent agent = new Agent(client, new ChatOptions("model", false, null), registry, 3, "system", metrics);
+
+        assertEquals("done", agent.handle("probe it", null, false, RunContext.create()));
+
+        assertEquals(0, toolRan.getCount());
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("agent_tool_dispatch_total{mode=\"after_response\"} 1\n"), scrape);
+    }
+
+    private static Tool probe(boolean readOnly, CountDownLatch ran) {
+        return new Tool() {
+            @Override
+            public String name() {
+                return "probe";
+            }
+
+            @Override
+            public String description() {
+                return "signals that it ran";
+            }
+
+            @Override
+            public Map<String, String> args() {
+                return Map.of();
+            }
+
+            @Override
+            public ToolResult execute(Map<String, Object> args) {
+                ran.countDown();
+                return ToolResult.ok("ran");
+            }
+
+            @Override
+            public boolean readOnly() {
+                return readOnly;
+            }
+        };
+    }
 }
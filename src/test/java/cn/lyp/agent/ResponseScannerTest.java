@@ -0,0 +1,76 @@
+package cn.lyp.agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseScannerTest {
+
+    @Test
+    void forwardsFinalContentAsItArrivesAndUnescapesIt() {
+        List<String> tokens = new ArrayList<>();
+        ResponseScanner scanner = new ResponseScanner(tokens::add);
+
+        for (String chunk : new String[]{"{\"type\":\"fi", "nal\", \"content\" : \"Hel", "lo \\\"w\\u00",
+                "f6rld\\\"\\n", "\"}"}) {
+            scanner.accept(chunk);
+        }
+        scanner.finish("Hello \"wörld\"\n");
+
+        assertEquals(List.of("Hel", "lo \"w", "örld\"\n"), tokens);
+    }
+
+    @Test
+    void holdsContentBackUntilTheTypeIsKnown() {
+        List<String> tokens = new ArrayList<>();
+        ResponseScanner scanner = new ResponseScanner(tokens::add);
+
+        scanner.accept("{\"content\":\"early\",");
+        assertEquals(List.of(), tokens);
+        scanner.accept("\"type\":\"final\"}");
+
+        assertEquals(List.of("early"), tokens);
+    }
+
+    @Test
+    void neverForwardsToolCalls() {
+        List<String> tokens = new ArrayList<>();
+        ResponseScanner scanner = new ResponseScanner(tokens::add);
+
+        scanner.accept("{\"content\":\"thinking\",\"args\":{\"content\":\"}{\\\"\",\"n\":[1,{\"x\":2}]},");
+        scanner.accept("\"type\":\"tool_call\",\"tool\":\"calc\",\"content\":\"more\"}");
+
+        assertEquals(List.of(), tokens);
+    }
+
+    @Test
+    void passesPlainTextThroughAndFinishesWhatTheStreamMissed() {
+        List<String> tokens = new ArrayList<>();
+        ResponseScanner plain = new ResponseScanner(tokens::add);
+        plain.accept("  ");
+        plain.accept("Hi");
+        plain.accept(" there");
+        plain.finish("  Hi there");
+        assertEquals(List.of("  Hi", " there"), tokens);
+
+        tokens.clear();
+        ResponseScanner silent = new ResponseScanner(tokens::add);
+        silent.finish("not streamed");
+        assertEquals(List.of("not streamed"), tokens);
+    }
+
+    @Test
+    void reportsTheObjectAsSoonAsItCloses() {
+        List<String> objects = new ArrayList<>();
+        ResponseScanner scanner = new ResponseScanner(null, objects::add);
+
+        scanner.accept(" {\"type\":\"tool_call\",\"args\":{\"s\":\"}\"},\"n\":1");
+        assertEquals(List.of(), objects);
+        scanner.accept("}\n\n{\"ignored\":true}");
+
+        assertEquals(List.of("{\"type\":\"tool_call\",\"args\":{\"s\":\"}\"},\"n\":1}"), objects);
+    }
+}
@@ -37,6 +37,7 @@ class ToolRegistryTest {
         ToolResult result = registry.execute(ToolCall.toolCall("echo", Map.of("text", "hi")));
         assertTrue(result.success());
         assertEquals("hi", result.output());
+        assertEquals(1L, registry.version());
     }
 
     @Test
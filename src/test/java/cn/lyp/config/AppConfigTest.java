@@ -2,6 +2,8 @@ package cn.lyp.config;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class AppConfigTest {
@@ -28,7 +30,11 @@ class AppConfigTest {
                 "--typewriter-delay-ms", "5",
                 "--console-log", "false",
                 "--server-host", "0.0.0.0",
-                "--server-port", "9090"
+                "--server-port", "9090",
+                "--server-executor", "platform",
+                "--server-threads", "12",
+                "--max-concurrent-runs", "3",
+                "--max-queued-runs", "0"
         };
 
         AppConfig config = AppConfig.fromArgs(args);
@@ -50,6 +56,10 @@ class AppConfigTest {
         assertEquals("server", config.mode());
         assertEquals("0.0.0.0", config.serverHost());
         assertEquals(9090, config.serverPort());
+        assertFalse(config.server().virtualThreads());
+        assertEquals(12, config.server().platformThreads());
+        assertEquals(3, config.server().maxConcurrentRuns());
+        assertEquals(0, config.server().maxQueuedRuns());
         String expectedBaseUrl = firstNonBlank(
                 "https://cli.example/v1"
         );
@@ -64,6 +74,61 @@ class AppConfigTest {
         assertThrows(IllegalArgumentException.class, config::validate);
     }
 
+    @Test
+    void validateRejectsUnknownExecutor() {
+        AppConfig config = AppConfig.fromArgs(new String[]{
+                "--config", createTempConfig().toString(),
+                "--mode", "server",
+                "--api-key", "key",
+                "--model", "model-x",
+                "--server-executor", "fibers"
+        });
+        assertThrows(IllegalArgumentException.class, config::validate);
+    }
+
+    @Test
+    void routerModeNeedsBackendsButNoModel() {
+        AppConfig router = AppConfig.fromArgs(new String[]{
+                "--config", createTempConfig().toString(),
+                "--mode", "router",
+                "--backends", "10.0.0.1:8080, 10.0.0.2:8080",
+                "--virtual-nodes", "64"
+        });
+        router.validate();
+        assertEquals(List.of("10.0.0.1:8080", "10.0.0.2:8080"), router.router().backends());
+        assertEquals(64, router.router().virtualNodes());
+        assertEquals("0.0.0.0", router.serverHost());
+
+        AppConfig missing = AppConfig.fromArgs(new String[]{
+                "--config", createTempConfig().toString(),
+                "--mode", "router"
+        });
+        assertThrows(IllegalArgumentException.class, missing::validate);
+    }
+
+    @Test
+    void readsServerAndRouterKeysFromTheFileUnderTheirFlagNames() throws Exception {
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("agent-config", ".properties");
+        java.nio.file.Files.writeString(file, String.join("\n",
+                "base-url=https://config.example/v1",
+                "server-engine=nio",
+                "server-threads=12",
+                "session-memory-mb=32",
+                "journal-sync-ms=7",
+                "backends=10.0.0.1:8080",
+                "virtual-nodes=32",
+                ""));
+
+        AppConfig config = AppConfig.fromArgs(new String[]{"--config", file.toString(), "--server-threads", "3"});
+
+        assertEquals("nio", config.server().engine());
+        assertEquals(3, config.server().workerThreads());
+        assertEquals(32, config.server().sessionStore().memoryMb());
+        assertEquals(7, config.server().journal().syncMs());
+        assertEquals(List.of("10.0.0.1:8080"), config.router().backends());
+        assertEquals(32, config.router().virtualNodes());
+    }
+
     private static String firstNonBlank(String... values) {
         for (String value : values) {
             if (value != null && !value.isBlank()) {
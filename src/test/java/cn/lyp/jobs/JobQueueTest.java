@@ -0,0 +1,185 @@
+package cn.lyp.jobs;
+
+import cn.lyp.config.JobsConfig;
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JobQueueTest {
+
+    @Test
+    void queuedJobsResumeAfterRestartInSubmissionOrder() throws Exception {
+        Path dir = Files.createTempDirectory("jobs");
+        JobQueue first = new JobQueue(dir, new JobsConfig(dir.toString(), 0, 10, 60000),
+                (job, onToken, context) -> "unused", MetricsRegistry.disabled());
+        String a = first.submit("first").id();
+        String b = first.submit("second").id();
+        first.close();
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        JobQueue second = new JobQueue(dir, new JobsConfig(dir.toString(), 1, 10, 60000), (job, onToken, context) -> {
+            order.add(job.prompt());
+            onToken.accept("done ");
+            return "done " + job.prompt();
+        }, MetricsRegistry.disabled());
+        assertEquals(2, second.queued());
+        second.start();
+        awaitStatus(second.get(b), Job.Status.SUCCEEDED);
+        while (second.running() > 0) {
+            Thread.sleep(5);
+        }
+        second.close();
+
+        assertEquals(List.of("first", "second"), order);
+        assertEquals("done first", second.get(a).snapshot().result());
+        JobQueue third = new JobQueue(dir, new JobsConfig(dir.toString(), 0, 10, 60000),
+                (job, onToken, context) -> "unused", MetricsRegistry.disabled());
+        assertEquals(0, third.queued());
+        assertEquals("succeeded", third.get(b).snapshot().status());
+        assertEquals(1, third.get(b).snapshot().attempts());
+    }
+
+    @Test
+    void runCutOffByShutdownIsStoredAsQueued() throws Exception {
+        Path dir = Files.createTempDirectory("jobs");
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<RunContext> run = new AtomicReference<>();
+        JobQueue queue = new JobQueue(dir, new JobsConfig(dir.toString(), 1, 10, 60000), (job, onToken, context) -> {
+            run.set(context);
+            started.countDown();
+            while (true) {
+                context.throwIfCancelled();
+                Thread.sleep(5);
+            }
+        }, MetricsRegistry.disabled());
+        queue.start();
+        Job job = queue.submit("long");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        queue.close();
+        RecordingListener listener = new RecordingListener();
+        job.subscribe(listener);
+        run.get().cancel();
+        awaitStatus(job, Job.Status.QUEUED);
+
+        JobQueue restarted = new JobQueue(dir, new JobsConfig(dir.toString(), 0, 10, 60000),
+                (j, onToken, context) -> "unused", MetricsRegistry.disabled());
+        assertEquals(1, restarted.queued());
+        assertEquals(1, restarted.get(job.id()).snapshot().attempts());
+        listener.await(List.of("running", "queued"));
+    }
+
+    @Test
+    void cancelStopsQueuedAndRunningJobs() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        JobQueue queue = new JobQueue(null, new JobsConfig("", 1, 10, 60000), (job, onToken, context) -> {
+            started.countDown();
+            onToken.accept("partial");
+            while (true) {
+                context.throwIfCancelled();
+                Thread.sleep(5);
+            }
+        }, MetricsRegistry.disabled());
+        queue.start();
+        Job running = queue.submit("one");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Job waiting = queue.submit("two");
+        RecordingListener listener = new RecordingListener();
+        running.subscribe(listener);
+
+        assertTrue(queue.cancel(waiting));
+        assertEquals("cancelled", waiting.snapshot().status());
+        assertTrue(queue.cancel(running));
+        awaitStatus(running, Job.Status.CANCELLED);
+        assertFalse(queue.cancel(running));
+        assertEquals(0, queue.queued());
+        listener.await(List.of("running", "token:partial", "finished:cancelled"));
+        queue.close();
+    }
+
+    @Test
+    void stuckListenerDoesNotBlockSnapshots() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        JobQueue queue = new JobQueue(null, new JobsConfig("", 1, 10, 60000), (job, onToken, context) -> {
+            onToken.accept("slow");
+            return "done";
+        }, MetricsRegistry.disabled());
+        Job job = queue.submit("one");
+        job.subscribe(new Job.Listener() {
+            @Override
+            public void status(Job.Status status) {
+            }
+
+            @Override
+            public void token(String text) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void finished(Job.Snapshot snapshot) {
+            }
+        });
+        queue.start();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Job.Snapshot> snapshot = CompletableFuture.supplyAsync(job::snapshot);
+        assertEquals("running", snapshot.get(5, TimeUnit.SECONDS).status());
+        release.countDown();
+        awaitStatus(job, Job.Status.SUCCEEDED);
+        queue.close();
+    }
+
+    private static void awaitStatus(Job job, Job.Status status) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (job.status() != status) {
+            assertTrue(System.nanoTime() < deadline, "Job stayed " + job.status());
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class RecordingListener implements Job.Listener {
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        /**
+         * Listeners hear of a change just after the job's state shows it, so wait for them.
+         */
+        void await(List<String> expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!events.equals(expected) && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(expected, events);
+        }
+
+        @Override
+        public void status(Job.Status status) {
+            events.add(status.label());
+        }
+
+        @Override
+        public void token(String text) {
+            events.add("token:" + text);
+        }
+
+        @Override
+        public void finished(Job.Snapshot snapshot) {
+            events.add("finished:" + snapshot.status());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package cn.lyp.journal;
+
+import cn.lyp.agent.HistoryLog;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionJournalTest {
+
+    @Test
+    void rebuildsHistoriesAfterReopen() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            HistoryLog a = journal.log("a");
+            a.appended(ChatMessage.user("hello"));
+            a.appended(ChatMessage.assistant("hi there"));
+            a.appended(ChatMessage.user("rolled back"));
+            a.truncated(2);
+            HistoryLog b = journal.log("b");
+            b.appended(ChatMessage.user("bye"));
+            a.commit();
+            assertTrue(journal.drop("b"));
+            assertFalse(journal.drop("b"));
+        }
+
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            assertEquals(List.of(ChatMessage.user("hello"), ChatMessage.assistant("hi there")), journal.load("a"));
+            assertEquals(List.of(), journal.load("b"));
+            assertEquals(1, journal.sessions());
+            long oneSession = journal.indexBytes();
+            assertTrue(oneSession > 0);
+            journal.fork("a", "c");
+            assertEquals(2 * oneSession, journal.indexBytes());
+            assertTrue(journal.drop("a"));
+            assertTrue(journal.drop("c"));
+            assertEquals(0, journal.indexBytes());
+        }
+    }
+
+    @Test
+    void rollsSegmentsAndIgnoresATornTail() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        try (SessionJournal journal = SessionJournal.open(dir, 256, 0, MetricsRegistry.disabled())) {
+            HistoryLog log = journal.log("s");
+            for (int i = 0; i < 20; i++) {
+                log.appended(ChatMessage.user("message " + i));
+            }
+            log.appended(ChatMessage.user("x".repeat(1000)));
+            log.commit();
+        }
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(dir)) {
+            segments = files.sorted().toList();
+        }
+        assertTrue(segments.size() > 2, "segments=" + segments.size());
+        try (RandomAccessFile file = new RandomAccessFile(segments.getLast().toFile(), "rw")) {
+            file.seek(500);
+            file.write('y');
+        }
+
+        try (SessionJournal journal = SessionJournal.open(dir, 256, 0, MetricsRegistry.disabled())) {
+            List<ChatMessage> messages = journal.load("s");
+            assertEquals(20, messages.size());
+            assertEquals("message 19", messages.getLast().content());
+        }
+    }
+
+    @Test
+    void retiresTheSegmentsNoSessionNeeds() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        long diskBytes;
+        try (SessionJournal journal = SessionJournal.open(dir, 256, 0, MetricsRegistry.disabled())) {
+            HistoryLog old = journal.log("old");
+            for (int i = 0; i < 20; i++) {
+                old.appended(ChatMessage.user("old " + i));
+            }
+            HistoryLog kept = journal.log("kept");
+            kept.appended(ChatMessage.user("kept"));
+            assertTrue(journal.drop("old"));
+            HistoryLog recent = journal.log("new");
+            for (int i = 0; i < 20; i++) {
+                recent.appended(ChatMessage.user("new " + i));
+            }
+            recent.commit();
+            diskBytes = journal.diskBytes();
+        }
+        List<Path> segments = segments(dir);
+        assertFalse(segments.getFirst().endsWith("00000001.journal"), "segments=" + segments);
+        assertTrue(diskBytes >= segments.size() * 256L - 256, "diskBytes=" + diskBytes);
+
+        try (SessionJournal journal = SessionJournal.open(dir, 256, 0, MetricsRegistry.disabled())) {
+            assertEquals(List.of(), journal.load("old"));
+            assertEquals(List.of(ChatMessage.user("kept")), journal.load("kept"));
+            assertEquals(20, journal.load("new").size());
+            assertTrue(journal.drop("kept"));
+            assertTrue(journal.drop("new"));
+        }
+        try (SessionJournal journal = SessionJournal.open(dir, 256, 0, MetricsRegistry.disabled())) {
+            assertEquals(0, journal.sessions());
+            assertEquals(1, segments(dir).size());
+        }
+    }
+
+    @Test
+    void concurrentCommitsShareSyncs() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        MetricsRegistry metrics = new MetricsRegistry();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, metrics)) {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                HistoryLog log = journal.log("session-" + t);
+                writers.add(pool.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        log.appended(ChatMessage.user("turn " + i));
+                        log.commit();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        String scrape = metrics.scrape();
+        assertTrue(scrape.contains("agent_journal_records_total 400\n"), scrape);
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            for (int t = 0; t < 8; t++) {
+                assertEquals(50, journal.load("session-" + t).size());
+            }
+        }
+    }
+
+    private static List<Path> segments(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+}
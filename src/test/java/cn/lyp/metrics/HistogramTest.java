@@ -0,0 +1,63 @@
+package cn.lyp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramTest {
+
+    @Test
+    void bucketsKeepRelativeErrorSmall() {
+        for (long value = 1; value < (1L << 40); value = value * 3 + 7) {
+            int index = Histogram.index(value);
+            long upper = Histogram.upperBound(index);
+            assertTrue(upper >= value, "upper bound below value " + value);
+            assertTrue(upper - value <= value / 16 + 1, "bucket too wide for " + value);
+            if (index > 0) {
+                assertTrue(Histogram.upperBound(index - 1) < value, "value " + value + " belongs to an earlier bucket");
+            }
+        }
+    }
+
+    @Test
+    void reportsQuantilesWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (long i = 1; i <= 10_000; i++) {
+            histogram.record(i * 1_000);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000_000L, histogram.max());
+        assertWithin(5_000_000L, histogram.quantile(0.5));
+        assertWithin(9_900_000L, histogram.quantile(0.99));
+        assertEquals(10_000_000L, histogram.quantile(1.0));
+        assertEquals(0, new Histogram().quantile(0.99));
+    }
+
+    @Test
+    void countsEveryRecordUnderContention() throws Exception {
+        Histogram histogram = new Histogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(800_000, histogram.count());
+        assertEquals(8L * (99_999L * 100_000L / 2), histogram.sum());
+        assertEquals(99_999, histogram.max());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 16, "expected ~" + expected + " but was " + actual);
+    }
+}
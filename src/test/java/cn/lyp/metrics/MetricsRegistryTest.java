@@ -0,0 +1,71 @@
+package cn.lyp.metrics;
+
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatOptions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+    @Test
+    void scrapesPrometheusTextFormat() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("demo_calls_total", "Calls.", "tool", "say \"hi\"").add(3);
+        metrics.gauge("demo_open", "Open things.", () -> 7);
+        Histogram latency = metrics.histogram("demo_latency_seconds", "Latency.", MetricsRegistry.NANOS, "tool", "calc");
+        latency.record(2_000_000_000L);
+
+        String text = metrics.scrape();
+
+        assertTrue(text.contains("# TYPE demo_calls_total counter\n"));
+        assertTrue(text.contains("demo_calls_total{tool=\"say \\\"hi\\\"\"} 3\n"));
+        assertTrue(text.contains("# TYPE demo_open gauge\ndemo_open 7\n"));
+        assertTrue(text.contains("# TYPE demo_latency_seconds summary\n"));
+        assertTrue(text.contains("demo_latency_seconds{tool=\"calc\",quantile=\"0.99\"} 2.0\n"), text);
+        assertTrue(text.contains("demo_latency_seconds_count{tool=\"calc\"} 1\n"));
+        assertSame(latency, metrics.histogram("demo_latency_seconds", "Latency.", MetricsRegistry.NANOS, "tool", "calc"));
+    }
+
+    @Test
+    void disabledRegistryHandsOutDetachedMetricsAndKeepsNothing() {
+        MetricsRegistry disabled = MetricsRegistry.disabled();
+        Counter first = disabled.counter("demo_calls_total", "Calls.");
+        first.increment();
+        disabled.gauge("demo_open", "Open things.", () -> 7);
+        disabled.histogram("demo_latency_seconds", "Latency.", MetricsRegistry.NANOS).record(5);
+
+        assertNotSame(first, disabled.counter("demo_calls_total", "Calls."));
+        assertEquals(1, first.value());
+        assertEquals(0, disabled.histogram("demo_latency_seconds", "Latency.", MetricsRegistry.NANOS).count());
+        assertEquals("", disabled.scrape());
+    }
+
+    @Test
+    void meteredClientRecordsFirstTokenAndOutcome() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        ChatClient model = (messages, options, onToken) -> {
+            onToken.accept("a");
+            onToken.accept("b");
+            return "ab";
+        };
+        ChatClient metered = new MeteredChatClient(model, metrics);
+
+        StringBuilder tokens = new StringBuilder();
+        assertEquals("ab", metered.chat(List.of(), new ChatOptions("m", true, null), tokens::append));
+        ChatClient failing = new MeteredChatClient((messages, options, onToken) -> {
+            throw new IllegalStateException("boom");
+        }, metrics);
+        assertThrows(IllegalStateException.class, () -> failing.chat(List.of(), new ChatOptions("m", false, null), null));
+
+        String text = metrics.scrape();
+        assertEquals("ab", tokens.toString());
+        assertTrue(text.contains("agent_llm_time_to_first_token_seconds_count 1\n"), text);
+        assertTrue(text.contains("agent_llm_request_duration_seconds_count{stream=\"true\"} 1\n"));
+        assertTrue(text.contains("agent_llm_request_duration_seconds_count{stream=\"false\"} 1\n"));
+        assertTrue(text.contains("agent_llm_requests_total{outcome=\"ok\"} 1\n"));
+        assertTrue(text.contains("agent_llm_requests_total{outcome=\"error\"} 1\n"));
+    }
+}
@@ -0,0 +1,53 @@
+package cn.lyp.router;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashRingTest {
+    private static final Backend A = new Backend("127.0.0.1", 9001);
+    private static final Backend B = new Backend("127.0.0.1", 9002);
+    private static final Backend C = new Backend("127.0.0.1", 9003);
+
+    @Test
+    void spreadsKeysAcrossBackends() {
+        HashRing ring = HashRing.of(List.of(A, B, C), 160);
+        Map<Backend, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 30_000; i++) {
+            counts.merge(ring.lookup("session-" + i), 1, Integer::sum);
+        }
+        for (Backend backend : List.of(A, B, C)) {
+            int count = counts.getOrDefault(backend, 0);
+            assertTrue(count > 8_000 && count < 12_000, backend + " got " + count);
+        }
+    }
+
+    @Test
+    void removingABackendOnlyMovesItsKeys() {
+        HashRing full = HashRing.of(List.of(A, B, C), 160);
+        HashRing withoutC = HashRing.of(List.of(A, B), 160);
+        for (int i = 0; i < 10_000; i++) {
+            String key = "session-" + i;
+            Backend before = full.lookup(key);
+            if (!before.equals(C)) {
+                assertEquals(before, withoutC.lookup(key), key);
+            }
+        }
+    }
+
+    @Test
+    void candidatesListOwnerFirstThenDistinctFallbacks() {
+        HashRing ring = HashRing.of(List.of(A, B, C), 16);
+        List<Backend> candidates = ring.candidates("session-42", 2);
+
+        assertEquals(2, candidates.size());
+        assertEquals(ring.lookup("session-42"), candidates.get(0));
+        assertNotEquals(candidates.get(0), candidates.get(1));
+        assertEquals(3, ring.candidates("session-42", 5).size());
+        assertNull(HashRing.of(List.of(), 16).lookup("x"));
+    }
+}
@@ -0,0 +1,236 @@
+package cn.lyp.router;
+
+import cn.lyp.client.AgentClient;
+import cn.lyp.config.AppConfig;
+import cn.lyp.llm.ChatClient;
+import cn.lyp.server.AgentServer;
+import cn.lyp.server.http.NioHttpEngine;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterServerTest {
+
+    @Test
+    void routesSessionsStickilyAndFailsOverWhenABackendLeaves() throws Exception {
+        AgentServer first = backend("one");
+        AgentServer second = backend("two");
+        RouterServer router = new RouterServer(config(
+                "--mode", "router",
+                "--server-port", "0",
+                "--server-engine", "nio",
+                "--backends", "127.0.0.1:" + first.engine().port() + ",127.0.0.1:" + second.engine().port(),
+                "--health-interval-ms", "50"
+        ));
+        router.start();
+        try {
+            int port = router.engine().port();
+            awaitStats(port, "healthyBackends: 2/2");
+            Set<String> seen = new HashSet<>();
+            for (int i = 0; i < 12; i++) {
+                AgentClient client = new AgentClient(config("--mode", "client", "--server-port", Integer.toString(port)));
+                String answer = client.chat("hi", true, token -> {
+                });
+                assertEquals(answer, client.chat("again", true, token -> {
+                }));
+                seen.add(answer);
+            }
+            assertEquals(Set.of("one", "two"), seen);
+
+            HttpResponse<String> stats = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + port + "/stats")).build(), HttpResponse.BodyHandlers.ofString());
+            assertTrue(stats.body().contains("healthyBackends: 2/2"), stats.body());
+
+            second.stop();
+            awaitStats(port, "healthyBackends: 1/2");
+            for (int i = 0; i < 6; i++) {
+                AgentClient client = new AgentClient(config("--mode", "client", "--server-port", Integer.toString(port)));
+                assertEquals("one", client.chat("hi", true, token -> {
+                }));
+            }
+        } finally {
+            router.stop();
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    void routesJobRequestsToTheBackendThatAcceptedTheJob() throws Exception {
+        AgentServer first = backend("one");
+        AgentServer second = backend("two");
+        RouterServer router = new RouterServer(config(
+                "--mode", "router",
+                "--server-port", "0",
+                "--server-engine", "nio",
+                "--backends", "127.0.0.1:" + first.engine().port() + ",127.0.0.1:" + second.engine().port(),
+                "--health-interval-ms", "50"
+        ));
+        router.start();
+        try {
+            int port = router.engine().port();
+            awaitStats(port, "healthyBackends: 2/2");
+            HttpClient http = HttpClient.newHttpClient();
+            Set<String> results = new HashSet<>();
+            for (int i = 0; i < 8; i++) {
+                HttpResponse<String> submitted = http.send(HttpRequest.newBuilder(
+                                URI.create("http://127.0.0.1:" + port + "/jobs"))
+                        .POST(HttpRequest.BodyPublishers.ofString("work")).build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals(202, submitted.statusCode());
+                URI job = URI.create("http://127.0.0.1:" + port
+                        + submitted.headers().firstValue("Location").orElseThrow());
+                String events = http.send(HttpRequest.newBuilder(URI.create(job + "/events")).build(),
+                        HttpResponse.BodyHandlers.ofString()).body();
+                assertTrue(events.endsWith("event: done\ndata: [DONE]\n\n"), events);
+                HttpResponse<String> polled = http.send(HttpRequest.newBuilder(job).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, polled.statusCode());
+                assertTrue(polled.body().contains("\"status\":\"succeeded\""), polled.body());
+                results.add(polled.body().contains("\"result\":\"one\"") ? "one" : "two");
+            }
+            assertEquals(Set.of("one", "two"), results);
+        } finally {
+            router.stop();
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    void streamsBodiesTooLargeToBufferForRetry() throws Exception {
+        NioHttpEngine backend = new NioHttpEngine(10, 5000, 5000, 64 * 1024);
+        backend.route("/ready", call -> call.sendResponseHeaders(200, -1));
+        backend.route("/batch", call -> {
+            long total = 0;
+            try (InputStream in = call.requestBody()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    total += read;
+                }
+            }
+            byte[] reply = Long.toString(total).getBytes(StandardCharsets.UTF_8);
+            call.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = call.responseBody()) {
+                out.write(reply);
+            }
+        });
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        backend.start(new InetSocketAddress("127.0.0.1", 0), 50, executor);
+        RouterServer router = new RouterServer(config(
+                "--mode", "router",
+                "--server-port", "0",
+                "--server-engine", "nio",
+                "--backends", "127.0.0.1:" + backend.port(),
+                "--health-interval-ms", "50"
+        ));
+        router.start();
+        try {
+            int port = router.engine().port();
+            awaitStats(port, "healthyBackends: 1/1");
+            byte[] large = new byte[3 << 20];
+            for (int size : new int[]{100, large.length}) {
+                HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                                URI.create("http://127.0.0.1:" + port + "/batch"))
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(large, 0, size)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, response.statusCode());
+                assertEquals(Integer.toString(size), response.body());
+            }
+        } finally {
+            router.stop();
+            backend.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void refusesWebSocketUpgradesWithNotImplemented() throws Exception {
+        RouterServer router = new RouterServer(config(
+                "--mode", "router",
+                "--server-port", "0",
+                "--backends", "127.0.0.1:1"
+        ));
+        router.start();
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                    URI.create("http://127.0.0.1:" + router.engine().port() + "/ws")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(501, response.statusCode());
+            assertTrue(response.body().contains("backend directly"), response.body());
+        } finally {
+            router.stop();
+        }
+    }
+
+    private static void awaitStats(int port, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!statsBody(port).contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static String statsBody(int port) throws Exception {
+        return HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + port + "/stats")).build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private static AgentServer backend(String name) throws Exception {
+        ChatClient model = (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            onToken.accept(name);
+            return name;
+        };
+        AgentServer server = new AgentServer(config(
+                "--mode", "server",
+                "--api-key", "key",
+                "--model", "model-x",
+                "--server-port", "0"
+        ), model);
+        server.start();
+        awaitReady(server.engine().port());
+        return server;
+    }
+
+    /**
+     * The router treats a backend as healthy until a probe says otherwise, so a backend still
+     * warming up would drop out of the ring in the middle of a test.
+     */
+    private static void awaitReady(int port) throws Exception {
+        HttpRequest ready = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/ready")).build();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (HttpClient.newHttpClient().send(ready, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+            assertTrue(System.currentTimeMillis() < deadline, "backend on port " + port + " never became ready");
+            Thread.sleep(20);
+        }
+    }
+
+    private static AppConfig config(String... args) throws Exception {
+        Path file = Files.createTempFile("router-test", ".properties");
+        file.toFile().deleteOnExit();
+        String[] all = new String[args.length + 4];
+        all[0] = "--config";
+        all[1] = file.toString();
+        all[2] = "--server-host";
+        all[3] = "127.0.0.1";
+        System.arraycopy(args, 0, all, 4, args.length);
+        return AppConfig.fromArgs(all);
+    }
+}
@@ -0,0 +1,68 @@
+package cn.lyp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControllerTest {
+
+    @Test
+    void rejectsImmediatelyWhenRunsAndQueueAreFull() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 0, Duration.ofSeconds(5));
+        AdmissionController.Ticket first = admission.tryAdmit();
+        assertNotNull(first);
+        assertEquals(1, admission.running());
+
+        long start = System.nanoTime();
+        assertNull(admission.tryAdmit());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(1, admission.rejected());
+
+        first.close();
+        first.close();
+        assertEquals(0, admission.running());
+    }
+
+    @Test
+    void queuedRequestRunsWhenPermitFreesAndReportsWait() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 1, Duration.ofSeconds(5));
+        AdmissionController.Ticket first = admission.tryAdmit();
+        AtomicReference<AdmissionController.Ticket> second = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                second.set(admission.tryAdmit());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        while (admission.queued() == 0) {
+            Thread.onSpinWait();
+        }
+        Thread.sleep(20);
+        first.close();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        assertNotNull(second.get());
+        assertTrue(second.get().queueWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(0, admission.queued());
+        second.get().close();
+    }
+
+    @Test
+    void queuedRequestGivesUpAfterMaxWait() throws Exception {
+        AdmissionController admission = new AdmissionController(1, 4, Duration.ofMillis(20));
+        AdmissionController.Ticket first = admission.tryAdmit();
+
+        assertNull(admission.tryAdmit());
+        assertEquals(1, admission.rejected());
+        first.close();
+    }
+}
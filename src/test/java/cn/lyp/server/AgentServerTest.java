@@ -0,0 +1,547 @@
+package cn.lyp.server;
+
+import cn.lyp.client.AgentClient;
+import cn.lyp.config.AppConfig;
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.net.http.WebSocketHandshakeException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AgentServerTest {
+
+    @Test
+    void streamsChatOverJdkEngine() throws Exception {
+        assertStreamsChat("jdk");
+    }
+
+    @Test
+    void streamsChatOverNioEngine() throws Exception {
+        assertStreamsChat("nio");
+    }
+
+    @Test
+    void drainLetsInFlightRunFinishAndRejectsNewChats() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AgentServer server = new AgentServer(serverConfig("nio"), slowModel(started, 10));
+        server.start();
+        AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+        AgentClient late = new AgentClient(clientConfig(server.engine().port()));
+        CompletableFuture<String> response = CompletableFuture.supplyAsync(() -> chat(client));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<RunTracker.DrainReport> drain = CompletableFuture.supplyAsync(
+                () -> server.drain(Duration.ofSeconds(10)));
+        long deadline = System.currentTimeMillis() + 5000;
+        String lateError = null;
+        while (lateError == null && System.currentTimeMillis() < deadline) {
+            try {
+                late.chat("hi", true, token -> {
+                });
+                Thread.sleep(10);
+            } catch (IllegalStateException e) {
+                lateError = e.getMessage();
+            }
+        }
+        RunTracker.DrainReport report = drain.get(15, TimeUnit.SECONDS);
+
+        assertNotNull(lateError);
+        assertTrue(lateError.contains("503"), lateError);
+        assertEquals("0123456789", response.get(5, TimeUnit.SECONDS));
+        assertEquals(1, report.finished());
+        assertEquals(0, report.cutOff());
+    }
+
+    @Test
+    void drainCutsOffRunsPastTheDeadline() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AgentServer server = new AgentServer(serverConfig("jdk"), slowModel(started, 1000));
+        server.start();
+        AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+        CompletableFuture<String> response = CompletableFuture.supplyAsync(() -> chat(client));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        RunTracker.DrainReport report = server.drain(Duration.ofMillis(100));
+
+        assertEquals(1, report.inFlight());
+        assertEquals(1, report.cutOff());
+        Exception failure = assertThrows(Exception.class, () -> response.get(5, TimeUnit.SECONDS));
+        assertTrue(failure.getMessage().contains("shutting down"), failure.getMessage());
+    }
+
+    @Test
+    void readyWaitsForWarmupWhileHealthDoesNot() throws Exception {
+        ChatClient model = (messages, options, onToken) -> "{\"type\":\"final\",\"content\":\"ok\"}";
+        AgentServer server = new AgentServer(serverConfig("nio", "--warmup-iterations", "200"), model);
+        server.start();
+        try {
+            HttpClient http = HttpClient.newHttpClient();
+            String base = "http://127.0.0.1:" + server.engine().port();
+            HttpResponse<String> health = http.send(HttpRequest.newBuilder(URI.create(base + "/health")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, health.statusCode());
+
+            HttpResponse<String> ready;
+            long deadline = System.currentTimeMillis() + 10_000;
+            do {
+                ready = http.send(HttpRequest.newBuilder(URI.create(base + "/ready")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (ready.statusCode() != 200) {
+                    assertTrue(ready.body().contains("\"ready\":false"), ready.body());
+                    Thread.sleep(10);
+                }
+            } while (ready.statusCode() != 200 && System.currentTimeMillis() < deadline);
+
+            assertEquals(200, ready.statusCode(), ready.body());
+            assertTrue(ready.body().contains("\"model\":\"ok\""), ready.body());
+            assertTrue(ready.body().contains("\"agent\":\"ok\""), ready.body());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void forkedSessionsContinueIndependently() throws Exception {
+        ChatClient model = (messages, options, onToken) -> "{\"type\":\"final\",\"content\":\""
+                + String.join(",", messages.stream().filter(m -> "user".equals(m.role())).map(ChatMessage::content).toList())
+                + "\"}";
+        AgentServer server = new AgentServer(serverConfig("nio"), model);
+        server.start();
+        try {
+            AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+            assertEquals("a", client.chat("a", false, null));
+            AgentClient branch = client.fork();
+
+            assertEquals(SessionManager.routingKey(client.sessionId()), SessionManager.routingKey(branch.sessionId()));
+            assertEquals("a,b", branch.chat("b", false, null));
+            assertEquals("a,c", client.chat("c", false, null));
+            assertEquals("a,b,d", branch.chat("d", false, null));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void rateLimitsChatsPerClient() throws Exception {
+        ChatClient model = (messages, options, onToken) -> "{\"type\":\"final\",\"content\":\"ok\"}";
+        AgentServer server = new AgentServer(serverConfig("nio", "--rate-limits", "chat=0.1:2"), model);
+        server.start();
+        try {
+            AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+            assertEquals("ok", client.chat("one", false, token -> {
+            }));
+            assertEquals("ok", client.chat("two", false, token -> {
+            }));
+            IllegalStateException limited = assertThrows(IllegalStateException.class, () -> client.chat("three", false, token -> {
+            }));
+            assertTrue(limited.getMessage().contains("429"), limited.getMessage());
+            HttpResponse<String> fresh = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + "/chat"))
+                    .header("Authorization", "Bearer made-up")
+                    .POST(HttpRequest.BodyPublishers.ofString("four")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(429, fresh.statusCode());
+            assertTrue(client.fetchTools().contains("calc"));
+            assertTrue(server.metrics().scrape().contains(
+                    "agent_rate_limit_decisions_total{route=\"chat\",budget=\"requests\",outcome=\"limited\"} 2\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void batchStreamsResultsForEachPrompt() throws Exception {
+        ChatClient model = (messages, options, onToken) -> "{\"type\":\"final\",\"content\":\"echo "
+                + messages.get(messages.size() - 1).content() + "\"}";
+        AgentServer server = new AgentServer(serverConfig("nio", "--batch-concurrency", "2"), model);
+        server.start();
+        try {
+            AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+            String body = "{\"id\":\"a\",\"prompt\":\"one\"}\n\n\"two\"\nnot json\n{\"id\":\"d\",\"prompt\":\"four\"}\n"
+                    + "x".repeat(BatchHandler.MAX_LINE_BYTES + 1);
+            List<String> lines = new ArrayList<>();
+            client.batch(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), 8, lines::add);
+
+            assertEquals(6, lines.size(), lines.toString());
+            String results = String.join("\n", lines);
+            assertTrue(results.contains("\"id\":\"a\",\"index\":0,\"ok\":true,\"content\":\"echo one\""), results);
+            assertTrue(results.contains("\"id\":\"1\",\"index\":1,\"ok\":true,\"content\":\"echo two\""), results);
+            assertTrue(results.contains("\"id\":\"2\",\"index\":2,\"ok\":false"), results);
+            assertTrue(results.contains("\"id\":\"d\",\"index\":3,\"ok\":true"), results);
+            assertTrue(results.contains("\"runMs\":"), results);
+            assertTrue(results.contains("\"id\":\"4\",\"index\":4,\"ok\":false,\"error\":\"Line exceeds"), results);
+            assertTrue(lines.get(5).startsWith("{\"done\":true,\"items\":5,\"failed\":2,"), lines.get(5));
+            String metrics = server.metrics().scrape();
+            assertTrue(metrics.contains("agent_batch_items_total{outcome=\"ok\"} 3\n"), metrics);
+            assertTrue(metrics.contains("agent_batch_items_total{outcome=\"error\"} 2\n"), metrics);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void jobsRunInTheBackgroundAndCanBeStreamed() throws Exception {
+        ChatClient model = (messages, options, onToken) -> "{\"type\":\"final\",\"content\":\"job "
+                + messages.get(messages.size() - 1).content() + "\"}";
+        AgentServer server = new AgentServer(serverConfig("nio", "--job-workers", "1"), model);
+        server.start();
+        try {
+            HttpClient http = HttpClient.newHttpClient();
+            String base = "http://127.0.0.1:" + server.engine().port() + "/jobs";
+            HttpResponse<String> submitted = http.send(HttpRequest.newBuilder(URI.create(base))
+                    .POST(HttpRequest.BodyPublishers.ofString("work")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(202, submitted.statusCode());
+            String location = submitted.headers().firstValue("Location").orElseThrow();
+
+            HttpResponse<String> events = http.send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + location + "/events")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertTrue(events.body().contains("data: job work\n"), events.body());
+            assertTrue(events.body().contains("event: status\ndata: succeeded\n"), events.body());
+            assertTrue(events.body().endsWith("event: done\ndata: [DONE]\n\n"), events.body());
+
+            String polled = http.send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + location)).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            assertTrue(polled.contains("\"status\":\"succeeded\""), polled);
+            assertTrue(polled.contains("\"result\":\"job work\""), polled);
+            HttpResponse<String> cancel = http.send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + location)).DELETE().build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(409, cancel.statusCode());
+            assertEquals(404, http.send(HttpRequest.newBuilder(URI.create(base + "/missing")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+            assertEquals(404, http.send(HttpRequest.newBuilder(URI.create(base + "/events")).build(),
+                    HttpResponse.BodyHandlers.ofString()).statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static ChatClient slowModel(CountDownLatch started, int tokens) {
+        return (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            StringBuilder full = new StringBuilder();
+            for (int i = 0; i < tokens; i++) {
+                onToken.accept(Integer.toString(i % 10));
+                full.append(i % 10);
+                started.countDown();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return full.toString();
+        };
+    }
+
+    private static String chat(AgentClient client) {
+        try {
+            return client.chat("hi", true, token -> {
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    void chatStreamsInCompactFormatsChosenByAccept() throws Exception {
+        ChatClient model = (messages, options, onToken) -> {
+            for (String token : new String[]{"Hel", "lo \"", "wörld\"\n"}) {
+                onToken.accept(token);
+            }
+            return "Hello";
+        };
+        AgentServer server = new AgentServer(serverConfig("nio"), model);
+        server.start();
+        try {
+            for (String transport : List.of("ndjson", "frames")) {
+                AgentClient client = new AgentClient(clientConfig(server.engine().port(), "--client-transport",
+                        transport));
+                List<String> tokens = new ArrayList<>();
+                assertEquals("Hello \"wörld\"\n", client.chat("hi", true, tokens::add), transport);
+                assertFalse(tokens.isEmpty());
+            }
+            HttpResponse<String> ndjson = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + "/chat?stream=false"))
+                    .header("Accept", "application/x-ndjson")
+                    .POST(HttpRequest.BodyPublishers.ofString("hi")).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals("application/x-ndjson; charset=utf-8", ndjson.headers().firstValue("Content-Type").orElse(""));
+            assertEquals("{\"token\":\"Hello\"}\n{\"done\":\"[DONE]\"}\n", ndjson.body());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void identicalSessionlessChatsShareOneRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        AtomicReference<List<String>> seen = new AtomicReference<>();
+        CountDownLatch release = new CountDownLatch(1);
+        ChatClient model = (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            seen.set(messages.stream().map(ChatMessage::content).toList());
+            runs.incrementAndGet();
+            onToken.accept("Hel");
+            release.await(5, TimeUnit.SECONDS);
+            onToken.accept("lo");
+            return "Hello";
+        };
+        AgentServer server = new AgentServer(serverConfig("nio", "--coalesce-sessionless", "true",
+                "--session-queue-depth", "0"), model);
+        server.start();
+        try {
+            HttpClient http = HttpClient.newHttpClient();
+            HttpRequest request = HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + "/chat?stream=true"))
+                    .POST(HttpRequest.BodyPublishers.ofString("ping")).build();
+            CompletableFuture<HttpResponse<String>> first = http.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<HttpResponse<String>> second = http.sendAsync(HttpRequest.newBuilder(request.uri())
+                            .header("Accept", "application/x-ndjson")
+                            .POST(HttpRequest.BodyPublishers.ofString("ping")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            List<CompletableFuture<HttpResponse<String>>> others = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                others.add(http.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!server.metrics().scrape().contains("agent_chat_flights_total{role=\"follower\"} 3\n")) {
+                assertTrue(System.nanoTime() < deadline, "second request never joined the first");
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertEquals("event: token\ndata: Hello\n\nevent: done\ndata: [DONE]\n\n",
+                    first.get(5, TimeUnit.SECONDS).body().replace("event: token\ndata: Hel\n\nevent: token\ndata: lo",
+                            "event: token\ndata: Hello"));
+            HttpResponse<String> followed = second.get(5, TimeUnit.SECONDS);
+            assertEquals("{\"token\":\"Hello\"}\n{\"done\":\"[DONE]\"}\n",
+                    followed.body().replace("\"}\n{\"token\":\"", ""));
+            assertEquals(1, runs.get());
+
+            String leaderSession = first.get().headers().firstValue("X-Session-Id").orElseThrow();
+            String followerSession = followed.headers().firstValue("X-Session-Id").orElseThrow();
+            assertNotEquals(leaderSession, followerSession);
+            assertTrue(followed.headers().firstValue("Set-Cookie").orElseThrow().contains(followerSession));
+            List<String> followerSessions = new ArrayList<>(List.of(followerSession));
+            for (CompletableFuture<HttpResponse<String>> other : others) {
+                followerSessions.add(other.get(5, TimeUnit.SECONDS).headers().firstValue("X-Session-Id").orElseThrow());
+            }
+            // The leader's session queue holds nothing, yet every follower gets the shared turn.
+            for (String session : followerSessions) {
+                http.send(HttpRequest.newBuilder(request.uri()).header("X-Session-Id", session)
+                        .POST(HttpRequest.BodyPublishers.ofString("again")).build(), HttpResponse.BodyHandlers.ofString());
+                assertEquals(List.of("ping", "Hello", "again"), seen.get().subList(1, seen.get().size()));
+            }
+            assertEquals(3, Set.copyOf(followerSessions).size());
+        } finally {
+            release.countDown();
+            server.stop();
+        }
+    }
+
+    @Test
+    void httpCancelDropsTheChatAndTheServerStopsTheRun() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        ChatClient model = (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            if (messages.stream().anyMatch(message -> "slow".equals(message.content()))) {
+                started.countDown();
+                while (true) {
+                    onToken.accept(".");
+                    Thread.sleep(5);
+                }
+            }
+            onToken.accept("Hello");
+            return "Hello";
+        };
+        AgentServer server = new AgentServer(serverConfig("nio"), model);
+        server.start();
+        try {
+            AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+            CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.chat("slow", true, token -> { });
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            client.cancel();
+            ExecutionException cancelled = assertThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CancellationException.class, cancelled.getCause());
+            assertEquals("Hello", client.chat("again", true, null));
+            assertTrue(server.metrics().scrape().contains("agent_cancelled_runs_total 1\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void websocketCarriesTurnsAndCancels() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        ChatClient model = (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            if (messages.stream().anyMatch(message -> "slow".equals(message.content()))) {
+                started.countDown();
+                while (true) {
+                    onToken.accept(".");
+                    Thread.sleep(5);
+                }
+            }
+            for (String token : new String[]{"Hel", "lo"}) {
+                onToken.accept(token);
+            }
+            return "Hello";
+        };
+        AgentServer server = new AgentServer(serverConfig("nio"), model);
+        server.start();
+        AgentClient client = new AgentClient(clientConfig(server.engine().port(), "--client-transport", "websocket"));
+        try {
+            List<String> tokens = new ArrayList<>();
+            assertEquals("Hello", client.chat("hi", true, tokens::add));
+            assertEquals(List.of("Hel", "lo"), tokens);
+
+            CompletableFuture<String> slow = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.chat("slow", true, token -> { });
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            client.cancel();
+            ExecutionException cancelled = assertThrows(ExecutionException.class, () -> slow.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(CancellationException.class, cancelled.getCause());
+            client.reset();
+            assertEquals("Hello", client.chat("again", true, null));
+            assertTrue(server.metrics().scrape().contains("agent_websocket_cancels_total 1\n"));
+        } finally {
+            client.close();
+            server.stop();
+        }
+    }
+
+    @Test
+    void websocketIsNotAvailableOnTheJdkEngine() throws Exception {
+        AgentServer server = new AgentServer(serverConfig("jdk"), (messages, options, onToken) -> "unused");
+        server.start();
+        try {
+            CompletionException failed = assertThrows(CompletionException.class, () -> HttpClient.newHttpClient()
+                    .newWebSocketBuilder()
+                    .buildAsync(URI.create("ws://127.0.0.1:" + server.engine().port() + "/ws"),
+                            new WebSocket.Listener() { })
+                    .join());
+            assertInstanceOf(WebSocketHandshakeException.class, failed.getCause());
+            assertEquals(501, ((WebSocketHandshakeException) failed.getCause()).getResponse().statusCode());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private void assertStreamsChat(String engine) throws Exception {
+        ChatClient model = (messages, options, onToken) -> {
+            if (!options.stream()) {
+                return "{\"type\":\"final\",\"content\":\"ignored\"}";
+            }
+            for (String token : new String[]{"Hel", "lo\n", "world"}) {
+                onToken.accept(token);
+            }
+            return "Hello\nworld";
+        };
+        AgentServer server = new AgentServer(serverConfig(engine), model);
+        server.start();
+        try {
+            AgentClient client = new AgentClient(clientConfig(server.engine().port()));
+            List<String> tokens = new ArrayList<>();
+            String response = client.chat("hi", true, tokens::add);
+
+            assertEquals("Hello\nworld", response);
+            assertFalse(tokens.isEmpty());
+            assertTrue(client.fetchTools().contains("calc"));
+            assertEquals(client.fetchTools(), client.fetchTools());
+            HttpClient http = HttpClient.newHttpClient();
+            URI toolsUri = URI.create("http://127.0.0.1:" + server.engine().port() + "/tools");
+            HttpResponse<String> tools = http.send(HttpRequest.newBuilder(toolsUri).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            String etag = tools.headers().firstValue("ETag").orElseThrow();
+            HttpResponse<String> revalidated = http.send(HttpRequest.newBuilder(toolsUri)
+                    .header("If-None-Match", etag).build(), HttpResponse.BodyHandlers.ofString());
+            assertEquals(304, revalidated.statusCode());
+            assertEquals("", revalidated.body());
+            String metrics = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                            URI.create("http://127.0.0.1:" + server.engine().port() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString()).body();
+            assertTrue(metrics.contains("agent_llm_time_to_first_token_seconds_count 1\n"), metrics);
+            assertTrue(metrics.contains("agent_steps_per_request_count 1\n"));
+            assertTrue(metrics.contains("agent_active_streams 0\n"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    static AppConfig serverConfig(String engine, String... extra) throws Exception {
+        List<String> args = new ArrayList<>(List.of(
+                "--config", emptyConfig().toString(),
+                "--mode", "server",
+                "--api-key", "key",
+                "--model", "model-x",
+                "--server-host", "127.0.0.1",
+                "--server-port", "0",
+                "--server-engine", engine
+        ));
+        args.addAll(List.of(extra));
+        return AppConfig.fromArgs(args.toArray(String[]::new));
+    }
+
+    static AppConfig clientConfig(int port, String... extra) throws Exception {
+        List<String> args = new ArrayList<>(List.of(
+                "--config", emptyConfig().toString(),
+                "--mode", "client",
+                "--server-host", "127.0.0.1",
+                "--server-port", Integer.toString(port)
+        ));
+        args.addAll(List.of(extra));
+        return AppConfig.fromArgs(args.toArray(String[]::new));
+    }
+
+    private static Path emptyConfig() throws Exception {
+        Path file = Files.createTempFile("agent-server-test", ".properties");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+}
@@ -0,0 +1,32 @@
+package cn.lyp.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachedResponseTest {
+
+    @Test
+    void etagFollowsContent() {
+        CachedResponse first = CachedResponse.of("- calc: math", 1);
+        CachedResponse same = CachedResponse.of("- calc: math", 2);
+        CachedResponse changed = CachedResponse.of("- calc: math\n- time: clock", 3);
+
+        assertEquals(first.etag(), same.etag());
+        assertNotEquals(first.etag(), changed.etag());
+        assertTrue(first.etag().startsWith("\"") && first.etag().endsWith("\""));
+    }
+
+    @Test
+    void matchesIfNoneMatchLists() {
+        CachedResponse response = CachedResponse.of("body", 0);
+        String etag = response.etag();
+
+        assertTrue(response.matches(etag));
+        assertTrue(response.matches("\"other\", " + etag));
+        assertTrue(response.matches("W/" + etag));
+        assertTrue(response.matches("*"));
+        assertFalse(response.matches("\"other\""));
+        assertFalse(response.matches(null));
+    }
+}
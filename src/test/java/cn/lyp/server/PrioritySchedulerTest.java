@@ -0,0 +1,105 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.Priority;
+import cn.lyp.llm.RunContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PrioritySchedulerTest {
+
+    @Test
+    void interactiveWaitersGoAheadOfRecentBatchWaiters() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler(1, TimeUnit.SECONDS.toNanos(10));
+        assertTrue(scheduler.tryAcquire());
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+
+        waiter(scheduler, Priority.BATCH, "batch-1", order, done);
+        awaitWaiting(scheduler, Priority.BATCH, 1);
+        waiter(scheduler, Priority.BATCH, "batch-2", order, done);
+        awaitWaiting(scheduler, Priority.BATCH, 2);
+        waiter(scheduler, Priority.INTERACTIVE, "interactive", order, done);
+        awaitWaiting(scheduler, Priority.INTERACTIVE, 1);
+        assertFalse(scheduler.tryAcquire());
+
+        scheduler.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("interactive", "batch-1", "batch-2"), order);
+        assertEquals(0, scheduler.inUse());
+    }
+
+    @Test
+    void batchWaitersAgePastNewInteractiveWork() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler(1, TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(scheduler.tryAcquire());
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(2);
+
+        waiter(scheduler, Priority.BATCH, "batch", order, done);
+        awaitWaiting(scheduler, Priority.BATCH, 1);
+        Thread.sleep(120);
+        waiter(scheduler, Priority.INTERACTIVE, "interactive", order, done);
+        awaitWaiting(scheduler, Priority.INTERACTIVE, 1);
+
+        scheduler.release();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("batch", "interactive"), order);
+    }
+
+    @Test
+    void timedOutAndCancelledWaitersLeaveTheQueue() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler(1, 0);
+        assertTrue(scheduler.tryAcquire());
+        assertFalse(scheduler.acquire(Priority.BATCH, TimeUnit.MILLISECONDS.toNanos(20), RunContext.none()));
+
+        RunContext context = RunContext.create();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread waiter = Thread.ofVirtual().start(() -> {
+            try {
+                scheduler.acquire(Priority.INTERACTIVE, TimeUnit.SECONDS.toNanos(5), context);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        awaitWaiting(scheduler, Priority.INTERACTIVE, 1);
+        context.cancel();
+        waiter.join(5000);
+
+        assertInstanceOf(CancellationException.class, failure.get());
+        assertEquals(0, scheduler.waiting(Priority.INTERACTIVE));
+        scheduler.release();
+        assertTrue(scheduler.tryAcquire());
+    }
+
+    private static void waiter(PriorityScheduler scheduler, Priority priority, String name, List<String> order,
+                               CountDownLatch done) {
+        Thread.ofVirtual().start(() -> {
+            try {
+                if (scheduler.acquire(priority, TimeUnit.SECONDS.toNanos(5), RunContext.none())) {
+                    order.add(name);
+                    scheduler.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+    }
+
+    private static void awaitWaiting(PriorityScheduler scheduler, Priority priority, int count)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.waiting(priority) < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, scheduler.waiting(priority));
+    }
+}
@@ -0,0 +1,66 @@
+package cn.lyp.server;
+
+import cn.lyp.config.RateLimitConfig;
+import cn.lyp.llm.RunContext;
+import cn.lyp.llm.StepGate;
+import cn.lyp.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RateLimiterTest {
+
+    @Test
+    void allowsBurstThenLimitsEachClientSeparately() {
+        RateLimiter limiter = new RateLimiter(new RateLimitConfig.Rate(1, 3));
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquire("ip:noisy"));
+        }
+        long wait = limiter.tryAcquire("ip:noisy");
+        assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1), "wait=" + wait);
+        assertEquals(0, limiter.tryAcquire("ip:quiet"));
+        assertEquals(2, limiter.trackedClients());
+    }
+
+    @Test
+    void refillsAtTheConfiguredRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(new RateLimitConfig.Rate(50, 1));
+
+        assertEquals(0, limiter.tryAcquire("ip:a"));
+        assertTrue(limiter.tryAcquire("ip:a") > 0);
+        Thread.sleep(40);
+        assertEquals(0, limiter.tryAcquire("ip:a"));
+    }
+
+    @Test
+    void parsesRouteSpecs() {
+        Map<String, RateLimitConfig.Rate> routes = RateLimitConfig.parseRoutes("chat=2:5, default=0.5");
+        RateLimitConfig config = new RateLimitConfig(routes, 0, 0, false);
+
+        assertEquals(new RateLimitConfig.Rate(2, 5), config.rateFor("chat"));
+        assertEquals(new RateLimitConfig.Rate(0.5, 1), config.rateFor("tools"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimitConfig.parseRoutes("chat=fast"));
+    }
+
+    @Test
+    void stepBudgetCapsInflightStepsPerClient() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        StepBudget budget = new StepBudget(1, 50, metrics);
+        StepGate gate = budget.gateFor("ip:1");
+        RunContext context = RunContext.create();
+
+        StepGate.Permit first = gate.enter(context);
+        assertThrows(IllegalStateException.class, () -> gate.enter(context));
+        budget.gateFor("ip:2").enter(context).close();
+        first.close();
+        gate.enter(context).close();
+
+        String text = metrics.scrape();
+        assertTrue(text.contains("budget=\"steps\",outcome=\"limited\"} 1\n"), text);
+        assertTrue(text.contains("budget=\"steps\",outcome=\"allowed\"} 3\n"), text);
+    }
+}
@@ -0,0 +1,52 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunTrackerTest {
+
+    @Test
+    void drainWaitsForRunsThatFinishBeforeTheDeadline() throws Exception {
+        RunTracker tracker = new RunTracker();
+        RunContext run = RunContext.create();
+        assertTrue(tracker.begin(run));
+        Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignored) {
+            }
+            tracker.end(run);
+        });
+
+        RunTracker.DrainReport report = tracker.drain(Duration.ofSeconds(5));
+
+        assertEquals(1, report.inFlight());
+        assertEquals(1, report.finished());
+        assertEquals(0, report.cutOff());
+        assertFalse(run.isCancelled());
+        assertFalse(tracker.begin(RunContext.create()));
+    }
+
+    @Test
+    void drainCancelsRunsStillActiveAtTheDeadline() throws Exception {
+        RunTracker tracker = new RunTracker();
+        RunContext finished = RunContext.create();
+        RunContext stuck = RunContext.create();
+        tracker.begin(finished);
+        tracker.begin(stuck);
+        tracker.end(finished);
+        stuck.onCancel(() -> tracker.end(stuck));
+
+        RunTracker.DrainReport report = tracker.drain(Duration.ofMillis(50));
+
+        assertEquals(1, report.inFlight());
+        assertEquals(0, report.finished());
+        assertEquals(1, report.cutOff());
+        assertTrue(stuck.isCancelled());
+        assertEquals(0, tracker.active());
+    }
+}
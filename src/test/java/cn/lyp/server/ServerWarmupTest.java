@@ -0,0 +1,38 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.ChatClient;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.llm.ChatOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerWarmupTest {
+
+    @Test
+    void reportsAFailedModelCheckButStillBecomesReady() {
+        ChatClient unreachable = new ChatClient() {
+            @Override
+            public String chat(List<ChatMessage> messages, ChatOptions options, Consumer<String> onToken) {
+                throw new AssertionError("Warm-up must not send chats to the real model.");
+            }
+
+            @Override
+            public void warmUp() throws IOException {
+                throw new IOException("connection refused");
+            }
+        };
+        ServerWarmup warmup = new ServerWarmup(unreachable, null, "system", 30);
+        assertFalse(warmup.ready());
+
+        warmup.run();
+
+        assertTrue(warmup.ready());
+        assertEquals("failed: connection refused", warmup.checks().get("model"));
+        assertEquals("ok", warmup.checks().get("agent"));
+    }
+}
@@ -0,0 +1,141 @@
+package cn.lyp.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionLanesTest {
+
+    @Test
+    void runsOneSessionInOrderAndSessionsInParallel() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SessionLanes lanes = new SessionLanes(executor, 100, SessionLanes.RejectPolicy.REJECT_NEW);
+            List<Integer> order = new CopyOnWriteArrayList<>();
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger overlap = new AtomicInteger();
+            CountDownLatch otherSessionRan = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+
+            CompletableFuture<Void> first = lanes.submit("a", () -> {
+                release.await(5, TimeUnit.SECONDS);
+                order.add(0);
+                return null;
+            });
+            CompletableFuture<?>[] rest = new CompletableFuture<?>[20];
+            for (int i = 1; i <= 20; i++) {
+                int n = i;
+                rest[i - 1] = lanes.submit("a", () -> {
+                    if (running.incrementAndGet() > 1) {
+                        overlap.incrementAndGet();
+                    }
+                    order.add(n);
+                    running.decrementAndGet();
+                    return null;
+                });
+            }
+            lanes.submit("b", () -> {
+                otherSessionRan.countDown();
+                return null;
+            });
+
+            assertTrue(otherSessionRan.await(5, TimeUnit.SECONDS), "session b waited behind session a");
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            CompletableFuture.allOf(rest).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, overlap.get());
+            for (int i = 0; i <= 20; i++) {
+                assertEquals(i, (int) order.get(i));
+            }
+            waitForRetiredLanes(lanes);
+        }
+    }
+
+    @Test
+    void rejectsNewRequestsOnceTheMailboxIsFull() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SessionLanes lanes = new SessionLanes(executor, 1, SessionLanes.RejectPolicy.REJECT_NEW);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> running = lanes.submit("s", () -> {
+                release.await(5, TimeUnit.SECONDS);
+                return "running";
+            });
+            CompletableFuture<String> queued = lanes.submit("s", () -> "queued");
+            CompletableFuture<String> refused = lanes.submit("s", () -> "refused");
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> refused.get(1, TimeUnit.SECONDS));
+            SessionLanes.LaneFullException full = (SessionLanes.LaneFullException) error.getCause();
+            assertFalse(full.dropped());
+            release.countDown();
+            assertEquals("running", running.get(5, TimeUnit.SECONDS));
+            assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+            assertEquals(1, lanes.rejected());
+        }
+    }
+
+    @Test
+    void dropOldestMakesRoomForTheNewestRequest() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SessionLanes lanes = new SessionLanes(executor, 1, SessionLanes.RejectPolicy.DROP_OLDEST);
+            CountDownLatch started = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<String> running = lanes.submit("s", () -> {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "running";
+            });
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            CompletableFuture<String> stale = lanes.submit("s", () -> "stale");
+            CompletableFuture<String> latest = lanes.submit("s", () -> "latest");
+
+            ExecutionException error = assertThrows(ExecutionException.class, () -> stale.get(1, TimeUnit.SECONDS));
+            assertTrue(((SessionLanes.LaneFullException) error.getCause()).dropped());
+            release.countDown();
+            assertEquals("running", running.get(5, TimeUnit.SECONDS));
+            assertEquals("latest", latest.get(5, TimeUnit.SECONDS));
+            assertEquals(1, lanes.dropped());
+        }
+    }
+
+    @Test
+    void cancelledRequestsAreSkipped() throws Exception {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            SessionLanes lanes = new SessionLanes(executor, 4, SessionLanes.RejectPolicy.REJECT_NEW);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger ran = new AtomicInteger();
+            CompletableFuture<Void> running = lanes.submit("s", () -> {
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            });
+            CompletableFuture<Void> abandoned = lanes.submit("s", () -> {
+                ran.incrementAndGet();
+                return null;
+            });
+            abandoned.cancel(false);
+            release.countDown();
+            running.get(5, TimeUnit.SECONDS);
+            lanes.submit("s", () -> null).get(5, TimeUnit.SECONDS);
+
+            assertEquals(0, ran.get());
+            waitForRetiredLanes(lanes);
+        }
+    }
+
+    private static void waitForRetiredLanes(SessionLanes lanes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lanes.activeLanes() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, lanes.activeLanes());
+    }
+}
@@ -0,0 +1,261 @@
+package cn.lyp.server;
+
+import cn.lyp.agent.Agent;
+import cn.lyp.agent.ToolRegistry;
+import cn.lyp.config.SessionStoreConfig;
+import cn.lyp.journal.SessionJournal;
+import cn.lyp.llm.ChatMessage;
+import cn.lyp.llm.ChatOptions;
+import cn.lyp.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionManagerTest {
+
+    @Test
+    void sessionsKeepIndependentHistories() throws Exception {
+        List<List<ChatMessage>> seen = new CopyOnWriteArrayList<>();
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> {
+            seen.add(List.copyOf(messages));
+            return "ok";
+        }, new ChatOptions("model", false, null), new ToolRegistry(), 2, "system"));
+
+        sessions.get("a").handle("from a", null);
+        sessions.get("b").handle("from b", null);
+        sessions.get("a").handle("again a", null);
+
+        assertEquals(2, sessions.size());
+        List<ChatMessage> lastA = seen.get(2);
+        assertEquals(4, lastA.size());
+        assertTrue(lastA.stream().noneMatch(message -> "from b".equals(message.content())));
+    }
+
+    @Test
+    void resetOnlyDropsCallerSession() {
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system"));
+        Agent a = sessions.get("a");
+        Agent b = sessions.get("b");
+
+        assertTrue(sessions.reset("a"));
+        assertFalse(sessions.reset("missing"));
+        assertNotSame(a, sessions.get("a"));
+        assertSame(b, sessions.get("b"));
+    }
+
+    @Test
+    void restoresSessionsFromJournalOnFirstAccess() throws Exception {
+        Path dir = Files.createTempDirectory("sessions");
+        List<List<ChatMessage>> seen = new CopyOnWriteArrayList<>();
+        java.util.function.Supplier<Agent> factory = () -> new Agent((messages, options, onToken) -> {
+            seen.add(List.copyOf(messages));
+            return "ok";
+        }, new ChatOptions("model", false, null), new ToolRegistry(), 2, "system");
+
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            SessionManager sessions = new SessionManager(factory, journal);
+            sessions.get("a").handle("first", null);
+            sessions.get("b").handle("other", null);
+            assertTrue(sessions.reset("b"));
+        }
+
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            SessionManager sessions = new SessionManager(factory, journal);
+            assertEquals(0, sessions.size());
+            sessions.get("a").handle("second", null);
+            sessions.get("b").handle("fresh", null);
+        }
+
+        List<ChatMessage> resumed = seen.get(2);
+        assertEquals(List.of("system", "first", "ok", "second"),
+                resumed.stream().map(m -> "user".equals(m.role()) || "assistant".equals(m.role()) ? m.content() : m.role()).toList());
+        assertEquals(2, seen.get(3).size());
+    }
+
+    @Test
+    void failedJournalLoadLeavesNoSessionBehind() throws Exception {
+        Path dir = Files.createTempDirectory("sessions");
+        java.util.function.Supplier<Agent> factory = () -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system");
+        SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled());
+        new SessionManager(factory, journal).get("a").handle("first", null);
+        journal.close();
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+
+        SessionManager sessions = new SessionManager(factory, journal);
+        assertThrows(java.io.UncheckedIOException.class, () -> sessions.acquire("a"));
+        assertEquals(0, sessions.size());
+        assertEquals(0, sessions.liveBytes());
+        assertEquals(List.of(), sessions.get("b").messages());
+        assertEquals(1, sessions.size());
+    }
+
+    @Test
+    void compactsIdleSessionsAndInflatesThemOnAccess() throws Exception {
+        List<List<ChatMessage>> seen = new CopyOnWriteArrayList<>();
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> {
+            seen.add(List.copyOf(messages));
+            return "ok";
+        }, new ChatOptions("model", false, null), new ToolRegistry(), 2, "system"),
+                null, new SessionStoreConfig(0, 1000, 0), MetricsRegistry.disabled());
+
+        sessions.get("a").handle("first", null);
+        try (SessionManager.Lease busy = sessions.acquire("b")) {
+            sessions.sweep(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+            assertEquals(1, sessions.compactedSessions());
+            assertNotNull(busy.agent());
+        }
+        assertTrue(sessions.compactedBytes() > 0);
+
+        sessions.get("a").handle("second", null);
+        assertEquals(0, sessions.compactedSessions());
+        assertEquals(List.of("system", "first", "ok", "second"),
+                seen.get(1).stream().map(m -> "system".equals(m.role()) ? m.role() : m.content()).toList());
+    }
+
+    @Test
+    void evictsExpiredAndLeastRecentlyUsedSessions() {
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system"),
+                null, new SessionStoreConfig(1, 0, 60000), MetricsRegistry.disabled());
+        Random random = new Random(7);
+        for (int i = 0; i < 10; i++) {
+            try (SessionManager.Lease lease = sessions.acquire("s" + i)) {
+                lease.agent().restore(List.of(ChatMessage.user(randomText(random, 200_000))));
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sessions.liveBytes() + sessions.compactedBytes() > 1024 * 1024 && System.nanoTime() < deadline) {
+            sessions.sweep();
+            Thread.onSpinWait();
+        }
+        assertTrue(sessions.size() < 10, "sessions=" + sessions.size());
+        assertTrue(sessions.liveBytes() + sessions.compactedBytes() <= 1024 * 1024);
+        Agent newest = sessions.get("s9");
+        assertEquals(1, newest.messages().size());
+
+        sessions.sweep(System.nanoTime() + TimeUnit.MINUTES.toNanos(2));
+        assertEquals(0, sessions.size());
+        assertEquals(0, sessions.liveBytes() + sessions.compactedBytes());
+    }
+
+    @Test
+    void countsSessionBytesIncrementallyAcrossTurnsAndResets() throws Exception {
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system"),
+                null, new SessionStoreConfig(0, 0, 0), MetricsRegistry.disabled());
+
+        Agent agent = sessions.get("a");
+        for (int i = 0; i < 5; i++) {
+            try (SessionManager.Lease lease = sessions.acquire("a")) {
+                lease.agent().handle("turn " + i, null);
+            }
+            assertEquals(SessionManager.estimate(agent.messages()), sessions.liveBytes());
+        }
+        try (SessionManager.Lease lease = sessions.acquire("a")) {
+            lease.agent().restore(List.of(ChatMessage.user("short")));
+        }
+        assertEquals(SessionManager.estimate(agent.messages()), sessions.liveBytes());
+        try (SessionManager.Lease lease = sessions.acquire("a")) {
+            lease.agent().reset();
+        }
+        assertEquals(SessionManager.estimate(agent.messages()), sessions.liveBytes());
+    }
+
+    @Test
+    void compactedFootprintOfFiftyThousandIdleSessions() {
+        int count = 50_000;
+        SessionManager sessions = new SessionManager(() -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system prompt ".repeat(200)),
+                null, new SessionStoreConfig(0, 1, 0), MetricsRegistry.disabled());
+        long liveBytes = 0;
+        for (int i = 0; i < count; i++) {
+            try (SessionManager.Lease lease = sessions.acquire("session-" + i)) {
+                lease.agent().restore(conversation(i));
+            }
+            if (i % 5000 == 4999) {
+                liveBytes += sessions.liveBytes();
+                sessions.sweep(System.nanoTime() + TimeUnit.SECONDS.toNanos(1));
+            }
+        }
+        long livePerSession = liveBytes / count;
+        long compactedPerSession = sessions.bytesPerSession();
+
+        assertEquals(count, (int) sessions.compactedSessions());
+        assertEquals(0, sessions.liveBytes());
+        assertTrue(compactedPerSession * 3 < livePerSession, compactedPerSession + " vs " + livePerSession);
+        assertEquals(conversation(123), sessions.get("session-123").messages());
+    }
+
+    private static List<ChatMessage> conversation(int i) {
+        StringBuilder listing = new StringBuilder("TOOL_RESULT name=shell\nOK\n");
+        for (int line = 0; line < 30; line++) {
+            listing.append("-rw-r--r--  1 agent  staff  ").append(1000 + (i * 31 + line * 7) % 9000)
+                    .append(" Oct 18 12:").append(10 + line).append(" report-").append(i).append('-').append(line)
+                    .append(".txt\n");
+        }
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(ChatMessage.user("Which report files in my workspace changed today? Session " + i));
+        messages.add(ChatMessage.assistant("{\"type\":\"tool\",\"tool\":\"shell\",\"args\":{\"command\":\"ls -l reports\"}}"));
+        messages.add(ChatMessage.user(listing.toString()));
+        messages.add(ChatMessage.assistant("Thirty report files changed today, all between 12:10 and 12:39. "
+                + "The largest is report-" + i + "-3.txt. Let me know if you want a summary of any of them."));
+        return messages;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append((char) ('!' + random.nextInt(90)));
+        }
+        return text.toString();
+    }
+
+    @Test
+    void forksShareHistoryAndSurviveJournalReopen() throws Exception {
+        Path dir = Files.createTempDirectory("sessions");
+        java.util.function.Supplier<Agent> factory = () -> new Agent((messages, options, onToken) -> "ok",
+                new ChatOptions("model", false, null), new ToolRegistry(), 2, "system");
+        String branchId = SessionManager.forkId("root.1");
+        assertTrue(branchId.startsWith("root."));
+        assertEquals("root", SessionManager.routingKey(branchId));
+
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            SessionManager sessions = new SessionManager(factory, journal);
+            sessions.get("root").handle("shared", null);
+            assertEquals(2, sessions.fork("root", branchId));
+            sessions.get(branchId).handle("branch only", null);
+            sessions.get("root").handle("trunk only", null);
+            assertThrows(IllegalStateException.class, () -> sessions.fork("root", branchId));
+        }
+
+        try (SessionJournal journal = SessionJournal.open(dir, 1 << 20, 0, MetricsRegistry.disabled())) {
+            SessionManager sessions = new SessionManager(factory, journal);
+            assertEquals(List.of("shared", "ok", "branch only", "ok"),
+                    sessions.get(branchId).messages().stream().map(ChatMessage::content).toList());
+            assertEquals(List.of("shared", "ok", "trunk only", "ok"),
+                    sessions.get("root").messages().stream().map(ChatMessage::content).toList());
+        }
+    }
+
+    @Test
+    void readsSessionIdFromCookieHeader() {
+        assertEquals("abc-1", SessionManager.fromCookieHeader("theme=dark; agent_session=abc-1"));
+        assertNull(SessionManager.fromCookieHeader("agent_session=bad value!"));
+        assertNull(SessionManager.fromCookieHeader(null));
+    }
+}
@@ -0,0 +1,72 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.MetricsRegistry;
+import cn.lyp.protocol.StreamFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    @Test
+    void followerReplaysEarlierEventsThenReceivesTheRest() {
+        SingleFlight flights = new SingleFlight(new MetricsRegistry());
+        SingleFlight.Seat leader = flights.join("k");
+        RunContext run = RunContext.create();
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        leader.flight().subscribe(new SseWriter(first, RunContext.create(), null, 0, 0, 0));
+        leader.flight().start(run, "s1");
+        leader.flight().token("Hel");
+        leader.flight().token("lo");
+
+        SingleFlight.Seat follower = flights.join("k");
+        assertTrue(leader.leader());
+        assertFalse(follower.leader());
+        assertSame(leader.flight(), follower.flight());
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        follower.flight().subscribe(new SseWriter(second, RunContext.create(), null, 0, 0, 0, StreamFormat.NDJSON));
+        leader.flight().token(" world");
+        leader.flight().send("done", "[DONE]");
+        leader.flight().finish();
+
+        assertEquals("event: token\ndata: Hel\n\nevent: token\ndata: lo\n\nevent: token\ndata:  world\n\n"
+                + "event: done\ndata: [DONE]\n\n", first.toString(StandardCharsets.UTF_8));
+        assertEquals("{\"token\":\"Hello\"}\n{\"token\":\" world\"}\n{\"done\":\"[DONE]\"}\n",
+                second.toString(StandardCharsets.UTF_8));
+        assertTrue(follower.flight().finished().isDone());
+        assertTrue(flights.join("k").leader());
+        assertEquals(1.0 / 3, flights.coalescingRatio(), 1e-9);
+    }
+
+    @Test
+    void runIsCancelledOnlyWhenEverySubscriberHasLeft() {
+        SingleFlight flights = new SingleFlight(MetricsRegistry.disabled());
+        SingleFlight.Flight flight = flights.join("k").flight();
+        RunContext run = RunContext.create();
+        SseWriter a = new SseWriter(new ByteArrayOutputStream(), RunContext.create(), null, 0, 0, 0);
+        SseWriter b = new SseWriter(new ByteArrayOutputStream(), RunContext.create(), null, 0, 0, 0);
+        flight.subscribe(a);
+        flight.start(run, "s1");
+        flight.subscribe(b);
+
+        flight.leave(a);
+        assertFalse(run.isCancelled());
+        flight.leave(b);
+        assertTrue(run.isCancelled());
+        assertTrue(flight.abandoned());
+    }
+
+    @Test
+    void followersOfARunThatNeverStartedAreTurnedAway() throws Exception {
+        SingleFlight flights = new SingleFlight(MetricsRegistry.disabled());
+        SingleFlight.Flight flight = flights.join("k").flight();
+        SingleFlight.Flight joined = flights.join("k").flight();
+        flight.finish();
+
+        assertFalse(joined.awaitStart());
+    }
+}
@@ -0,0 +1,133 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.protocol.StreamFormat;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SseWriterTest {
+
+    @Test
+    void encodesMultilineUnicodeDataLikeTheSpec() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SseWriter writer = new SseWriter(out, RunContext.create(), null, 0, 0, 0);
+
+        assertTrue(writer.send("token", "héllo\r\nwörld 😀\rend\n"));
+
+        assertEquals("event: token\ndata: héllo\ndata: wörld 😀\ndata: end\ndata: \n\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void coalescesTokensUntilByteThresholdAndFlushesOnce() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            SseWriter writer = new SseWriter(out, RunContext.create(), timer, 60_000, 1 << 20, 0);
+            writer.token("Hel");
+            writer.token("lo\n");
+            writer.token("there");
+            assertEquals(0, out.size());
+
+            writer.send("done", "[DONE]");
+
+            assertEquals("event: token\ndata: Hello\ndata: there\n\nevent: done\ndata: [DONE]\n\n",
+                    out.toString(StandardCharsets.UTF_8));
+            assertEquals(1, writer.flushes());
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void timerFlushesPendingTokensAfterWindow() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            SseWriter writer = new SseWriter(out, RunContext.create(), timer, 5, 1 << 20, 0);
+            writer.token("a");
+            writer.token("b");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (writer.flushes() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, writer.flushes());
+            assertEquals("event: token\ndata: ab\n\n", out.toString(StandardCharsets.UTF_8));
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    @Test
+    void writeFailureCancelsRun() {
+        RunContext context = RunContext.create();
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken pipe");
+            }
+        };
+        SseWriter writer = new SseWriter(broken, context, null, 0, 0, 0);
+
+        assertFalse(writer.token("hi"));
+        assertTrue(context.isCancelled());
+        assertFalse(writer.send("done", "[DONE]"));
+    }
+
+    @Test
+    void ndjsonEscapesTokensAndEmbedsJsonEvents() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        SseWriter writer = new SseWriter(out, RunContext.create(), timer, 60_000, 1 << 20, 0, StreamFormat.NDJSON);
+        writer.token("say \"hi\"\n");
+        writer.token("\\ \u0001 😀");
+        writer.tool("{\"tool\":\"calc\",\"phase\":\"start\"}");
+        writer.send("done", "[DONE]");
+        timer.shutdownNow();
+
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertEquals("{\"token\":\"say \\\"hi\\\"\\n\\\\ \\u0001 😀\"}\n"
+                + "{\"tool\":{\"tool\":\"calc\",\"phase\":\"start\"}}\n{\"done\":\"[DONE]\"}\n", text);
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals("say \"hi\"\n\\ \u0001 😀", mapper.readTree(text.lines().findFirst().orElseThrow())
+                .get("token").asText());
+    }
+
+    @Test
+    void framesCarryTypeAndLengthPrefix() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        SseWriter writer = new SseWriter(out, RunContext.create(), timer, 60_000, 1 << 20, 0, StreamFormat.FRAMES);
+        writer.token("Hé");
+        writer.token("llo\n");
+        writer.send("done", "[DONE]");
+        timer.shutdownNow();
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(StreamFormat.FRAME_TOKEN, in.read());
+        byte[] token = in.readNBytes(in.readInt());
+        assertEquals("Héllo\n", new String(token, StandardCharsets.UTF_8));
+        assertEquals(StreamFormat.FRAME_DONE, in.read());
+        assertEquals("[DONE]", new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void negotiatesTheFirstSupportedMediaType() {
+        assertEquals(StreamFormat.SSE, StreamFormat.negotiate(null));
+        assertEquals(StreamFormat.SSE, StreamFormat.negotiate("*/*"));
+        assertEquals(StreamFormat.NDJSON, StreamFormat.negotiate("application/json, application/x-ndjson;q=0.9"));
+        assertEquals(StreamFormat.FRAMES, StreamFormat.negotiate("Application/Vnd.Agent.Frames, text/event-stream"));
+    }
+}
@@ -0,0 +1,126 @@
+package cn.lyp.server;
+
+import cn.lyp.llm.RunContext;
+import cn.lyp.metrics.MetricsRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamBufferTest {
+
+    @Test
+    void coalescePolicyKeepsTheProducerRunningPastASlowClient() throws Exception {
+        MetricsRegistry metrics = new MetricsRegistry();
+        SlowSink client = new SlowSink();
+        RunContext connection = RunContext.create();
+        StreamBuffer buffer = new StreamBuffer(client, connection, 4, StreamBuffer.Policy.COALESCE,
+                new StreamBuffer.Meters(metrics));
+
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(buffer.token(i + " "));
+            expected.append(i).append(' ');
+        }
+        client.gate.countDown();
+        assertTrue(buffer.tool("{\"tool\":\"calc\"}"));
+        assertTrue(buffer.send("done", "[DONE]"));
+        buffer.close();
+
+        assertEquals(expected.toString(), String.join("", client.tokens));
+        assertEquals(List.of("tool:{\"tool\":\"calc\"}", "done:[DONE]"), client.events);
+        assertEquals(4, buffer.highWater());
+        assertTrue(metrics.scrape().contains("agent_stream_buffer_full_total{outcome=\"coalesced\"}"));
+        assertFalse(connection.isCancelled());
+    }
+
+    @Test
+    void blockPolicyMakesTheProducerWaitForSpace() throws Exception {
+        SlowSink client = new SlowSink();
+        StreamBuffer buffer = new StreamBuffer(client, RunContext.create(), 2, StreamBuffer.Policy.BLOCK,
+                new StreamBuffer.Meters(MetricsRegistry.disabled()));
+        CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 10; i++) {
+                buffer.token(Integer.toString(i));
+            }
+        });
+
+        assertThrows(TimeoutException.class, () -> producer.get(200, TimeUnit.MILLISECONDS));
+        client.gate.countDown();
+        producer.get(5, TimeUnit.SECONDS);
+        buffer.close();
+        assertEquals("0123456789", String.join("", client.tokens));
+    }
+
+    @Test
+    void dropPolicyDisconnectsAClientThatFallsBehind() {
+        SlowSink client = new SlowSink();
+        RunContext connection = RunContext.create();
+        MetricsRegistry metrics = new MetricsRegistry();
+        StreamBuffer buffer = new StreamBuffer(client, connection, 2, StreamBuffer.Policy.DROP,
+                new StreamBuffer.Meters(metrics));
+
+        boolean accepted = true;
+        for (int i = 0; i < 10 && accepted; i++) {
+            accepted = buffer.token(Integer.toString(i));
+        }
+
+        assertFalse(accepted);
+        assertTrue(connection.isCancelled());
+        assertFalse(buffer.send("done", "[DONE]"));
+        client.gate.countDown();
+        buffer.close();
+        assertTrue(metrics.scrape().contains("agent_stream_buffer_full_total{outcome=\"dropped\"} 1\n"));
+    }
+
+    @Test
+    void rejectsUnknownPolicies() {
+        assertEquals(StreamBuffer.Policy.COALESCE, StreamBuffer.Policy.parse(null));
+        assertEquals(StreamBuffer.Policy.DROP, StreamBuffer.Policy.parse(" Drop "));
+        assertThrows(IllegalArgumentException.class, () -> StreamBuffer.Policy.parse("spill"));
+    }
+
+    /**
+     * Blocks on its first write until {@link #gate} opens, like a client that stopped reading.
+     */
+    private static final class SlowSink implements EventSink {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> tokens = new CopyOnWriteArrayList<>();
+        private final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public boolean token(String text) {
+            await();
+            tokens.add(text);
+            return true;
+        }
+
+        @Override
+        public boolean send(String event, String data) {
+            await();
+            events.add(event + ":" + data);
+            return true;
+        }
+
+        @Override
+        public boolean tool(String json) {
+            await();
+            events.add("tool:" + json);
+            return true;
+        }
+
+        private void await() {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package cn.lyp.server.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NioHttpEngineTest {
+
+    @Test
+    void servesFixedAndChunkedResponsesOverKeepAlive() throws Exception {
+        NioHttpEngine engine = new NioHttpEngine(100, 5000, 5000, 64 * 1024);
+        engine.route("/echo", call -> {
+            byte[] body = call.requestBody().readAllBytes();
+            call.setResponseHeader("Content-Type", "text/plain");
+            call.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            try (OutputStream out = call.responseBody()) {
+                out.write(body);
+            }
+        });
+        engine.route("/stream", call -> {
+            call.sendResponseHeaders(200, 0);
+            try (OutputStream out = call.responseBody()) {
+                for (int i = 0; i < 3; i++) {
+                    out.write(("part" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        });
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        engine.start(new InetSocketAddress("127.0.0.1", 0), 50, executor);
+        try {
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            String base = "http://127.0.0.1:" + engine.port();
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> echo = client.send(HttpRequest.newBuilder(URI.create(base + "/echo"))
+                        .POST(HttpRequest.BodyPublishers.ofString("hello " + i)).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals(200, echo.statusCode());
+                assertEquals("hello " + i, echo.body());
+            }
+            HttpResponse<String> stream = client.send(HttpRequest.newBuilder(URI.create(base + "/stream")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals("part0\npart1\npart2\n", stream.body());
+            HttpResponse<String> missing = client.send(HttpRequest.newBuilder(URI.create(base + "/nope")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(404, missing.statusCode());
+            assertEquals(1, engine.openConnections());
+        } finally {
+            engine.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void decodesChunkedRequestBodyAndAnswersPipelinedRequestsInOrder() throws Exception {
+        NioHttpEngine engine = new NioHttpEngine(100, 5000, 5000, 64 * 1024);
+        engine.route("/", call -> {
+            byte[] body = call.requestBody().readAllBytes();
+            byte[] reply = (call.uri().getPath() + ":" + new String(body, StandardCharsets.UTF_8))
+                    .getBytes(StandardCharsets.UTF_8);
+            call.sendResponseHeaders(200, reply.length);
+            try (OutputStream out = call.responseBody()) {
+                out.write(reply);
+            }
+        });
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        engine.start(new InetSocketAddress("127.0.0.1", 0), 50, executor);
+        try (Socket socket = new Socket("127.0.0.1", engine.port())) {
+            String requests = "POST /a HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\n\r\n"
+                    + "3\r\nabc\r\n2;ext=1\r\nde\r\n0\r\n\r\n"
+                    + "POST /b HTTP/1.1\r\nHost: x\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok";
+            socket.getOutputStream().write(requests.getBytes(StandardCharsets.US_ASCII));
+            socket.getOutputStream().flush();
+            String response = new String(socket.getInputStream().readAllBytes(), StandardCharsets.US_ASCII);
+            int first = response.indexOf("/a:abcde");
+            int second = response.indexOf("/b:ok");
+            assertTrue(first > 0, response);
+            assertTrue(second > first, response);
+            assertTrue(response.contains("Connection: close"));
+        } finally {
+            engine.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsConnectionsPastTheLimit() throws Exception {
+        NioHttpEngine engine = new NioHttpEngine(1, 5000, 5000, 64 * 1024);
+        engine.route("/", call -> call.sendResponseHeaders(204, -1));
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        engine.start(new InetSocketAddress("127.0.0.1", 0), 50, executor);
+        try (Socket first = new Socket("127.0.0.1", engine.port())) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (engine.openConnections() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            try (Socket second = new Socket("127.0.0.1", engine.port())) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(second.getInputStream(),
+                        StandardCharsets.US_ASCII));
+                assertEquals("HTTP/1.1 503 Service Unavailable", reader.readLine());
+            }
+            assertTrue(first.isConnected());
+        } finally {
+            engine.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void keepsServingWhileWorkersCloseConnectionsUnderWriteLoad() throws Exception {
+        NioHttpEngine engine = new NioHttpEngine(200, 5000, 20, 16 * 1024);
+        byte[] chunk = new byte[32 * 1024];
+        engine.route("/flood", call -> {
+            call.sendResponseHeaders(200, 0);
+            OutputStream out = call.responseBody();
+            while (true) {
+                out.write(chunk);
+                out.flush();
+            }
+        });
+        engine.route("/ping", call -> call.sendResponseHeaders(204, -1));
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        engine.start(new InetSocketAddress("127.0.0.1", 0), 50, executor);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        URI ping = URI.create("http://127.0.0.1:" + engine.port() + "/ping");
+        try {
+            for (int round = 0; round < 5; round++) {
+                List<Socket> stalled = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    Socket socket = new Socket("127.0.0.1", engine.port());
+                    socket.setReceiveBufferSize(4096);
+                    socket.getOutputStream().write("GET /flood HTTP/1.1\r\nHost: x\r\n\r\n"
+                            .getBytes(StandardCharsets.US_ASCII));
+                    socket.getInputStream().read(new byte[1024 * i]);
+                    stalled.add(socket);
+                }
+                long deadline = System.currentTimeMillis() + 5000;
+                while (engine.activeRequests() > 0 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(0, engine.activeRequests());
+                assertEquals(204, client.send(HttpRequest.newBuilder(ping).build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode());
+                for (Socket socket : stalled) {
+                    socket.close();
+                }
+            }
+        } finally {
+            engine.stop();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cn.lyp.server.http;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebSocketTest {
+    private static final byte[] MASK = {0x37, (byte) 0xfa, 0x21, 0x3d};
+
+    @Test
+    void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocket.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    void reassemblesFragmentsAndAnswersPings() throws IOException {
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        frame(client, 0x01, false, "Hel");
+        frame(client, 0x09, true, "p");
+        frame(client, 0x00, true, "lo");
+        frame(client, 0x08, true, "");
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        WebSocket socket = new WebSocket(new ByteArrayInputStream(client.toByteArray()), server);
+
+        assertEquals("Hello", socket.receive());
+        assertNull(socket.receive());
+        byte[] sent = server.toByteArray();
+        assertArrayEquals(new byte[]{(byte) 0x8A, 1, 'p', (byte) 0x88, 2, 0x03, (byte) 0xE8}, sent);
+        assertThrows(IOException.class, () -> socket.sendText("late"));
+    }
+
+    @Test
+    void rejectsUnmaskedFrames() {
+        byte[] unmasked = {(byte) 0x81, 2, 'h', 'i'};
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        WebSocket socket = new WebSocket(new ByteArrayInputStream(unmasked), server);
+
+        assertThrows(IOException.class, socket::receive);
+        assertEquals((byte) 0x88, server.toByteArray()[0]);
+    }
+
+    @Test
+    void sendsTextWithExtendedLength() throws IOException {
+        ByteArrayOutputStream server = new ByteArrayOutputStream();
+        WebSocket socket = new WebSocket(new ByteArrayInputStream(new byte[0]), server);
+        socket.sendText("x".repeat(300));
+
+        byte[] sent = server.toByteArray();
+        assertEquals(304, sent.length);
+        assertEquals((byte) 0x81, sent[0]);
+        assertEquals(126, sent[1]);
+        assertEquals(300, ((sent[2] & 0xFF) << 8) | (sent[3] & 0xFF));
+    }
+
+    private static void frame(ByteArrayOutputStream out, int opcode, boolean fin, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        out.write((fin ? 0x80 : 0) | opcode);
+        out.write(0x80 | payload.length);
+        out.writeBytes(MASK);
+        for (int i = 0; i < payload.length; i++) {
+            out.write(payload[i] ^ MASK[i & 3]);
+        }
+    }
+}